@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of requests in flight cluster-wide. A slot is acquired before the handler runs
+ * and released after the request completes, including asynchronous requests.
+ */
+@Retention(RUNTIME)
+@Target({ METHOD })
+public @interface ConcurrencyLimiter {
+
+    String base() default "";
+
+    String path() default "";
+
+    int maxConcurrency() default 100;
+
+    /**
+     * lease time of a slot, held slots are renewed in the background and slots of a crashed node expire after it
+     */
+    int leaseSeconds() default 60;
+}
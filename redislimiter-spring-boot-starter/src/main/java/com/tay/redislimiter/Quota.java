@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import com.tay.redislimiter.core.QuotaPeriod;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the requests per calendar day, week or month, in the time zone of spring.redis-limiter.quota-time-zone.
+ * The limit, the quota left and the reset time are reported in the X-Quota-Limit, X-Quota-Remaining and
+ * X-Quota-Reset(epoch SECONDS) response headers.
+ */
+@Retention(RUNTIME)
+@Target({ METHOD })
+public @interface Quota {
+
+    String base() default "";
+
+    String path() default "";
+
+    QuotaPeriod period() default QuotaPeriod.MONTH;
+
+    long permits() default 1000000;
+
+    /**
+     * permits consumed by one request, a constant such as "10" or a Spel expression over
+     * #Headers, #Cookies, #Attributes, #Params and #ContentLength
+     */
+    String cost() default "1";
+}
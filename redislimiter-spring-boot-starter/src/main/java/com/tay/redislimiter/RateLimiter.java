@@ -21,14 +21,21 @@ package com.tay.redislimiter;
 import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
+import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.concurrent.TimeUnit;
 
 @Retention(RUNTIME)
 @Target({ METHOD })
+@Repeatable(RateLimiters.class)
 public @interface RateLimiter {
 
+    /**
+     * name of the quota level, reported when this level denies a request of a repeated RateLimiter
+     */
+    String name() default "";
+
     String base() default "";
 
     String path() default "";
@@ -36,4 +43,32 @@ public @interface RateLimiter {
     TimeUnit timeUnit() default TimeUnit.SECONDS;
 
     int permits() default 10000;
+
+    /**
+     * permits consumed by one request, a constant such as "10" or a Spel expression over
+     * #Headers, #Cookies, #Attributes, #Params and #ContentLength
+     */
+    String cost() default "1";
+
+    /**
+     * max time(MILLISECONDS) a denied request waits for a permit before it is rejected, 0 means no waiting
+     */
+    long maxWait() default 0;
+
+    /**
+     * Spel expression resolving the priority class of a request, e.g. "#Headers['x-plan']"
+     */
+    String priority() default "";
+
+    /**
+     * priority classes, highest first, as "name" or "name:reserved share", e.g. {"internal", "premium:0.1", "free:0.4"};
+     * requests of no listed class belong to the last one
+     */
+    String[] priorities() default {};
+
+    /**
+     * spread a limit without base value over this many Redis keys, each with its share of the permits,
+     * for endpoints too hot for a single key
+     */
+    int stripes() default 1;
 }
@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tay.redislimiter.core.ConcurrencyLease;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.LimitStatus;
+import com.tay.redislimiter.core.PermitWaitQueue;
+import com.tay.redislimiter.core.QuotaPeriod;
+import com.tay.redislimiter.core.QuotaUsage;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.event.RateExceedingEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programmatic access to the distributed limits for work that does not come in as an HTTP request,
+ * e.g. message consumers and scheduled jobs. Checks run on the same algorithms as the annotations,
+ * allow the work when Redis is unavailable, and publish the same events.
+ * Keys are named {@code <redis-key-prefix>:<application name>:<key>}, or digested by the {@link KeyEncoder},
+ * so the key {@code <path>:<base value>} names the same counter as a limiter annotation on that path.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class RateLimiterService implements ApplicationContextAware, InitializingBean {
+
+    private final RateCheckTaskRunner rateCheckTaskRunner;
+
+    private final PermitWaitQueue permitWaitQueue;
+
+    private final KeyEncoder keyEncoder;
+
+    /**
+     * how long(MILLISECONDS) peeked usage is cached
+     */
+    private final long statusCacheTtl;
+
+    private ApplicationContext applicationContext;
+
+    private Cache<String, LimitStatus> statusCache;
+
+    private String applicationName;
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        applicationName = applicationContext.getEnvironment().getProperty("spring.application.name");
+        if(applicationName == null) {
+            throw new BeanInitializationException("the property with key 'spring.application.name' must be set!");
+        }
+        statusCache = Caffeine.newBuilder().expireAfterWrite(statusCacheTtl, TimeUnit.MILLISECONDS).maximumSize(100000).build();
+    }
+
+    public boolean tryAcquire(String key, TimeUnit timeUnit, int permits) {
+        return tryAcquire(key, timeUnit, permits, 1);
+    }
+
+    /**
+     * Takes {@code cost} permits if they are available right now.
+     */
+    public boolean tryAcquire(String key, TimeUnit timeUnit, int permits, int cost) {
+        boolean allowed = rateCheckTaskRunner.checkRun(toRateLimiterKey(key), timeUnit, permits, cost);
+        if(!allowed) {
+            rateExceeded(key, timeUnit, permits);
+        }
+        return allowed;
+    }
+
+    /**
+     * Takes {@code cost} permits, waiting for them at most {@code timeout}.
+     *
+     * @return false if the permits will not be available within the timeout
+     */
+    public boolean acquire(String key, TimeUnit timeUnit, int permits, int cost, long timeout, TimeUnit unit) throws InterruptedException {
+        String rateLimiterKey = toRateLimiterKey(key);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long delay;
+        while((delay = rateCheckTaskRunner.checkReserve(rateLimiterKey, timeUnit, permits, cost)) > 0
+                && System.nanoTime() + delay * 1000 <= deadline) {
+            TimeUnit.MICROSECONDS.sleep(delay);
+        }
+        if(delay != 0) {
+            rateExceeded(key, timeUnit, permits);
+        }
+        return delay == 0;
+    }
+
+    /**
+     * Takes one permit from each of the keys sharing the same limit, in one Redis call.
+     *
+     * @return for every key, whether it got its permit
+     */
+    public boolean[] tryAcquireAll(List<String> keys, TimeUnit timeUnit, int permits) {
+        List<RateLimitLevel> limits = new ArrayList<>(keys.size());
+        for(String key : keys) {
+            limits.add(new RateLimitLevel(key, timeUnit, permits));
+        }
+        return tryAcquireAll(limits);
+    }
+
+    /**
+     * Takes one permit from each of the limits, in one Redis call. The limits are independent:
+     * one being exceeded does not keep the others from giving their permits.
+     *
+     * @param limits limits keyed by the same keys as {@link #tryAcquire(String, TimeUnit, int)} uses
+     * @return for every limit, whether it gave its permit
+     */
+    public boolean[] tryAcquireAll(List<RateLimitLevel> limits) {
+        boolean[] allowed = rateCheckTaskRunner.checkRunEach(toRateLimiterLevels(limits), 1);
+        publishExceeded(limits, allowed);
+        return allowed;
+    }
+
+    public CompletableFuture<Boolean> tryAcquireAsync(String key, TimeUnit timeUnit, int permits, int cost) {
+        return rateCheckTaskRunner.checkRunAsync(toRateLimiterKey(key), timeUnit, permits, cost).thenApply(allowed -> {
+            if(!allowed) {
+                rateExceeded(key, timeUnit, permits);
+            }
+            return allowed;
+        });
+    }
+
+    /**
+     * Like {@link #acquire(String, TimeUnit, int, int, long, TimeUnit)}, but waits in the permit wait queue
+     * instead of blocking the calling thread.
+     */
+    public CompletableFuture<Boolean> acquireAsync(String key, TimeUnit timeUnit, int permits, int cost, long timeout, TimeUnit unit) {
+        String rateLimiterKey = toRateLimiterKey(key);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        rateCheckTaskRunner.checkReserveAsync(rateLimiterKey, timeUnit, permits, cost).thenAccept(delay -> {
+            if(delay == 0) {
+                result.complete(true);
+                return;
+            }
+            Runnable onRejected = () -> {
+                rateExceeded(key, timeUnit, permits);
+                result.complete(false);
+            };
+            if(delay < 0 || System.nanoTime() + delay * 1000 > deadline
+                    || permitWaitQueue.offer(rateLimiterKey, delay, deadline,
+                    () -> rateCheckTaskRunner.checkReserve(rateLimiterKey, timeUnit, permits, cost),
+                    () -> result.complete(true), onRejected) == null) {
+                onRejected.run();
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<boolean[]> tryAcquireAllAsync(List<RateLimitLevel> limits) {
+        return rateCheckTaskRunner.checkRunEachAsync(toRateLimiterLevels(limits), 1).thenApply(allowed -> {
+            publishExceeded(limits, allowed);
+            return allowed;
+        });
+    }
+
+    /**
+     * Takes one of {@code maxConcurrency} slots shared cluster-wide, to be given back with {@link ConcurrencyLease#release()}.
+     *
+     * @return the lease, {@link ConcurrencyLease#UNCHECKED} if the check failed, or null if all slots are taken
+     */
+    public ConcurrencyLease acquireConcurrency(String key, int maxConcurrency, int leaseSeconds) {
+        ConcurrencyLease lease = rateCheckTaskRunner.acquireConcurrency(toRateLimiterKey(key), maxConcurrency, leaseSeconds);
+        if(lease == null) {
+            rateExceeded(key, "concurrency", maxConcurrency);
+        }
+        return lease;
+    }
+
+    public CompletableFuture<ConcurrencyLease> acquireConcurrencyAsync(String key, int maxConcurrency, int leaseSeconds) {
+        return rateCheckTaskRunner.acquireConcurrencyAsync(toRateLimiterKey(key), maxConcurrency, leaseSeconds).thenApply(lease -> {
+            if(lease == null) {
+                rateExceeded(key, "concurrency", maxConcurrency);
+            }
+            return lease;
+        });
+    }
+
+    /**
+     * Reads how much of a limit is used without taking a permit. Results are cached for
+     * spring.redis-limiter.status-cache-ttl, and failures are thrown to the caller.
+     */
+    public LimitStatus peek(String key, TimeUnit timeUnit, int permits) {
+        return peekAll(Collections.singletonList(new RateLimitLevel(key, timeUnit, permits))).get(0);
+    }
+
+    /**
+     * Like {@link #peek(String, TimeUnit, int)} for many limits, reading those not cached in one Redis call
+     * per 1000 limits.
+     */
+    public List<LimitStatus> peekAll(List<RateLimitLevel> limits) {
+        return peekAll(limits, 1);
+    }
+
+    /**
+     * Like {@link #peekAll(List)} for limits spread over {@code stripes} keys, as set by {@link RateLimiter#stripes()}.
+     */
+    public List<LimitStatus> peekAll(List<RateLimitLevel> limits, int stripes) {
+        LimitStatus[] statuses = new LimitStatus[limits.size()];
+        List<RateLimitLevel> missing = new ArrayList<>();
+        List<Integer> missingIndexes = new ArrayList<>();
+        for(int i = 0; i < statuses.length; i++) {
+            RateLimitLevel limit = limits.get(i);
+            statuses[i] = statusCache.getIfPresent(statusCacheKey(limit.getRateLimiterKey(), limit.getTimeUnit().name(), limit.getPermits(), stripes));
+            if(statuses[i] == null) {
+                missing.add(new RateLimitLevel(toRateLimiterKey(limit.getRateLimiterKey()), limit.getTimeUnit(), limit.getPermits()));
+                missingIndexes.add(i);
+            }
+        }
+        if(!missing.isEmpty()) {
+            long[] used = stripes > 1 ? rateCheckTaskRunner.peekStriped(missing, stripes) : rateCheckTaskRunner.peek(missing);
+            for(int j = 0; j < used.length; j++) {
+                int i = missingIndexes.get(j);
+                RateLimitLevel limit = limits.get(i);
+                statuses[i] = new LimitStatus(limit.getRateLimiterKey(), limit.getTimeUnit().name(), limit.getPermits(),
+                        used[j], Math.max(0, limit.getPermits() - used[j]), -1);
+                statusCache.put(statusCacheKey(limit.getRateLimiterKey(), limit.getTimeUnit().name(), limit.getPermits(), stripes), statuses[i]);
+            }
+        }
+        List<LimitStatus> result = new ArrayList<>(statuses.length);
+        Collections.addAll(result, statuses);
+        return result;
+    }
+
+    /**
+     * Reads how much of a {@link Quota} is used without consuming any of it, cached like {@link #peek(String, TimeUnit, int)}.
+     */
+    public LimitStatus peekQuota(String key, QuotaPeriod period, long permits) {
+        return statusCache.get(statusCacheKey(key, period.name(), permits, 1), k -> {
+            QuotaUsage usage = rateCheckTaskRunner.peekQuota(toRateLimiterKey(key), period, permits);
+            return new LimitStatus(key, period.name(), permits, permits - usage.getRemaining(), usage.getRemaining(), usage.getResetAt());
+        });
+    }
+
+    private static String statusCacheKey(String key, String timeUnit, long permits, int stripes) {
+        return timeUnit + ":" + permits + ":" + stripes + ":" + key;
+    }
+
+    private String toRateLimiterKey(String key) {
+        return keyEncoder.encode(applicationName, key);
+    }
+
+    private List<RateLimitLevel> toRateLimiterLevels(List<RateLimitLevel> limits) {
+        List<RateLimitLevel> levels = new ArrayList<>(limits.size());
+        for(RateLimitLevel limit : limits) {
+            levels.add(new RateLimitLevel(toRateLimiterKey(limit.getRateLimiterKey()), limit.getTimeUnit(), limit.getPermits()));
+        }
+        return levels;
+    }
+
+    private void publishExceeded(List<RateLimitLevel> limits, boolean[] allowed) {
+        for(int i = 0; i < allowed.length; i++) {
+            if(!allowed[i]) {
+                RateLimitLevel limit = limits.get(i);
+                rateExceeded(limit.getRateLimiterKey(), limit.getTimeUnit(), limit.getPermits());
+            }
+        }
+    }
+
+    private void rateExceeded(String key, TimeUnit timeUnit, int permits) {
+        rateExceeded(key, timeUnit.name(), permits);
+    }
+
+    private void rateExceeded(String key, String timeUnit, int permits) {
+        RateExceedingEvent rateExceedingEvent = new RateExceedingEvent();
+        rateExceedingEvent.setApplicationName(applicationName);
+        rateExceedingEvent.setPath(key);
+        rateExceedingEvent.setPermits(permits);
+        rateExceedingEvent.setTimeUnit(timeUnit);
+        applicationContext.publishEvent(rateExceedingEvent);
+    }
+}
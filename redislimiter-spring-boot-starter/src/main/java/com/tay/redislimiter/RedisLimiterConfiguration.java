@@ -18,25 +18,59 @@
  */
 package com.tay.redislimiter;
 
+import com.tay.redislimiter.allowlist.AllowlistRegistry;
+import com.tay.redislimiter.aop.RateLimiterAdvisingPostProcessor;
+import com.tay.redislimiter.client.OutboundRateLimiter;
+import com.tay.redislimiter.client.RateLimitingClientHttpRequestInterceptor;
+import com.tay.redislimiter.client.RateLimitingExchangeFilterFunction;
+import com.tay.redislimiter.core.BanList;
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.LimiterKeyScanner;
+import com.tay.redislimiter.core.MultiRegionRateLimiter;
+import com.tay.redislimiter.core.PermitWaitQueue;
+import com.tay.redislimiter.core.PipelinedScriptExecutor;
+import com.tay.redislimiter.core.PooledScriptExecutor;
+import com.tay.redislimiter.core.QuotaLimiter;
 import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisConcurrencyLimiter;
 import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.RegionEndpoint;
+import com.tay.redislimiter.core.RegionReplicator;
+import com.tay.redislimiter.core.SampledRateLimiter;
+import com.tay.redislimiter.dynamic.AdaptiveLimitController;
+import com.tay.redislimiter.dynamic.LimitOverrideRegistry;
 import com.tay.redislimiter.dynamic.LimiterConfigResource;
 import com.tay.redislimiter.dynamic.RedisLimiterConfigProcessor;
 import com.tay.redislimiter.event.DefaultRateCheckFailureListener;
 import com.tay.redislimiter.event.DefaultRateExceedingListener;
 import com.tay.redislimiter.event.RateCheckFailureListener;
 import com.tay.redislimiter.event.RateExceedingListener;
+import com.tay.redislimiter.index.LimiterIndexes;
 import com.tay.redislimiter.web.RateCheckInterceptor;
+import com.tay.redislimiter.web.RateLimitFilter;
 import com.tay.redislimiter.web.RateLimiterWebMvcConfigurer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.boot.web.reactive.function.client.WebClientCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.util.ClassUtils;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+import javax.servlet.DispatcherType;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 
 @Configuration
 @EnableConfigurationProperties(RedisLimiterProperties.class)
@@ -53,30 +87,168 @@ public class RedisLimiterConfiguration {
         jedisPoolConfig.setMinIdle(redisLimiterProperties.getRedisPoolMinIdle());
         jedisPoolConfig.setMaxWaitMillis(redisLimiterProperties.getRedisPoolMaxWaitMillis());
         jedisPoolConfig.setMaxTotal(redisLimiterProperties.getRedisPoolMaxTotal());
-        jedisPoolConfig.setTestOnBorrow(true);
+        jedisPoolConfig.setTestOnBorrow(false);
+        jedisPoolConfig.setTestWhileIdle(true);
+        jedisPoolConfig.setTimeBetweenEvictionRunsMillis(redisLimiterProperties.getHealthCheckInterval());
         JedisPool jedisPool = new JedisPool(jedisPoolConfig, redisLimiterProperties.getRedisHost(), redisLimiterProperties.getRedisPort(), redisLimiterProperties.getRedisConnectionTimeout(), redisLimiterProperties.getRedisPassword());
         return jedisPool;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(RedisScriptExecutor.class)
+    public RedisScriptExecutor redisScriptExecutor() {
+        RedisScriptExecutor redisScriptExecutor;
+        if ("pipelined".equalsIgnoreCase(redisLimiterProperties.getConnectionMode())) {
+            redisScriptExecutor = new PipelinedScriptExecutor(redisLimiterProperties.getRedisHost(), redisLimiterProperties.getRedisPort(), redisLimiterProperties.getRedisConnectionTimeout(),
+                    redisLimiterProperties.getRedisPassword(), redisLimiterProperties.getPipelinedConnections(), redisLimiterProperties.getHealthCheckInterval());
+        } else {
+            redisScriptExecutor = new PooledScriptExecutor(jedisPool());
+        }
+        return redisScriptExecutor;
+    }
+
     @Bean
     @ConditionalOnMissingBean(RedisRateLimiterFactory.class)
     public RedisRateLimiterFactory redisRateLimiterFactory() {
-        RedisRateLimiterFactory redisRateLimiterFactory = new RedisRateLimiterFactory(jedisPool());
+        RedisRateLimiterFactory redisRateLimiterFactory = new RedisRateLimiterFactory(redisScriptExecutor());
         return redisRateLimiterFactory;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(RedisConcurrencyLimiter.class)
+    public RedisConcurrencyLimiter redisConcurrencyLimiter() {
+        RedisConcurrencyLimiter redisConcurrencyLimiter = new RedisConcurrencyLimiter(jedisPool(), redisLimiterProperties.getConcurrencyReserveBatch(), redisLimiterProperties.getConcurrencyReconcileInterval());
+        return redisConcurrencyLimiter;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(PermitWaitQueue.class)
+    public PermitWaitQueue permitWaitQueue() {
+        PermitWaitQueue permitWaitQueue = new PermitWaitQueue(redisLimiterProperties.getMaxQueuedWaiters());
+        return permitWaitQueue;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(KeyEncoder.class)
+    public KeyEncoder keyEncoder() {
+        KeyEncoder keyEncoder = new KeyEncoder(redisLimiterProperties.getRedisKeyPrefix(), redisLimiterProperties.isDigestKeys());
+        return keyEncoder;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(CardinalityGuard.class)
+    public CardinalityGuard cardinalityGuard() {
+        CardinalityGuard cardinalityGuard = new CardinalityGuard(jedisPool(), redisLimiterProperties, keyEncoder());
+        return cardinalityGuard;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(LimiterIndexes.class)
+    public LimiterIndexes limiterIndexes() {
+        LimiterIndexes limiterIndexes = LimiterIndexes.load(ClassUtils.getDefaultClassLoader());
+        return limiterIndexes;
+    }
+
     @Bean
     @ConditionalOnMissingBean(RateCheckInterceptor.class)
     public RateCheckInterceptor rateCheckInterceptor() {
         RateCheckInterceptor rateCheckInterceptor;
         if (redisLimiterProperties.isEnableDynamicalConf()) {
-            rateCheckInterceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner(), redisLimiterConfigProcessor());
+            rateCheckInterceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner(), redisLimiterConfigProcessor(), adaptiveLimitController(), permitWaitQueue(), keyEncoder(), cardinalityGuard(), limiterIndexes(), allowlistRegistry(), banList(), limitOverrides());
         } else {
-            rateCheckInterceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner(),null);
+            rateCheckInterceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner(),null, null, permitWaitQueue(), keyEncoder(), cardinalityGuard(), limiterIndexes(), allowlistRegistry(), banList(), null);
         }
         return rateCheckInterceptor;
     }
 
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(BanList.class)
+    public BanList banList() {
+        BanList banList = new BanList(jedisPool(), redisScriptExecutor(), redisLimiterProperties, keyEncoder());
+        return banList;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(AllowlistRegistry.class)
+    public AllowlistRegistry allowlistRegistry() {
+        AllowlistRegistry allowlistRegistry = new AllowlistRegistry(redisLimiterProperties.getAllowlists());
+        return allowlistRegistry;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(RateLimiterService.class)
+    public RateLimiterService rateLimiterService() {
+        RateLimiterService rateLimiterService = new RateLimiterService(rateCheckTaskRunner(), permitWaitQueue(), keyEncoder(), redisLimiterProperties.getStatusCacheTtl());
+        return rateLimiterService;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(RateLimitFilter.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-filter", havingValue = "true")
+    public RateLimitFilter rateLimitFilter() {
+        RateLimitFilter rateLimitFilter = new RateLimitFilter(redisLimiterProperties, rateCheckInterceptor());
+        return rateLimitFilter;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-filter", havingValue = "true")
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilterRegistration() {
+        FilterRegistrationBean<RateLimitFilter> registration = new FilterRegistrationBean<>(rateLimitFilter());
+        registration.addUrlPatterns("/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        registration.setAsyncSupported(true);
+        registration.setDispatcherTypes(DispatcherType.REQUEST, DispatcherType.ASYNC);
+        return registration;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-method-limiters", havingValue = "true")
+    public static RateLimiterAdvisingPostProcessor rateLimiterAdvisingPostProcessor() {
+        RateLimiterAdvisingPostProcessor rateLimiterAdvisingPostProcessor = new RateLimiterAdvisingPostProcessor();
+        return rateLimiterAdvisingPostProcessor;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(OutboundRateLimiter.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-outbound", havingValue = "true")
+    public OutboundRateLimiter outboundRateLimiter() {
+        OutboundRateLimiter outboundRateLimiter = new OutboundRateLimiter(rateLimiterService(), redisLimiterProperties.getOutboundLimits());
+        return outboundRateLimiter;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(RateLimitingClientHttpRequestInterceptor.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-outbound", havingValue = "true")
+    public RateLimitingClientHttpRequestInterceptor rateLimitingClientHttpRequestInterceptor() {
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter());
+        return interceptor;
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-outbound", havingValue = "true")
+    public RestTemplateCustomizer rateLimitingRestTemplateCustomizer() {
+        RateLimitingClientHttpRequestInterceptor interceptor = rateLimitingClientHttpRequestInterceptor();
+        return restTemplate -> restTemplate.getInterceptors().add(interceptor);
+    }
+
+    @Configuration
+    @ConditionalOnClass(name = "org.springframework.web.reactive.function.client.WebClient")
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-outbound", havingValue = "true")
+    static class WebClientLimiterConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean(RateLimitingExchangeFilterFunction.class)
+        public RateLimitingExchangeFilterFunction rateLimitingExchangeFilterFunction(OutboundRateLimiter outboundRateLimiter) {
+            RateLimitingExchangeFilterFunction filterFunction = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+            return filterFunction;
+        }
+
+        @Bean
+        public WebClientCustomizer rateLimitingWebClientCustomizer(RateLimitingExchangeFilterFunction filterFunction) {
+            return webClientBuilder -> webClientBuilder.filter(filterFunction);
+        }
+    }
+
     @Bean
     @ConditionalOnMissingBean(RateLimiterWebMvcConfigurer.class)
     public RateLimiterWebMvcConfigurer rateLimiterWebMvcConfigurer() {
@@ -84,13 +256,55 @@ public class RedisLimiterConfiguration {
         return rateLimiterWebMvcConfigurer;
     }
 
-    @Bean
+    @Bean(destroyMethod = "shutdown")
     @ConditionalOnMissingBean(RateCheckTaskRunner.class)
     public RateCheckTaskRunner rateCheckTaskRunner() {
-        RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(redisRateLimiterFactory(), redisLimiterProperties);
+        RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(redisRateLimiterFactory(), redisLimiterProperties, redisConcurrencyLimiter(), sampledRateLimiter(),
+                redisLimiterProperties.getRegion() != null ? multiRegionRateLimiter() : null, quotaLimiter());
         return rateCheckTaskRunner;
     }
 
+    @Bean
+    @ConditionalOnMissingBean(MultiRegionRateLimiter.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "region")
+    public MultiRegionRateLimiter multiRegionRateLimiter() {
+        String dirtySetKey = redisLimiterProperties.getRedisKeyPrefix() + ":#changed:" + redisLimiterProperties.getRegion();
+        MultiRegionRateLimiter multiRegionRateLimiter = new MultiRegionRateLimiter(redisScriptExecutor(), redisLimiterProperties.getRegion(), dirtySetKey);
+        return multiRegionRateLimiter;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(RegionReplicator.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "region")
+    public RegionReplicator regionReplicator() {
+        Map<String, JedisPool> remotePools = new LinkedHashMap<>();
+        for (RegionEndpoint remoteRegion : redisLimiterProperties.getRemoteRegions()) {
+            JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+            jedisPoolConfig.setMaxTotal(2);
+            jedisPoolConfig.setTestWhileIdle(true);
+            remotePools.put(remoteRegion.getName(), new JedisPool(jedisPoolConfig, remoteRegion.getHost(), remoteRegion.getPort(),
+                    redisLimiterProperties.getRedisConnectionTimeout(), remoteRegion.getPassword()));
+        }
+        RegionReplicator regionReplicator = new RegionReplicator(redisScriptExecutor(), multiRegionRateLimiter(), remotePools, redisLimiterProperties.getReplicationInterval());
+        return regionReplicator;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean(QuotaLimiter.class)
+    public QuotaLimiter quotaLimiter() {
+        QuotaLimiter quotaLimiter = new QuotaLimiter(redisScriptExecutor(), ZoneId.of(redisLimiterProperties.getQuotaTimeZone()),
+                redisLimiterProperties.getQuotaBatchSize(), redisLimiterProperties.getQuotaFlushInterval());
+        return quotaLimiter;
+    }
+
+    private SampledRateLimiter sampledRateLimiter() {
+        if (redisLimiterProperties.getSamplingFraction() <= 0) {
+            return null;
+        }
+        return new SampledRateLimiter(redisRateLimiterFactory(), redisLimiterProperties.getSamplingFraction(), redisLimiterProperties.getMaxSampleSize(),
+                redisLimiterProperties.getSamplingFlushInterval());
+    }
+
     @Bean
     @ConditionalOnMissingBean(RateCheckFailureListener.class)
     public RateCheckFailureListener rateCheckFailureListener() {
@@ -109,7 +323,7 @@ public class RedisLimiterConfiguration {
     @ConditionalOnMissingBean(RedisLimiterConfigProcessor.class)
     @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-dynamical-conf", havingValue = "true")
     public RedisLimiterConfigProcessor redisLimiterConfigProcessor() {
-        RedisLimiterConfigProcessor redisLimiterConfigProcessor = new RedisLimiterConfigProcessor(redisLimiterProperties);
+        RedisLimiterConfigProcessor redisLimiterConfigProcessor = new RedisLimiterConfigProcessor(redisLimiterProperties, limiterIndexes(), allowlistRegistry(), limitOverrides());
         return redisLimiterConfigProcessor;
     }
 
@@ -117,9 +331,33 @@ public class RedisLimiterConfiguration {
     @ConditionalOnMissingBean(LimiterConfigResource.class)
     @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-dynamical-conf", havingValue = "true")
     public LimiterConfigResource limiterConfigResource() {
-        LimiterConfigResource limiterConfigResource = new LimiterConfigResource(jedisPool(), redisLimiterProperties, redisLimiterConfigProcessor());
+        LimiterConfigResource limiterConfigResource = new LimiterConfigResource(jedisPool(), redisLimiterProperties, redisLimiterConfigProcessor(), rateLimiterService(),
+                new LimiterKeyScanner(jedisPool(), redisLimiterProperties), keyEncoder(), limitOverrides());
         return limiterConfigResource;
     }
 
+    @Bean
+    @ConditionalOnMissingBean(LimitOverrideRegistry.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = {"enable-dynamical-conf", "enable-limit-overrides"}, havingValue = "true")
+    public LimitOverrideRegistry limitOverrideRegistry() {
+        LimitOverrideRegistry limitOverrideRegistry = new LimitOverrideRegistry(jedisPool(), redisLimiterProperties);
+        return limitOverrideRegistry;
+    }
+
+    private LimitOverrideRegistry limitOverrides() {
+        if (!redisLimiterProperties.isEnableDynamicalConf() || !redisLimiterProperties.isEnableLimitOverrides()) {
+            return null;
+        }
+        return limitOverrideRegistry();
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(AdaptiveLimitController.class)
+    @ConditionalOnProperty(prefix = "spring.redis-limiter", name = "enable-dynamical-conf", havingValue = "true")
+    public AdaptiveLimitController adaptiveLimitController() {
+        AdaptiveLimitController adaptiveLimitController = new AdaptiveLimitController(jedisPool(), redisLimiterProperties, redisLimiterConfigProcessor());
+        return adaptiveLimitController;
+    }
+
 
 }
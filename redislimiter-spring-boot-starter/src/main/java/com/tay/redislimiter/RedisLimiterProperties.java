@@ -18,9 +18,15 @@
  */
 package com.tay.redislimiter;
 
+import com.tay.redislimiter.allowlist.Allowlist;
+import com.tay.redislimiter.client.OutboundLimit;
+import com.tay.redislimiter.core.RegionEndpoint;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @ConfigurationProperties(prefix = "spring.redis-limiter")
 @Data
 public final class RedisLimiterProperties {
@@ -56,16 +62,89 @@ public final class RedisLimiterProperties {
      * the max total instances in the pool
      */
     private int redisPoolMaxTotal = 200;
+    /**
+     * how limiter scripts reach Redis: "pool" borrows a pooled connection per call,
+     * "pipelined" shares a few long-lived connections and pipelines the calls of concurrent threads
+     */
+    private String connectionMode = "pool";
+    /**
+     * number of shared connections in pipelined connection mode
+     */
+    private int pipelinedConnections = 2;
+    /**
+     * interval(MILLISECONDS) of checking idle connections in the background
+     */
+    private long healthCheckInterval = 5000;
     /**
      * the redis key prefix
      */
     private String redisKeyPrefix = "#RL";
 
+    /**
+     * replace the path and base value in limiter keys with their 128 bit digest, so keys have a fixed size
+     */
+    private boolean digestKeys = false;
+
+    /**
+     * use the matched handler pattern (e.g. /orders/{id}) instead of the request URI when a limiter does not set a path
+     */
+    private boolean pathFromPattern = false;
+
+    /**
+     * apply rate limits in a servlet filter ahead of all other filters instead of in the handler interceptor
+     */
+    private boolean enableFilter = false;
+
+    /**
+     * distinct base values a limiter may see per day before a warning is logged, 0 disables the check
+     */
+    private int maxKeyCardinality = 0;
+
+    /**
+     * let all base values of a limiter share one key once it exceeds max-key-cardinality
+     */
+    private boolean collapseExceedingKeys = false;
+
+    /**
+     * interval(MILLISECONDS) of adding the observed base values to the cardinality counters
+     */
+    private long cardinalityCheckInterval = 10000;
+
     /**
      * check action execution timeout(MILLISECONDS)
      */
     private int checkActionTimeout = 100;
 
+    /**
+     * how long(MILLISECONDS) the usage read by RateLimiterService#peek is served from the local cache
+     */
+    private long statusCacheTtl = 1000;
+
+    /**
+     * keys examined per SCAN call of the key inspection and reset endpoints
+     */
+    private int keyScanBatch = 500;
+
+    /**
+     * keys per second the key inspection and reset endpoints examine at most
+     */
+    private int keyScanRate = 5000;
+
+    /**
+     * the flag to tell whether limits can be overridden per base value, requires enableDynamicalConf
+     */
+    private boolean enableLimitOverrides = false;
+
+    /**
+     * limit overrides kept in the local cache at most
+     */
+    private long overrideCacheSize = 500000;
+
+    /**
+     * age(MILLISECONDS) after which a cached limit override is reloaded in the background
+     */
+    private long overrideRefreshInterval = 60000;
+
     /**
      * the flag to tell whether rate limiter configuration can change dynamically
      */
@@ -75,4 +154,125 @@ public final class RedisLimiterProperties {
      * channel for pub/sub limiter configuration change event
      */
     private String channel = "#RLConfigChannel";
+
+    /**
+     * max number of requests waiting for a permit at the same time, further requests are rejected immediately
+     */
+    private int maxQueuedWaiters = 1000;
+
+    /**
+     * number of concurrency slots a node reserves per Redis call, the unused ones are kept locally for later requests
+     */
+    private int concurrencyReserveBatch = 1;
+
+    /**
+     * interval(MILLISECONDS) of renewing held concurrency slots and giving back idle reserved ones
+     */
+    private long concurrencyReconcileInterval = 1000;
+
+    /**
+     * interval(MILLISECONDS) of collecting latency and errors of adaptive limiters and adjusting their permits
+     */
+    private long adaptiveInterval = 10000;
+
+    /**
+     * factor applied to adaptive permits when latency or error rate is too high
+     */
+    private double adaptiveDecreaseFactor = 0.75;
+
+    /**
+     * minimum number of requests in an interval before adaptive permits are adjusted
+     */
+    private int adaptiveMinSamples = 20;
+
+    /**
+     * fraction of the permits left in the current second a node may admit without asking Redis,
+     * for limiters of TimeUnit.SECONDS; 0 checks every request against Redis
+     */
+    private double samplingFraction = 0;
+
+    /**
+     * maximum number of permits a node admits for a key between two sampled checks
+     */
+    private int maxSampleSize = 100;
+
+    /**
+     * interval(MILLISECONDS) of adding permits admitted without a sampled check to Redis
+     */
+    private long samplingFlushInterval = 100;
+
+    /**
+     * apply outboundLimits to the calls of RestTemplates and WebClients built by Spring Boot's builders
+     */
+    private boolean enableOutbound = false;
+
+    /**
+     * apply @RateLimiter annotations of any bean method through AOP proxies, controllers keep using the interceptor
+     */
+    private boolean enableMethodLimiters = false;
+
+    /**
+     * name of the region this node runs in, enables multi-region counters replicated to remoteRegions
+     */
+    private String region = null;
+
+    /**
+     * Redis instances of the other regions
+     */
+    private List<RegionEndpoint> remoteRegions = new ArrayList<>();
+
+    /**
+     * interval(MILLISECONDS) of replicating the counters of this region to the other regions
+     */
+    private long replicationInterval = 200;
+
+    /**
+     * requests that are never limited, for all limiters or for the limiter an allowlist names
+     */
+    private List<Allowlist> allowlists = new ArrayList<>();
+
+    /**
+     * rate exceeding events of a limiter key within banPeriod that get the key banned, 0 disables banning
+     */
+    private int banThreshold = 0;
+
+    /**
+     * period(SECONDS) in which rate exceeding events are counted towards a ban
+     */
+    private int banPeriod = 60;
+
+    /**
+     * duration(SECONDS) of a first ban, doubled for every further ban of the key within a day
+     */
+    private int banDuration = 600;
+
+    /**
+     * maximum duration(SECONDS) of a ban
+     */
+    private int maxBanDuration = 86400;
+
+    /**
+     * channel bans are published on
+     */
+    private String banChannel = "#RLBanChannel";
+
+    /**
+     * time zone the windows of @Quota start their days in
+     */
+    private String quotaTimeZone = "UTC";
+
+    /**
+     * quota permits a node admits locally before adding them to Redis, 1 adds every request at once
+     */
+    private int quotaBatchSize = 1;
+
+    /**
+     * interval(MILLISECONDS) of adding locally admitted quota permits to Redis
+     */
+    private long quotaFlushInterval = 1000;
+
+    /**
+     * limits of outbound calls to third-party hosts, the first limit matching a call applies
+     */
+    private List<OutboundLimit> outboundLimits = new ArrayList<>();
 }
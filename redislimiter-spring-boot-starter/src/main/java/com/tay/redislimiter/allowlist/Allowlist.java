@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.allowlist;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Requests that are never limited. Published on the dynamic configuration channel with kind "allowlist".
+ */
+@Data
+public final class Allowlist {
+    public static final String KIND = "allowlist";
+
+    private String kind = KIND;
+    private String applicationName;
+    /**
+     * limiter the allowlist applies to, "Controller:method" or a pattern rule key such as "GET /orders/**";
+     * null for all limiters
+     */
+    private String limiter;
+    /**
+     * client addresses, single IPs or CIDR ranges such as "10.0.0.0/8"
+     */
+    private List<String> cidrs = new ArrayList<>();
+    /**
+     * evaluated base values, e.g. ids of service accounts
+     */
+    private List<String> baseValues = new ArrayList<>();
+    /**
+     * request headers marking allowed requests, header name to a secret value the header must have;
+     * empty values and "*" are rejected, as any client can send the header
+     */
+    private Map<String, String> headers = new LinkedHashMap<>();
+    private boolean deleted;
+}
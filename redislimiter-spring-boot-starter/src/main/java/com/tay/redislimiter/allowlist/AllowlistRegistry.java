@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.allowlist;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the compiled allowlists. Allowlists are compiled when they are configured or updated through the
+ * dynamic configuration channel, so the request path only reads immutable structures.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class AllowlistRegistry {
+    private static Logger logger = LoggerFactory.getLogger(AllowlistRegistry.class);
+
+    private volatile CompiledAllowlist global = CompiledAllowlist.EMPTY;
+
+    private final ConcurrentHashMap<String, CompiledAllowlist> limiterAllowlists = new ConcurrentHashMap<>();
+
+    public AllowlistRegistry(List<Allowlist> allowlists) {
+        for (Allowlist allowlist : allowlists) {
+            update(allowlist);
+        }
+    }
+
+    public synchronized void update(Allowlist allowlist) {
+        CompiledAllowlist compiled = CompiledAllowlist.EMPTY;
+        if (!allowlist.isDeleted()) {
+            try {
+                compiled = CompiledAllowlist.compile(allowlist);
+            } catch (IllegalArgumentException e) {
+                logger.error("invalid allowlist of limiter " + allowlist.getLimiter() + ": " + e.getMessage());
+                return;
+            }
+        }
+        String limiter = allowlist.getLimiter();
+        if (limiter == null || "".equals(limiter)) {
+            global = compiled;
+        } else if (compiled == CompiledAllowlist.EMPTY) {
+            limiterAllowlists.remove(limiter);
+        } else {
+            limiterAllowlists.put(limiter, compiled);
+        }
+    }
+
+    /**
+     * @return the allowlist applying to all limiters, never null
+     */
+    public CompiledAllowlist getGlobal() {
+        return global;
+    }
+
+    /**
+     * @param limiter "Controller:method" or a pattern rule key
+     * @return the allowlist of the limiter, or null if it has none
+     */
+    public CompiledAllowlist get(String limiter) {
+        return limiterAllowlists.isEmpty() ? null : limiterAllowlists.get(limiter);
+    }
+
+    public boolean hasLimiterAllowlists() {
+        return !limiterAllowlists.isEmpty();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.allowlist;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+
+/**
+ * Binary trie of IPv4 and IPv6 CIDR ranges. Looking up an address walks at most one node per bit of the
+ * address, however many ranges the trie holds.
+ */
+public final class CidrTrie {
+
+    public static final CidrTrie EMPTY = new CidrTrie(new Node(), new Node());
+
+    private final Node v4Root;
+
+    private final Node v6Root;
+
+    private CidrTrie(Node v4Root, Node v6Root) {
+        this.v4Root = v4Root;
+        this.v6Root = v6Root;
+    }
+
+    /**
+     * @param cidrs single addresses or CIDR ranges
+     * @throws IllegalArgumentException if a range is malformed
+     */
+    public static CidrTrie compile(Collection<String> cidrs) {
+        Node v4Root = new Node();
+        Node v6Root = new Node();
+        for (String cidr : cidrs) {
+            int slash = cidr.indexOf('/');
+            byte[] address = parseAddress(slash < 0 ? cidr.trim() : cidr.substring(0, slash).trim());
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid address in CIDR range: " + cidr);
+            }
+            int prefixLength = address.length * 8;
+            if (slash >= 0) {
+                try {
+                    prefixLength = Integer.parseInt(cidr.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid prefix length in CIDR range: " + cidr);
+                }
+                if (prefixLength < 0 || prefixLength > address.length * 8) {
+                    throw new IllegalArgumentException("Invalid prefix length in CIDR range: " + cidr);
+                }
+            }
+            Node node = address.length == 4 ? v4Root : v6Root;
+            for (int i = 0; i < prefixLength && !node.terminal; i++) {
+                int bit = bit(address, i);
+                if (node.children[bit] == null) {
+                    node.children[bit] = new Node();
+                }
+                node = node.children[bit];
+            }
+            node.terminal = true;
+        }
+        return new CidrTrie(v4Root, v6Root);
+    }
+
+    public boolean isEmpty() {
+        return v4Root.isLeaf() && v6Root.isLeaf();
+    }
+
+    /**
+     * @param address literal IPv4 or IPv6 address, e.g. {@code ServletRequest#getRemoteAddr()}
+     */
+    public boolean contains(String address) {
+        byte[] bytes = parseAddress(address);
+        if (bytes == null) {
+            return false;
+        }
+        Node node = bytes.length == 4 ? v4Root : v6Root;
+        for (int i = 0; node != null; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i == bytes.length * 8) {
+                return false;
+            }
+            node = node.children[bit(bytes, i)];
+        }
+        return false;
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * @return the address bytes, IPv4-mapped IPv6 addresses as IPv4, or null if it is not a literal address
+     */
+    static byte[] parseAddress(String address) {
+        if (address == null || address.isEmpty()) {
+            return null;
+        }
+        if (address.indexOf(':') < 0) {
+            return parseIpv4(address);
+        }
+        if (address.charAt(0) == '[' && address.charAt(address.length() - 1) == ']') {
+            address = address.substring(1, address.length() - 1);
+        }
+        try {
+            // a literal IPv6 address, never resolved through DNS
+            return InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4(String address) {
+        byte[] bytes = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i <= address.length(); i++) {
+            char c = i == address.length() ? '.' : address.charAt(i);
+            if (c == '.') {
+                if (value < 0 || octet == 4) {
+                    return null;
+                }
+                bytes[octet++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return octet == 4 ? bytes : null;
+    }
+
+    private static final class Node {
+        private final Node[] children = new Node[2];
+        private boolean terminal;
+
+        private boolean isLeaf() {
+            return !terminal && children[0] == null && children[1] == null;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.allowlist;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable form of an {@link Allowlist} checked on the request path.
+ */
+public final class CompiledAllowlist {
+
+    public static final CompiledAllowlist EMPTY = new CompiledAllowlist(CidrTrie.EMPTY, Collections.emptySet(), Collections.emptyMap());
+
+    private final CidrTrie cidrTrie;
+
+    private final Set<String> baseValues;
+
+    /**
+     * header name to the allowed values
+     */
+    private final Map<String, Set<String>> headers;
+
+    private CompiledAllowlist(CidrTrie cidrTrie, Set<String> baseValues, Map<String, Set<String>> headers) {
+        this.cidrTrie = cidrTrie;
+        this.baseValues = baseValues;
+        this.headers = headers;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a CIDR range is malformed or a header marker has no concrete value
+     */
+    public static CompiledAllowlist compile(Allowlist allowlist) {
+        Map<String, Set<String>> headers = new HashMap<>();
+        for (Map.Entry<String, String> header : allowlist.getHeaders().entrySet()) {
+            String value = header.getValue();
+            // any client can send a header, only a secret value marks a trusted caller
+            if (value == null || "".equals(value.trim()) || "*".equals(value)) {
+                throw new IllegalArgumentException("header " + header.getKey() + " must be matched against a concrete value");
+            }
+            headers.computeIfAbsent(header.getKey(), k -> new HashSet<>()).add(value);
+        }
+        return new CompiledAllowlist(CidrTrie.compile(allowlist.getCidrs()), new HashSet<>(allowlist.getBaseValues()), headers);
+    }
+
+    /**
+     * @return whether the client address or a header of the request is allowed
+     */
+    public boolean matchesRequest(HttpServletRequest request) {
+        if (!cidrTrie.isEmpty() && cidrTrie.contains(request.getRemoteAddr())) {
+            return true;
+        }
+        for (Map.Entry<String, Set<String>> header : headers.entrySet()) {
+            String value = request.getHeader(header.getKey());
+            if (value != null && header.getValue().contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsBaseValue(String baseValue) {
+        return !baseValues.isEmpty() && baseValues.contains(baseValue);
+    }
+}
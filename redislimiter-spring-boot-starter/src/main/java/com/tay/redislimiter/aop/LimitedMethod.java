@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.aop;
+
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.dynamic.PriorityClass;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link RateLimiter}s of a bean method with their expressions parsed.
+ */
+final class LimitedMethod {
+
+    final String className;
+
+    final String methodName;
+
+    final List<Level> levels;
+
+    /**
+     * null if the cost is the constant {@link #constantCost}
+     */
+    final Expression cost;
+
+    final int constantCost;
+
+    final long maxWait;
+
+    /**
+     * null if the method has no priority classes
+     */
+    final Expression priority;
+
+    final List<PriorityClass> priorities;
+
+    final int stripes;
+
+    private LimitedMethod(String className, String methodName, List<Level> levels, Expression cost, int constantCost, long maxWait,
+                          Expression priority, List<PriorityClass> priorities, int stripes) {
+        this.className = className;
+        this.methodName = methodName;
+        this.levels = levels;
+        this.cost = cost;
+        this.constantCost = constantCost;
+        this.maxWait = maxWait;
+        this.priority = priority;
+        this.priorities = priorities;
+        this.stripes = stripes;
+    }
+
+    /**
+     * @return null if the method has no {@link RateLimiter}
+     */
+    static LimitedMethod of(Method method, Class<?> targetClass, ExpressionParser expressionParser) {
+        RateLimiter[] rateLimiterAnnotations = method.getAnnotationsByType(RateLimiter.class);
+        if (rateLimiterAnnotations.length == 0) {
+            return null;
+        }
+        String defaultPath = targetClass.getSimpleName() + "#" + method.getName();
+        List<Level> levels = new ArrayList<>(rateLimiterAnnotations.length);
+        for (RateLimiter rateLimiterAnnotation : rateLimiterAnnotations) {
+            String baseExp = rateLimiterAnnotation.base();
+            levels.add(new Level(rateLimiterAnnotation.name(), baseExp,
+                    "".equals(baseExp) ? null : expressionParser.parseExpression(baseExp),
+                    "".equals(rateLimiterAnnotation.path()) ? defaultPath : rateLimiterAnnotation.path(),
+                    rateLimiterAnnotation.timeUnit(), rateLimiterAnnotation.permits()));
+        }
+        String costExp = rateLimiterAnnotations[0].cost();
+        Expression cost = null;
+        int constantCost = 1;
+        if (isConstant(costExp)) {
+            constantCost = Integer.parseInt(costExp);
+        } else if (!"".equals(costExp)) {
+            cost = expressionParser.parseExpression(costExp);
+        }
+        RateLimiter first = rateLimiterAnnotations[0];
+        Expression priority = null;
+        List<PriorityClass> priorities = PriorityClass.parse(first.priorities());
+        if (!"".equals(first.priority()) && !priorities.isEmpty()) {
+            priority = expressionParser.parseExpression(first.priority());
+        }
+        return new LimitedMethod(targetClass.getSimpleName(), method.getName(), levels, cost, constantCost, first.maxWait(),
+                priority, priorities, first.stripes());
+    }
+
+    private static boolean isConstant(String exp) {
+        for (int i = 0; i < exp.length(); i++) {
+            if (!Character.isDigit(exp.charAt(i))) {
+                return false;
+            }
+        }
+        return exp.length() > 0 && exp.length() < 10;
+    }
+
+    static final class Level {
+        final String name;
+        final String baseExp;
+        /**
+         * null if the limit has no base
+         */
+        final Expression base;
+        final String path;
+        final TimeUnit timeUnit;
+        final int permits;
+
+        private Level(String name, String baseExp, Expression base, String path, TimeUnit timeUnit, int permits) {
+            this.name = name;
+            this.baseExp = baseExp;
+            this.base = base;
+            this.path = path;
+            this.timeUnit = timeUnit;
+            this.permits = permits;
+        }
+    }
+}
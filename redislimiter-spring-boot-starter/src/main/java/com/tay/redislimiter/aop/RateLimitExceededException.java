@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.aop;
+
+/**
+ * Thrown instead of invoking a bean method whose {@link com.tay.redislimiter.RateLimiter} denied the call.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private final String level;
+
+    private final String path;
+
+    private final String baseValue;
+
+    public RateLimitExceededException(String level, String path, String baseValue) {
+        super("Rate limit exceeded for " + path + (baseValue == null || baseValue.isEmpty() ? "" : " and base value " + baseValue));
+        this.level = level;
+        this.path = path;
+        this.baseValue = baseValue;
+    }
+
+    public String getLevel() {
+        return level;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getBaseValue() {
+        return baseValue;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.aop;
+
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.RateLimiters;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.aop.framework.autoproxy.AbstractBeanFactoryAwareAdvisingPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Controller;
+
+/**
+ * Proxies beans with {@link RateLimiter} methods so the limiters apply to any bean method, not only to
+ * controller methods. Controllers are left to the {@link com.tay.redislimiter.web.RateCheckInterceptor}.
+ * The limiters of a class are parsed when its first proxy is created.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class RateLimiterAdvisingPostProcessor extends AbstractBeanFactoryAwareAdvisingPostProcessor implements ApplicationContextAware {
+
+    private RateLimiterMethodInterceptor methodInterceptor;
+
+    public RateLimiterAdvisingPostProcessor() {
+        setBeforeExistingAdvisors(true);
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        methodInterceptor = new RateLimiterMethodInterceptor(applicationContext);
+        ClassFilter notController = clazz -> !AnnotatedElementUtils.hasAnnotation(clazz, Controller.class);
+        ComposablePointcut pointcut = new ComposablePointcut(new AnnotationMatchingPointcut(null, RateLimiter.class, true))
+                .union(new AnnotationMatchingPointcut(null, RateLimiters.class, true))
+                .intersection(notController);
+        this.advisor = new DefaultPointcutAdvisor(pointcut, methodInterceptor);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (isEligible(bean, beanName)) {
+            methodInterceptor.prepare(AopUtils.getTargetClass(bean));
+        }
+        return super.postProcessAfterInitialization(bean, beanName);
+    }
+}
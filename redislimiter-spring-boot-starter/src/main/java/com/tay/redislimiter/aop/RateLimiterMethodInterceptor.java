@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.aop;
+
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.dynamic.PriorityClass;
+import com.tay.redislimiter.event.RateExceedingEvent;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodClassKey;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link com.tay.redislimiter.RateLimiter}s of bean methods. Base and cost expressions are
+ * evaluated over the method arguments, available as {@code #name}, {@code #p0} or {@code #a0}, with the
+ * target bean as root object. Without a path, a limit is keyed by the simple class name and method name.
+ * Limiter beans are looked up when the first limited method is called, so creating the proxies does not
+ * initialize them early.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class RateLimiterMethodInterceptor implements MethodInterceptor {
+
+    private final ApplicationContext applicationContext;
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    private final ConcurrentHashMap<MethodClassKey, LimitedMethod> limitedMethodMap = new ConcurrentHashMap<>();
+
+    private volatile RateCheckTaskRunner rateCheckTaskRunner;
+
+    private KeyEncoder keyEncoder;
+
+    private CardinalityGuard cardinalityGuard;
+
+    private String applicationName;
+
+    public RateLimiterMethodInterceptor(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * Parses the limiters of all methods of a class, called when a proxy for a bean of the class is created.
+     */
+    void prepare(Class<?> targetClass) {
+        ReflectionUtils.doWithMethods(targetClass, method -> {
+            LimitedMethod limitedMethod = LimitedMethod.of(method, targetClass, expressionParser);
+            if (limitedMethod != null) {
+                limitedMethodMap.putIfAbsent(new MethodClassKey(method, targetClass), limitedMethod);
+            }
+        });
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Object target = invocation.getThis();
+        Class<?> targetClass = target != null ? AopUtils.getTargetClass(target) : invocation.getMethod().getDeclaringClass();
+        LimitedMethod limitedMethod = limitedMethodMap.computeIfAbsent(new MethodClassKey(invocation.getMethod(), targetClass),
+                key -> LimitedMethod.of(AopUtils.getMostSpecificMethod(invocation.getMethod(), targetClass), targetClass, expressionParser));
+        if (limitedMethod != null) {
+            check(limitedMethod, invocation, target);
+        }
+        return invocation.proceed();
+    }
+
+    private void check(LimitedMethod limitedMethod, MethodInvocation invocation, Object target) throws InterruptedException {
+        if (rateCheckTaskRunner == null) {
+            resolveBeans();
+        }
+        EvaluationContext context = null;
+        int cost = limitedMethod.constantCost;
+        if (limitedMethod.cost != null) {
+            context = new MethodBasedEvaluationContext(target, invocation.getMethod(), invocation.getArguments(), parameterNameDiscoverer);
+            Long costVal = limitedMethod.cost.getValue(context, Long.class);
+            // only a constant cost of 0 is free, an argument must not be able to skip the limits
+            cost = costVal == null ? 1 : (int) Math.max(1, Math.min(costVal, Integer.MAX_VALUE));
+        }
+        if (cost <= 0) {
+            return;
+        }
+        PriorityClass priority = null;
+        if (limitedMethod.priority != null) {
+            if (context == null) {
+                context = new MethodBasedEvaluationContext(target, invocation.getMethod(), invocation.getArguments(), parameterNameDiscoverer);
+            }
+            priority = PriorityClass.resolve(limitedMethod.priorities, limitedMethod.priority.getValue(context, String.class));
+        }
+        List<LimitedMethod.Level> levels = limitedMethod.levels;
+        List<RateLimitLevel> rateLimitLevels = new ArrayList<>(levels.size());
+        String[] baseVals = new String[levels.size()];
+        for (int i = 0; i < levels.size(); i++) {
+            LimitedMethod.Level level = levels.get(i);
+            baseVals[i] = "";
+            if (level.base != null) {
+                if (context == null) {
+                    context = new MethodBasedEvaluationContext(target, invocation.getMethod(), invocation.getArguments(), parameterNameDiscoverer);
+                }
+                String baseVal = level.base.getValue(context, String.class);
+                String limiter = limitedMethod.className + ":" + limitedMethod.methodName;
+                baseVals[i] = cardinalityGuard.guard(levels.size() == 1 ? limiter : limiter + "#" + i, baseVal == null ? "" : baseVal);
+            }
+            int permits = priority == null ? level.permits : priority.permitsOf(level.permits);
+            rateLimitLevels.add(new RateLimitLevel(keyEncoder.encode(applicationName, level.path, baseVals[i]), level.timeUnit, permits));
+        }
+        int denied;
+        if (rateLimitLevels.size() == 1) {
+            RateLimitLevel rateLimitLevel = rateLimitLevels.get(0);
+            if (limitedMethod.maxWait > 0) {
+                long deadline = System.nanoTime() + limitedMethod.maxWait * 1000000;
+                long delay;
+                while ((delay = rateCheckTaskRunner.checkReserve(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), cost)) > 0
+                        && System.nanoTime() + delay * 1000 <= deadline) {
+                    TimeUnit.MICROSECONDS.sleep(delay);
+                }
+                denied = delay == 0 ? 0 : 1;
+            } else if (limitedMethod.stripes > 1 && "".equals(baseVals[0])) {
+                denied = rateCheckTaskRunner.checkRunStriped(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), limitedMethod.stripes, cost) ? 0 : 1;
+            } else {
+                denied = rateCheckTaskRunner.checkRun(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), cost) ? 0 : 1;
+            }
+        } else {
+            denied = rateCheckTaskRunner.checkRunAll(rateLimitLevels, cost);
+        }
+        if (denied > 0) {
+            LimitedMethod.Level level = levels.get(denied - 1);
+            rateExceeded(limitedMethod, level, baseVals[denied - 1], rateLimitLevels.get(denied - 1).getPermits());
+            throw new RateLimitExceededException(level.name, level.path, baseVals[denied - 1]);
+        }
+    }
+
+    private synchronized void resolveBeans() {
+        if (rateCheckTaskRunner != null) {
+            return;
+        }
+        applicationName = applicationContext.getEnvironment().getProperty("spring.application.name");
+        if (applicationName == null) {
+            throw new BeanInitializationException("the property with key 'spring.application.name' must be set!");
+        }
+        keyEncoder = applicationContext.getBean(KeyEncoder.class);
+        cardinalityGuard = applicationContext.getBean(CardinalityGuard.class);
+        rateCheckTaskRunner = applicationContext.getBean(RateCheckTaskRunner.class);
+    }
+
+    private void rateExceeded(LimitedMethod limitedMethod, LimitedMethod.Level level, String baseVal, int permits) {
+        RateExceedingEvent rateExceedingEvent = new RateExceedingEvent();
+        rateExceedingEvent.setApplicationName(applicationName);
+        rateExceedingEvent.setControllerName(limitedMethod.className);
+        rateExceedingEvent.setMethodName(limitedMethod.methodName);
+        rateExceedingEvent.setLevel(level.name);
+        rateExceedingEvent.setBaseExp(level.baseExp);
+        rateExceedingEvent.setBaseValue(baseVal);
+        rateExceedingEvent.setPath(level.path);
+        rateExceedingEvent.setPermits(permits);
+        rateExceedingEvent.setTimeUnit(level.timeUnit.name());
+        applicationContext.publishEvent(rateExceedingEvent);
+    }
+}
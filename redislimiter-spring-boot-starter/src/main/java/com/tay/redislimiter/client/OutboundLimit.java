@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.client;
+
+import lombok.Data;
+
+/**
+ * Limit of outbound calls to a third-party host, shared by all nodes of the application.
+ */
+@Data
+public final class OutboundLimit {
+    /**
+     * host of the limited calls, "*" matches every host and limits each host separately
+     */
+    private String host = "*";
+    /**
+     * Ant-style path pattern of the limited calls, null limits all calls to the host together
+     */
+    private String path;
+    private String timeUnit = "SECONDS";
+    /**
+     * calls per time unit, 0 for no rate limit
+     */
+    private int permits = 0;
+    /**
+     * max time(MILLISECONDS) a call waits for a permit, 0 fails at once
+     */
+    private long maxWait = 0;
+    /**
+     * max calls in flight, 0 for no cap
+     */
+    private int maxConcurrency = 0;
+    private int leaseSeconds = 60;
+}
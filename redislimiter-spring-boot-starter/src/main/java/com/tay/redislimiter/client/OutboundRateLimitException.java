@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.client;
+
+import org.springframework.web.client.RestClientException;
+
+import java.net.URI;
+
+/**
+ * Thrown instead of making an outbound call that would exceed an {@link OutboundLimit}.
+ */
+public class OutboundRateLimitException extends RestClientException {
+
+    private final URI uri;
+
+    public OutboundRateLimitException(URI uri, String reason) {
+        super("Outbound " + reason + " limit exceeded for " + uri);
+        this.uri = uri;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.client;
+
+import com.tay.redislimiter.RateLimiterService;
+import com.tay.redislimiter.core.ConcurrencyLease;
+import lombok.RequiredArgsConstructor;
+import org.springframework.util.AntPathMatcher;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link OutboundLimit}s to outbound calls through the {@link RateLimiterService}, so the limits
+ * are shared cluster-wide. The first limit matching the host and path of a call applies, calls without a host
+ * only match limits of host '*'. Limits are keyed {@code outbound:<host>} or {@code outbound:<host>:<path pattern>}.
+ * The concurrency slot is taken before the rate permit, so a call refused for concurrency costs no permit.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class OutboundRateLimiter {
+
+    private final RateLimiterService rateLimiterService;
+
+    private final List<OutboundLimit> outboundLimits;
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    /**
+     * Takes a slot if the limit caps concurrency, and a permit for the call, waiting up to the limit's maxWait.
+     *
+     * @return the slot to release when the call is done, {@link ConcurrencyLease#UNCHECKED} if there is none
+     * @throws OutboundRateLimitException if the call would exceed its limit
+     */
+    public ConcurrencyLease acquire(URI uri) {
+        OutboundLimit limit = match(uri);
+        if (limit == null) {
+            return ConcurrencyLease.UNCHECKED;
+        }
+        String key = limitKey(limit, uri);
+        ConcurrencyLease lease = ConcurrencyLease.UNCHECKED;
+        if (limit.getMaxConcurrency() > 0) {
+            lease = rateLimiterService.acquireConcurrency(key + ":concurrency", limit.getMaxConcurrency(), limit.getLeaseSeconds());
+            if (lease == null) {
+                throw new OutboundRateLimitException(uri, "concurrency");
+            }
+        }
+        boolean allowed;
+        try {
+            allowed = limit.getPermits() <= 0 || acquirePermit(limit, key);
+        } catch (RuntimeException e) {
+            lease.release();
+            throw e;
+        }
+        if (!allowed) {
+            lease.release();
+            throw new OutboundRateLimitException(uri, "rate");
+        }
+        return lease;
+    }
+
+    private boolean acquirePermit(OutboundLimit limit, String key) {
+        TimeUnit timeUnit = TimeUnit.valueOf(limit.getTimeUnit());
+        if (limit.getMaxWait() <= 0) {
+            return rateLimiterService.tryAcquire(key, timeUnit, limit.getPermits());
+        }
+        try {
+            return rateLimiterService.acquire(key, timeUnit, limit.getPermits(), 1, limit.getMaxWait(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #acquire(URI)}, but waits in the permit wait queue instead of blocking the calling thread.
+     * The future fails with an {@link OutboundRateLimitException} if the call would exceed its limit.
+     */
+    public CompletableFuture<ConcurrencyLease> acquireAsync(URI uri) {
+        OutboundLimit limit = match(uri);
+        if (limit == null) {
+            return CompletableFuture.completedFuture(ConcurrencyLease.UNCHECKED);
+        }
+        String key = limitKey(limit, uri);
+        CompletableFuture<ConcurrencyLease> leased;
+        if (limit.getMaxConcurrency() <= 0) {
+            leased = CompletableFuture.completedFuture(ConcurrencyLease.UNCHECKED);
+        } else {
+            leased = rateLimiterService.acquireConcurrencyAsync(key + ":concurrency", limit.getMaxConcurrency(), limit.getLeaseSeconds())
+                    .thenApply(lease -> {
+                        if (lease == null) {
+                            throw new OutboundRateLimitException(uri, "concurrency");
+                        }
+                        return lease;
+                    });
+        }
+        return leased.thenCompose(lease -> {
+            CompletableFuture<Boolean> allowed;
+            if (limit.getPermits() <= 0) {
+                allowed = CompletableFuture.completedFuture(Boolean.TRUE);
+            } else if (limit.getMaxWait() > 0) {
+                allowed = rateLimiterService.acquireAsync(key, TimeUnit.valueOf(limit.getTimeUnit()), limit.getPermits(), 1, limit.getMaxWait(), TimeUnit.MILLISECONDS);
+            } else {
+                allowed = rateLimiterService.tryAcquireAsync(key, TimeUnit.valueOf(limit.getTimeUnit()), limit.getPermits(), 1);
+            }
+            return allowed.handle((permitted, e) -> {
+                if (e != null || !permitted) {
+                    lease.release();
+                    if (e == null) {
+                        throw new OutboundRateLimitException(uri, "rate");
+                    }
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                }
+                return lease;
+            });
+        });
+    }
+
+    private OutboundLimit match(URI uri) {
+        String host = uri.getHost();
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        for (OutboundLimit limit : outboundLimits) {
+            if (("*".equals(limit.getHost()) || limit.getHost().equalsIgnoreCase(host))
+                    && (limit.getPath() == null || pathMatcher.match(limit.getPath(), path))) {
+                return limit;
+            }
+        }
+        return null;
+    }
+
+    private static String limitKey(OutboundLimit limit, URI uri) {
+        String key = "outbound:" + (uri.getHost() == null ? "" : uri.getHost().toLowerCase());
+        return limit.getPath() == null ? key : key + ":" + limit.getPath();
+    }
+}
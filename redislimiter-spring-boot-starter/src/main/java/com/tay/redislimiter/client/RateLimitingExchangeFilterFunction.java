@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.client;
+
+import com.tay.redislimiter.core.ConcurrencyLease;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Applies {@link OutboundLimit}s to the calls of a {@code WebClient} without blocking: calls waiting for
+ * a permit are held in the permit wait queue. The concurrency slot of a call is released once its response
+ * has been received, or once a lease granted after the call was cancelled arrives.
+ */
+@RequiredArgsConstructor
+public final class RateLimitingExchangeFilterFunction implements ExchangeFilterFunction {
+
+    private final OutboundRateLimiter outboundRateLimiter;
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            CompletableFuture<ConcurrencyLease> leased = outboundRateLimiter.acquireAsync(request.url());
+            // Mono.fromFuture drops a value completed after cancellation, releasing twice is harmless
+            return Mono.fromFuture(leased).doOnCancel(() -> leased.thenAccept(ConcurrencyLease::release));
+        })
+                .onErrorMap(CompletionException.class, Throwable::getCause)
+                .flatMap(lease -> next.exchange(request).doFinally(signal -> lease.release()));
+    }
+}
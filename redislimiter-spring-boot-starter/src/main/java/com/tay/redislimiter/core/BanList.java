@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.event.RateExceedingEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bans limiter keys that keep exceeding their rate limits. Every {@link RateExceedingEvent} of a rate limit counts
+ * as a violation of its key in Redis; a key with banThreshold violations within banPeriod is banned for banDuration,
+ * doubled for every further ban within a day up to maxBanDuration. Exceeded quotas and concurrency limits share the
+ * key of the rate limits of their path and base value, so they do not count. Only keys of a single client count, i.e.
+ * of limiters and pattern rules with a base value, not yet folded by the {@link CardinalityGuard}: banning a key
+ * shared by all clients of an endpoint, or a limit of the {@code RateLimiterService} or of outbound calls, would
+ * reject everyone. Bans are kept in a sorted set and
+ * published to every node, which keeps them in a map, so checking a key costs one lookup and no network I/O.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class BanList extends JedisPubSub implements ApplicationListener<RateExceedingEvent>, InitializingBean {
+    private static Logger logger = LoggerFactory.getLogger(BanList.class);
+
+    private static final RedisScript LUA_VIOLATION_SCRIPT = new RedisScript(" local violations = redis.call('incr', KEYS[1]); "
+            + " if violations == 1 then "
+            + "     redis.call('expire', KEYS[1], ARGV[2]); "
+            + " end "
+            + " if violations < tonumber(ARGV[1]) then "
+            + "     return 0; "
+            + " end "
+            + " redis.call('del', KEYS[1]); "
+            + " local bans = redis.call('incr', KEYS[2]); "
+            + " redis.call('expire', KEYS[2], 86400); "
+            + " local duration = math.min(tonumber(ARGV[3]) * 2 ^ (bans - 1), tonumber(ARGV[4])); "
+            + " local expireAt = tonumber(ARGV[5]) + math.floor(duration); "
+            + " redis.call('zremrangebyscore', KEYS[3], '-inf', ARGV[5]); "
+            + " redis.call('zadd', KEYS[3], expireAt, ARGV[7]); "
+            + " redis.call('publish', ARGV[6], expireAt .. ' ' .. ARGV[7]); "
+            + " return expireAt; ");
+
+    /**
+     * time units of rate limits, quotas use their period names and concurrency limits none
+     */
+    private static final Set<String> RATE_TIME_UNITS = new HashSet<>(Arrays.asList(
+            TimeUnit.SECONDS.name(), TimeUnit.MINUTES.name(), TimeUnit.HOURS.name(), TimeUnit.DAYS.name()));
+
+    private final JedisPool jedisPool;
+
+    private final RedisScriptExecutor redisScriptExecutor;
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final KeyEncoder keyEncoder;
+
+    private final String banSetKey;
+
+    /**
+     * banned key -> expiry(SECONDS)
+     */
+    private final ConcurrentHashMap<String, Long> bans = new ConcurrentHashMap<>();
+
+    private final ThreadPoolExecutor violationRecorder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10000), r -> {
+        Thread thread = new Thread(r, "redis-limiter-ban-recorder");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
+    private final ScheduledExecutorService maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-ban-maintainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean subscribed;
+
+    public BanList(JedisPool jedisPool, RedisScriptExecutor redisScriptExecutor, RedisLimiterProperties redisLimiterProperties, KeyEncoder keyEncoder) {
+        this.jedisPool = jedisPool;
+        this.redisScriptExecutor = redisScriptExecutor;
+        this.redisLimiterProperties = redisLimiterProperties;
+        this.keyEncoder = keyEncoder;
+        this.banSetKey = redisLimiterProperties.getRedisKeyPrefix() + ":#bans";
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (redisLimiterProperties.getBanThreshold() <= 0) {
+            return;
+        }
+        maintainer.scheduleWithFixedDelay(this::maintain, 0, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return whether the limiter key is banned, read from local memory only
+     */
+    public boolean isBanned(String rateLimiterKey) {
+        if (bans.isEmpty()) {
+            return false;
+        }
+        Long expireAt = bans.get(rateLimiterKey);
+        return expireAt != null && expireAt > System.currentTimeMillis() / 1000;
+    }
+
+    @Override
+    public void onApplicationEvent(RateExceedingEvent event) {
+        if (redisLimiterProperties.getBanThreshold() <= 0 || !RATE_TIME_UNITS.contains(event.getTimeUnit()) || event.getPath() == null
+                || !isClientKey(event)) {
+            return;
+        }
+        String rateLimiterKey = keyEncoder.encode(event.getApplicationName(), event.getPath(), event.getBaseValue());
+        if (isBanned(rateLimiterKey)) {
+            return;
+        }
+        violationRecorder.execute(() -> recordViolation(rateLimiterKey));
+    }
+
+    /**
+     * @return whether the event is of a limiter or pattern rule keyed by the base value of one client; events of the
+     * RateLimiterService and of outbound calls name neither
+     */
+    private static boolean isClientKey(RateExceedingEvent event) {
+        String baseValue = event.getBaseValue();
+        return (event.getControllerName() != null || event.getPattern() != null)
+                && baseValue != null && !"".equals(baseValue) && !CardinalityGuard.COLLAPSED_BASE_VALUE.equals(baseValue);
+    }
+
+    private void recordViolation(String rateLimiterKey) {
+        try {
+            Object expireAt = redisScriptExecutor.eval(LUA_VIOLATION_SCRIPT, jedisTime -> {
+                List<String> keys = new ArrayList<>(3);
+                keys.add(rateLimiterKey + ":#violations");
+                keys.add(rateLimiterKey + ":#banned");
+                keys.add(banSetKey);
+                List<String> args = new ArrayList<>(7);
+                args.add(String.valueOf(redisLimiterProperties.getBanThreshold()));
+                args.add(String.valueOf(redisLimiterProperties.getBanPeriod()));
+                args.add(String.valueOf(redisLimiterProperties.getBanDuration()));
+                args.add(String.valueOf(redisLimiterProperties.getMaxBanDuration()));
+                args.add(jedisTime.get(0));
+                args.add(redisLimiterProperties.getBanChannel());
+                args.add(rateLimiterKey);
+                return new ScriptCall(keys, args);
+            });
+            if (((Long) expireAt) > 0) {
+                logger.warn("limiter key " + rateLimiterKey + " is banned until " + expireAt + ".");
+            }
+        } catch (Exception e) {
+            logger.warn("recording violation of " + rateLimiterKey + " failed.", e);
+        }
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+        int space = message.indexOf(' ');
+        if (space > 0) {
+            ban(message.substring(space + 1), Long.parseLong(message.substring(0, space)));
+        }
+    }
+
+    @Override
+    public void onSubscribe(String channel, int subscribedChannels) {
+        // bans published while this node was not subscribed are only in the sorted set
+        maintainer.execute(this::reload);
+    }
+
+    private void ban(String rateLimiterKey, long expireAt) {
+        bans.merge(rateLimiterKey, expireAt, Math::max);
+    }
+
+    private void reload() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            long now = System.currentTimeMillis() / 1000;
+            for (Tuple tuple : jedis.zrangeByScoreWithScores(banSetKey, now, Double.MAX_VALUE)) {
+                ban(tuple.getElement(), (long) tuple.getScore());
+            }
+        } catch (Exception e) {
+            logger.warn("loading bans failed.", e);
+        }
+    }
+
+    private void maintain() {
+        if (!subscribed) {
+            subscribed = true;
+            Thread subscriber = new Thread(this::subscribe, "redis-limiter-ban-subscriber");
+            subscriber.setDaemon(true);
+            subscriber.start();
+        }
+        evictExpired();
+    }
+
+    void evictExpired() {
+        long now = System.currentTimeMillis() / 1000;
+        bans.values().removeIf(expireAt -> expireAt <= now);
+    }
+
+    private void subscribe() {
+        try (Jedis jedis = new Jedis(redisLimiterProperties.getRedisHost(), redisLimiterProperties.getRedisPort(), 0)) {
+            if (redisLimiterProperties.getRedisPassword() != null) {
+                jedis.auth(redisLimiterProperties.getRedisPassword());
+            }
+            jedis.subscribe(this, redisLimiterProperties.getBanChannel());
+        } catch (Exception e) {
+            logger.warn("subscribing to bans failed, retrying.", e);
+        } finally {
+            subscribed = false;
+        }
+    }
+
+    public List<String> getBannedKeys() {
+        return new ArrayList<>(bans.keySet());
+    }
+
+    public void shutdown() {
+        violationRecorder.shutdownNow();
+        maintainer.shutdownNow();
+        if (isSubscribed()) {
+            unsubscribe();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks how many distinct base values every limiter sees per day, using a HyperLogLog in Redis.
+ * Base values are buffered locally and added in one pipeline per check interval, so the guard adds no
+ * Redis call to the request path. Once a limiter exceeds the configured cardinality a warning is logged and,
+ * if collapsing is enabled, all its base values share one key until the next day. Collapsing puts every client of
+ * the limiter on that key, so one client sending made up base values throttles all of them; it protects Redis,
+ * not the clients.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class CardinalityGuard implements ApplicationContextAware, InitializingBean, DisposableBean {
+    private static Logger logger = LoggerFactory.getLogger(CardinalityGuard.class);
+
+    public static final String COLLAPSED_BASE_VALUE = "#collapsed";
+
+    private static final int MAX_PENDING_VALUES = 10000;
+
+    private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+    private final JedisPool jedisPool;
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final KeyEncoder keyEncoder;
+
+    private ApplicationContext applicationContext;
+
+    private String applicationName;
+
+    private final ConcurrentHashMap<String, Set<String>> pendingMap = new ConcurrentHashMap<>();
+
+    private final Set<String> exceeded = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> collapsed = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-cardinality");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        applicationName = applicationContext.getEnvironment().getProperty("spring.application.name");
+        if(applicationName == null) {
+            throw new BeanInitializationException("the property with key 'spring.application.name' must be set!");
+        }
+        if (redisLimiterProperties.getMaxKeyCardinality() > 0) {
+            long interval = redisLimiterProperties.getCardinalityCheckInterval();
+            scheduler.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @param limiter names the limit the base value is counted for, e.g. a limiter and level, limiters sharing a path
+     *                have budgets of their own
+     * @return the base value to build the limiter key with
+     */
+    public String guard(String limiter, String baseVal) {
+        if (redisLimiterProperties.getMaxKeyCardinality() <= 0) {
+            return baseVal;
+        }
+        if (collapsed.contains(limiter)) {
+            return COLLAPSED_BASE_VALUE;
+        }
+        Set<String> pending = pendingMap.computeIfAbsent(limiter, k -> ConcurrentHashMap.newKeySet());
+        if (pending.size() < MAX_PENDING_VALUES) {
+            pending.add(baseVal);
+        }
+        return baseVal;
+    }
+
+    public Set<String> getExceeded() {
+        return exceeded;
+    }
+
+    void check() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.warn("check limiter key cardinality failed.", e);
+        }
+    }
+
+    private void flush() {
+        long day = System.currentTimeMillis() / DAY_MILLIS;
+        Set<String> limiters = new HashSet<>(pendingMap.keySet());
+        limiters.addAll(collapsed);
+        if (limiters.isEmpty()) {
+            return;
+        }
+        Map<String, Response<Long>> counts = new HashMap<>();
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            Pipeline pipeline = jedis.pipelined();
+            for (String limiter : limiters) {
+                String cardinalityKey = keyEncoder.encode(applicationName, "cardinality", limiter) + ":" + day;
+                List<String> values = drain(pendingMap.get(limiter));
+                if (!values.isEmpty()) {
+                    pipeline.pfadd(cardinalityKey, values.toArray(new String[0]));
+                    pipeline.pexpire(cardinalityKey, 2 * DAY_MILLIS);
+                }
+                counts.put(limiter, pipeline.pfcount(cardinalityKey));
+            }
+            pipeline.sync();
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+        int maxKeyCardinality = redisLimiterProperties.getMaxKeyCardinality();
+        for (Map.Entry<String, Response<Long>> entry : counts.entrySet()) {
+            String limiter = entry.getKey();
+            if (entry.getValue().get() > maxKeyCardinality) {
+                if (exceeded.add(limiter)) {
+                    logger.warn("limiter {} has seen more than {} distinct base values today{}", limiter, maxKeyCardinality,
+                            redisLimiterProperties.isCollapseExceedingKeys() ? ", its base values now share one key" : "");
+                }
+                if (redisLimiterProperties.isCollapseExceedingKeys()) {
+                    collapsed.add(limiter);
+                }
+            } else {
+                exceeded.remove(limiter);
+                collapsed.remove(limiter);
+            }
+        }
+    }
+
+    /**
+     * Takes the values out of the set one by one instead of removing the set, so a value added
+     * by a request thread meanwhile is either taken now or stays for the next flush.
+     */
+    private static List<String> drain(Set<String> pending) {
+        List<String> values = new ArrayList<>();
+        if (pending != null) {
+            for (Iterator<String> it = pending.iterator(); it.hasNext(); ) {
+                values.add(it.next());
+                it.remove();
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A slot held in a {@link RedisConcurrencyLimiter}, released at most once.
+ */
+public final class ConcurrencyLease implements AutoCloseable {
+
+    /**
+     * lease handed out when the concurrency check itself failed, releasing it does nothing
+     */
+    public static final ConcurrencyLease UNCHECKED = new ConcurrencyLease(null, null, null);
+
+    private final RedisConcurrencyLimiter redisConcurrencyLimiter;
+
+    private final String key;
+
+    private final String leaseId;
+
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    ConcurrencyLease(RedisConcurrencyLimiter redisConcurrencyLimiter, String key, String leaseId) {
+        this.redisConcurrencyLimiter = redisConcurrencyLimiter;
+        this.key = key;
+        this.leaseId = leaseId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public void release() {
+        if (redisConcurrencyLimiter != null && released.compareAndSet(false, true)) {
+            redisConcurrencyLimiter.release(key, leaseId);
+        }
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Builds limiter keys as {@code <prefix>:<applicationName>:<variable part>}. With digesting enabled the
+ * variable part (path and base value) is replaced by its 128 bit MD5 digest, encoded as 22 url-safe
+ * base64 characters, so key size does not depend on how long the path or base value is.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class KeyEncoder {
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final Base64.Encoder BASE64 = Base64.getUrlEncoder().withoutPadding();
+
+    private final String prefix;
+
+    private final boolean digest;
+
+    public KeyEncoder(String prefix, boolean digest) {
+        this.prefix = prefix + ":";
+        this.digest = digest;
+    }
+
+    public String encode(String applicationName, String path, String baseVal) {
+        return encode(applicationName, path + ":" + baseVal);
+    }
+
+    /**
+     * Builds a SCAN pattern matching the keys of an application, optionally narrowed to a path and base value.
+     * Path and base value are glob patterns, or literals when keys are digested, as a digest can only match
+     * the exact path and base value. A null base value matches all of them.
+     *
+     * @throws IllegalArgumentException if keys are digested and only one of path and base value is given
+     */
+    public String pattern(String applicationName, String path, String baseVal) {
+        if (path == null && baseVal == null) {
+            return prefix + applicationName + ":*";
+        }
+        if (digest) {
+            if (path == null || baseVal == null) {
+                throw new IllegalArgumentException("digested keys can only be matched by path and base value together");
+            }
+            return encode(applicationName, path, baseVal) + ":*";
+        }
+        return prefix + applicationName + ":" + (path == null ? "*" : path) + ":" + (baseVal == null ? "*" : baseVal) + ":*";
+    }
+
+    public String encode(String applicationName, String key) {
+        if (!digest) {
+            return prefix + applicationName + ":" + key;
+        }
+        MessageDigest md5 = MD5.get();
+        md5.reset();
+        return prefix + applicationName + ":" + BASE64.encodeToString(md5.digest(key.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Lists, counts and deletes limiter keys matching a pattern without blocking Redis: keys are walked with
+ * incremental SCAN, deleted with UNLINK in pipelined batches, and the walk pauses between batches so it
+ * examines at most keyScanRate keys per second. Resets requested over HTTP run on a background thread, one
+ * at a time, as the walk of a large keyspace takes minutes.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class LimiterKeyScanner {
+
+    private static final RedisScript LUA_UNLINK_SCRIPT = new RedisScript(" return redis.call('unlink', unpack(KEYS)); ");
+
+    private static final int UNLINK_BATCH = 100;
+
+    private final JedisPool jedisPool;
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final ExecutorService resetExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-key-reset");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<String> pendingResets = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param limit maximum number of keys returned
+     */
+    public List<String> list(String pattern, int limit) {
+        List<String> keys = new ArrayList<>();
+        scan(pattern, batch -> {
+            for (String key : batch) {
+                if (keys.size() >= limit) {
+                    return false;
+                }
+                keys.add(key);
+            }
+            return keys.size() < limit;
+        });
+        return keys;
+    }
+
+    /**
+     * @return the number of keys matching, approximate as SCAN may return a key twice while Redis rehashes
+     */
+    public long count(String pattern) {
+        long[] count = new long[1];
+        scan(pattern, batch -> {
+            count[0] += batch.size();
+            return true;
+        });
+        return count[0];
+    }
+
+    /**
+     * @return the number of keys deleted
+     */
+    public long reset(String pattern) {
+        long[] deleted = new long[1];
+        scan(pattern, batch -> {
+            deleted[0] += unlink(batch);
+            return true;
+        });
+        return deleted[0];
+    }
+
+    /**
+     * Like {@link #reset(String)}, on the background thread. A pattern already waiting for its reset is not queued again.
+     *
+     * @return the number of keys deleted, or null if the pattern is already waiting
+     */
+    public CompletableFuture<Long> resetAsync(String pattern) {
+        if (!pendingResets.add(pattern)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            pendingResets.remove(pattern);
+            return reset(pattern);
+        }, resetExecutor);
+    }
+
+    private long unlink(List<String> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        byte[] script = SafeEncoder.encode(LUA_UNLINK_SCRIPT.getSource());
+        List<byte[]> noArgs = Collections.emptyList();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Object>> responses = new ArrayList<>();
+            for (int from = 0; from < keys.size(); from += UNLINK_BATCH) {
+                List<byte[]> batch = new ArrayList<>(UNLINK_BATCH);
+                for (String key : keys.subList(from, Math.min(keys.size(), from + UNLINK_BATCH))) {
+                    batch.add(SafeEncoder.encode(key));
+                }
+                responses.add(pipeline.eval(script, batch, noArgs));
+            }
+            pipeline.sync();
+            long deleted = 0;
+            for (Response<Object> response : responses) {
+                deleted += (Long) response.get();
+            }
+            return deleted;
+        }
+    }
+
+    /**
+     * Walks the keys matching the pattern, handing every SCAN batch to {@code onBatch} until it returns false.
+     */
+    private void scan(String pattern, Predicate<List<String>> onBatch) {
+        int batchSize = redisLimiterProperties.getKeyScanBatch();
+        ScanParams scanParams = new ScanParams().match(pattern).count(batchSize);
+        long pauseNanos = 1000000000L * batchSize / Math.max(1, redisLimiterProperties.getKeyScanRate());
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            long start = System.nanoTime();
+            ScanResult<String> result;
+            try (Jedis jedis = jedisPool.getResource()) {
+                result = jedis.scan(cursor, scanParams);
+            }
+            if (!onBatch.test(result.getResult())) {
+                return;
+            }
+            cursor = result.getStringCursor();
+            long sleepNanos = pauseNanos - (System.nanoTime() - start);
+            if (sleepNanos > 0 && !ScanParams.SCAN_POINTER_START.equals(cursor)) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+    }
+}
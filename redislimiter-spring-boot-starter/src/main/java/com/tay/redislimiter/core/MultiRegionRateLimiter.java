@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed window limiter for applications running in several regions, each with its own Redis.
+ * The counter of a window is a G-counter: a hash with one field per region, only ever incremented by its
+ * own region. A region checks the sum of all fields against the limit and increments its own field in its
+ * local Redis, so checks never leave the region. The {@link RegionReplicator} copies the fields of this region
+ * to the other regions, merging by maximum. A limit can be exceeded by what the other regions admit during
+ * one replication interval.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class MultiRegionRateLimiter {
+
+    private static final RedisScript LUA_ACQUIRE_SCRIPT = new RedisScript(" local n = #KEYS - 1; "
+            + " local cost = tonumber(ARGV[2]); "
+            + " for i = 1, n do "
+            + "     local total = 0; "
+            + "     local counts = redis.call('hvals', KEYS[i]); "
+            + "     for j = 1, #counts do "
+            + "         total = total + tonumber(counts[j]); "
+            + "     end "
+            + "     if total + cost > tonumber(ARGV[2 + 2 * i]) then "
+            + "         return i; "
+            + "     end "
+            + " end "
+            + " for i = 1, n do "
+            + "     redis.call('hincrby', KEYS[i], ARGV[1], cost); "
+            + "     redis.call('pexpire', KEYS[i], ARGV[1 + 2 * i]); "
+            + "     redis.call('sadd', KEYS[#KEYS], KEYS[i]); "
+            + " end "
+            + " return 0; ");
+
+    private static final RedisScript LUA_PEEK_SCRIPT = new RedisScript(" local result = {}; "
+            + " for i = 1, #KEYS - 1 do "
+            + "     local total = 0; "
+            + "     local counts = redis.call('hvals', KEYS[i]); "
+            + "     for j = 1, #counts do "
+            + "         total = total + tonumber(counts[j]); "
+            + "     end "
+            + "     result[i] = total; "
+            + " end "
+            + " return result; ");
+
+    private static final long EXPIRE_SLACK_MILLIS = 10000;
+
+    private static final int PEEK_BATCH = 1000;
+
+    private final RedisScriptExecutor redisScriptExecutor;
+
+    private final String region;
+
+    private final String dirtySetKey;
+
+    /**
+     * @param dirtySetKey set collecting the counters this region changed since the last replication
+     */
+    public MultiRegionRateLimiter(RedisScriptExecutor redisScriptExecutor, String region, String dirtySetKey) {
+        this.redisScriptExecutor = redisScriptExecutor;
+        this.region = region;
+        this.dirtySetKey = dirtySetKey;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public String getDirtySetKey() {
+        return dirtySetKey;
+    }
+
+    public boolean acquire(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        return acquire(Collections.singletonList(new RateLimitLevel(rateLimiterKey, timeUnit, permits)), cost) == 0;
+    }
+
+    /**
+     * @return 0 if every level allows the request, otherwise the 1-based index of the level that denied it
+     */
+    public int acquire(List<RateLimitLevel> levels, int cost) {
+        Object result = redisScriptExecutor.eval(LUA_ACQUIRE_SCRIPT, jedisTime -> buildCall(jedisTime, levels, cost));
+        return ((Long) result).intValue();
+    }
+
+    /**
+     * @return 0 if the permits were consumed, otherwise the delay(MICROSECONDS) until the next window,
+     * or -1 if the permits will never be available
+     */
+    public long reserve(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        if (cost > permits) {
+            return -1;
+        }
+        List<RateLimitLevel> levels = Collections.singletonList(new RateLimitLevel(rateLimiterKey, timeUnit, permits));
+        long[] nowMicros = new long[1];
+        Object result = redisScriptExecutor.eval(LUA_ACQUIRE_SCRIPT, jedisTime -> {
+            nowMicros[0] = Long.parseLong(jedisTime.get(0)) * 1000000 + Long.parseLong(jedisTime.get(1));
+            return buildCall(jedisTime, levels, cost);
+        });
+        if ((Long) result == 0) {
+            return 0;
+        }
+        long windowMicros = timeUnit.toMicros(1);
+        return windowMicros - nowMicros[0] % windowMicros;
+    }
+
+    /**
+     * Reads how many permits of each limit all regions used in its current window, as far as replicated.
+     */
+    @SuppressWarnings("unchecked")
+    public long[] peek(List<RateLimitLevel> limits) {
+        long[] used = new long[limits.size()];
+        for (int from = 0; from < limits.size(); from += PEEK_BATCH) {
+            List<RateLimitLevel> batch = limits.subList(from, Math.min(limits.size(), from + PEEK_BATCH));
+            List<Long> result = (List<Long>) redisScriptExecutor.eval(LUA_PEEK_SCRIPT, jedisTime -> buildCall(jedisTime, batch, 0));
+            for (int i = 0; i < result.size(); i++) {
+                used[from + i] = result.get(i);
+            }
+        }
+        return used;
+    }
+
+    private ScriptCall buildCall(List<String> jedisTime, List<RateLimitLevel> levels, int cost) {
+        long seconds = Long.parseLong(jedisTime.get(0));
+        List<String> keys = new ArrayList<>(levels.size() + 1);
+        List<String> args = new ArrayList<>(levels.size() * 2 + 2);
+        args.add(region);
+        args.add(String.valueOf(cost));
+        for (RateLimitLevel level : levels) {
+            long window = seconds / level.getTimeUnit().toSeconds(1);
+            keys.add(level.getRateLimiterKey() + ":g:" + window);
+            args.add(String.valueOf(level.getTimeUnit().toMillis(2) + EXPIRE_SLACK_MILLIS));
+            args.add(String.valueOf(level.getPermits()));
+        }
+        keys.add(dirtySetKey);
+        return new ScriptCall(keys, args);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds requests waiting for a permit without blocking their threads.
+ * Waiters of the same limiter key are served in FIFO order: only the head of a key's queue retries,
+ * at the delay returned by the previous attempt, and the next waiter is tried as soon as the head is done.
+ * A retry that throws rejects its waiter: whether to let requests through when the limiter cannot be checked
+ * is up to the retry, e.g. the fallback of {@link RateCheckTaskRunner}, never to the queue.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class PermitWaitQueue {
+    private static Logger logger = LoggerFactory.getLogger(PermitWaitQueue.class);
+
+    private final int maxWaiters;
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ConcurrentHashMap<String, KeyQueue> keyQueueMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "redis-limiter-permit-wait");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PermitWaitQueue(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    /**
+     * @param delayMicros delay before the first retry
+     * @param deadline    {@link System#nanoTime()} after which the waiter is rejected
+     * @param retry       tries to take the permits, returning 0 on success, the next delay(MICROSECONDS), or -1 if they will never be available;
+     *                    the waiter is rejected if it throws
+     * @return the waiter, or null if too many requests are waiting already
+     */
+    public Waiter offer(String key, long delayMicros, long deadline, LongSupplier retry, Runnable onGranted, Runnable onRejected) {
+        if (waiters.incrementAndGet() > maxWaiters) {
+            waiters.decrementAndGet();
+            return null;
+        }
+        Waiter waiter = new Waiter(deadline, retry, onGranted, onRejected);
+        keyQueueMap.compute(key, (k, current) -> {
+            KeyQueue keyQueue = current == null ? new KeyQueue(k) : current;
+            keyQueue.waiters.add(waiter);
+            if (!keyQueue.scheduled) {
+                keyQueue.scheduled = true;
+                timer.schedule(() -> process(keyQueue), delayMicros, TimeUnit.MICROSECONDS);
+            }
+            return keyQueue;
+        });
+        return waiter;
+    }
+
+    private void process(KeyQueue keyQueue) {
+        Waiter head;
+        while ((head = keyQueue.waiters.peek()) != null && head.done.get()) {
+            keyQueue.waiters.poll();
+        }
+        if (head == null) {
+            keyQueueMap.compute(keyQueue.key, (k, current) -> {
+                if (keyQueue.waiters.isEmpty()) {
+                    keyQueue.scheduled = false;
+                    return null;
+                }
+                timer.execute(() -> process(keyQueue));
+                return keyQueue;
+            });
+            return;
+        }
+        long delay;
+        try {
+            delay = head.retry.getAsLong();
+        } catch (Exception e) {
+            // granting here would let every queued request through at once while the backend is unhealthy
+            logger.warn("retry of a waiting request failed, rejecting it.", e);
+            delay = -1;
+        }
+        if (delay == 0) {
+            keyQueue.waiters.poll();
+            head.finish(true);
+            timer.execute(() -> process(keyQueue));
+        } else if (delay < 0 || System.nanoTime() + delay * 1000 > head.deadline) {
+            keyQueue.waiters.poll();
+            head.finish(false);
+            timer.execute(() -> process(keyQueue));
+        } else {
+            timer.schedule(() -> process(keyQueue), delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    private static final class KeyQueue {
+        private final String key;
+        private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        private boolean scheduled;
+
+        private KeyQueue(String key) {
+            this.key = key;
+        }
+    }
+
+    public final class Waiter {
+        private final long deadline;
+        private final LongSupplier retry;
+        private final Runnable onGranted;
+        private final Runnable onRejected;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private Waiter(long deadline, LongSupplier retry, Runnable onGranted, Runnable onRejected) {
+            this.deadline = deadline;
+            this.retry = retry;
+            this.onGranted = onGranted;
+            this.onRejected = onRejected;
+        }
+
+        /**
+         * Gives up waiting, e.g. when the request timed out. Has no effect once the waiter got its permits.
+         */
+        public void cancel() {
+            finish(false);
+        }
+
+        private void finish(boolean granted) {
+            if (done.compareAndSet(false, true)) {
+                waiters.decrementAndGet();
+                try {
+                    if (granted) {
+                        onGranted.run();
+                    } else {
+                        onRejected.run();
+                    }
+                } catch (Exception e) {
+                    logger.warn("completing a waiting request failed.", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Shares a few long-lived connections among all callers. Every connection is owned by one thread that
+ * drains the commands queued by callers and writes them back-to-back as one pipeline, then hands the
+ * replies back in order. The connections are checked with PING while they are idle instead of on every use.
+ * Instead of reading TIME before every call, a lane reads it once a second and estimates the Redis clock
+ * from the monotonic local clock in between, so every call costs a single round trip.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class PipelinedScriptExecutor implements RedisScriptExecutor {
+    private static Logger logger = LoggerFactory.getLogger(PipelinedScriptExecutor.class);
+
+    private static final int MAX_BATCH = 512;
+
+    private static final long CALIBRATION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String host;
+
+    private final int port;
+
+    private final int timeout;
+
+    private final String password;
+
+    private final long healthCheckInterval;
+
+    private final Lane[] lanes;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    public PipelinedScriptExecutor(String host, int port, int timeout, String password, int connections, long healthCheckInterval) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+        this.healthCheckInterval = healthCheckInterval;
+        this.lanes = new Lane[Math.max(1, connections)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+            Thread thread = new Thread(lanes[i], "redis-limiter-pipeline-" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+        Lane lane = lanes[(next.getAndIncrement() & Integer.MAX_VALUE) % lanes.length];
+        return await(lane.submit(new Command(script, callAt)));
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    private Object await(CompletableFuture<Object> result) {
+        try {
+            return result.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JedisConnectionException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new JedisConnectionException("Redis did not reply within " + timeout + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException(e);
+        }
+    }
+
+    private static List<byte[]> encode(List<String> values) {
+        List<byte[]> encoded = new ArrayList<>(values.size());
+        for (String value : values) {
+            encoded.add(SafeEncoder.encode(value));
+        }
+        return encoded;
+    }
+
+    private static final class Command {
+        private final RedisScript script;
+        private final Function<List<String>, ScriptCall> callAt;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private ScriptCall call;
+
+        private Command(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            this.script = script;
+            this.callAt = callAt;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final LinkedBlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+        private Thread thread;
+        private Jedis jedis;
+        private long lastMicros;
+        /**
+         * Redis time read by the last TIME command and the local monotonic time it was read at
+         */
+        private long calibratedMicros;
+        private long calibratedNanos;
+        private boolean calibrated;
+
+        private CompletableFuture<Object> submit(Command command) {
+            if (!running) {
+                command.result.completeExceptionally(new JedisConnectionException("executor is shut down"));
+            } else {
+                queue.add(command);
+            }
+            return command.result;
+        }
+
+        @Override
+        public void run() {
+            List<Command> batch = new ArrayList<>();
+            while (running) {
+                try {
+                    Command first = queue.poll(healthCheckInterval, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        healthCheck();
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    execute(batch);
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+            queue.drainTo(batch);
+            fail(batch, new JedisConnectionException("executor is shut down"));
+            close();
+        }
+
+        private void execute(List<Command> batch) {
+            try {
+                Jedis connection = connection();
+                if (!calibrated || System.nanoTime() - calibratedNanos > CALIBRATION_INTERVAL_NANOS) {
+                    calibrate(connection);
+                }
+                for (Command command : batch) {
+                    try {
+                        command.call = command.callAt.apply(now());
+                    } catch (RuntimeException e) {
+                        command.result.completeExceptionally(e);
+                    }
+                }
+                Pipeline pipeline = connection.pipelined();
+                List<Response<Object>> responses = new ArrayList<>(batch.size());
+                for (Command command : batch) {
+                    responses.add(command.call == null ? null
+                            : pipeline.evalsha(SafeEncoder.encode(command.script.getSha1()), encode(command.call.getKeys()), encode(command.call.getArgs())));
+                }
+                pipeline.sync();
+                List<Command> unloaded = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    Command command = batch.get(i);
+                    if (responses.get(i) == null) {
+                        continue;
+                    }
+                    try {
+                        command.result.complete(responses.get(i).get());
+                    } catch (JedisDataException e) {
+                        if (e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT")) {
+                            unloaded.add(command);
+                        } else {
+                            command.result.completeExceptionally(e);
+                        }
+                    }
+                }
+                if (!unloaded.isEmpty()) {
+                    // first use of the scripts on this server, EVAL loads them into the script cache
+                    pipeline = connection.pipelined();
+                    responses.clear();
+                    for (Command command : unloaded) {
+                        responses.add(pipeline.eval(SafeEncoder.encode(command.script.getSource()), encode(command.call.getKeys()), encode(command.call.getArgs())));
+                    }
+                    pipeline.sync();
+                    for (int i = 0; i < unloaded.size(); i++) {
+                        try {
+                            unloaded.get(i).result.complete(responses.get(i).get());
+                        } catch (JedisDataException e) {
+                            unloaded.get(i).result.completeExceptionally(e);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                fail(batch, e);
+            }
+        }
+
+        /**
+         * Reads the Redis clock, assuming it was read halfway through the round trip.
+         */
+        private void calibrate(Jedis connection) {
+            long sentAt = System.nanoTime();
+            List<String> time = connection.time();
+            long receivedAt = System.nanoTime();
+            calibratedMicros = Long.parseLong(time.get(0)) * 1000000 + Long.parseLong(time.get(1));
+            calibratedNanos = sentAt + (receivedAt - sentAt) / 2;
+            calibrated = true;
+        }
+
+        /**
+         * Estimates the Redis time from the last calibration. Commands of one pipeline may run within the
+         * same microsecond, but the period script uses the time as sorted set score, so times handed out by
+         * a lane are kept strictly increasing.
+         */
+        private List<String> now() {
+            long micros = calibratedMicros + (System.nanoTime() - calibratedNanos) / 1000;
+            if (micros <= lastMicros) {
+                micros = lastMicros + 1;
+            }
+            lastMicros = micros;
+            return Arrays.asList(String.valueOf(micros / 1000000), String.valueOf(micros % 1000000));
+        }
+
+        private void healthCheck() {
+            try {
+                connection().ping();
+            } catch (RuntimeException e) {
+                logger.warn("health check of limiter connection to {}:{} failed.", host, port, e);
+                close();
+            }
+        }
+
+        private Jedis connection() {
+            if (jedis == null) {
+                Jedis connection = new Jedis(host, port, timeout);
+                try {
+                    connection.connect();
+                    if (password != null) {
+                        connection.auth(password);
+                    }
+                } catch (RuntimeException e) {
+                    connection.close();
+                    throw e;
+                }
+                jedis = connection;
+            }
+            return jedis;
+        }
+
+        private void close() {
+            if (jedis != null) {
+                try {
+                    jedis.close();
+                } catch (RuntimeException e) {
+                    logger.debug("close limiter connection failed.", e);
+                }
+                jedis = null;
+            }
+            calibrated = false;
+        }
+
+        private void fail(List<Command> commands, RuntimeException e) {
+            for (Command command : commands) {
+                command.result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import lombok.RequiredArgsConstructor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Borrows a pooled connection for every script call.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class PooledScriptExecutor implements RedisScriptExecutor {
+
+    private final JedisPool jedisPool;
+
+    @Override
+    public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            ScriptCall call = callAt.apply(jedis.time());
+            try {
+                return jedis.evalsha(script.getSha1(), call.getKeys(), call.getArgs());
+            } catch (JedisNoScriptException e) {
+                return jedis.eval(script.getSource(), call.getKeys(), call.getArgs());
+            }
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
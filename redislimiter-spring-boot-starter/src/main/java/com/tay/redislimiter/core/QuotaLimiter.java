@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calendar aligned day, week and month quotas. A window is a single counter named after its start,
+ * expiring shortly after it resets, so a quota costs a few bytes per key however large it is.
+ * With a batch size greater than 1 a node admits requests locally while the quota left, as last seen in
+ * Redis, exceeds the batch size, and adds them to the counter when batchSize permits are pending or at the
+ * flush interval. The quota can then be exceeded by up to {@code nodes * batchSize} permits. Permits admitted
+ * locally are added to the window they were admitted in, even if it is over by the time they are added.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class QuotaLimiter {
+    private static Logger logger = LoggerFactory.getLogger(QuotaLimiter.class);
+
+    private static final RedisScript LUA_QUOTA_SCRIPT = new RedisScript(" local used = tonumber(redis.call('get', KEYS[1]) or '0'); "
+            + " local added = tonumber(ARGV[1]); "
+            + " local allowed = 0; "
+            + " if used + added + tonumber(ARGV[2]) <= tonumber(ARGV[3]) then "
+            + "     added = added + tonumber(ARGV[2]); "
+            + "     allowed = 1; "
+            + " end "
+            + " if added > 0 then "
+            + "     used = redis.call('incrby', KEYS[1], added); "
+            + "     redis.call('expireat', KEYS[1], ARGV[4]); "
+            + " end "
+            + " return {allowed, used}; ");
+
+    private static final RedisScript LUA_PEEK_SCRIPT = new RedisScript(" return tonumber(redis.call('get', KEYS[1]) or '0'); ");
+
+    private static final long EXPIRE_SLACK_SECONDS = 3600;
+
+    private final RedisScriptExecutor redisScriptExecutor;
+
+    private final ZoneId zoneId;
+
+    private final int batchSize;
+
+    private final Cache<String, LocalQuota> localQuotaCache = Caffeine.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS).maximumSize(100000).build();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-quota-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public QuotaLimiter(RedisScriptExecutor redisScriptExecutor, ZoneId zoneId, int batchSize, long flushInterval) {
+        this.redisScriptExecutor = redisScriptExecutor;
+        this.zoneId = zoneId;
+        this.batchSize = batchSize;
+        if (batchSize > 1) {
+            flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public QuotaUsage acquire(String rateLimiterKey, QuotaPeriod period, long permits, int cost) {
+        if (batchSize <= 1) {
+            return call(rateLimiterKey, period, permits, 0, cost);
+        }
+        String localKey = rateLimiterKey + ":" + period.name();
+        LocalQuota localQuota = localQuotaCache.get(localKey, k -> new LocalQuota(rateLimiterKey, period, permits));
+        long nowSeconds = System.currentTimeMillis() / 1000;
+        if (nowSeconds < localQuota.resetAt) {
+            long pending = localQuota.pending.addAndGet(cost);
+            long remaining = permits - localQuota.used - pending;
+            if (remaining >= batchSize && pending < batchSize) {
+                return new QuotaUsage(true, permits, remaining, localQuota.resetAt);
+            }
+            localQuota.pending.addAndGet(-cost);
+        }
+        synchronized (localQuota) {
+            long pending = localQuota.pending.getAndSet(0);
+            if (pending > 0 && nowSeconds >= localQuota.resetAt) {
+                // admitted in a window that is over
+                try {
+                    addToWindow(localQuota, pending);
+                } catch (RuntimeException e) {
+                    localQuota.pending.addAndGet(pending);
+                    throw e;
+                }
+                pending = 0;
+            }
+            QuotaUsage usage = call(rateLimiterKey, period, permits, pending, cost);
+            localQuota.used = usage.getLimit() - usage.getRemaining();
+            localQuota.resetAt = usage.getResetAt();
+            return usage;
+        }
+    }
+
+    /**
+     * Reads the usage of a quota without consuming any of it, including permits this node admitted but
+     * has not added to the counter yet.
+     */
+    public QuotaUsage peek(String rateLimiterKey, QuotaPeriod period, long permits) {
+        long[] resetAt = new long[1];
+        Long used = (Long) redisScriptExecutor.eval(LUA_PEEK_SCRIPT, jedisTime -> {
+            ZonedDateTime start = period.start(Instant.ofEpochSecond(Long.parseLong(jedisTime.get(0))).atZone(zoneId));
+            resetAt[0] = period.next(start).toEpochSecond();
+            return new ScriptCall(Collections.singletonList(windowKey(rateLimiterKey, start)), Collections.emptyList());
+        });
+        LocalQuota localQuota = batchSize > 1 ? localQuotaCache.getIfPresent(rateLimiterKey + ":" + period.name()) : null;
+        if (localQuota != null && localQuota.resetAt == resetAt[0]) {
+            used += localQuota.pending.get();
+        }
+        return new QuotaUsage(used < permits, permits, Math.max(0, permits - used), resetAt[0]);
+    }
+
+    /**
+     * Adds the pending permits of all keys to their counters.
+     */
+    void flush() {
+        for (Map.Entry<String, LocalQuota> entry : localQuotaCache.asMap().entrySet()) {
+            LocalQuota localQuota = entry.getValue();
+            if (localQuota.pending.get() == 0) {
+                continue;
+            }
+            synchronized (localQuota) {
+                long pending = localQuota.pending.getAndSet(0);
+                try {
+                    QuotaUsage usage = addToWindow(localQuota, pending);
+                    if (System.currentTimeMillis() / 1000 < localQuota.resetAt) {
+                        localQuota.used = usage.getLimit() - usage.getRemaining();
+                    }
+                } catch (Exception e) {
+                    localQuota.pending.addAndGet(pending);
+                    logger.warn("flushing quota of " + localQuota.rateLimiterKey + " failed.", e);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private QuotaUsage call(String rateLimiterKey, QuotaPeriod period, long permits, long added, int cost) {
+        long[] resetAt = new long[1];
+        List<Long> result = (List<Long>) redisScriptExecutor.eval(LUA_QUOTA_SCRIPT, jedisTime -> {
+            ZonedDateTime start = period.start(Instant.ofEpochSecond(Long.parseLong(jedisTime.get(0))).atZone(zoneId));
+            resetAt[0] = period.next(start).toEpochSecond();
+            return quotaCall(windowKey(rateLimiterKey, start), permits, added, cost, resetAt[0]);
+        });
+        return new QuotaUsage(result.get(0) == 1, permits, Math.max(0, permits - result.get(1)), resetAt[0]);
+    }
+
+    /**
+     * Adds permits admitted locally to the window they were admitted in, rather than to the current one.
+     */
+    @SuppressWarnings("unchecked")
+    private QuotaUsage addToWindow(LocalQuota localQuota, long added) {
+        ZonedDateTime start = localQuota.period.start(Instant.ofEpochSecond(localQuota.resetAt - 1).atZone(zoneId));
+        String windowKey = windowKey(localQuota.rateLimiterKey, start);
+        List<Long> result = (List<Long>) redisScriptExecutor.eval(LUA_QUOTA_SCRIPT,
+                jedisTime -> quotaCall(windowKey, localQuota.permits, added, 0, localQuota.resetAt));
+        return new QuotaUsage(true, localQuota.permits, Math.max(0, localQuota.permits - result.get(1)), localQuota.resetAt);
+    }
+
+    private static ScriptCall quotaCall(String windowKey, long permits, long added, int cost, long resetAt) {
+        List<String> args = new ArrayList<>(4);
+        args.add(String.valueOf(added));
+        args.add(String.valueOf(cost));
+        args.add(String.valueOf(permits));
+        args.add(String.valueOf(resetAt + EXPIRE_SLACK_SECONDS));
+        return new ScriptCall(Collections.singletonList(windowKey), args);
+    }
+
+    private static String windowKey(String rateLimiterKey, ZonedDateTime start) {
+        return rateLimiterKey + ":quota:" + start.toLocalDate();
+    }
+
+    public void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    private static final class LocalQuota {
+        private final String rateLimiterKey;
+        private final QuotaPeriod period;
+        private final long permits;
+        private final AtomicLong pending = new AtomicLong();
+        private volatile long used;
+        /**
+         * 0 until the window was read from Redis
+         */
+        private volatile long resetAt;
+
+        private LocalQuota(String rateLimiterKey, QuotaPeriod period, long permits) {
+            this.rateLimiterKey = rateLimiterKey;
+            this.period = period;
+            this.permits = permits;
+        }
+    }
+}
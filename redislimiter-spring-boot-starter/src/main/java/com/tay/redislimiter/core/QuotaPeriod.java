@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Calendar aligned quota window, starting at midnight in the configured time zone.
+ */
+public enum QuotaPeriod {
+    DAY {
+        @Override
+        public ZonedDateTime start(ZonedDateTime time) {
+            return time.toLocalDate().atStartOfDay(time.getZone());
+        }
+
+        @Override
+        public ZonedDateTime next(ZonedDateTime start) {
+            return start.toLocalDate().plusDays(1).atStartOfDay(start.getZone());
+        }
+    },
+    /**
+     * ISO week, starting on Monday
+     */
+    WEEK {
+        @Override
+        public ZonedDateTime start(ZonedDateTime time) {
+            return time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).atStartOfDay(time.getZone());
+        }
+
+        @Override
+        public ZonedDateTime next(ZonedDateTime start) {
+            return start.toLocalDate().plusWeeks(1).atStartOfDay(start.getZone());
+        }
+    },
+    MONTH {
+        @Override
+        public ZonedDateTime start(ZonedDateTime time) {
+            return time.toLocalDate().withDayOfMonth(1).atStartOfDay(time.getZone());
+        }
+
+        @Override
+        public ZonedDateTime next(ZonedDateTime start) {
+            return start.toLocalDate().plusMonths(1).atStartOfDay(start.getZone());
+        }
+    };
+
+    /**
+     * @return the start of the window containing the time
+     */
+    public abstract ZonedDateTime start(ZonedDateTime time);
+
+    /**
+     * @return the start of the window following the one starting at {@code start}
+     */
+    public abstract ZonedDateTime next(ZonedDateTime start);
+}
@@ -26,16 +26,45 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.Supplier;
 
 @RequiredArgsConstructor
 public final class RateCheckTaskRunner implements ApplicationContextAware {
+    /**
+     * offsets the stripe choice of this node, so the threads of different nodes spread over different stripes
+     */
+    private static final long NODE_SEED = ThreadLocalRandom.current().nextInt(1 << 16);
+
     private ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
 
+    private ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-check-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final RedisRateLimiterFactory redisRateLimiterFactory;
 
     private final RedisLimiterProperties redisLimiterProperties;
 
+    private final RedisConcurrencyLimiter redisConcurrencyLimiter;
+
+    /**
+     * null if sampled checking is disabled
+     */
+    private final SampledRateLimiter sampledRateLimiter;
+
+    /**
+     * null unless the application runs in several regions
+     */
+    private final MultiRegionRateLimiter multiRegionRateLimiter;
+
+    private final QuotaLimiter quotaLimiter;
+
     private ApplicationContext applicationContext;
 
     @Override
@@ -43,31 +72,315 @@ public final class RateCheckTaskRunner implements ApplicationContextAware {
         this.applicationContext = applicationContext;
     }
 
+    /**
+     * Adds the permits admitted locally by sampled checking to Redis.
+     */
+    public void shutdown() {
+        if (sampledRateLimiter != null) {
+            sampledRateLimiter.shutdown();
+        }
+    }
+
     public boolean checkRun(String rateLimiterKey, TimeUnit timeUnit, int permits) {
-        CheckTask task = new CheckTask(rateLimiterKey, timeUnit, permits);
-        Future<Boolean> checkResult = executorService.submit(task);
-        boolean retVal = true;
+        return checkRun(rateLimiterKey, timeUnit, permits, 1);
+    }
+
+    public boolean checkRun(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        if (isSampled(timeUnit) && sampledRateLimiter.admitLocally(rateLimiterKey, cost)) {
+            return true;
+        }
+        return submit(new CheckTask(rateLimiterKey, timeUnit, permits, cost), Boolean.TRUE, "Access rate check task executed failed.");
+    }
+
+    /**
+     * @return 0 if the permits were consumed or the check failed, otherwise the delay(MICROSECONDS) until
+     * the permits may be available, or -1 if they never will
+     */
+    public long checkReserve(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        return submit(() -> reserve(rateLimiterKey, timeUnit, permits, cost), 0L, "Access rate check task executed failed.");
+    }
+
+    /**
+     * Checks a limit spread over {@code stripes} keys named {@code <key>:s<index>}, each holding its share of the
+     * permits, so a hot endpoint-wide limit is not bound to one Redis key. The stripe is picked by the calling thread,
+     * offset per node; a request denied by its stripe borrows from the next stripe before it is rejected.
+     * A limit with fewer permits than stripes uses only as many stripes as it has permits, so every stripe
+     * has at least one. Sampled checking applies per stripe.
+     */
+    public boolean checkRunStriped(String rateLimiterKey, TimeUnit timeUnit, int permits, int stripes, int cost) {
+        int stripeCount = stripeCount(permits, stripes);
+        int stripe = (int) ((NODE_SEED + Thread.currentThread().getId()) % stripeCount);
+        if (isSampled(timeUnit) && sampledRateLimiter.admitLocally(stripeKey(rateLimiterKey, stripe), cost)) {
+            return true;
+        }
+        return submit(() -> acquireStripe(rateLimiterKey, timeUnit, permits, stripeCount, stripe, cost)
+                        || (stripeCount > 1 && acquireStripe(rateLimiterKey, timeUnit, permits, stripeCount, (stripe + 1) % stripeCount, cost)),
+                Boolean.TRUE, "Access rate check task executed failed.");
+    }
+
+    /**
+     * @return the stripes a limit of {@code stripes} is spread over, at most one per permit
+     */
+    static int stripeCount(int permits, int stripes) {
+        return Math.max(1, Math.min(stripes, permits));
+    }
+
+    static int stripePermits(int permits, int stripeCount, int stripe) {
+        return permits / stripeCount + (stripe < permits % stripeCount ? 1 : 0);
+    }
+
+    private static String stripeKey(String rateLimiterKey, int stripe) {
+        return rateLimiterKey + ":s" + stripe;
+    }
+
+    private boolean acquireStripe(String rateLimiterKey, TimeUnit timeUnit, int permits, int stripeCount, int stripe, int cost) {
+        int stripePermits = stripePermits(permits, stripeCount, stripe);
+        String stripeKey = stripeKey(rateLimiterKey, stripe);
+        if (isSampled(timeUnit)) {
+            return sampledRateLimiter.check(stripeKey, stripePermits, cost);
+        }
+        if (multiRegionRateLimiter != null) {
+            return multiRegionRateLimiter.acquire(stripeKey, timeUnit, stripePermits, cost);
+        }
+        return redisRateLimiterFactory.get(timeUnit).acquire(stripeKey, stripePermits, cost);
+    }
+
+    /**
+     * @return the usage of the quota, {@link QuotaUsage#UNCHECKED} if the check failed
+     */
+    public QuotaUsage checkQuota(String rateLimiterKey, QuotaPeriod period, long permits, int cost) {
+        return submit(() -> quotaLimiter.acquire(rateLimiterKey, period, permits, cost), QuotaUsage.UNCHECKED, "Quota check task executed failed.");
+    }
+
+    /**
+     * @return 0 if every level allows the request, otherwise the 1-based index of the level that denied it
+     */
+    public int checkRunAll(List<RateLimitLevel> levels) {
+        return checkRunAll(levels, 1);
+    }
+
+    public int checkRunAll(List<RateLimitLevel> levels, int cost) {
+        return submit(new MultiLevelCheckTask(levels, cost), 0, "Access rate check task executed failed.");
+    }
+
+    /**
+     * Checks independent limits in one Redis call.
+     *
+     * @return for every limit, whether it allows the request; all true if the check failed
+     */
+    public boolean[] checkRunEach(List<RateLimitLevel> limits, int cost) {
+        return submit(() -> acquireEach(limits, cost), allowAll(limits.size()), "Access rate check task executed failed.");
+    }
+
+    /**
+     * Reads the permits each limit used in its current window without consuming any, including those
+     * admitted locally by sampled checking and not added to Redis yet.
+     * Unlike the checks, a failure is thrown to the caller.
+     */
+    public long[] peek(List<RateLimitLevel> limits) {
+        long[] used = multiRegionRateLimiter != null ? multiRegionRateLimiter.peek(limits)
+                : redisRateLimiterFactory.getMultiLevel().peek(limits);
+        for (int i = 0; i < used.length; i++) {
+            RateLimitLevel limit = limits.get(i);
+            if (isSampled(limit.getTimeUnit())) {
+                used[i] += sampledRateLimiter.pending(limit.getRateLimiterKey());
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Like {@link #peek(List)} for limits checked with {@link #checkRunStriped}, summing the stripes of every limit.
+     */
+    public long[] peekStriped(List<RateLimitLevel> limits, int stripes) {
+        List<RateLimitLevel> stripeLimits = new ArrayList<>();
+        for (RateLimitLevel limit : limits) {
+            int stripeCount = stripeCount(limit.getPermits(), stripes);
+            for (int stripe = 0; stripe < stripeCount; stripe++) {
+                stripeLimits.add(new RateLimitLevel(stripeKey(limit.getRateLimiterKey(), stripe), limit.getTimeUnit(),
+                        stripePermits(limit.getPermits(), stripeCount, stripe)));
+            }
+        }
+        long[] stripeUsed = peek(stripeLimits);
+        long[] used = new long[limits.size()];
+        int from = 0;
+        for (int i = 0; i < used.length; i++) {
+            int stripeCount = stripeCount(limits.get(i).getPermits(), stripes);
+            for (int stripe = 0; stripe < stripeCount; stripe++) {
+                used[i] += stripeUsed[from + stripe];
+            }
+            from += stripeCount;
+        }
+        return used;
+    }
+
+    public QuotaUsage peekQuota(String rateLimiterKey, QuotaPeriod period, long permits) {
+        return quotaLimiter.peek(rateLimiterKey, period, permits);
+    }
+
+    public CompletableFuture<Boolean> checkRunAsync(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        if (isSampled(timeUnit) && sampledRateLimiter.admitLocally(rateLimiterKey, cost)) {
+            return CompletableFuture.completedFuture(Boolean.TRUE);
+        }
+        return submitAsync(new CheckTask(rateLimiterKey, timeUnit, permits, cost)::call, Boolean.TRUE);
+    }
+
+    public CompletableFuture<Long> checkReserveAsync(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        return submitAsync(() -> reserve(rateLimiterKey, timeUnit, permits, cost), 0L);
+    }
+
+    public CompletableFuture<boolean[]> checkRunEachAsync(List<RateLimitLevel> limits, int cost) {
+        return submitAsync(() -> acquireEach(limits, cost), allowAll(limits.size()));
+    }
+
+    /**
+     * Runs the check on the executor, waiting for it at most the check action timeout. Returns {@code fallback}
+     * and publishes a {@link RateCheckFailureEvent} when it fails or times out.
+     */
+    private <T> T submit(Callable<T> task, T fallback, String failureMessage) {
+        Future<T> checkResult = executorService.submit(task);
+        try {
+            return checkResult.get(redisLimiterProperties.getCheckActionTimeout(), TimeUnit.MILLISECONDS);
+        }
+        catch(Exception e) {
+            applicationContext.publishEvent(new RateCheckFailureEvent(e, failureMessage));
+            return fallback;
+        }
+    }
+
+    /**
+     * Runs the check without blocking the caller, completing with {@code fallback} when it fails or
+     * takes longer than the check action timeout.
+     */
+    private <T> CompletableFuture<T> submitAsync(Supplier<T> task, T fallback) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (result.complete(fallback)) {
+                applicationContext.publishEvent(new RateCheckFailureEvent(new TimeoutException(), "Access rate check task executed failed."));
+            }
+        }, redisLimiterProperties.getCheckActionTimeout(), TimeUnit.MILLISECONDS);
+        CompletableFuture.supplyAsync(task, executorService).whenComplete((value, e) -> {
+            timeout.cancel(false);
+            if (e == null) {
+                result.complete(value);
+            } else if (result.complete(fallback)) {
+                applicationContext.publishEvent(new RateCheckFailureEvent(e, "Access rate check task executed failed."));
+            }
+        });
+        return result;
+    }
+
+    private boolean isSampled(TimeUnit timeUnit) {
+        return sampledRateLimiter != null && multiRegionRateLimiter == null && timeUnit == TimeUnit.SECONDS;
+    }
+
+    private long reserve(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
+        if (multiRegionRateLimiter != null) {
+            return multiRegionRateLimiter.reserve(rateLimiterKey, timeUnit, permits, cost);
+        }
+        return redisRateLimiterFactory.get(timeUnit).reserve(rateLimiterKey, permits, cost);
+    }
+
+    private boolean[] acquireEach(List<RateLimitLevel> limits, int cost) {
+        if (multiRegionRateLimiter != null) {
+            boolean[] allowed = new boolean[limits.size()];
+            for (int i = 0; i < allowed.length; i++) {
+                RateLimitLevel limit = limits.get(i);
+                allowed[i] = multiRegionRateLimiter.acquire(limit.getRateLimiterKey(), limit.getTimeUnit(), limit.getPermits(), cost);
+            }
+            return allowed;
+        }
+        return redisRateLimiterFactory.getMultiLevel().acquireEach(limits, cost);
+    }
+
+    private static boolean[] allowAll(int size) {
+        boolean[] allowed = new boolean[size];
+        Arrays.fill(allowed, true);
+        return allowed;
+    }
+
+    /**
+     * @return the acquired lease, {@link ConcurrencyLease#UNCHECKED} if the check failed, or null if all slots are taken
+     */
+    public ConcurrencyLease acquireConcurrency(String key, int maxConcurrency, int leaseSeconds) {
+        CompletableFuture<ConcurrencyLease> acquireResult = CompletableFuture.supplyAsync(
+                () -> redisConcurrencyLimiter.acquire(key, maxConcurrency, leaseSeconds), executorService);
+        ConcurrencyLease retVal = ConcurrencyLease.UNCHECKED;
         try {
-            retVal = checkResult.get(redisLimiterProperties.getCheckActionTimeout(), TimeUnit.MILLISECONDS);
+            retVal = acquireResult.get(redisLimiterProperties.getCheckActionTimeout(), TimeUnit.MILLISECONDS);
         }
         catch(Exception e) {
-            applicationContext.publishEvent(new RateCheckFailureEvent(e, "Access rate check task executed failed."));
+            // a slot acquired after the timeout must not stay held until its lease expires
+            acquireResult.thenAccept(lease -> {
+                if (lease != null) {
+                    lease.release();
+                }
+            });
+            applicationContext.publishEvent(new RateCheckFailureEvent(e, "Concurrency check task executed failed."));
         }
         return retVal;
     }
 
+    public CompletableFuture<ConcurrencyLease> acquireConcurrencyAsync(String key, int maxConcurrency, int leaseSeconds) {
+        CompletableFuture<ConcurrencyLease> acquireResult = CompletableFuture.supplyAsync(
+                () -> redisConcurrencyLimiter.acquire(key, maxConcurrency, leaseSeconds), executorService);
+        CompletableFuture<ConcurrencyLease> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (result.complete(ConcurrencyLease.UNCHECKED)) {
+                acquireResult.thenAccept(lease -> {
+                    if (lease != null) {
+                        lease.release();
+                    }
+                });
+                applicationContext.publishEvent(new RateCheckFailureEvent(new TimeoutException(), "Concurrency check task executed failed."));
+            }
+        }, redisLimiterProperties.getCheckActionTimeout(), TimeUnit.MILLISECONDS);
+        acquireResult.whenComplete((lease, e) -> {
+            timeout.cancel(false);
+            if (e == null) {
+                result.complete(lease);
+            } else if (result.complete(ConcurrencyLease.UNCHECKED)) {
+                applicationContext.publishEvent(new RateCheckFailureEvent(e, "Concurrency check task executed failed."));
+            }
+        });
+        return result;
+    }
+
     class CheckTask implements Callable<Boolean> {
         private String rateLimiterKey;
         private TimeUnit timeUnit;
         private int permits;
-        CheckTask(String rateLimiterKey, TimeUnit timeUnit, int permits) {
+        private int cost;
+        CheckTask(String rateLimiterKey, TimeUnit timeUnit, int permits, int cost) {
             this.rateLimiterKey = rateLimiterKey;
             this.timeUnit = timeUnit;
             this.permits = permits;
+            this.cost = cost;
         }
         public Boolean call() {
+            if (isSampled(timeUnit)) {
+                return sampledRateLimiter.check(rateLimiterKey, permits, cost);
+            }
+            if (multiRegionRateLimiter != null) {
+                return multiRegionRateLimiter.acquire(rateLimiterKey, timeUnit, permits, cost);
+            }
             RedisRateLimiter redisRatelimiter = redisRateLimiterFactory.get(timeUnit);
-            return redisRatelimiter.acquire(rateLimiterKey, permits);
+            return redisRatelimiter.acquire(rateLimiterKey, permits, cost);
+        }
+    }
+
+    class MultiLevelCheckTask implements Callable<Integer> {
+        private List<RateLimitLevel> levels;
+        private int cost;
+        MultiLevelCheckTask(List<RateLimitLevel> levels, int cost) {
+            this.levels = levels;
+            this.cost = cost;
+        }
+        public Integer call() {
+            if (multiRegionRateLimiter != null) {
+                return multiRegionRateLimiter.acquire(levels, cost);
+            }
+            return redisRateLimiterFactory.getMultiLevel().acquire(levels, cost);
         }
     }
 }
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redis based distributed semaphore limiting the number of requests in flight.
+ * Every slot is a member of a sorted set scored by the expiry of its lease, so the slots of a crashed node
+ * are reclaimed once their leases expire. Slots held by this node are renewed in the background.
+ * With a reserve batch greater than 1 a node reserves several slots per Redis call and hands them out
+ * locally, giving back the slots it does not use.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class RedisConcurrencyLimiter {
+    private static Logger logger = LoggerFactory.getLogger(RedisConcurrencyLimiter.class);
+
+    private static final String LUA_ACQUIRE_SCRIPT = " redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[1]); "
+            + " local granted = tonumber(ARGV[3]) - tonumber(redis.call('zcard', KEYS[1])); "
+            + " if granted > tonumber(ARGV[4]) then "
+            + "     granted = tonumber(ARGV[4]); "
+            + " end "
+            + " if granted < 0 then "
+            + "     granted = 0; "
+            + " end "
+            + " for i = 1, granted do "
+            + "     redis.call('zadd', KEYS[1], ARGV[2], ARGV[5] .. ':' .. i); "
+            + " end "
+            + " redis.call('pexpire', KEYS[1], ARGV[6]); "
+            + " return granted; ";
+
+    private static final String LUA_RENEW_SCRIPT = " redis.call('zremrangebyscore', KEYS[1], '-inf', ARGV[1]); "
+            + " local missing = {}; "
+            + " for i = 4, #ARGV do "
+            + "     if redis.call('zscore', KEYS[1], ARGV[i]) then "
+            + "         redis.call('zadd', KEYS[1], ARGV[2], ARGV[i]); "
+            + "     else "
+            + "         missing[#missing + 1] = ARGV[i]; "
+            + "     end "
+            + " end "
+            + " redis.call('pexpire', KEYS[1], ARGV[3]); "
+            + " return missing; ";
+
+    private final JedisPool jedisPool;
+
+    private final int reserveBatch;
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final AtomicLong leaseSequence = new AtomicLong();
+
+    private final ConcurrentHashMap<String, SlotPool> slotPoolMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-concurrency-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisConcurrencyLimiter(JedisPool jedisPool, int reserveBatch, long reconcileInterval) {
+        this.jedisPool = jedisPool;
+        this.reserveBatch = Math.max(1, reserveBatch);
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcileInterval, reconcileInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the acquired lease, or null if all slots of the key are taken
+     */
+    public ConcurrencyLease acquire(String key, int maxConcurrency, int leaseSeconds) {
+        long leaseMillis = leaseSeconds * 1000L;
+        SlotPool slotPool = slotPoolMap.computeIfAbsent(key, k -> new SlotPool());
+        String leaseId = slotPool.idle.pollFirst();
+        List<String> granted = Collections.emptyList();
+        if (leaseId == null) {
+            granted = reserve(key, maxConcurrency, leaseMillis);
+            if (granted.isEmpty()) {
+                return null;
+            }
+            leaseId = granted.get(0);
+        }
+        String acquired = leaseId;
+        List<String> reserved = granted;
+        // slots are only added under the map's lock, so reconcile never drops a pool holding slots
+        slotPoolMap.compute(key, (k, current) -> {
+            SlotPool pool = current == null ? slotPool : current;
+            pool.leaseMillis = leaseMillis;
+            pool.lastAcquire = System.currentTimeMillis();
+            pool.inUse.add(acquired);
+            for (int i = 1; i < reserved.size(); i++) {
+                pool.idle.addLast(reserved.get(i));
+            }
+            return pool;
+        });
+        return new ConcurrencyLease(this, key, leaseId);
+    }
+
+    void release(String key, String leaseId) {
+        boolean[] kept = new boolean[1];
+        slotPoolMap.computeIfPresent(key, (k, pool) -> {
+            if (pool.inUse.remove(leaseId) && pool.idle.size() < reserveBatch - 1) {
+                pool.idle.addFirst(leaseId);
+                kept[0] = true;
+            }
+            return pool;
+        });
+        if (!kept[0]) {
+            reconciler.execute(() -> giveBack(key, Collections.singletonList(leaseId)));
+        }
+    }
+
+    private List<String> reserve(String key, int maxConcurrency, long leaseMillis) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            long now = currentTimeMillis(jedis);
+            String leaseIdPrefix = nodeId + ":" + leaseSequence.incrementAndGet();
+            List<String> keys = Collections.singletonList(key);
+            List<String> argvs = new ArrayList<String>();
+            argvs.add(String.valueOf(now));
+            argvs.add(String.valueOf(now + leaseMillis));
+            argvs.add(String.valueOf(maxConcurrency));
+            argvs.add(String.valueOf(reserveBatch));
+            argvs.add(leaseIdPrefix);
+            argvs.add(String.valueOf(leaseMillis * 2));
+            Long granted = (Long) jedis.eval(LUA_ACQUIRE_SCRIPT, keys, argvs);
+            List<String> leaseIds = new ArrayList<String>(granted.intValue());
+            for (int i = 1; i <= granted; i++) {
+                leaseIds.add(leaseIdPrefix + ":" + i);
+            }
+            return leaseIds;
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    private void giveBack(String key, List<String> leaseIds) {
+        if (leaseIds.isEmpty()) {
+            return;
+        }
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            jedis.zrem(key, leaseIds.toArray(new String[0]));
+        } catch (Exception e) {
+            logger.warn("release concurrency slots of " + key + " failed, they will expire with their lease.", e);
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reconcile() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, SlotPool> entry : slotPoolMap.entrySet()) {
+            String key = entry.getKey();
+            SlotPool slotPool = entry.getValue();
+            try {
+                if (now - slotPool.lastAcquire > slotPool.leaseMillis / 3) {
+                    List<String> idleLeaseIds = new ArrayList<String>();
+                    String leaseId;
+                    while ((leaseId = slotPool.idle.pollFirst()) != null) {
+                        idleLeaseIds.add(leaseId);
+                    }
+                    giveBack(key, idleLeaseIds);
+                    if (slotPoolMap.computeIfPresent(key, (k, pool) -> pool.inUse.isEmpty() && pool.idle.isEmpty() ? null : pool) == null) {
+                        continue;
+                    }
+                }
+                if (now - slotPool.lastRenew < slotPool.leaseMillis / 3) {
+                    continue;
+                }
+                List<String> held = new ArrayList<String>(slotPool.inUse);
+                held.addAll(slotPool.idle);
+                if (held.isEmpty()) {
+                    continue;
+                }
+                Jedis jedis = null;
+                try {
+                    jedis = jedisPool.getResource();
+                    long redisNow = currentTimeMillis(jedis);
+                    List<String> argvs = new ArrayList<String>(held.size() + 3);
+                    argvs.add(String.valueOf(redisNow));
+                    argvs.add(String.valueOf(redisNow + slotPool.leaseMillis));
+                    argvs.add(String.valueOf(slotPool.leaseMillis * 2));
+                    argvs.addAll(held);
+                    List<String> missing = (List<String>) jedis.eval(LUA_RENEW_SCRIPT, Collections.singletonList(key), argvs);
+                    for (String lost : missing) {
+                        slotPool.idle.remove(lost);
+                        if (slotPool.inUse.remove(lost)) {
+                            logger.warn("concurrency slot " + lost + " of " + key + " expired while in use.");
+                        }
+                    }
+                    slotPool.lastRenew = now;
+                } finally {
+                    if (jedis != null) {
+                        jedis.close();
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("reconcile concurrency slots of " + key + " failed.", e);
+            }
+        }
+    }
+
+    private long currentTimeMillis(Jedis jedis) {
+        List<String> jedisTime = jedis.time();
+        return Long.parseLong(jedisTime.get(0)) * 1000 + Long.parseLong(jedisTime.get(1)) / 1000;
+    }
+
+    public void shutdown() {
+        reconciler.shutdownNow();
+        for (Map.Entry<String, SlotPool> entry : slotPoolMap.entrySet()) {
+            List<String> held = new ArrayList<String>(entry.getValue().inUse);
+            held.addAll(entry.getValue().idle);
+            giveBack(entry.getKey(), held);
+        }
+        slotPoolMap.clear();
+    }
+
+    private static final class SlotPool {
+        private final ConcurrentLinkedDeque<String> idle = new ConcurrentLinkedDeque<>();
+        private final Set<String> inUse = ConcurrentHashMap.newKeySet();
+        private volatile long leaseMillis;
+        private volatile long lastAcquire;
+        private volatile long lastRenew = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Checks several limits (e.g. user, tenant and endpoint) in one Lua call. Every level is checked
+ * before any permit is consumed, so permits are only taken when all levels allow the request.
+ * Keys are named exactly as {@link RedisRateLimiter} names them, so a level shares its counter
+ * with a single level limiter on the same key.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public class RedisMultiLevelRateLimiter {
+    private static final int LEVEL_COUNTER = 1;
+    private static final int LEVEL_PERIOD = 2;
+    private static final int ARGS_PER_LEVEL = 4;
+    private static final int PEEK_BATCH = 1000;
+
+    private static final RedisScript LUA_MULTI_LEVEL_SCRIPT = new RedisScript(RedisRateLimiter.LUA_WINDOW_FUNCTIONS + " local levels = tonumber(ARGV[1]); "
+            + " local cost = tonumber(ARGV[3]); "
+            + " for i = 1, levels do "
+            + "     local base = 3 + (i - 1) * 4; "
+            + "     local used; "
+            + "     if tonumber(ARGV[base + 1]) == 1 then "
+            + "         used = tonumber(redis.call('get', KEYS[2 * i - 1]) or '0'); "
+            + "     else "
+            + "         used = windowUsed(KEYS[2 * i - 1], KEYS[2 * i], ARGV[base + 4]); "
+            + "     end "
+            + "     if used + cost > tonumber(ARGV[base + 2]) then "
+            + "         return i; "
+            + "     end "
+            + " end "
+            + " for i = 1, levels do "
+            + "     local base = 3 + (i - 1) * 4; "
+            + "     if tonumber(ARGV[base + 1]) == 1 then "
+            + "         if tonumber(redis.call('incrby', KEYS[2 * i - 1], cost)) == cost then "
+            + "             redis.call('expire', KEYS[2 * i - 1], ARGV[base + 3]); "
+            + "         end "
+            + "     else "
+            + "         take(KEYS[2 * i], tonumber(ARGV[2]), cost, ARGV[base + 3]); "
+            + "     end "
+            + " end "
+            + " return 0 ");
+
+    private static final RedisScript LUA_EACH_LEVEL_SCRIPT = new RedisScript(RedisRateLimiter.LUA_WINDOW_FUNCTIONS + " local levels = tonumber(ARGV[1]); "
+            + " local cost = tonumber(ARGV[3]); "
+            + " local result = {}; "
+            + " for i = 1, levels do "
+            + "     local base = 3 + (i - 1) * 4; "
+            + "     local used; "
+            + "     if tonumber(ARGV[base + 1]) == 1 then "
+            + "         used = tonumber(redis.call('get', KEYS[2 * i - 1]) or '0'); "
+            + "     else "
+            + "         used = windowUsed(KEYS[2 * i - 1], KEYS[2 * i], ARGV[base + 4]); "
+            + "     end "
+            + "     if used + cost > tonumber(ARGV[base + 2]) then "
+            + "         result[i] = 0; "
+            + "     else "
+            + "         result[i] = 1; "
+            + "         if tonumber(ARGV[base + 1]) == 1 then "
+            + "             if tonumber(redis.call('incrby', KEYS[2 * i - 1], cost)) == cost then "
+            + "                 redis.call('expire', KEYS[2 * i - 1], ARGV[base + 3]); "
+            + "             end "
+            + "         else "
+            + "             take(KEYS[2 * i], tonumber(ARGV[2]), cost, ARGV[base + 3]); "
+            + "         end "
+            + "     end "
+            + " end "
+            + " return result ");
+
+    private static final RedisScript LUA_PEEK_SCRIPT = new RedisScript(RedisRateLimiter.LUA_WINDOW_FUNCTIONS + " local levels = tonumber(ARGV[1]); "
+            + " local result = {}; "
+            + " for i = 1, levels do "
+            + "     local base = 3 + (i - 1) * 4; "
+            + "     if tonumber(ARGV[base + 1]) == 1 then "
+            + "         result[i] = tonumber(redis.call('get', KEYS[2 * i - 1]) or '0'); "
+            + "     else "
+            + "         result[i] = windowUsed(KEYS[2 * i - 1], KEYS[2 * i], ARGV[base + 4]); "
+            + "     end "
+            + " end "
+            + " return result ");
+
+    private final RedisScriptExecutor redisScriptExecutor;
+
+    private final RedisRateLimiterFactory redisRateLimiterFactory;
+
+    /**
+     * @return 0 if every level allows the request, otherwise the 1-based index of the first level that denied it
+     */
+    public int acquire(List<RateLimitLevel> levels) {
+        return acquire(levels, 1);
+    }
+
+    /**
+     * Consume {@code cost} permits from every level, or none of them.
+     */
+    public int acquire(List<RateLimitLevel> levels, int cost) {
+        int rtv = 0;
+        if (redisScriptExecutor != null) {
+            // levels on the same key would all be checked before either takes its permits, so only the strictest is kept
+            List<RateLimitLevel> distinct = new ArrayList<>(levels.size());
+            List<Integer> origins = new ArrayList<>(levels.size());
+            for (int i = 0; i < levels.size(); i++) {
+                RateLimitLevel level = levels.get(i);
+                int same = indexOf(distinct, level);
+                if (same < 0) {
+                    distinct.add(level);
+                    origins.add(i);
+                } else if (level.getPermits() < distinct.get(same).getPermits()) {
+                    distinct.set(same, level);
+                    origins.set(same, i);
+                }
+            }
+            Long val = (Long) redisScriptExecutor.eval(LUA_MULTI_LEVEL_SCRIPT, jedisTime -> buildCall(jedisTime, distinct, cost));
+            rtv = val.intValue() == 0 ? 0 : origins.get(val.intValue() - 1) + 1;
+        }
+        return rtv;
+    }
+
+    private static int indexOf(List<RateLimitLevel> levels, RateLimitLevel level) {
+        for (int i = 0; i < levels.size(); i++) {
+            if (levels.get(i).getRateLimiterKey().equals(level.getRateLimiterKey()) && levels.get(i).getTimeUnit() == level.getTimeUnit()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consume {@code cost} permits from each limit that has them available, independently of the others,
+     * in one Lua call. Limits are taken one after the other, so limits on the same key each see the permits
+     * taken by the ones before.
+     *
+     * @return for every limit, whether its permits were consumed
+     */
+    @SuppressWarnings("unchecked")
+    public boolean[] acquireEach(List<RateLimitLevel> limits, int cost) {
+        boolean[] rtv = new boolean[limits.size()];
+        if (redisScriptExecutor != null && !limits.isEmpty()) {
+            List<Long> val = (List<Long>) redisScriptExecutor.eval(LUA_EACH_LEVEL_SCRIPT, jedisTime -> buildCall(jedisTime, limits, cost));
+            for (int i = 0; i < rtv.length; i++) {
+                rtv[i] = val.get(i) == 1;
+            }
+        }
+        return rtv;
+    }
+
+    /**
+     * Reads how many permits of each limit are used in its current window, without consuming any.
+     * Limits are read in one Lua call per 1000 limits.
+     */
+    @SuppressWarnings("unchecked")
+    public long[] peek(List<RateLimitLevel> limits) {
+        long[] rtv = new long[limits.size()];
+        if (redisScriptExecutor != null) {
+            for (int from = 0; from < limits.size(); from += PEEK_BATCH) {
+                List<RateLimitLevel> batch = limits.subList(from, Math.min(limits.size(), from + PEEK_BATCH));
+                List<Long> val = (List<Long>) redisScriptExecutor.eval(LUA_PEEK_SCRIPT, jedisTime -> buildCall(jedisTime, batch, 0));
+                for (int i = 0; i < val.size(); i++) {
+                    rtv[from + i] = val.get(i);
+                }
+            }
+        }
+        return rtv;
+    }
+
+    private ScriptCall buildCall(List<String> jedisTime, List<RateLimitLevel> levels, int cost) {
+        List<String> keys = new ArrayList<String>(levels.size() * 2);
+        List<String> argvs = new ArrayList<String>(3 + levels.size() * ARGS_PER_LEVEL);
+        long currentSecond = Long.parseLong(jedisTime.get(0));
+        long currentTimeInMicroSecond = currentSecond * 1000000 + Long.parseLong(jedisTime.get(1));
+        argvs.add(String.valueOf(levels.size()));
+        argvs.add(String.valueOf(currentTimeInMicroSecond));
+        argvs.add(String.valueOf(cost));
+        for (RateLimitLevel level : levels) {
+            RedisRateLimiter redisRateLimiter = redisRateLimiterFactory.get(level.getTimeUnit());
+            if (level.getTimeUnit() == TimeUnit.SECONDS) {
+                String keyName = level.getRateLimiterKey() + ":" + currentSecond;
+                keys.add(keyName);
+                keys.add(keyName);
+                argvs.add(String.valueOf(LEVEL_COUNTER));
+                argvs.add(String.valueOf(level.getPermits()));
+                argvs.add(String.valueOf(redisRateLimiter.getExpire()));
+                argvs.add("0");
+            } else {
+                String[] keyNames = redisRateLimiter.getKeyNames(currentSecond, level.getRateLimiterKey());
+                keys.add(keyNames[0]);
+                keys.add(keyNames[1]);
+                argvs.add(String.valueOf(LEVEL_PERIOD));
+                argvs.add(String.valueOf(level.getPermits()));
+                argvs.add(String.valueOf(redisRateLimiter.getExpire()));
+                argvs.add(String.valueOf(currentTimeInMicroSecond - redisRateLimiter.getPeriodMicrosecond()));
+            }
+        }
+        return new ScriptCall(keys, argvs);
+    }
+}
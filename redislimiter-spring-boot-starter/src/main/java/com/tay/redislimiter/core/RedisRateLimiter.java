@@ -23,8 +23,6 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import lombok.RequiredArgsConstructor;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
 
 /**
  * Redis based Rate limiter
@@ -33,36 +31,119 @@ import redis.clients.jedis.JedisPool;
  */
 @RequiredArgsConstructor
 public class RedisRateLimiter {
-    private JedisPool jedisPool;
+    private RedisScriptExecutor redisScriptExecutor;
     private TimeUnit timeUnit;
 //    private int permitsPerUnit;
-    private static final String LUA_SECOND_SCRIPT = " local current; "
-            + " current = redis.call('incr',KEYS[1]); "
-            + " if tonumber(current) == 1 then "
+    private static final RedisScript LUA_SECOND_SCRIPT = new RedisScript(" local current; "
+            + " local cost = tonumber(ARGV[3]); "
+            + " current = tonumber(redis.call('get',KEYS[1]) or '0'); "
+            + " if current + cost > tonumber(ARGV[2]) then "
+            + "     if cost > tonumber(ARGV[2]) then "
+            + "         return -1; "
+            + "     end "
+            + "     return 1000000 - tonumber(ARGV[4]); "
+            + " end "
+            + " current = redis.call('incrby',KEYS[1],cost); "
+            + " if tonumber(current) == cost then "
+            + " 	redis.call('expire',KEYS[1],ARGV[1]); "
+            + " end "
+            + " return 0; ");
+    private static final RedisScript LUA_SAMPLED_SECOND_SCRIPT = new RedisScript(" local current; "
+            + " current = tonumber(redis.call('incrby',KEYS[1],ARGV[3])); "
+            + " if current == tonumber(ARGV[3]) then "
             + " 	redis.call('expire',KEYS[1],ARGV[1]); "
-            + "     return 1; "
-            + " else"
-            + " 	if tonumber(current) <= tonumber(ARGV[2]) then "
-            + "     	return 1; "
-            + "		else "
-            + "			return -1; "
+            + " end "
+            + " if current > tonumber(ARGV[2]) then "
+            + "     current = tonumber(redis.call('decrby',KEYS[1],ARGV[4])); "
+            + "     return {0, current}; "
+            + " end "
+            + " return {1, current}; ");
+
+    /**
+     * Helpers of the sliding window scripts. A section(sorted set) holds one member per request, scored by time
+     * and named after the permits taken in the section up to and including that request, zero padded so that
+     * requests scored alike still sort in order. The permits used in a window are read from two members
+     * whatever the cost of the requests.
+     */
+    static final String LUA_WINDOW_FUNCTIONS = " local function weightOf(member) "
+            + "     local weight = string.match(member, '^c(%d+)$'); "
+            + "     if weight == nil then "
+            + "         return 0; "
             + "     end "
+            + "     return tonumber(weight); "
+            + " end "
+            + " local function last(key) "
+            + "     local entry = redis.call('zrange', key, -1, -1, 'WITHSCORES'); "
+            + "     if #entry == 0 then "
+            + "         return 0, nil; "
+            + "     end "
+            + "     return weightOf(entry[1]), tonumber(entry[2]); "
+            + " end "
+            + " local function before(key, since) "
+            + "     local entry = redis.call('zrevrangebyscore', key, '(' .. since, '-inf', 'LIMIT', 0, 1); "
+            + "     if #entry == 0 then "
+            + "         return 0; "
+            + "     end "
+            + "     return weightOf(entry[1]); "
+            + " end "
+            + " local function windowUsed(previous, current, since) "
+            + "     return last(current) + last(previous) - before(previous, since); "
+            + " end "
+            + " local function take(key, now, cost, expire) "
+            + "     local total, score = last(key); "
+            + "     if score ~= nil and score > now then "
+            + "         now = score; "
+            + "     end "
+            + "     redis.call('zadd', key, now, string.format('c%015d', total + cost)); "
+            + "     if total == 0 then "
+            + "         redis.call('expire', key, expire); "
+            + "     end "
+            + " end "
+            + " local function reaching(key, target) "
+            + "     local low = 0; "
+            + "     local high = tonumber(redis.call('zcard', key)) - 1; "
+            + "     if high < 0 then "
+            + "         return nil; "
+            + "     end "
+            + "     while low < high do "
+            + "         local middle = math.floor((low + high) / 2); "
+            + "         if weightOf(redis.call('zrange', key, middle, middle)[1]) >= target then "
+            + "             high = middle; "
+            + "         else "
+            + "             low = middle + 1; "
+            + "         end "
+            + "     end "
+            + "     return tonumber(redis.call('zrange', key, low, low, 'WITHSCORES')[2]); "
             + " end ";
-    private static final String LUA_PERIOD_SCRIPT =   " local currentSectionCount;"
-            + " local previosSectionCount;"
-            + " local totalCountInPeriod;"
-            + " currentSectionCount = redis.call('zcount', KEYS[2], '-inf', '+inf');"
-            + " previosSectionCount = redis.call('zcount', KEYS[1], ARGV[3], '+inf');"
-            + " totalCountInPeriod = tonumber(currentSectionCount)+tonumber(previosSectionCount);"
-            + " if totalCountInPeriod < tonumber(ARGV[5]) then "
-            + " 	redis.call('zadd',KEYS[2],ARGV[1],ARGV[2]);"
-            + "		if tonumber(currentSectionCount) == 0 then "
-            + "			redis.call('expire',KEYS[2],ARGV[4]); "
-            + "		end "
-            + "     return 1"
-            + "	else "
-            + " 	return -1"
-            + " end ";
+    private static final RedisScript LUA_PERIOD_SCRIPT = new RedisScript(LUA_WINDOW_FUNCTIONS
+            + " local cost = tonumber(ARGV[6]);"
+            + " local permits = tonumber(ARGV[5]);"
+            + " local now = tonumber(ARGV[1]);"
+            + " local previousLive = last(KEYS[1]) - before(KEYS[1], ARGV[3]);"
+            + " local totalCountInPeriod = previousLive + last(KEYS[2]);"
+            + " if totalCountInPeriod + cost <= permits then "
+            + "     take(KEYS[2], now, cost, ARGV[4]);"
+            + "     return 0;"
+            + " end "
+            + " if cost > permits then "
+            + "     return -1;"
+            + " end "
+            + " local need = totalCountInPeriod + cost - permits;"
+            + " local period = now - tonumber(ARGV[3]);"
+            + " local expiring;"
+            + " if need <= previousLive then "
+            + "     expiring = reaching(KEYS[1], before(KEYS[1], ARGV[3]) + need);"
+            + " else "
+            + "     expiring = reaching(KEYS[2], need - previousLive);"
+            + " end "
+            + " if expiring == nil then "
+            + "     return period;"
+            + " end "
+            + " local delay = expiring + period - now + 1;"
+            + " if delay < 1 then "
+            + "     delay = 1;"
+            + " end "
+            + " return delay ");
 
     private static final int PERIOD_SECOND_TTL = 10;
     private static final int PERIOD_MINUTE_TTL = 2 * 60 + 10;
@@ -73,13 +154,13 @@ public class RedisRateLimiter {
     private static final long MICROSECONDS_IN_HOUR = 3600 * 1000000L;
     private static final long MICROSECONDS_IN_DAY = 24 * 3600 * 1000000L;
 
-    public RedisRateLimiter(JedisPool jedisPool, TimeUnit timeUnit) {
-        this.jedisPool = jedisPool;
+    public RedisRateLimiter(RedisScriptExecutor redisScriptExecutor, TimeUnit timeUnit) {
+        this.redisScriptExecutor = redisScriptExecutor;
         this.timeUnit = timeUnit;
     }
 
-    public JedisPool getJedisPool() {
-        return jedisPool;
+    public RedisScriptExecutor getRedisScriptExecutor() {
+        return redisScriptExecutor;
     }
 
     public TimeUnit getTimeUnit() {
@@ -87,35 +168,77 @@ public class RedisRateLimiter {
     }
 
     public boolean acquire(String keyPrefix, int permitsPerUnit){
-        boolean rtv = false;
-        if (jedisPool != null) {
-            Jedis jedis = null;
-            try {
-                jedis = jedisPool.getResource();
-                if (timeUnit == TimeUnit.SECONDS) {
-                    String keyName = getKeyNameForSecond(jedis, keyPrefix);
+        return acquire(keyPrefix, permitsPerUnit, 1);
+    }
+
+    /**
+     * Consume {@code cost} permits atomically, a request is only admitted when all of them are available.
+     */
+    public boolean acquire(String keyPrefix, int permitsPerUnit, int cost){
+        return reserve(keyPrefix, permitsPerUnit, cost) == 0;
+    }
+
+    /**
+     * Consume {@code cost} permits if they are available.
+     *
+     * @return 0 if the permits were consumed, otherwise the delay(MICROSECONDS) until they may be available,
+     * or -1 if they never will
+     */
+    public long reserve(String keyPrefix, int permitsPerUnit, int cost){
+        long rtv = -1;
+        if (redisScriptExecutor != null) {
+            if (timeUnit == TimeUnit.SECONDS) {
+                Long val = (Long) redisScriptExecutor.eval(LUA_SECOND_SCRIPT, jedisTime -> {
+                    String keyName = keyPrefix + ":" + jedisTime.get(0);
 
                     List<String> keys = new ArrayList<String>();
                     keys.add(keyName);
                     List<String> argvs = new ArrayList<String>();
                     argvs.add(String.valueOf(getExpire()));
                     argvs.add(String.valueOf(permitsPerUnit));
-                    Long val = (Long)jedis.eval(LUA_SECOND_SCRIPT, keys, argvs);
-                    rtv = (val > 0);
-
-                } else if (timeUnit == TimeUnit.MINUTES || timeUnit == TimeUnit.HOURS || timeUnit == TimeUnit.DAYS) {
-                    rtv = doPeriod(jedis, keyPrefix, permitsPerUnit);
-                }
-            } finally {
-                if (jedis != null) {
-                    jedis.close();
-                }
+                    argvs.add(String.valueOf(cost));
+                    argvs.add(jedisTime.get(1));
+                    return new ScriptCall(keys, argvs);
+                });
+                rtv = val;
+
+            } else if (timeUnit == TimeUnit.MINUTES || timeUnit == TimeUnit.HOURS || timeUnit == TimeUnit.DAYS) {
+                rtv = (Long) redisScriptExecutor.eval(LUA_PERIOD_SCRIPT, jedisTime -> doPeriod(jedisTime, keyPrefix, permitsPerUnit, cost));
             }
         }
         return rtv;
     }
-    private boolean doPeriod(Jedis jedis, String keyPrefix, int permitsPerUnit) {
-        List<String> jedisTime = jedis.time();
+    /**
+     * Adds {@code weight} permits taken by requests admitted without asking Redis, unconditionally,
+     * and decides on the sampled request itself. Only supported for {@link TimeUnit#SECONDS}.
+     *
+     * @param refund permits given back when the sampled request is denied
+     * @return whether the sampled request is admitted, and the permits used in the current second
+     */
+    @SuppressWarnings("unchecked")
+    public long[] acquireSampled(String keyPrefix, int permitsPerUnit, long weight, long refund) {
+        if (timeUnit != TimeUnit.SECONDS) {
+            throw new java.lang.IllegalArgumentException("Don't support sampling for this TimeUnit: " + timeUnit);
+        }
+        long[] rtv = new long[] {1, 0};
+        if (redisScriptExecutor != null) {
+            List<Long> val = (List<Long>) redisScriptExecutor.eval(LUA_SAMPLED_SECOND_SCRIPT, jedisTime -> {
+                List<String> keys = new ArrayList<String>();
+                keys.add(keyPrefix + ":" + jedisTime.get(0));
+                List<String> argvs = new ArrayList<String>();
+                argvs.add(String.valueOf(getExpire()));
+                argvs.add(String.valueOf(permitsPerUnit));
+                argvs.add(String.valueOf(weight));
+                argvs.add(String.valueOf(refund));
+                return new ScriptCall(keys, argvs);
+            });
+            rtv[0] = val.get(0);
+            rtv[1] = val.get(1);
+        }
+        return rtv;
+    }
+
+    private ScriptCall doPeriod(List<String> jedisTime, String keyPrefix, int permitsPerUnit, int cost) {
         long currentSecond = Long.parseLong(jedisTime.get(0));
         long microSecondsElapseInCurrentSecond = Long.parseLong(jedisTime.get(1));
         String[] keyNames = getKeyNames(currentSecond, keyPrefix);
@@ -134,8 +257,8 @@ public class RedisRateLimiter {
         argvs.add(previousSectionBeginScore);
         argvs.add(expires);
         argvs.add(String.valueOf(permitsPerUnit));
-        Long val = (Long)jedis.eval(LUA_PERIOD_SCRIPT, keys, argvs);
-        return (val > 0);
+        argvs.add(String.valueOf(cost));
+        return new ScriptCall(keys, argvs);
     }
 
 
@@ -147,11 +270,7 @@ public class RedisRateLimiter {
 //		return currentTimeInMicroSecond;
 //	}
 
-    private String getKeyNameForSecond(Jedis jedis, String keyPrefix) {
-        return keyPrefix + ":" + jedis.time().get(0);
-    }
-
-    private String[] getKeyNames(long currentSecond, String keyPrefix) {
+    String[] getKeyNames(long currentSecond, String keyPrefix) {
         String[] keyNames = null;
         if (timeUnit == TimeUnit.MINUTES) {
             long index = currentSecond / 60;
@@ -174,7 +293,7 @@ public class RedisRateLimiter {
         return keyNames;
     }
 
-    private int getExpire() {
+    int getExpire() {
         int expire = 0;
         if (timeUnit == TimeUnit.SECONDS) {
             expire = PERIOD_SECOND_TTL;
@@ -190,7 +309,7 @@ public class RedisRateLimiter {
         return expire;
     }
 
-    private long getPeriodMicrosecond() {
+    long getPeriodMicrosecond() {
         if (timeUnit == TimeUnit.MINUTES) {
             return MICROSECONDS_IN_MINUTE;
         } else if (timeUnit == TimeUnit.HOURS) {
@@ -23,29 +23,41 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
-import redis.clients.jedis.JedisPool;
 
 import java.util.concurrent.TimeUnit;
 
 @RequiredArgsConstructor
 public final class RedisRateLimiterFactory {
 
-    private final JedisPool jedisPool;
+    private final RedisScriptExecutor redisScriptExecutor;
 
     private Cache<TimeUnit, RedisRateLimiter> redisRateLimiterCache =
             Caffeine.newBuilder().maximumSize(10).build();
 
+    private volatile RedisMultiLevelRateLimiter redisMultiLevelRateLimiter;
+
     public RedisRateLimiter get(TimeUnit timeUnit) {
         RedisRateLimiter redisRateLimiter = redisRateLimiterCache.getIfPresent(timeUnit);
         if(redisRateLimiter == null) {
             synchronized (RedisRateLimiterFactory.class) {
                 redisRateLimiter = redisRateLimiterCache.getIfPresent(timeUnit);
                 if(redisRateLimiter == null) {
-                    redisRateLimiter = new RedisRateLimiter(jedisPool, timeUnit);
+                    redisRateLimiter = new RedisRateLimiter(redisScriptExecutor, timeUnit);
                     redisRateLimiterCache.put(timeUnit, redisRateLimiter);
                 }
             }
         }
         return redisRateLimiter;
     }
+
+    public RedisMultiLevelRateLimiter getMultiLevel() {
+        if(redisMultiLevelRateLimiter == null) {
+            synchronized (RedisRateLimiterFactory.class) {
+                if(redisMultiLevelRateLimiter == null) {
+                    redisMultiLevelRateLimiter = new RedisMultiLevelRateLimiter(redisScriptExecutor, this);
+                }
+            }
+        }
+        return redisMultiLevelRateLimiter;
+    }
 }
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Runs the limiter scripts. Every script needs the Redis clock, so the executor reads it, or estimates it
+ * from a recent reading, and builds the keys and arguments of the call from it.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public interface RedisScriptExecutor {
+
+    /**
+     * @param callAt builds the call from the result of the Redis TIME command
+     * @return the script result, a Long for integer replies and a List for array replies
+     */
+    Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt);
+
+    void shutdown();
+}
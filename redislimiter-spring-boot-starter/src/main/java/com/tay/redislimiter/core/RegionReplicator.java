@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies the counter fields of this region to the Redis of every other region at a fixed interval.
+ * The absolute value of a field is sent rather than the increments, and merged by maximum, so sending a value
+ * twice or out of order does no harm. Values that could not be sent to a region are kept and sent with the
+ * next round.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class RegionReplicator {
+    private static Logger logger = LoggerFactory.getLogger(RegionReplicator.class);
+
+    private static final RedisScript LUA_DRAIN_SCRIPT = new RedisScript(" local keys = redis.call('smembers', KEYS[1]); "
+            + " redis.call('del', KEYS[1]); "
+            + " local changed = {}; "
+            + " for i = 1, #keys do "
+            + "     local count = redis.call('hget', keys[i], ARGV[1]); "
+            + "     local ttl = redis.call('pttl', keys[i]); "
+            + "     if count and ttl > 0 then "
+            + "         changed[#changed + 1] = keys[i]; "
+            + "         changed[#changed + 1] = count; "
+            + "         changed[#changed + 1] = tostring(ttl); "
+            + "     end "
+            + " end "
+            + " return changed; ");
+
+    private static final RedisScript LUA_MERGE_SCRIPT = new RedisScript(" for i = 1, #KEYS do "
+            + "     local count = tonumber(ARGV[2 * i]); "
+            + "     local current = tonumber(redis.call('hget', KEYS[i], ARGV[1]) or '0'); "
+            + "     if count > current then "
+            + "         redis.call('hset', KEYS[i], ARGV[1], count); "
+            + "     end "
+            + "     if redis.call('pttl', KEYS[i]) < tonumber(ARGV[2 * i + 1]) then "
+            + "         redis.call('pexpire', KEYS[i], ARGV[2 * i + 1]); "
+            + "     end "
+            + " end "
+            + " return 0; ");
+
+    private static final int MERGE_BATCH = 500;
+
+    private final RedisScriptExecutor localExecutor;
+
+    private final MultiRegionRateLimiter multiRegionRateLimiter;
+
+    private final Map<String, JedisPool> remotePools;
+
+    /**
+     * per region, the values not sent yet: key -> {count, expiry(MILLISECONDS)}
+     */
+    private final Map<String, Map<String, long[]>> pendingMap = new HashMap<>();
+
+    private final ScheduledExecutorService replicator = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-region-replicator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RegionReplicator(RedisScriptExecutor localExecutor, MultiRegionRateLimiter multiRegionRateLimiter,
+                            Map<String, JedisPool> remotePools, long replicationInterval) {
+        this.localExecutor = localExecutor;
+        this.multiRegionRateLimiter = multiRegionRateLimiter;
+        this.remotePools = remotePools;
+        for (String region : remotePools.keySet()) {
+            pendingMap.put(region, new HashMap<>());
+        }
+        replicator.scheduleWithFixedDelay(this::replicate, replicationInterval, replicationInterval, TimeUnit.MILLISECONDS);
+    }
+
+    void replicate() {
+        List<?> changed;
+        try {
+            changed = (List<?>) localExecutor.eval(LUA_DRAIN_SCRIPT, jedisTime -> new ScriptCall(
+                    Collections.singletonList(multiRegionRateLimiter.getDirtySetKey()),
+                    Collections.singletonList(multiRegionRateLimiter.getRegion())));
+        } catch (Exception e) {
+            logger.warn("reading changed counters failed.", e);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, JedisPool> remote : remotePools.entrySet()) {
+            Map<String, long[]> pending = pendingMap.get(remote.getKey());
+            for (int i = 0; i + 2 < changed.size(); i += 3) {
+                pending.merge(String.valueOf(changed.get(i)), new long[] {Long.parseLong(String.valueOf(changed.get(i + 1))),
+                        now + Long.parseLong(String.valueOf(changed.get(i + 2)))},
+                        (old, value) -> new long[] {Math.max(old[0], value[0]), Math.max(old[1], value[1])});
+            }
+            pending.values().removeIf(value -> value[1] <= now);
+            if (pending.isEmpty()) {
+                continue;
+            }
+            try (Jedis jedis = remote.getValue().getResource()) {
+                List<String> keys = new ArrayList<>(MERGE_BATCH);
+                List<String> args = new ArrayList<>(MERGE_BATCH * 2 + 1);
+                for (Map.Entry<String, long[]> entry : pending.entrySet()) {
+                    keys.add(entry.getKey());
+                    args.add(String.valueOf(entry.getValue()[0]));
+                    args.add(String.valueOf(entry.getValue()[1] - now));
+                    if (keys.size() == MERGE_BATCH) {
+                        merge(jedis, keys, args);
+                        keys.clear();
+                        args.clear();
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    merge(jedis, keys, args);
+                }
+                pending.clear();
+            } catch (Exception e) {
+                logger.warn("replicating counters to region " + remote.getKey() + " failed, " + pending.size() + " counters pending.", e);
+            }
+        }
+    }
+
+    private void merge(Jedis jedis, List<String> keys, List<String> counts) {
+        List<String> args = new ArrayList<>(counts.size() + 1);
+        args.add(multiRegionRateLimiter.getRegion());
+        args.addAll(counts);
+        try {
+            jedis.evalsha(LUA_MERGE_SCRIPT.getSha1(), keys, args);
+        } catch (JedisNoScriptException e) {
+            jedis.eval(LUA_MERGE_SCRIPT.getSource(), keys, args);
+        }
+    }
+
+    public void shutdown() {
+        replicator.shutdownNow();
+        for (JedisPool jedisPool : remotePools.values()) {
+            jedisPool.close();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.core;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks per second limits against Redis for only a sample of the requests. A node admits requests of a key
+ * locally until their permits add up to the key's sample size, then adds them to the Redis counter with the
+ * permits of the sampled request in one INCRBY. The sample size follows the permits left in the current second:
+ * {@code remaining * samplingFraction}, at most maxSampleSize, and 1 (exact checking) once a request was denied.
+ * So a node admits at most {@code samplingFraction} of the remaining permits without asking Redis, and the
+ * limit is exceeded by at most {@code nodes * samplingFraction * permits} per second. Permits admitted locally
+ * are also added every flush interval, so they are charged to the second they were taken in even if no
+ * sampled request follows.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class SampledRateLimiter {
+    private static Logger logger = LoggerFactory.getLogger(SampledRateLimiter.class);
+
+    private final RedisRateLimiterFactory redisRateLimiterFactory;
+
+    private final double samplingFraction;
+
+    private final int maxSampleSize;
+
+    private final Cache<String, KeyState> keyStateCache = Caffeine.newBuilder()
+            .expireAfterAccess(1, TimeUnit.MINUTES).maximumSize(100000).build();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-sample-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param flushInterval interval(MILLISECONDS) of adding locally admitted permits to Redis, 0 to add them
+     *                      only with the next sampled check
+     */
+    public SampledRateLimiter(RedisRateLimiterFactory redisRateLimiterFactory, double samplingFraction, int maxSampleSize, long flushInterval) {
+        this.redisRateLimiterFactory = redisRateLimiterFactory;
+        this.samplingFraction = samplingFraction;
+        this.maxSampleSize = maxSampleSize;
+        if (flushInterval > 0) {
+            flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if the request is admitted without asking Redis, otherwise {@link #check} decides on it
+     */
+    public boolean admitLocally(String rateLimiterKey, int cost) {
+        KeyState keyState = keyStateCache.get(rateLimiterKey, k -> new KeyState());
+        return keyState.pending.addAndGet(cost) < keyState.sampleSize;
+    }
+
+    public boolean check(String rateLimiterKey, int permits, int cost) {
+        KeyState keyState = keyStateCache.get(rateLimiterKey, k -> new KeyState());
+        synchronized (keyState) {
+            keyState.permits = permits;
+            // includes the cost of this request, unless a concurrent check or flush has already added it
+            long weight = keyState.pending.getAndSet(0);
+            return charge(rateLimiterKey, keyState, weight, Math.min(weight, cost));
+        }
+    }
+
+    /**
+     * @return permits admitted locally for the key that are not added to Redis yet
+     */
+    public long pending(String rateLimiterKey) {
+        KeyState keyState = keyStateCache.getIfPresent(rateLimiterKey);
+        return keyState == null ? 0 : keyState.pending.get();
+    }
+
+    /**
+     * Adds the permits admitted locally of all keys to their counters.
+     */
+    void flush() {
+        for (Map.Entry<String, KeyState> entry : keyStateCache.asMap().entrySet()) {
+            KeyState keyState = entry.getValue();
+            if (keyState.pending.get() == 0) {
+                continue;
+            }
+            synchronized (keyState) {
+                long weight = keyState.pending.getAndSet(0);
+                try {
+                    charge(entry.getKey(), keyState, weight, 0);
+                } catch (Exception e) {
+                    keyState.pending.addAndGet(weight);
+                    logger.warn("flushing sampled permits of " + entry.getKey() + " failed.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the weight to the counter and adapts the sample size to the permits left.
+     *
+     * @return whether the counter stayed within the limit, after giving back the refund otherwise
+     */
+    private boolean charge(String rateLimiterKey, KeyState keyState, long weight, long refund) {
+        long[] result = redisRateLimiterFactory.get(TimeUnit.SECONDS).acquireSampled(rateLimiterKey, keyState.permits, weight, refund);
+        boolean admitted = result[0] == 1;
+        if (admitted) {
+            long remaining = keyState.permits - result[1];
+            keyState.sampleSize = (int) Math.max(1, Math.min(maxSampleSize, (long) (remaining * samplingFraction)));
+        } else {
+            keyState.sampleSize = 1;
+        }
+        return admitted;
+    }
+
+    public void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    private static final class KeyState {
+        private final AtomicLong pending = new AtomicLong();
+        private volatile int sampleSize = 1;
+        /**
+         * permits of the limit, set by the first check, which precedes every local admission
+         */
+        private volatile int permits;
+    }
+}
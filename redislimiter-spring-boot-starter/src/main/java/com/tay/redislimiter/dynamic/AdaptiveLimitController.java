@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.RedisLimiterProperties;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adjusts the permits of adaptive {@link DynamicRateLimiter}s with an AIMD algorithm.
+ * Every node measures the latency and errors of the requests it admits and adds them to a per interval hash in Redis.
+ * Half an interval later one node, elected with SET NX, reads the cluster-wide totals, decreases the permits
+ * multiplicatively when latency or error rate is too high and increases them additively otherwise,
+ * then publishes the new permits through the dynamic configuration channel.
+ */
+@RequiredArgsConstructor
+public final class AdaptiveLimitController implements ApplicationContextAware, InitializingBean, DisposableBean {
+    private static Logger logger = LoggerFactory.getLogger(AdaptiveLimitController.class);
+
+    private final JedisPool jedisPool;
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final RedisLimiterConfigProcessor redisLimiterConfigProcessor;
+
+    private ApplicationContext applicationContext;
+
+    private String applicationName;
+
+    private final ConcurrentHashMap<String, Stats> statsMap = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "redis-limiter-adaptive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        applicationName = applicationContext.getEnvironment().getProperty("spring.application.name");
+        if(applicationName == null) {
+            throw new BeanInitializationException("the property with key 'spring.application.name' must be set!");
+        }
+        long interval = redisLimiterProperties.getAdaptiveInterval();
+        long initialDelay = interval - System.currentTimeMillis() % interval;
+        scheduler.scheduleAtFixedRate(this::tick, initialDelay, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public void record(String limiterConfigKey, long latencyMillis, boolean error) {
+        Stats stats = statsMap.computeIfAbsent(limiterConfigKey, k -> new Stats());
+        stats.count.increment();
+        stats.latencySum.add(latencyMillis);
+        if (error) {
+            stats.errors.increment();
+        }
+    }
+
+    private void tick() {
+        long interval = redisLimiterProperties.getAdaptiveInterval();
+        long window = window(System.currentTimeMillis(), interval);
+        try {
+            flush(window);
+        } catch (Exception e) {
+            logger.warn("flush adaptive limiter statistics failed.", e);
+        }
+        scheduler.schedule(() -> adjustAll(window), interval / 2, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(long window) {
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            Pipeline pipeline = jedis.pipelined();
+            long ttl = redisLimiterProperties.getAdaptiveInterval() * 3;
+            for (Map.Entry<String, Stats> entry : statsMap.entrySet()) {
+                Stats stats = entry.getValue();
+                long count = stats.count.sumThenReset();
+                long errors = stats.errors.sumThenReset();
+                long latencySum = stats.latencySum.sumThenReset();
+                if (count == 0) {
+                    continue;
+                }
+                String statsKey = statsKey(entry.getKey(), window);
+                pipeline.hincrBy(statsKey, "count", count);
+                pipeline.hincrBy(statsKey, "errors", errors);
+                pipeline.hincrBy(statsKey, "latency", latencySum);
+                pipeline.pexpire(statsKey, ttl);
+            }
+            pipeline.sync();
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    private void adjustAll(long window) {
+        for (LimiterConfig limiterConfig : redisLimiterConfigProcessor.getConfigs()) {
+            if (!limiterConfig.isAdaptive()) {
+                continue;
+            }
+            String limiterConfigKey = limiterConfig.getControllerName() + ":" + limiterConfig.getMethodName();
+            try {
+                adjust(limiterConfigKey, limiterConfig, window);
+            } catch (Exception e) {
+                logger.warn("adjust adaptive limiter " + limiterConfigKey + " failed.", e);
+            }
+        }
+    }
+
+    /**
+     * @return the window that ended at the interval boundary closest to {@code nowMillis}, so a tick firing
+     * slightly early or late still closes the same window
+     */
+    static long window(long nowMillis, long interval) {
+        return (nowMillis + interval / 2) / interval - 1;
+    }
+
+    void adjust(String limiterConfigKey, LimiterConfig limiterConfig, long window) throws Exception {
+        Map<String, String> totals;
+        Jedis jedis = null;
+        try {
+            jedis = jedisPool.getResource();
+            String statsKey = statsKey(limiterConfigKey, window);
+            String locked = jedis.set(statsKey + ":leader", applicationName, "NX", "PX", redisLimiterProperties.getAdaptiveInterval() * 3);
+            if (locked == null) {
+                return;
+            }
+            totals = jedis.hgetAll(statsKey);
+            int permits = nextPermits(limiterConfig, parse(totals.get("count")), parse(totals.get("errors")), parse(totals.get("latency")));
+            if (permits != limiterConfig.getPermits()) {
+                ObjectMapper objectMapper = new ObjectMapper();
+                LimiterConfig adjusted = scale(objectMapper.convertValue(limiterConfig, LimiterConfig.class), permits);
+                jedis.publish(redisLimiterProperties.getChannel(), objectMapper.writeValueAsString(adjusted));
+                logger.info("adaptive limiter " + limiterConfigKey + " permits changed from " + limiterConfig.getPermits() + " to " + permits);
+            }
+        } finally {
+            if (jedis != null) {
+                jedis.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the permits of the configuration and scales its levels, which are what requests are checked against,
+     * in the ratio of the new permits to the configured permits.
+     */
+    static LimiterConfig scale(LimiterConfig limiterConfig, int permits) {
+        if (limiterConfig.getConfiguredPermits() == null) {
+            limiterConfig.setConfiguredPermits(limiterConfig.getPermits());
+        }
+        List<LimiterLevel> levels = limiterConfig.getLevels();
+        if (levels != null && (limiterConfig.getConfiguredLevelPermits() == null || limiterConfig.getConfiguredLevelPermits().size() != levels.size())) {
+            List<Integer> configuredLevelPermits = new ArrayList<>(levels.size());
+            for (LimiterLevel level : levels) {
+                configuredLevelPermits.add(level.getPermits());
+            }
+            limiterConfig.setConfiguredLevelPermits(configuredLevelPermits);
+        }
+        int configuredPermits = Math.max(1, limiterConfig.getConfiguredPermits());
+        limiterConfig.setPermits(permits);
+        if (levels != null) {
+            for (int i = 0; i < levels.size(); i++) {
+                levels.get(i).setPermits(Math.max(1, (int) Math.round((double) limiterConfig.getConfiguredLevelPermits().get(i) * permits / configuredPermits)));
+            }
+        }
+        return limiterConfig;
+    }
+
+    int nextPermits(LimiterConfig limiterConfig, long count, long errors, long latencySum) {
+        int permits = limiterConfig.getPermits();
+        int minPermits = Math.max(1, limiterConfig.getMinPermits());
+        int maxPermits = Math.max(minPermits, limiterConfig.getMaxPermits());
+        if (count < redisLimiterProperties.getAdaptiveMinSamples()) {
+            return permits;
+        }
+        boolean overloaded = (double) errors / count > limiterConfig.getMaxErrorRate()
+                || (limiterConfig.getTargetLatency() > 0 && latencySum / count > limiterConfig.getTargetLatency());
+        int next;
+        if (overloaded) {
+            next = (int) (permits * redisLimiterProperties.getAdaptiveDecreaseFactor());
+        } else {
+            next = permits + Math.max(1, (maxPermits - minPermits) / 20);
+        }
+        return Math.min(maxPermits, Math.max(minPermits, next));
+    }
+
+    private String statsKey(String limiterConfigKey, long window) {
+        return redisLimiterProperties.getRedisKeyPrefix() + ":" + applicationName + ":adaptive:" + limiterConfigKey + ":" + window;
+    }
+
+    private static long parse(String value) {
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private static final class Stats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder latencySum = new LongAdder();
+    }
+}
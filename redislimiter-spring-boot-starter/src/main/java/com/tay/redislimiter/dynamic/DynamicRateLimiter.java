@@ -18,6 +18,7 @@
  */
 package com.tay.redislimiter.dynamic;
 
+import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.util.concurrent.TimeUnit;
@@ -27,7 +28,13 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 
 @Retention(RUNTIME)
 @Target({ METHOD })
+@Repeatable(DynamicRateLimiters.class)
 public @interface DynamicRateLimiter {
+    /**
+     * name of the quota level, reported when this level denies a request of a repeated DynamicRateLimiter
+     */
+    String name() default "";
+
     String base() default "";
 
     String path() default "";
@@ -35,4 +42,54 @@ public @interface DynamicRateLimiter {
     TimeUnit timeUnit() default TimeUnit.SECONDS;
 
     int permits() default 10000;
+
+    /**
+     * permits consumed by one request, a constant such as "10" or a Spel expression over
+     * #Headers, #Cookies, #Attributes, #Params and #ContentLength
+     */
+    String cost() default "1";
+
+    /**
+     * max time(MILLISECONDS) a denied request waits for a permit before it is rejected, 0 means no waiting
+     */
+    long maxWait() default 0;
+
+    /**
+     * Spel expression resolving the priority class of a request, e.g. "#Headers['x-plan']"
+     */
+    String priority() default "";
+
+    /**
+     * priority classes, highest first, as "name" or "name:reserved share", e.g. {"internal", "premium:0.1", "free:0.4"};
+     * requests of no listed class belong to the last one
+     */
+    String[] priorities() default {};
+
+    /**
+     * spread a limit without base value over this many Redis keys, each with its share of the permits,
+     * for endpoints too hot for a single key
+     */
+    int stripes() default 1;
+
+    /**
+     * adjust permits between minPermits and maxPermits from the latency and error rate observed cluster-wide
+     */
+    boolean adaptive() default false;
+
+    int minPermits() default 1;
+
+    /**
+     * upper bound of adaptive permits, 0 means the initial permits
+     */
+    int maxPermits() default 0;
+
+    /**
+     * average handler latency(MILLISECONDS) above which adaptive permits are decreased, 0 means latency is ignored
+     */
+    long targetLatency() default 0;
+
+    /**
+     * ratio of failed requests above which adaptive permits are decreased
+     */
+    double maxErrorRate() default 0.1;
 }
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import lombok.Data;
+
+/**
+ * Limit negotiated for one base value of a limiter, e.g. a customer, replacing the permits and time unit
+ * of the levels evaluating to that base value. Published on the dynamic configuration channel with kind "override".
+ */
+@Data
+public final class LimitOverride {
+    public static final String KIND = "override";
+
+    private String kind = KIND;
+    private String applicationName;
+    /**
+     * limiter the override applies to, "Controller:method" or a pattern rule key such as "GET /orders/**"
+     */
+    private String limiter;
+    /**
+     * name of the limiter level the override applies to, "" for an unnamed level
+     */
+    private String level = "";
+    private String baseValue;
+    private String timeUnit;
+    private int permits;
+    private boolean deleted;
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per base value limit overrides. Overrides are stored in one Redis hash per application, field
+ * {@code <limiter>|<level>|<base value>}, value {@code <permits>/<time unit>}, and read through a bounded local cache:
+ * the cache is filled with HSCAN at startup, entries are reloaded in the background once they are older than the
+ * refresh interval, and changes published on the dynamic configuration channel are applied at once.
+ * A lookup never waits for Redis; a base value not cached yet is loaded in the background and uses the limiter's
+ * own limit meanwhile. Base values without an override are remembered in a cache of their own for one refresh
+ * interval, so they don't evict overrides. A failed load is not remembered and is retried on the next lookup.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class LimitOverrideRegistry implements ApplicationContextAware, InitializingBean {
+    private static Logger logger = LoggerFactory.getLogger(LimitOverrideRegistry.class);
+
+    /**
+     * loads of uncached base values running at once at most, further lookups don't start one
+     */
+    private static final int MAX_LOADING = 1000;
+
+    private final JedisPool jedisPool;
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final LoadingCache<String, LimitOverride> overrideCache;
+
+    private final Cache<String, Boolean> absentCache;
+
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+
+    private ApplicationContext applicationContext;
+
+    private String applicationName;
+
+    private String hashKey;
+
+    public LimitOverrideRegistry(JedisPool jedisPool, RedisLimiterProperties redisLimiterProperties) {
+        this.jedisPool = jedisPool;
+        this.redisLimiterProperties = redisLimiterProperties;
+        this.overrideCache = Caffeine.newBuilder()
+                .maximumSize(redisLimiterProperties.getOverrideCacheSize())
+                .refreshAfterWrite(redisLimiterProperties.getOverrideRefreshInterval(), TimeUnit.MILLISECONDS)
+                .build(this::load);
+        this.absentCache = Caffeine.newBuilder()
+                .maximumSize(redisLimiterProperties.getOverrideCacheSize())
+                .expireAfterWrite(redisLimiterProperties.getOverrideRefreshInterval(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        applicationName = applicationContext.getEnvironment().getProperty("spring.application.name");
+        if(applicationName == null) {
+            throw new BeanInitializationException("the property with key 'spring.application.name' must be set!");
+        }
+        hashKey = redisLimiterProperties.getRedisKeyPrefix() + ":#overrides:" + applicationName;
+        Thread warmer = new Thread(this::warmUp, "redis-limiter-override-warmer");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    /**
+     * @param level name of the limiter level, null or "" for an unnamed level
+     * @return the override of the base value, or null if it has none or it is not cached yet
+     */
+    public LimitOverride get(String limiter, String level, String baseValue) {
+        String field = field(limiter, level, baseValue);
+        LimitOverride override = overrideCache.getIfPresent(field);
+        if (override == null && absentCache.getIfPresent(field) == null && loading.size() < MAX_LOADING && loading.add(field)) {
+            CompletableFuture.runAsync(() -> {
+                try {
+                    LimitOverride loaded = load(field);
+                    if (loaded != null) {
+                        overrideCache.put(field, loaded);
+                    } else {
+                        absentCache.put(field, Boolean.TRUE);
+                    }
+                } catch (RuntimeException e) {
+                    logger.debug("read limit override " + field + " failed.", e);
+                } finally {
+                    loading.remove(field);
+                }
+            });
+        }
+        return override;
+    }
+
+    /**
+     * Applies an override published on the dynamic configuration channel.
+     */
+    public void update(LimitOverride override) {
+        String field = field(override.getLimiter(), override.getLevel(), override.getBaseValue());
+        if (override.isDeleted()) {
+            overrideCache.invalidate(field);
+            absentCache.put(field, Boolean.TRUE);
+        } else {
+            overrideCache.put(field, override);
+            absentCache.invalidate(field);
+        }
+    }
+
+    /**
+     * Reads an override from Redis, bypassing the cache.
+     */
+    public LimitOverride read(String limiter, String level, String baseValue) {
+        return load(field(limiter, level, baseValue));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the time unit of an override that is not deleted is missing or unknown
+     */
+    public void save(LimitOverride override) {
+        String field = field(override.getLimiter(), override.getLevel(), override.getBaseValue());
+        if (override.isDeleted()) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.hdel(hashKey, field);
+            }
+            return;
+        }
+        if (override.getTimeUnit() == null) {
+            throw new IllegalArgumentException("time unit of limit override must be set");
+        }
+        TimeUnit.valueOf(override.getTimeUnit());
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hset(hashKey, field, override.getPermits() + "/" + override.getTimeUnit());
+        }
+    }
+
+    /**
+     * @return the override stored for the field, null if there is none; Redis errors are thrown
+     */
+    private LimitOverride load(String field) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return parse(field, jedis.hget(hashKey, field));
+        }
+    }
+
+    private void warmUp() {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams scanParams = new ScanParams().count(redisLimiterProperties.getKeyScanBatch());
+        long loaded = 0;
+        try {
+            do {
+                ScanResult<Map.Entry<String, String>> result;
+                try (Jedis jedis = jedisPool.getResource()) {
+                    result = jedis.hscan(hashKey, cursor, scanParams);
+                }
+                for (Map.Entry<String, String> entry : result.getResult()) {
+                    LimitOverride override = parse(entry.getKey(), entry.getValue());
+                    if (override != null) {
+                        overrideCache.put(entry.getKey(), override);
+                        loaded++;
+                    }
+                }
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor) && loaded < redisLimiterProperties.getOverrideCacheSize());
+        } catch (RuntimeException e) {
+            logger.warn("loading limit overrides failed, they are read on first use.", e);
+        }
+    }
+
+    LimitOverride parse(String field, String value) {
+        if (value == null) {
+            return null;
+        }
+        int bar = field.indexOf('|');
+        int levelBar = field.indexOf('|', bar + 1);
+        int slash = value.indexOf('/');
+        try {
+            LimitOverride override = new LimitOverride();
+            override.setApplicationName(applicationName);
+            override.setLimiter(field.substring(0, bar));
+            override.setLevel(field.substring(bar + 1, levelBar));
+            override.setBaseValue(field.substring(levelBar + 1));
+            override.setPermits(Integer.parseInt(value.substring(0, slash)));
+            override.setTimeUnit(TimeUnit.valueOf(value.substring(slash + 1)).name());
+            return override;
+        } catch (RuntimeException e) {
+            logger.error("invalid limit override " + field + " = " + value);
+            return null;
+        }
+    }
+
+    /**
+     * Limiter and level name contain no '|', the base value may.
+     */
+    static String field(String limiter, String level, String baseValue) {
+        return limiter + "|" + (level == null ? "" : level) + "|" + baseValue;
+    }
+}
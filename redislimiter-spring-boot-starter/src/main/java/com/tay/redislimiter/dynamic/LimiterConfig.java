@@ -20,6 +20,9 @@ package com.tay.redislimiter.dynamic;
 
 import lombok.Data;
 
+import java.util.Collections;
+import java.util.List;
+
 @Data
 public final class LimiterConfig {
     private String applicationName;
@@ -29,6 +32,50 @@ public final class LimiterConfig {
     private String path;
     private String timeUnit;
     private int permits;
+    private String cost;
+    private long maxWait;
     private boolean deleted;
+    private String pattern;
+    private String httpMethod;
+    private List<LimiterLevel> levels;
+    private boolean adaptive;
+    private int minPermits;
+    private int maxPermits;
+    private long targetLatency;
+    private double maxErrorRate;
+    /**
+     * Spel expression resolving the priority class of a request
+     */
+    private String priorityExp;
+    /**
+     * priority classes, highest first, requests of no listed class belong to the last one
+     */
+    private List<PriorityClass> priorities;
+    /**
+     * keys a limit without base value is spread over, 1 keeps it on one key
+     */
+    private int stripes = 1;
+    /**
+     * permits and level permits as configured, kept by the adaptive controller, which always scales the levels
+     * from them so that rounding does not pile up over adjustments; null until the permits are first adjusted
+     */
+    private Integer configuredPermits;
+    private List<Integer> configuredLevelPermits;
+
+    /**
+     * Checks the limits requests will be checked against, so a bad configuration is refused when it is
+     * received instead of failing every request it applies to.
+     *
+     * @throws IllegalArgumentException if a level has no supported time unit or no permits
+     */
+    public void validate() {
+        List<LimiterLevel> checkedLevels = levels == null || levels.isEmpty() ? Collections.singletonList(LimiterLevel.of(this)) : levels;
+        for (LimiterLevel level : checkedLevels) {
+            LimiterLevel.parseTimeUnit(level.getTimeUnit());
+            if (level.getPermits() <= 0) {
+                throw new IllegalArgumentException("permits must be positive: " + level.getPermits());
+            }
+        }
+    }
 }
 
@@ -19,7 +19,15 @@
 package com.tay.redislimiter.dynamic;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.RateLimiterService;
 import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.allowlist.Allowlist;
+import com.tay.redislimiter.allowlist.CompiledAllowlist;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.LimitStatus;
+import com.tay.redislimiter.core.LimiterKeyScanner;
+import com.tay.redislimiter.core.QuotaPeriod;
+import com.tay.redislimiter.core.RateLimitLevel;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +42,9 @@ import redis.clients.jedis.JedisPool;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 @RestController
@@ -49,6 +60,17 @@ public final class LimiterConfigResource implements InitializingBean, Applicatio
 
     private final RedisLimiterConfigProcessor redisLimiterConfigProcessor;
 
+    private final RateLimiterService rateLimiterService;
+
+    private final LimiterKeyScanner limiterKeyScanner;
+
+    private final KeyEncoder keyEncoder;
+
+    /**
+     * null if limit overrides are disabled
+     */
+    private final LimitOverrideRegistry limitOverrideRegistry;
+
     private ApplicationContext applicationContext;
 
     private String applicationName;
@@ -69,6 +91,16 @@ public final class LimiterConfigResource implements InitializingBean, Applicatio
     @PutMapping
     public void update(@RequestBody LimiterConfig limiterConfig, HttpServletResponse response) throws IOException {
         if(applicationName.equals(limiterConfig.getApplicationName())) {
+            if(!limiterConfig.isDeleted()) {
+                try {
+                    limiterConfig.validate();
+                }
+                catch(IllegalArgumentException e) {
+                    response.setStatus(HttpStatus.BAD_REQUEST.value());
+                    response.getWriter().print("Bad request for updating limiter configuration: " + e.getMessage());
+                    return;
+                }
+            }
             publish(limiterConfig);
         }
         else {
@@ -92,16 +124,204 @@ public final class LimiterConfigResource implements InitializingBean, Applicatio
         publish(limiterConfig);
     }
 
-    private void publish(LimiterConfig limiterConfig) {
+    @GetMapping("/rules")
+    public List<PatternRule> getRules() {
+        return redisLimiterConfigProcessor.getPatternRules();
+    }
+
+    @DeleteMapping("/rules")
+    public void deleteRule(@RequestParam("pattern") String pattern, @RequestParam(value = "httpMethod", required = false) String httpMethod) {
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setApplicationName(applicationName);
+        limiterConfig.setPattern(pattern);
+        limiterConfig.setHttpMethod(httpMethod);
+        limiterConfig.setDeleted(true);
+        publish(limiterConfig);
+    }
+
+    /**
+     * Replaces the allowlist of a limiter, or the global allowlist if it names no limiter.
+     */
+    @PutMapping("/allowlists")
+    public void updateAllowlist(@RequestBody Allowlist allowlist, HttpServletResponse response) throws IOException {
+        if(applicationName.equals(allowlist.getApplicationName())) {
+            try {
+                CompiledAllowlist.compile(allowlist);
+            }
+            catch(IllegalArgumentException e) {
+                response.setStatus(HttpStatus.BAD_REQUEST.value());
+                response.getWriter().print("Bad request for updating allowlist: " + e.getMessage());
+                return;
+            }
+            allowlist.setKind(Allowlist.KIND);
+            publish(allowlist);
+        }
+        else {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for updating allowlist!");
+        }
+    }
+
+    @DeleteMapping("/allowlists")
+    public void deleteAllowlist(@RequestParam(value = "limiter", required = false) String limiter) {
+        Allowlist allowlist = new Allowlist();
+        allowlist.setApplicationName(applicationName);
+        allowlist.setLimiter(limiter);
+        allowlist.setDeleted(true);
+        publish(allowlist);
+    }
+
+    /**
+     * Reports how much of the limit is used for each of the keys, without taking any permit.
+     */
+    @PostMapping("/status")
+    public List<LimitStatus> status(@RequestBody StatusQuery statusQuery, HttpServletResponse response) throws IOException {
+        List<String> keys = statusQuery.getKeys();
+        if(keys == null || keys.isEmpty() || statusQuery.getPermits() <= 0) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for limiter status!");
+            return null;
+        }
+        for(QuotaPeriod period : QuotaPeriod.values()) {
+            if(period.name().equals(statusQuery.getTimeUnit())) {
+                List<LimitStatus> statuses = new ArrayList<>(keys.size());
+                for(String key : keys) {
+                    statuses.add(rateLimiterService.peekQuota(key, period, statusQuery.getPermits()));
+                }
+                return statuses;
+            }
+        }
+        TimeUnit timeUnit;
+        try {
+            timeUnit = TimeUnit.valueOf(statusQuery.getTimeUnit());
+        }
+        catch(IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for limiter status!");
+            return null;
+        }
+        int permits = (int) Math.min(statusQuery.getPermits(), Integer.MAX_VALUE);
+        List<RateLimitLevel> limits = new ArrayList<>(keys.size());
+        for(String key : keys) {
+            limits.add(new RateLimitLevel(key, timeUnit, permits));
+        }
+        return rateLimiterService.peekAll(limits, statusQuery.getStripes());
+    }
+
+    /**
+     * Lists the limiter keys of an application, this application by default, narrowed by path and base value patterns.
+     */
+    @GetMapping("/keys")
+    public List<String> getKeys(@RequestParam(value = "application", required = false) String application,
+                                @RequestParam(value = "path", required = false) String path,
+                                @RequestParam(value = "base", required = false) String base,
+                                @RequestParam(value = "limit", defaultValue = "100") int limit, HttpServletResponse response) throws IOException {
+        String pattern = keyPattern(application, path, base, response);
+        return pattern == null ? null : limiterKeyScanner.list(pattern, limit);
+    }
+
+    @GetMapping("/keys/count")
+    public Long countKeys(@RequestParam(value = "application", required = false) String application,
+                          @RequestParam(value = "path", required = false) String path,
+                          @RequestParam(value = "base", required = false) String base, HttpServletResponse response) throws IOException {
+        String pattern = keyPattern(application, path, base, response);
+        return pattern == null ? null : limiterKeyScanner.count(pattern);
+    }
+
+    /**
+     * Deletes the matching limiter keys in the background, so their limits start over.
+     * Answers 202 Accepted right away, the number of keys deleted is logged when done.
+     */
+    @DeleteMapping("/keys")
+    public void resetKeys(@RequestParam(value = "application", required = false) String application,
+                          @RequestParam(value = "path", required = false) String path,
+                          @RequestParam(value = "base", required = false) String base, HttpServletResponse response) throws IOException {
+        String pattern = keyPattern(application, path, base, response);
+        if(pattern == null) {
+            return;
+        }
+        limiterKeyScanner.resetAsync(pattern).whenComplete((deleted, e) -> {
+            if(e != null) {
+                logger.error("reset of limiter keys matching " + pattern + " failed.", e);
+            }
+            else if(deleted != null) {
+                logger.info("reset {} limiter keys matching {}", deleted, pattern);
+            }
+        });
+        response.setStatus(HttpStatus.ACCEPTED.value());
+    }
+
+    /**
+     * Sets the limit of one base value of a limiter, stored in Redis and published to all nodes.
+     */
+    @PutMapping("/overrides")
+    public void updateOverride(@RequestBody LimitOverride override, HttpServletResponse response) throws IOException {
+        if(limitOverrideRegistry == null || !applicationName.equals(override.getApplicationName()) || override.getLimiter() == null
+                || override.getBaseValue() == null || override.getTimeUnit() == null || override.getPermits() <= 0) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for updating limit override!");
+            return;
+        }
+        override.setKind(LimitOverride.KIND);
+        if(override.getLevel() == null) {
+            override.setLevel("");
+        }
+        try {
+            limitOverrideRegistry.save(override);
+        }
+        catch(IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for updating limit override!");
+            return;
+        }
+        publish(override);
+    }
+
+    @GetMapping("/overrides")
+    public LimitOverride getOverride(@RequestParam("limiter") String limiter, @RequestParam(value = "level", defaultValue = "") String level,
+                                     @RequestParam("base") String base) {
+        return limitOverrideRegistry == null ? null : limitOverrideRegistry.read(limiter, level, base);
+    }
+
+    @DeleteMapping("/overrides")
+    public void deleteOverride(@RequestParam("limiter") String limiter, @RequestParam(value = "level", defaultValue = "") String level,
+                               @RequestParam("base") String base) {
+        if(limitOverrideRegistry == null) {
+            return;
+        }
+        LimitOverride override = new LimitOverride();
+        override.setApplicationName(applicationName);
+        override.setLimiter(limiter);
+        override.setLevel(level);
+        override.setBaseValue(base);
+        override.setDeleted(true);
+        limitOverrideRegistry.save(override);
+        publish(override);
+    }
+
+    private String keyPattern(String application, String path, String base, HttpServletResponse response) throws IOException {
+        try {
+            return keyEncoder.pattern(application == null ? applicationName : application, path, base);
+        }
+        catch(IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.getWriter().print("Bad request for limiter keys: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void publish(Object message) {
         ObjectMapper objectMapper = new ObjectMapper();
         String configMessage = null;
         try {
-            configMessage = objectMapper.writeValueAsString(limiterConfig);
+            configMessage = objectMapper.writeValueAsString(message);
         }
         catch(IOException e) {
-            logger.error("convert LimiterConfig object to json failed.");
+            logger.error("convert " + message.getClass().getSimpleName() + " object to json failed.");
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(redisLimiterProperties.getChannel(), configMessage);
         }
-        Jedis jedis = jedisPool.getResource();
-        jedis.publish(redisLimiterProperties.getChannel(), configMessage);
     }
 }
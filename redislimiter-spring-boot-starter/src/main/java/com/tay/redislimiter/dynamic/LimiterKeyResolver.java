@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Resolves what a request takes from a limiter configuration: its cost, its priority class, and the path and base
+ * value of every level. Expressions are SpEL over #Cookies, #Headers, #Attributes, #Params and #ContentLength,
+ * parsed once and evaluated on a context built only when an expression needs it. The handler interceptor and the
+ * access log simulator both resolve requests with it, so a simulation sees the keys production would.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class LimiterKeyResolver {
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final ConcurrentHashMap<String, Expression> expressionMap = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultPath path of the levels that don't set one
+     * @param context     builds the evaluation context of the request, see {@link #buildContext}
+     * @return the resolution, without priority and levels if the request costs nothing
+     */
+    public Resolution resolve(LimiterConfig limiterConfig, String defaultPath, Supplier<StandardEvaluationContext> context) {
+        Scope scope = new Scope(context);
+        int cost = cost(limiterConfig.getCost(), scope);
+        if (cost <= 0) {
+            return new Resolution(cost, null, Collections.emptyList(), new String[0], new String[0]);
+        }
+        PriorityClass priority = null;
+        List<PriorityClass> priorities = limiterConfig.getPriorities();
+        if (limiterConfig.getPriorityExp() != null && !"".equals(limiterConfig.getPriorityExp()) && priorities != null && !priorities.isEmpty()) {
+            priority = PriorityClass.resolve(priorities, eval(limiterConfig.getPriorityExp(), scope, String.class));
+        }
+        List<LimiterLevel> levels = levels(limiterConfig);
+        String[] baseVals = new String[levels.size()];
+        String[] paths = new String[levels.size()];
+        for (int i = 0; i < baseVals.length; i++) {
+            LimiterLevel level = levels.get(i);
+            baseVals[i] = baseValue(level.getBaseExp(), scope);
+            paths[i] = level.getPath() == null || "".equals(level.getPath()) ? defaultPath : level.getPath();
+        }
+        return new Resolution(cost, priority, levels, baseVals, paths);
+    }
+
+    /**
+     * @return the permits one request takes: 0 only for the constant "0", otherwise the value of the
+     * expression but at least 1, so that a request controlled cost can't skip the limits
+     */
+    public int cost(String costExp, Scope scope) {
+        if (costExp == null || "".equals(costExp)) {
+            return 1;
+        }
+        if (isConstant(costExp)) {
+            return Integer.parseInt(costExp);
+        }
+        Long costVal = eval(costExp, scope, Long.class);
+        return costVal == null ? 1 : (int) Math.max(1, Math.min(costVal, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @return the base value, "" if the expression is empty or evaluates to null
+     */
+    public String baseValue(String baseExp, Scope scope) {
+        if (baseExp == null || "".equals(baseExp)) {
+            return "";
+        }
+        String baseVal = eval(baseExp, scope, String.class);
+        return baseVal == null ? "" : baseVal;
+    }
+
+    public <T> T eval(String exp, Scope scope, Class<T> resultType) {
+        Expression expression = expressionMap.computeIfAbsent(exp, expressionParser::parseExpression);
+        return expression.getValue(scope.getContext(), resultType);
+    }
+
+    /**
+     * @return the levels of the configuration, or its single level
+     */
+    public static List<LimiterLevel> levels(LimiterConfig limiterConfig) {
+        List<LimiterLevel> levels = limiterConfig.getLevels();
+        return levels == null || levels.isEmpty() ? Collections.singletonList(LimiterLevel.of(limiterConfig)) : levels;
+    }
+
+    public static StandardEvaluationContext buildContext(Map<String, String> cookies, Map<String, String> headers,
+                                                         Map<String, String> attributes, Map<String, String> params, long contentLength) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("Cookies", cookies);
+        context.setVariable("Headers", headers);
+        context.setVariable("Attributes", attributes);
+        context.setVariable("Params", params);
+        context.setVariable("ContentLength", contentLength);
+        return context;
+    }
+
+    private static boolean isConstant(String exp) {
+        for (int i = 0; i < exp.length(); i++) {
+            if (!Character.isDigit(exp.charAt(i))) {
+                return false;
+            }
+        }
+        return exp.length() < 10;
+    }
+
+    /**
+     * The evaluation context of one request, built on first use.
+     */
+    public static final class Scope {
+        private final Supplier<StandardEvaluationContext> builder;
+        private StandardEvaluationContext context;
+
+        public Scope(Supplier<StandardEvaluationContext> builder) {
+            this.builder = builder;
+        }
+
+        StandardEvaluationContext getContext() {
+            if (context == null) {
+                context = builder.get();
+            }
+            return context;
+        }
+    }
+
+    /**
+     * What one request takes: its cost, the priority class that scales the permits, and per level the
+     * path and the base value the key is built from.
+     */
+    public static final class Resolution {
+        private final int cost;
+        private final PriorityClass priority;
+        private final List<LimiterLevel> levels;
+        private final String[] baseVals;
+        private final String[] paths;
+
+        Resolution(int cost, PriorityClass priority, List<LimiterLevel> levels, String[] baseVals, String[] paths) {
+            this.cost = cost;
+            this.priority = priority;
+            this.levels = levels;
+            this.baseVals = baseVals;
+            this.paths = paths;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        /**
+         * @return null if the configuration has no priority classes
+         */
+        public PriorityClass getPriority() {
+            return priority;
+        }
+
+        public List<LimiterLevel> getLevels() {
+            return levels;
+        }
+
+        public String[] getBaseVals() {
+            return baseVals;
+        }
+
+        public String[] getPaths() {
+            return paths;
+        }
+
+        /**
+         * @return the permits of a level for the priority class of the request
+         */
+        public int permitsOf(int permits) {
+            return priority == null ? permits : priority.permitsOf(permits);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One level of a hierarchical quota, e.g. user, tenant or endpoint.
+ */
+@Data
+public final class LimiterLevel {
+    private String name;
+    private String baseExp;
+    private String path;
+    private String timeUnit;
+    private int permits;
+
+    public static LimiterLevel of(LimiterConfig limiterConfig) {
+        LimiterLevel level = new LimiterLevel();
+        level.setName("");
+        level.setBaseExp(limiterConfig.getBaseExp());
+        level.setPath(limiterConfig.getPath());
+        level.setTimeUnit(limiterConfig.getTimeUnit());
+        level.setPermits(limiterConfig.getPermits());
+        return level;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the time unit is missing or not one the limiters support
+     */
+    public static TimeUnit parseTimeUnit(String timeUnit) {
+        if (timeUnit == null) {
+            throw new IllegalArgumentException("timeUnit must be set");
+        }
+        TimeUnit unit = TimeUnit.valueOf(timeUnit);
+        if (unit != TimeUnit.SECONDS && unit != TimeUnit.MINUTES && unit != TimeUnit.HOURS && unit != TimeUnit.DAYS) {
+            throw new IllegalArgumentException("Don't support this TimeUnit: " + timeUnit);
+        }
+        return unit;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * A limiter configuration bound to an Ant-style URL pattern instead of an annotated method.
+ * Rules are compared by specificity when several of them match the same request:
+ * fewer '**' segments first, then fewer single segment wildcards, then more literal segments,
+ * then rules bound to an explicit HTTP method, and finally the longer pattern.
+ */
+public final class PatternRule implements Comparable<PatternRule> {
+
+    private final LimiterConfig config;
+
+    private final LongAdder hits;
+
+    private final int literalSegments;
+
+    private final int wildcardSegments;
+
+    private final int doubleWildcardSegments;
+
+    PatternRule(LimiterConfig config, LongAdder hits) {
+        this.config = config;
+        this.hits = hits;
+        int literals = 0;
+        int wildcards = 0;
+        int doubleWildcards = 0;
+        for (String segment : PatternRuleTrie.tokenize(config.getPattern())) {
+            if ("**".equals(segment)) {
+                doubleWildcards++;
+            } else if (PatternRuleTrie.isLiteral(segment)) {
+                literals++;
+            } else {
+                wildcards++;
+            }
+        }
+        this.literalSegments = literals;
+        this.wildcardSegments = wildcards;
+        this.doubleWildcardSegments = doubleWildcards;
+    }
+
+    /**
+     * Creates a rule for a configuration that has its pattern set, e.g. a route of a handler method.
+     */
+    public static PatternRule of(LimiterConfig config) {
+        return new PatternRule(config, new LongAdder());
+    }
+
+    public static String ruleKey(String httpMethod, String pattern) {
+        return (isAnyMethod(httpMethod) ? "*" : httpMethod.toUpperCase()) + " " + pattern;
+    }
+
+    static boolean isAnyMethod(String httpMethod) {
+        return httpMethod == null || "".equals(httpMethod) || "*".equals(httpMethod);
+    }
+
+    /**
+     * Conservatively tells whether a request could match both rules, so that a matcher with other precedence
+     * rules than this one (e.g. Spring MVC with suffix and trailing slash matching) might pick either of them.
+     * Literal segments are only told apart when neither is a prefix of the other followed by a '.'.
+     */
+    public boolean mayOverlap(PatternRule other) {
+        if (!methodsOverlap(config.getHttpMethod(), other.config.getHttpMethod())) {
+            return false;
+        }
+        if (doubleWildcardSegments > 0 || other.doubleWildcardSegments > 0) {
+            return true;
+        }
+        String[] segments = PatternRuleTrie.tokenize(config.getPattern());
+        String[] otherSegments = PatternRuleTrie.tokenize(other.config.getPattern());
+        if (segments.length != otherSegments.length) {
+            return false;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            if (PatternRuleTrie.isLiteral(segments[i]) && PatternRuleTrie.isLiteral(otherSegments[i])
+                    && !segments[i].equals(otherSegments[i]) && !segments[i].startsWith(otherSegments[i] + ".")
+                    && !otherSegments[i].startsWith(segments[i] + ".")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calls {@code action} once for every pair of rules that {@link #mayOverlap may overlap}. Rules are grouped
+     * segment by segment on their literal segments, up to the first '.', so rules are only compared with rules
+     * sharing their literal prefix, or with rules having a wildcard or no segment where they have a literal.
+     */
+    public static void forEachOverlap(List<PatternRule> rules, BiConsumer<PatternRule, PatternRule> action) {
+        List<String[]> segments = new ArrayList<>(rules.size());
+        List<Integer> group = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            segments.add(PatternRuleTrie.tokenize(rules.get(i).config.getPattern()));
+            group.add(i);
+        }
+        forEachOverlap(rules, segments, group, 0, action);
+    }
+
+    private static void forEachOverlap(List<PatternRule> rules, List<String[]> segments, List<Integer> group, int depth,
+                                       BiConsumer<PatternRule, PatternRule> action) {
+        if (group.size() < 2) {
+            return;
+        }
+        // rules with a '**', a wildcard or no segment at this depth are compared with the whole group
+        boolean[] open = new boolean[rules.size()];
+        List<Integer> openRules = new ArrayList<>();
+        Map<String, List<Integer>> literalGroups = new HashMap<>();
+        for (int i : group) {
+            String[] ruleSegments = segments.get(i);
+            if (rules.get(i).doubleWildcardSegments > 0 || depth >= ruleSegments.length || !PatternRuleTrie.isLiteral(ruleSegments[depth])) {
+                open[i] = true;
+                openRules.add(i);
+            } else {
+                int dot = ruleSegments[depth].indexOf('.');
+                String literal = dot < 0 ? ruleSegments[depth] : ruleSegments[depth].substring(0, dot);
+                literalGroups.computeIfAbsent(literal, k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (int i : openRules) {
+            for (int j : group) {
+                if (i != j && !(open[j] && j < i) && rules.get(i).mayOverlap(rules.get(j))) {
+                    action.accept(rules.get(i), rules.get(j));
+                }
+            }
+        }
+        for (List<Integer> literalGroup : literalGroups.values()) {
+            forEachOverlap(rules, segments, literalGroup, depth + 1, action);
+        }
+    }
+
+    private static boolean methodsOverlap(String httpMethod, String otherHttpMethod) {
+        if (isAnyMethod(httpMethod) || isAnyMethod(otherHttpMethod) || httpMethod.equalsIgnoreCase(otherHttpMethod)) {
+            return true;
+        }
+        // Spring MVC lets HEAD requests match GET mappings
+        return "GET".equalsIgnoreCase(httpMethod) && "HEAD".equalsIgnoreCase(otherHttpMethod)
+                || "HEAD".equalsIgnoreCase(httpMethod) && "GET".equalsIgnoreCase(otherHttpMethod);
+    }
+
+    public LimiterConfig getConfig() {
+        return config;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public void hit() {
+        hits.increment();
+    }
+
+    LongAdder getHitCounter() {
+        return hits;
+    }
+
+    @Override
+    public int compareTo(PatternRule other) {
+        if (doubleWildcardSegments != other.doubleWildcardSegments) {
+            return doubleWildcardSegments - other.doubleWildcardSegments;
+        }
+        if (wildcardSegments != other.wildcardSegments) {
+            return wildcardSegments - other.wildcardSegments;
+        }
+        if (literalSegments != other.literalSegments) {
+            return other.literalSegments - literalSegments;
+        }
+        boolean anyMethod = isAnyMethod(config.getHttpMethod());
+        boolean otherAnyMethod = isAnyMethod(other.config.getHttpMethod());
+        if (anyMethod != otherAnyMethod) {
+            return anyMethod ? 1 : -1;
+        }
+        return other.config.getPattern().length() - config.getPattern().length();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable segment trie compiled from {@link PatternRule}s.
+ * Literal segments are looked up by hash, so matching a request path costs time proportional
+ * to the path depth rather than to the number of rules. Supported pattern segments are
+ * literals, '*', '{var}', '**' and segments mixing literals with '*', '?' or '{var}'.
+ * A node is visited at most once per path position, so patterns with several '**' segments do not
+ * make matching exponential in the path depth.
+ */
+public final class PatternRuleTrie {
+
+    public static final PatternRuleTrie EMPTY = new PatternRuleTrie(new Node(), 1, false);
+
+    private final Node root;
+
+    private final int nodeCount;
+
+    private final boolean doubleWildcards;
+
+    private PatternRuleTrie(Node root, int nodeCount, boolean doubleWildcards) {
+        this.root = root;
+        this.nodeCount = nodeCount;
+        this.doubleWildcards = doubleWildcards;
+    }
+
+    public static PatternRuleTrie compile(Collection<PatternRule> rules) {
+        Node root = new Node();
+        boolean doubleWildcards = false;
+        for (PatternRule rule : rules) {
+            Node node = root;
+            for (String segment : tokenize(rule.getConfig().getPattern())) {
+                node = node.child(segment);
+                doubleWildcards |= "**".equals(segment);
+            }
+            String httpMethod = rule.getConfig().getHttpMethod();
+            if (PatternRule.isAnyMethod(httpMethod)) {
+                node.anyMethodRule = rule;
+            } else {
+                node.methodRules.put(httpMethod.toUpperCase(), rule);
+            }
+        }
+        return new PatternRuleTrie(root, number(root, 0), doubleWildcards);
+    }
+
+    /**
+     * Numbers the nodes below {@code node} from {@code next} on.
+     *
+     * @return the next free number
+     */
+    private static int number(Node node, int next) {
+        node.id = next++;
+        for (Node literal : node.literals.values()) {
+            next = number(literal, next);
+        }
+        for (SegmentPattern segmentPattern : node.patterns) {
+            next = number(segmentPattern.node, next);
+        }
+        if (node.wildcard != null) {
+            next = number(node.wildcard, next);
+        }
+        if (node.doubleWildcard != null) {
+            next = number(node.doubleWildcard, next);
+        }
+        return next;
+    }
+
+    /**
+     * @return the most specific rule matching the request, or null if no rule matches
+     */
+    public PatternRule match(String httpMethod, String path) {
+        if (root.isLeaf()) {
+            return null;
+        }
+        String[] segments = tokenize(path);
+        PatternRule[] best = new PatternRule[1];
+        // without '**' every node is reached at one position only, with it the same node can be reached through many splits
+        BitSet visited = doubleWildcards ? new BitSet(nodeCount * (segments.length + 1)) : null;
+        collect(root, segments, 0, httpMethod == null ? "" : httpMethod.toUpperCase(), best, visited);
+        return best[0];
+    }
+
+    private void collect(Node node, String[] segments, int index, String httpMethod, PatternRule[] best, BitSet visited) {
+        if (visited != null) {
+            int visit = node.id * (segments.length + 1) + index;
+            if (visited.get(visit)) {
+                return;
+            }
+            visited.set(visit);
+        }
+        if (node.doubleWildcard != null) {
+            for (int i = index; i <= segments.length; i++) {
+                collect(node.doubleWildcard, segments, i, httpMethod, best, visited);
+            }
+        }
+        if (index == segments.length) {
+            PatternRule rule = node.methodRules.get(httpMethod);
+            if (rule == null) {
+                rule = node.anyMethodRule;
+            }
+            if (rule != null && (best[0] == null || rule.compareTo(best[0]) < 0)) {
+                best[0] = rule;
+            }
+            return;
+        }
+        String segment = segments[index];
+        Node literal = node.literals.get(segment);
+        if (literal != null) {
+            collect(literal, segments, index + 1, httpMethod, best, visited);
+        }
+        for (SegmentPattern segmentPattern : node.patterns) {
+            if (segmentPattern.regex.matcher(segment).matches()) {
+                collect(segmentPattern.node, segments, index + 1, httpMethod, best, visited);
+            }
+        }
+        if (node.wildcard != null) {
+            collect(node.wildcard, segments, index + 1, httpMethod, best, visited);
+        }
+    }
+
+    static String[] tokenize(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int length = path.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/') {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    static boolean isLiteral(String segment) {
+        return segment.indexOf('*') < 0 && segment.indexOf('?') < 0 && segment.indexOf('{') < 0;
+    }
+
+    private static boolean isSingleWildcard(String segment) {
+        return "*".equals(segment) || (segment.startsWith("{") && segment.endsWith("}") && segment.indexOf(':') < 0
+                && segment.indexOf('{', 1) < 0);
+    }
+
+    private static Pattern toRegex(String segment) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < segment.length()) {
+            char c = segment.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    int end = segment.indexOf('}', i);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("Unclosed variable in pattern segment: " + segment);
+                    }
+                    String variable = segment.substring(i + 1, end);
+                    int colon = variable.indexOf(':');
+                    regex.append('(').append(colon < 0 ? ".+" : variable.substring(colon + 1)).append(')');
+                    i = end;
+                }
+            } else {
+                literal.append(c);
+            }
+            i++;
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static final class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private final List<SegmentPattern> patterns = new ArrayList<>();
+        private Node wildcard;
+        private Node doubleWildcard;
+        private PatternRule anyMethodRule;
+        private final Map<String, PatternRule> methodRules = new HashMap<>();
+        private int id;
+
+        private Node child(String segment) {
+            if ("**".equals(segment)) {
+                if (doubleWildcard == null) {
+                    doubleWildcard = new Node();
+                }
+                return doubleWildcard;
+            }
+            if (isLiteral(segment)) {
+                return literals.computeIfAbsent(segment, s -> new Node());
+            }
+            if (isSingleWildcard(segment)) {
+                if (wildcard == null) {
+                    wildcard = new Node();
+                }
+                return wildcard;
+            }
+            for (SegmentPattern segmentPattern : patterns) {
+                if (segmentPattern.source.equals(segment)) {
+                    return segmentPattern.node;
+                }
+            }
+            SegmentPattern segmentPattern = new SegmentPattern(segment, toRegex(segment), new Node());
+            patterns.add(segmentPattern);
+            return segmentPattern.node;
+        }
+
+        private boolean isLeaf() {
+            return literals.isEmpty() && patterns.isEmpty() && wildcard == null && doubleWildcard == null
+                    && anyMethodRule == null && methodRules.isEmpty();
+        }
+    }
+
+    private static final class SegmentPattern {
+        private final String source;
+        private final Pattern regex;
+        private final Node node;
+
+        private SegmentPattern(String source, Pattern regex, Node node) {
+            this.source = source;
+            this.regex = regex;
+            this.node = node;
+        }
+    }
+}
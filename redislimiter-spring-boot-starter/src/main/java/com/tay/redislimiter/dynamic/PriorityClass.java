@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class of requests sharing a limit with other classes, e.g. the requests of one plan.
+ * A class may only use the permits of a window not reserved for the classes above it: with 100 permits
+ * and 0.2 reserved, requests of the class are denied once 80 permits of the window are used.
+ */
+@Data
+public final class PriorityClass {
+    private String name;
+    /**
+     * share of the permits reserved for higher classes, 0 for the highest class
+     */
+    private double reserved;
+
+    /**
+     * @param specs classes, highest first, as "name" or "name:reserved", e.g. {"internal", "premium:0.1", "free:0.4"}
+     */
+    public static List<PriorityClass> parse(String[] specs) {
+        List<PriorityClass> priorities = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            PriorityClass priority = new PriorityClass();
+            int colon = spec.lastIndexOf(':');
+            priority.setName(colon < 0 ? spec : spec.substring(0, colon));
+            priority.setReserved(colon < 0 ? 0 : Double.parseDouble(spec.substring(colon + 1)));
+            if (priority.getReserved() < 0 || priority.getReserved() >= 1) {
+                throw new IllegalArgumentException("reserved share of priority class must be in [0, 1): " + spec);
+            }
+            priorities.add(priority);
+        }
+        return priorities;
+    }
+
+    /**
+     * @return the class named, or the last class if none is
+     */
+    public static PriorityClass resolve(List<PriorityClass> priorities, String name) {
+        for (PriorityClass priority : priorities) {
+            if (priority.getName().equals(name)) {
+                return priority;
+            }
+        }
+        return priorities.get(priorities.size() - 1);
+    }
+
+    /**
+     * @return the permits of a window requests of this class may use
+     */
+    public int permitsOf(int permits) {
+        return (int) (permits * (1 - reserved));
+    }
+}
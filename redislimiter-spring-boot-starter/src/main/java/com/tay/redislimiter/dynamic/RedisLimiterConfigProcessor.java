@@ -18,8 +18,13 @@
  */
 package com.tay.redislimiter.dynamic;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.allowlist.Allowlist;
+import com.tay.redislimiter.allowlist.AllowlistRegistry;
+import com.tay.redislimiter.index.LimiterIndexEntry;
+import com.tay.redislimiter.index.LimiterIndexes;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +35,7 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.bind.annotation.RestController;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPubSub;
@@ -38,8 +44,12 @@ import redis.clients.jedis.exceptions.JedisConnectionException;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @RequiredArgsConstructor
 public final class RedisLimiterConfigProcessor extends JedisPubSub implements ApplicationContextAware, BeanPostProcessor, InitializingBean {
@@ -47,6 +57,14 @@ public final class RedisLimiterConfigProcessor extends JedisPubSub implements Ap
 
     private final RedisLimiterProperties redisLimiterProperties;
 
+    private final LimiterIndexes limiterIndexes;
+
+    private final AllowlistRegistry allowlistRegistry;
+
+    /**
+     * null if limit overrides are disabled
+     */
+    private final LimitOverrideRegistry limitOverrideRegistry;
 
     private String applicationName;
 
@@ -54,6 +72,10 @@ public final class RedisLimiterConfigProcessor extends JedisPubSub implements Ap
 
     private ConcurrentHashMap<String, LimiterConfig> configMap = new ConcurrentHashMap<>();
 
+    private ConcurrentHashMap<String, PatternRule> patternRuleMap = new ConcurrentHashMap<>();
+
+    private volatile PatternRuleTrie patternRuleTrie = PatternRuleTrie.EMPTY;
+
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
     }
@@ -124,51 +146,116 @@ public final class RedisLimiterConfigProcessor extends JedisPubSub implements Ap
 
     @Override
     public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
-        Class clazz = bean.getClass();
-        if(clazz.isAnnotationPresent(RestController.class) || clazz.isAnnotationPresent(Controller.class)) {
+        Class<?> clazz = ClassUtils.getUserClass(bean);
+        if(!clazz.isAnnotationPresent(RestController.class) && !clazz.isAnnotationPresent(Controller.class)) {
+            return bean;
+        }
+        if(limiterIndexes.isIndexed(clazz)) {
+            for (LimiterIndexEntry entry : limiterIndexes.getDynamic(clazz)) {
+                register(clazz, entry.getConfig());
+            }
+        }
+        else {
             Method[] methods = clazz.getDeclaredMethods();
              for (Method method : methods) {
                 int modifiers = method.getModifiers();
-                if(Modifier.isPublic(modifiers) && method.isAnnotationPresent(DynamicRateLimiter.class)) {
-                    if(!redisLimiterProperties.isEnableDynamicalConf()) {
-                        throw new RuntimeException("Must set spring.redis-limiter.enable-dynamical-conf = true, then you can use DynamicRateLimiter annotation.");
-                    }
-                    DynamicRateLimiter dynamicRateLimiter = method.getAnnotation(DynamicRateLimiter.class);
+                DynamicRateLimiter[] dynamicRateLimiters = method.getAnnotationsByType(DynamicRateLimiter.class);
+                if(Modifier.isPublic(modifiers) && dynamicRateLimiters.length > 0) {
+                    DynamicRateLimiter dynamicRateLimiter = dynamicRateLimiters[0];
                     int permits = dynamicRateLimiter.permits();
                     TimeUnit timeUnit = dynamicRateLimiter.timeUnit();
                     String path = dynamicRateLimiter.path();
                     String baseExp = dynamicRateLimiter.base();
                     LimiterConfig config = new LimiterConfig();
-                    config.setApplicationName(applicationName);
                     config.setBaseExp(baseExp);
                     config.setPath(path);
                     config.setPermits(permits);
                     config.setTimeUnit(timeUnit.name());
+                    config.setCost(dynamicRateLimiter.cost());
+                    config.setMaxWait(dynamicRateLimiter.maxWait());
+                    config.setAdaptive(dynamicRateLimiter.adaptive());
+                    config.setMinPermits(dynamicRateLimiter.minPermits());
+                    config.setMaxPermits(dynamicRateLimiter.maxPermits() > 0 ? dynamicRateLimiter.maxPermits() : permits);
+                    config.setTargetLatency(dynamicRateLimiter.targetLatency());
+                    config.setMaxErrorRate(dynamicRateLimiter.maxErrorRate());
+                    config.setStripes(dynamicRateLimiter.stripes());
+                    if(!"".equals(dynamicRateLimiter.priority())) {
+                        config.setPriorityExp(dynamicRateLimiter.priority());
+                        config.setPriorities(PriorityClass.parse(dynamicRateLimiter.priorities()));
+                    }
                     config.setControllerName(clazz.getSimpleName());
                     config.setMethodName(method.getName());
-                    String key = clazz.getSimpleName()+":"+method.getName();
-                    if(configMap.containsKey(key)) {
-                        throw new RuntimeException(String.format("Controller %s method %s has conflict.", clazz.getSimpleName(), method.getName()));
+                    if(dynamicRateLimiters.length > 1) {
+                        List<LimiterLevel> levels = new ArrayList<>();
+                        for (DynamicRateLimiter level : dynamicRateLimiters) {
+                            LimiterLevel limiterLevel = new LimiterLevel();
+                            limiterLevel.setName(level.name());
+                            limiterLevel.setBaseExp(level.base());
+                            limiterLevel.setPath(level.path());
+                            limiterLevel.setTimeUnit(level.timeUnit().name());
+                            limiterLevel.setPermits(level.permits());
+                            levels.add(limiterLevel);
+                        }
+                        config.setLevels(levels);
                     }
-                    configMap.put(key, config);
+                    register(clazz, config);
                 }
             }
         }
         return bean;
     }
 
+    private void register(Class<?> clazz, LimiterConfig config) {
+        if(!redisLimiterProperties.isEnableDynamicalConf()) {
+            throw new RuntimeException("Must set spring.redis-limiter.enable-dynamical-conf = true, then you can use DynamicRateLimiter annotation.");
+        }
+        config.setApplicationName(applicationName);
+        String key = clazz.getSimpleName()+":"+config.getMethodName();
+        if(configMap.containsKey(key)) {
+            throw new RuntimeException(String.format("Controller %s method %s has conflict.", clazz.getSimpleName(), config.getMethodName()));
+        }
+        configMap.put(key, config);
+    }
+
     @Override
     public void onMessage(String channel, String message) {
         ObjectMapper objectMapper = new ObjectMapper();
         LimiterConfig config = null;
         try {
-            config = objectMapper.readValue(message, LimiterConfig.class);
+            JsonNode messageNode = objectMapper.readTree(message);
+            if (Allowlist.KIND.equals(messageNode.path("kind").asText())) {
+                Allowlist allowlist = objectMapper.treeToValue(messageNode, Allowlist.class);
+                if (applicationName.equals(allowlist.getApplicationName())) {
+                    allowlistRegistry.update(allowlist);
+                }
+                return;
+            }
+            if (LimitOverride.KIND.equals(messageNode.path("kind").asText())) {
+                LimitOverride override = objectMapper.treeToValue(messageNode, LimitOverride.class);
+                if (limitOverrideRegistry != null && applicationName.equals(override.getApplicationName())) {
+                    limitOverrideRegistry.update(override);
+                }
+                return;
+            }
+            config = objectMapper.treeToValue(messageNode, LimiterConfig.class);
         }
         catch(IOException e) {
             logger.error("read config from message failed. the message content is " + message);
         }
         if(config != null) {
             if (applicationName.equals(config.getApplicationName())) {
+                if (!config.isDeleted()) {
+                    try {
+                        config.validate();
+                    } catch (IllegalArgumentException e) {
+                        logger.error("invalid limiter configuration " + message + ": " + e.getMessage());
+                        return;
+                    }
+                }
+                if (config.getPattern() != null && !"".equals(config.getPattern())) {
+                    updatePatternRule(config);
+                    return;
+                }
                 String key = config.getControllerName() + ":" + config.getMethodName();
                 synchronized(this) {
                     if (config.isDeleted()) {
@@ -181,8 +268,46 @@ public final class RedisLimiterConfigProcessor extends JedisPubSub implements Ap
         }
     }
 
+    private synchronized void updatePatternRule(LimiterConfig config) {
+        String ruleKey = PatternRule.ruleKey(config.getHttpMethod(), config.getPattern());
+        if (config.isDeleted()) {
+            patternRuleMap.remove(ruleKey);
+        } else {
+            PatternRule existing = patternRuleMap.get(ruleKey);
+            LongAdder hits = existing == null ? new LongAdder() : existing.getHitCounter();
+            try {
+                PatternRule rule = new PatternRule(config, hits);
+                PatternRuleTrie.compile(Collections.singletonList(rule));
+                patternRuleMap.put(ruleKey, rule);
+            } catch (IllegalArgumentException e) {
+                logger.error("invalid limiter rule pattern " + config.getPattern() + ": " + e.getMessage());
+                return;
+            }
+        }
+        patternRuleTrie = PatternRuleTrie.compile(patternRuleMap.values());
+    }
+
     public synchronized LimiterConfig get(String key) {
         return configMap.get(key);
     }
 
+    public List<LimiterConfig> getConfigs() {
+        return new ArrayList<>(configMap.values());
+    }
+
+    /**
+     * Lock free lookup of the most specific pattern rule for a request, used on the request path.
+     */
+    public PatternRule match(String httpMethod, String path) {
+        return patternRuleTrie.match(httpMethod, path);
+    }
+
+    public List<PatternRule> getPatternRules() {
+        return new ArrayList<>(patternRuleMap.values());
+    }
+
+    public PatternRule getPatternRule(String httpMethod, String pattern) {
+        return patternRuleMap.get(PatternRule.ruleKey(httpMethod, pattern));
+    }
+
 }
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.dynamic;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Body of a limiter status request: keys sharing one limit, named as RateLimiterService names them.
+ */
+@Data
+public final class StatusQuery {
+    /**
+     * a TimeUnit for rate limits, or a QuotaPeriod(DAY, WEEK, MONTH) for quotas
+     */
+    private String timeUnit = "SECONDS";
+    private long permits;
+    /**
+     * stripes of the limit, see RateLimiter#stripes
+     */
+    private int stripes = 1;
+    private List<String> keys;
+}
@@ -30,6 +30,8 @@ public final class RateExceedingEvent extends ApplicationEvent {
     private String baseExp;
     private String baseValue;
     private String path;
+    private String pattern;
+    private String level;
     private String timeUnit;
     private int permits;
     public RateExceedingEvent() {
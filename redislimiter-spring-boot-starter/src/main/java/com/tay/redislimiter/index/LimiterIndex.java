@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limited methods of one compilation, generated by {@link LimiterIndexProcessor} and registered
+ * as a {@link java.util.ServiceLoader} service.
+ */
+public interface LimiterIndex {
+
+    List<LimiterIndexEntry> entries();
+
+    /**
+     * @return binary names of the classes whose limited methods are all listed by {@link #entries()}
+     */
+    default List<String> classes() {
+        List<String> classes = new ArrayList<>();
+        for (LimiterIndexEntry entry : entries()) {
+            classes.add(entry.getMethodKey().substring(0, entry.getMethodKey().indexOf('#')));
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.index;
+
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * The limiter configuration of one annotated method as declared at compile time.
+ */
+@Data
+@AllArgsConstructor
+public class LimiterIndexEntry {
+    /**
+     * see {@link LimiterIndexes#methodKey(java.lang.reflect.Method)}
+     */
+    private String methodKey;
+    /**
+     * whether the configuration comes from DynamicRateLimiter rather than RateLimiter
+     */
+    private boolean dynamic;
+    private LimiterConfig config;
+}
@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.index;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Generates a {@link LimiterIndex} holding the RateLimiter and DynamicRateLimiter configurations of the
+ * compiled methods, and registers it in META-INF/services, so they need not be scanned by reflection at startup.
+ * <p>
+ * The processor is registered in META-INF/services but does nothing unless enabled with
+ * {@code -Aredislimiter.index=true}, so it costs nothing in compilations of applications not using it. javac only
+ * runs it for compilations containing limiter annotations, and the index then lists all classes of the compilation.
+ * An incremental compilation thus replaces the index by one covering only the recompiled classes, and the others
+ * are scanned at runtime instead of being read from a stale index.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@SupportedAnnotationTypes({LimiterIndexProcessor.RATE_LIMITER, LimiterIndexProcessor.RATE_LIMITERS,
+        LimiterIndexProcessor.DYNAMIC_RATE_LIMITER, LimiterIndexProcessor.DYNAMIC_RATE_LIMITERS})
+@SupportedOptions(LimiterIndexProcessor.ENABLED_OPTION)
+public class LimiterIndexProcessor extends AbstractProcessor {
+
+    static final String ENABLED_OPTION = "redislimiter.index";
+
+    static final String RATE_LIMITER = "com.tay.redislimiter.RateLimiter";
+
+    static final String RATE_LIMITERS = "com.tay.redislimiter.RateLimiters";
+
+    static final String DYNAMIC_RATE_LIMITER = "com.tay.redislimiter.dynamic.DynamicRateLimiter";
+
+    static final String DYNAMIC_RATE_LIMITERS = "com.tay.redislimiter.dynamic.DynamicRateLimiters";
+
+    private static final String[] LIMITER_ANNOTATIONS = {RATE_LIMITER, RATE_LIMITERS, DYNAMIC_RATE_LIMITER, DYNAMIC_RATE_LIMITERS};
+
+    /**
+     * class names listed per generated method, far below the byte code size limit
+     */
+    private static final int CLASSES_PER_METHOD = 1000;
+
+    /**
+     * method bodies building the entries, sorted so the generated class does not depend on compilation order
+     */
+    private final Map<String, String> entryMap = new TreeMap<>();
+
+    /**
+     * binary names of all classes of the compilation
+     */
+    private final Set<String> compiledClasses = new TreeSet<>();
+
+    private String indexPackage;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!Boolean.parseBoolean(processingEnv.getOptions().get(ENABLED_OPTION))) {
+            return false;
+        }
+        if (roundEnv.processingOver()) {
+            if (!compiledClasses.isEmpty()) {
+                generate();
+            }
+            return false;
+        }
+        for (Element element : roundEnv.getRootElements()) {
+            if (element instanceof TypeElement) {
+                addCompiledClass((TypeElement) element);
+            }
+        }
+        for (String annotationName : LIMITER_ANNOTATIONS) {
+            TypeElement annotation = processingEnv.getElementUtils().getTypeElement(annotationName);
+            if (annotation == null) {
+                continue;
+            }
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    index((ExecutableElement) element);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void addCompiledClass(TypeElement type) {
+        compiledClasses.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+        String packageName = packageOf(type).getQualifiedName().toString();
+        if (indexPackage == null || packageName.compareTo(indexPackage) < 0) {
+            indexPackage = packageName;
+        }
+        for (Element member : type.getEnclosedElements()) {
+            if (member instanceof TypeElement) {
+                addCompiledClass((TypeElement) member);
+            }
+        }
+    }
+
+    private void index(ExecutableElement method) {
+        List<AnnotationMirror> staticLevels = new ArrayList<>();
+        List<AnnotationMirror> dynamicLevels = new ArrayList<>();
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            String type = ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+            if (RATE_LIMITER.equals(type)) {
+                staticLevels.add(mirror);
+            } else if (RATE_LIMITERS.equals(type)) {
+                staticLevels.addAll(nested(mirror));
+            } else if (DYNAMIC_RATE_LIMITER.equals(type)) {
+                dynamicLevels.add(mirror);
+            } else if (DYNAMIC_RATE_LIMITERS.equals(type)) {
+                dynamicLevels.addAll(nested(mirror));
+            }
+        }
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        String methodKey = methodKey(type, method);
+        if (!staticLevels.isEmpty()) {
+            entryMap.put("S " + methodKey, entry(type, method, methodKey, false, staticLevels));
+        }
+        if (!dynamicLevels.isEmpty() && method.getModifiers().contains(Modifier.PUBLIC)) {
+            entryMap.put("D " + methodKey, entry(type, method, methodKey, true, dynamicLevels));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<AnnotationMirror> nested(AnnotationMirror container) {
+        List<AnnotationMirror> mirrors = new ArrayList<>();
+        for (AnnotationValue value : (List<? extends AnnotationValue>) values(container).get("value")) {
+            mirrors.add((AnnotationMirror) value.getValue());
+        }
+        return mirrors;
+    }
+
+    private Map<String, Object> values(AnnotationMirror mirror) {
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            Object value = entry.getValue().getValue();
+            if (value instanceof VariableElement) {
+                value = ((VariableElement) value).getSimpleName().toString();
+            }
+            values.put(entry.getKey().getSimpleName().toString(), value);
+        }
+        return values;
+    }
+
+    private String methodKey(TypeElement type, ExecutableElement method) {
+        StringBuilder key = new StringBuilder(processingEnv.getElementUtils().getBinaryName(type)).append('#')
+                .append(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(processingEnv.getTypeUtils().erasure(parameters.get(i).asType()).toString());
+        }
+        return key.append(')').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private String entry(TypeElement type, ExecutableElement method, String methodKey, boolean dynamic, List<AnnotationMirror> levels) {
+        Map<String, Object> first = values(levels.get(0));
+        StringBuilder body = new StringBuilder();
+        body.append("        LimiterConfig config = new LimiterConfig();\n");
+        body.append("        config.setControllerName(").append(literal(type.getSimpleName().toString())).append(");\n");
+        body.append("        config.setMethodName(").append(literal(method.getSimpleName().toString())).append(");\n");
+        body.append("        config.setBaseExp(").append(literal((String) first.get("base"))).append(");\n");
+        body.append("        config.setPath(").append(literal((String) first.get("path"))).append(");\n");
+        body.append("        config.setTimeUnit(").append(literal((String) first.get("timeUnit"))).append(");\n");
+        body.append("        config.setPermits(").append(first.get("permits")).append(");\n");
+        body.append("        config.setCost(").append(literal((String) first.get("cost"))).append(");\n");
+        body.append("        config.setMaxWait(").append(first.get("maxWait")).append("L);\n");
+        if ((Integer) first.get("stripes") > 1) {
+            body.append("        config.setStripes(").append(first.get("stripes")).append(");\n");
+        }
+        if (!"".equals(first.get("priority"))) {
+            body.append("        config.setPriorityExp(").append(literal((String) first.get("priority"))).append(");\n");
+            body.append("        config.setPriorities(PriorityClass.parse(new String[] {");
+            List<? extends AnnotationValue> priorities = (List<? extends AnnotationValue>) first.get("priorities");
+            for (int i = 0; i < priorities.size(); i++) {
+                body.append(i > 0 ? ", " : "").append(literal((String) priorities.get(i).getValue()));
+            }
+            body.append("}));\n");
+        }
+        if (dynamic) {
+            int maxPermits = (Integer) first.get("maxPermits");
+            body.append("        config.setAdaptive(").append(first.get("adaptive")).append(");\n");
+            body.append("        config.setMinPermits(").append(first.get("minPermits")).append(");\n");
+            body.append("        config.setMaxPermits(").append(maxPermits > 0 ? maxPermits : first.get("permits")).append(");\n");
+            body.append("        config.setTargetLatency(").append(first.get("targetLatency")).append("L);\n");
+            body.append("        config.setMaxErrorRate(").append(literal((Double) first.get("maxErrorRate"))).append(");\n");
+        }
+        if (levels.size() > 1) {
+            body.append("        List<LimiterLevel> levels = new ArrayList<>();\n");
+            for (AnnotationMirror level : levels) {
+                Map<String, Object> values = values(level);
+                body.append("        levels.add(level(").append(literal((String) values.get("name"))).append(", ")
+                        .append(literal((String) values.get("base"))).append(", ")
+                        .append(literal((String) values.get("path"))).append(", ")
+                        .append(literal((String) values.get("timeUnit"))).append(", ")
+                        .append(values.get("permits")).append("));\n");
+            }
+            body.append("        config.setLevels(levels);\n");
+        }
+        body.append("        return new LimiterIndexEntry(").append(literal(methodKey)).append(", ").append(dynamic).append(", config);\n");
+        return body.toString();
+    }
+
+    private void generate() {
+        String className = "RedisLimiterIndex_" + Integer.toHexString(31 * entryMap.keySet().hashCode() + compiledClasses.hashCode());
+        String qualifiedName = indexPackage.isEmpty() ? className : indexPackage + "." + className;
+        StringBuilder source = new StringBuilder();
+        if (!indexPackage.isEmpty()) {
+            source.append("package ").append(indexPackage).append(";\n\n");
+        }
+        source.append("import com.tay.redislimiter.dynamic.LimiterConfig;\n");
+        source.append("import com.tay.redislimiter.dynamic.LimiterLevel;\n");
+        source.append("import com.tay.redislimiter.dynamic.PriorityClass;\n");
+        source.append("import com.tay.redislimiter.index.LimiterIndex;\n");
+        source.append("import com.tay.redislimiter.index.LimiterIndexEntry;\n\n");
+        source.append("import java.util.ArrayList;\n");
+        source.append("import java.util.List;\n\n");
+        source.append("public final class ").append(className).append(" implements LimiterIndex {\n\n");
+        source.append("    @Override\n");
+        source.append("    public List<LimiterIndexEntry> entries() {\n");
+        source.append("        List<LimiterIndexEntry> entries = new ArrayList<>(").append(entryMap.size()).append(");\n");
+        for (int i = 0; i < entryMap.size(); i++) {
+            source.append("        entries.add(entry").append(i).append("());\n");
+        }
+        source.append("        return entries;\n");
+        source.append("    }\n\n");
+        int classMethods = (compiledClasses.size() + CLASSES_PER_METHOD - 1) / CLASSES_PER_METHOD;
+        source.append("    @Override\n");
+        source.append("    public List<String> classes() {\n");
+        source.append("        List<String> classes = new ArrayList<>(").append(compiledClasses.size()).append(");\n");
+        for (int i = 0; i < classMethods; i++) {
+            source.append("        classes").append(i).append("(classes);\n");
+        }
+        source.append("        return classes;\n");
+        source.append("    }\n");
+        List<String> classNames = new ArrayList<>(compiledClasses);
+        for (int i = 0; i < classMethods; i++) {
+            source.append("\n    private static void classes").append(i).append("(List<String> classes) {\n");
+            for (String name : classNames.subList(i * CLASSES_PER_METHOD, Math.min(classNames.size(), (i + 1) * CLASSES_PER_METHOD))) {
+                source.append("        classes.add(").append(literal(name)).append(");\n");
+            }
+            source.append("    }\n");
+        }
+        int i = 0;
+        // one method per entry keeps every method far below the byte code size limit
+        for (String body : entryMap.values()) {
+            source.append("\n    private static LimiterIndexEntry entry").append(i++).append("() {\n").append(body).append("    }\n");
+        }
+        source.append("\n    private static LimiterLevel level(String name, String baseExp, String path, String timeUnit, int permits) {\n");
+        source.append("        LimiterLevel level = new LimiterLevel();\n");
+        source.append("        level.setName(name);\n");
+        source.append("        level.setBaseExp(baseExp);\n");
+        source.append("        level.setPath(path);\n");
+        source.append("        level.setTimeUnit(timeUnit);\n");
+        source.append("        level.setPermits(permits);\n");
+        source.append("        return level;\n");
+        source.append("    }\n");
+        source.append("}\n");
+        try {
+            JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(qualifiedName);
+            try (Writer writer = sourceFile.openWriter()) {
+                writer.write(source.toString());
+            }
+            FileObject serviceFile = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + LimiterIndex.class.getName());
+            try (Writer writer = serviceFile.openWriter()) {
+                writer.write(qualifiedName + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                    "Could not generate the limiter index, limiters will be scanned at runtime: " + e);
+        }
+    }
+
+    private static PackageElement packageOf(Element element) {
+        while (!(element instanceof PackageElement)) {
+            element = element.getEnclosingElement();
+        }
+        return (PackageElement) element;
+    }
+
+    private static String literal(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return Double.toString(value);
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c < 0x20) {
+                // octal, a unicode escape of a line break would end the literal
+                literal.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                literal.append(String.format("\\u%04x", (int) c));
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.append('"').toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Loads the generated {@link LimiterIndex}es of the class path. Classes not covered by an index are
+ * scanned by reflection as before. Lookups return copies, so callers may complete the configurations.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class LimiterIndexes {
+    private static Logger logger = LoggerFactory.getLogger(LimiterIndexes.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, LimiterIndexEntry> staticEntryMap;
+
+    private final Map<String, List<LimiterIndexEntry>> dynamicEntryMap;
+
+    private final Set<String> indexedClasses;
+
+    private LimiterIndexes(Map<String, LimiterIndexEntry> staticEntryMap, Map<String, List<LimiterIndexEntry>> dynamicEntryMap, Set<String> indexedClasses) {
+        this.staticEntryMap = staticEntryMap;
+        this.dynamicEntryMap = dynamicEntryMap;
+        this.indexedClasses = indexedClasses;
+    }
+
+    public static LimiterIndexes load(ClassLoader classLoader) {
+        Map<String, LimiterIndexEntry> staticEntryMap = new HashMap<>();
+        Map<String, List<LimiterIndexEntry>> dynamicEntryMap = new HashMap<>();
+        Set<String> indexedClasses = new HashSet<>();
+        try {
+            for (LimiterIndex limiterIndex : ServiceLoader.load(LimiterIndex.class, classLoader)) {
+                List<LimiterIndexEntry> entries = limiterIndex.entries();
+                Set<String> classes = new HashSet<>(limiterIndex.classes());
+                if (!isComplete(entries, classes)) {
+                    logger.warn("limiter index {} lists methods of classes it does not cover, it is ignored.", limiterIndex.getClass().getName());
+                    continue;
+                }
+                for (LimiterIndexEntry entry : entries) {
+                    String className = className(entry);
+                    if (entry.isDynamic()) {
+                        dynamicEntryMap.computeIfAbsent(className, k -> new ArrayList<>()).add(entry);
+                    } else {
+                        staticEntryMap.put(entry.getMethodKey(), entry);
+                    }
+                }
+                indexedClasses.addAll(classes);
+            }
+        } catch (ServiceConfigurationError e) {
+            logger.warn("load limiter index failed, annotations will be scanned at runtime.", e);
+            return new LimiterIndexes(Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+        }
+        return new LimiterIndexes(staticEntryMap, dynamicEntryMap, indexedClasses);
+    }
+
+    private static boolean isComplete(List<LimiterIndexEntry> entries, Set<String> classes) {
+        for (LimiterIndexEntry entry : entries) {
+            if (!classes.contains(className(entry))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String className(LimiterIndexEntry entry) {
+        return entry.getMethodKey().substring(0, entry.getMethodKey().indexOf('#'));
+    }
+
+    private static LimiterIndexEntry copy(LimiterIndexEntry entry) {
+        return new LimiterIndexEntry(entry.getMethodKey(), entry.isDynamic(), objectMapper.convertValue(entry.getConfig(), LimiterConfig.class));
+    }
+
+    /**
+     * @return whether the methods of the class were indexed at compile time
+     */
+    public boolean isIndexed(Class<?> clazz) {
+        return indexedClasses.contains(clazz.getName());
+    }
+
+    /**
+     * @return the RateLimiter configuration of the method, or null if it was not indexed
+     */
+    public LimiterIndexEntry getStatic(Method method) {
+        LimiterIndexEntry entry = staticEntryMap.isEmpty() ? null : staticEntryMap.get(methodKey(method));
+        return entry == null ? null : copy(entry);
+    }
+
+    /**
+     * @return the DynamicRateLimiter configurations of the public methods declared by the class
+     */
+    public List<LimiterIndexEntry> getDynamic(Class<?> clazz) {
+        List<LimiterIndexEntry> entries = dynamicEntryMap.get(clazz.getName());
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<LimiterIndexEntry> copies = new ArrayList<>(entries.size());
+        for (LimiterIndexEntry entry : entries) {
+            copies.add(copy(entry));
+        }
+        return copies;
+    }
+
+    /**
+     * @return binary name of the declaring class, '#', the method name and the canonical names of the parameter types
+     * in parentheses, e.g. {@code com.example.OrderController#get(java.lang.String)}
+     */
+    public static String methodKey(Method method) {
+        StringBuilder key = new StringBuilder(method.getDeclaringClass().getName()).append('#').append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getCanonicalName());
+        }
+        return key.append(')').toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * One request of an access log, read from a JSON line such as
+ * {@code {"timestamp":1700000000123,"method":"GET","path":"/orders/42?expand=items","headers":{"X-User":"alice"}}}.
+ * The timestamp is in epoch milliseconds or an ISO-8601 instant. Params are taken from the query string,
+ * cookies from the Cookie header and the content length from the Content-Length header.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@Data
+public final class AccessLogRecord {
+    private long timestamp;
+    private String method;
+    private String path;
+    private Map<String, String> headers;
+    private Map<String, String> params;
+    private Map<String, String> cookies;
+    /**
+     * request attributes the application had set when the limiters ran, e.g. the authenticated user
+     */
+    private Map<String, String> attributes;
+    private long contentLength;
+
+    public static AccessLogRecord parse(ObjectMapper objectMapper, String line) throws IOException {
+        JsonNode node = objectMapper.readTree(line);
+        AccessLogRecord record = new AccessLogRecord();
+        JsonNode timestamp = node.path("timestamp");
+        if (timestamp.isNumber()) {
+            record.setTimestamp(timestamp.asLong());
+        } else if (timestamp.isTextual()) {
+            record.setTimestamp(Instant.parse(timestamp.asText()).toEpochMilli());
+        } else {
+            throw new IOException("access log line without timestamp: " + line);
+        }
+        record.setMethod(node.path("method").asText("GET"));
+        String uri = node.path("path").asText("/");
+        int question = uri.indexOf('?');
+        record.setPath(question < 0 ? uri : uri.substring(0, question));
+        record.setParams(question < 0 ? new HashMap<>() : parseQuery(uri.substring(question + 1)));
+        HashMap<String, String> headerMap = new HashMap<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.path("headers").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            headerMap.put(field.getKey(), field.getValue().asText());
+        }
+        record.setHeaders(headerMap);
+        HashMap<String, String> attributeMap = new HashMap<>();
+        fields = node.path("attributes").fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            attributeMap.put(field.getKey(), field.getValue().asText());
+        }
+        record.setAttributes(attributeMap);
+        record.setCookies(parseCookies(header(headerMap, "Cookie")));
+        String contentLength = header(headerMap, "Content-Length");
+        record.setContentLength(contentLength == null ? -1 : Long.parseLong(contentLength.trim()));
+        return record;
+    }
+
+    private static String header(Map<String, String> headerMap, String name) {
+        for (Map.Entry<String, String> entry : headerMap.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static HashMap<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        HashMap<String, String> paramMap = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), "UTF-8");
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+            // like ServletRequest.getParameter, the first value of a repeated parameter wins
+            paramMap.putIfAbsent(name, value);
+        }
+        return paramMap;
+    }
+
+    private static HashMap<String, String> parseCookies(String cookieHeader) {
+        HashMap<String, String> cookieMap = new HashMap<>();
+        if (cookieHeader != null) {
+            for (String cookie : cookieHeader.split(";")) {
+                int equals = cookie.indexOf('=');
+                if (equals > 0) {
+                    cookieMap.put(cookie.substring(0, equals).trim(), cookie.substring(equals + 1).trim());
+                }
+            }
+        }
+        return cookieMap;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays an access log against candidate limiter configurations without Redis, to see what they would deny.
+ * The log is streamed in batches: batches are parsed and resolved to limiter keys in parallel, then handed
+ * to shards, each owning a share of the keys and replaying them in log order against an {@link InProcessRateLimiter}
+ * on a simulated clock that follows the log timestamps. Single level candidates are sharded by key, multi level
+ * candidates by candidate, as their levels may share keys. Logs are expected in timestamp order.
+ * Per key counts are kept for the {@code maxKeys} keys of every candidate with the most denials.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class AccessLogSimulator {
+
+    private static final int BATCH_SIZE = 2000;
+
+    private static final int EXPIRE_INTERVAL = 1 << 20;
+
+    public static final int DEFAULT_MAX_KEYS = 1000;
+
+    private static final Future<Batch> END = CompletableFuture.completedFuture(null);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<CandidateLimiter> candidates;
+
+    private final int threads;
+
+    private final int maxKeys;
+
+    public AccessLogSimulator(List<LimiterConfig> limiterConfigs, int threads) {
+        this(limiterConfigs, threads, DEFAULT_MAX_KEYS);
+    }
+
+    public AccessLogSimulator(List<LimiterConfig> limiterConfigs, int threads, int maxKeys) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys must be positive: " + maxKeys);
+        }
+        this.candidates = new ArrayList<>(limiterConfigs.size());
+        for (int i = 0; i < limiterConfigs.size(); i++) {
+            candidates.add(new CandidateLimiter(i, limiterConfigs.get(i)));
+        }
+        this.threads = threads;
+        this.maxKeys = maxKeys;
+    }
+
+    public SimulationReport run(Reader input) throws IOException, InterruptedException {
+        BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, 1 << 16);
+        ExecutorService parsers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "redis-limiter-simulator-parse");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Shard[] shards = new Shard[threads];
+        Thread[] shardThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard(i);
+            shardThreads[i] = new Thread(shards[i], "redis-limiter-simulator-shard-" + i);
+            shardThreads[i].setDaemon(true);
+            shardThreads[i].start();
+        }
+        try {
+            List<String> lines = new ArrayList<>(BATCH_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+                if (lines.size() == BATCH_SIZE) {
+                    dispatch(parsers, shards, lines);
+                    lines = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!lines.isEmpty()) {
+                dispatch(parsers, shards, lines);
+            }
+        } finally {
+            for (Shard shard : shards) {
+                shard.queue.put(END);
+            }
+            for (Thread shardThread : shardThreads) {
+                shardThread.join();
+            }
+            parsers.shutdownNow();
+        }
+        long lineCount = 0;
+        long skipped = 0;
+        List<SimulationReport.CandidateResult> candidateResults = new ArrayList<>(candidates.size());
+        for (CandidateLimiter candidate : candidates) {
+            candidateResults.add(new SimulationReport.CandidateResult(candidate.getName(), maxKeys));
+        }
+        for (Shard shard : shards) {
+            if (shard.failure != null) {
+                throw new IllegalStateException("replay failed", shard.failure);
+            }
+            lineCount += shard.lines;
+            skipped += shard.skipped;
+            for (int i = 0; i < candidates.size(); i++) {
+                candidateResults.get(i).merge(shard.candidateResults[i]);
+            }
+        }
+        return new SimulationReport(lineCount, skipped, candidateResults);
+    }
+
+    private void dispatch(ExecutorService parsers, Shard[] shards, List<String> lines) throws InterruptedException {
+        Future<Batch> batch = parsers.submit(() -> parse(lines));
+        // every shard takes its part of each batch in order; the bounded queues hold back the reader
+        for (Shard shard : shards) {
+            shard.queue.put(batch);
+        }
+    }
+
+    private Batch parse(List<String> lines) {
+        Batch batch = new Batch(lines.size(), threads);
+        for (String line : lines) {
+            try {
+                AccessLogRecord record = AccessLogRecord.parse(objectMapper, line);
+                for (int i = 0; i < candidates.size(); i++) {
+                    CandidateLimiter candidate = candidates.get(i);
+                    CandidateLimiter.Resolution resolution = candidate.resolve(record);
+                    if (resolution != null) {
+                        int hash = candidate.getLevelCount() == 1 ? 31 * i + resolution.getLevels().get(0).getRateLimiterKey().hashCode() : i;
+                        int shard = (hash & Integer.MAX_VALUE) % threads;
+                        batch.parts[shard].add(new Replay(i, resolution));
+                    }
+                }
+            } catch (Exception e) {
+                batch.skipped++;
+            }
+        }
+        return batch;
+    }
+
+    private static final class Batch {
+        private final int lines;
+        private final List<Replay>[] parts;
+        private int skipped;
+
+        @SuppressWarnings("unchecked")
+        private Batch(int lines, int shards) {
+            this.lines = lines;
+            this.parts = new List[shards];
+            for (int i = 0; i < shards; i++) {
+                parts[i] = new ArrayList<>();
+            }
+        }
+    }
+
+    private static final class Replay {
+        private final int candidate;
+        private final CandidateLimiter.Resolution resolution;
+
+        private Replay(int candidate, CandidateLimiter.Resolution resolution) {
+            this.candidate = candidate;
+            this.resolution = resolution;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final int index;
+        private final BlockingQueue<Future<Batch>> queue = new ArrayBlockingQueue<>(4);
+        private final InProcessRateLimiter[] limiters = new InProcessRateLimiter[candidates.size()];
+        private final SimulationReport.CandidateResult[] candidateResults = new SimulationReport.CandidateResult[candidates.size()];
+        private long clock;
+        private long replayed;
+        private long lines;
+        private long skipped;
+        private volatile Throwable failure;
+
+        private Shard(int index) {
+            this.index = index;
+            for (int i = 0; i < limiters.length; i++) {
+                limiters[i] = new InProcessRateLimiter();
+                candidateResults[i] = new SimulationReport.CandidateResult(candidates.get(i).getName(), maxKeys);
+            }
+        }
+
+        @Override
+        public void run() {
+            Future<Batch> future;
+            try {
+                while ((future = queue.take()) != END) {
+                    if (failure != null) {
+                        // keep draining so that the reader never blocks on a dead shard
+                        continue;
+                    }
+                    try {
+                        replay(future.get());
+                    } catch (ExecutionException e) {
+                        failure = e.getCause();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void replay(Batch batch) {
+            if (index == 0) {
+                lines += batch.lines;
+                skipped += batch.skipped;
+            }
+            for (Replay replay : batch.parts[index]) {
+                CandidateLimiter.Resolution resolution = replay.resolution;
+                // the simulated clock never goes back, slightly unordered log lines are replayed at the latest time seen
+                clock = Math.max(clock, resolution.getTimeMicros());
+                int denied = limiters[replay.candidate].acquireAll(resolution.getLevels(), clock, resolution.getCost());
+                candidateResults[replay.candidate].record(resolution, denied);
+                if (++replayed % EXPIRE_INTERVAL == 0) {
+                    for (InProcessRateLimiter limiter : limiters) {
+                        limiter.expire(clock);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.simulator;
+
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import com.tay.redislimiter.dynamic.LimiterKeyResolver;
+import com.tay.redislimiter.dynamic.LimiterLevel;
+import com.tay.redislimiter.dynamic.PatternRule;
+import com.tay.redislimiter.dynamic.PatternRuleTrie;
+import com.tay.redislimiter.web.RateCheckInterceptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limiter configuration under evaluation. Requests are matched by the pattern and HTTP method of the
+ * configuration and resolved to limiter keys by the {@link LimiterKeyResolver} {@link RateCheckInterceptor} uses for
+ * pattern rules, so levels without a path use the pattern.
+ * Keys are reported as {@code <path>:<base value>}, without prefix and application name.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class CandidateLimiter {
+
+    private final LimiterConfig limiterConfig;
+
+    private final String name;
+
+    private final PatternRuleTrie patternRuleTrie;
+
+    private final List<LimiterLevel> levels;
+
+    private final LimiterKeyResolver limiterKeyResolver = new LimiterKeyResolver();
+
+    public CandidateLimiter(int index, LimiterConfig limiterConfig) {
+        if (limiterConfig.getPattern() == null || "".equals(limiterConfig.getPattern())) {
+            throw new IllegalArgumentException("candidate limiter configuration needs a pattern");
+        }
+        this.limiterConfig = limiterConfig;
+        this.patternRuleTrie = PatternRuleTrie.compile(Collections.singletonList(PatternRule.of(limiterConfig)));
+        this.levels = LimiterKeyResolver.levels(limiterConfig);
+        StringBuilder builder = new StringBuilder("#").append(index + 1).append(' ')
+                .append(PatternRule.ruleKey(limiterConfig.getHttpMethod(), limiterConfig.getPattern()));
+        for (LimiterLevel level : levels) {
+            // fail fast on a time unit the limiter does not support
+            TimeUnit.valueOf(level.getTimeUnit());
+            builder.append(' ').append(level.getPermits()).append('/').append(level.getTimeUnit());
+        }
+        this.name = builder.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LimiterConfig getLimiterConfig() {
+        return limiterConfig;
+    }
+
+    public int getLevelCount() {
+        return levels.size();
+    }
+
+    /**
+     * @return the limits the request takes permits from, or null if the configuration does not apply to it
+     */
+    public Resolution resolve(AccessLogRecord record) {
+        if (patternRuleTrie.match(record.getMethod(), record.getPath()) == null) {
+            return null;
+        }
+        LimiterKeyResolver.Resolution resolution = limiterKeyResolver.resolve(limiterConfig, limiterConfig.getPattern(),
+                () -> LimiterKeyResolver.buildContext(record.getCookies(), record.getHeaders(), record.getAttributes(),
+                        record.getParams(), record.getContentLength()));
+        if (resolution.getCost() <= 0) {
+            return null;
+        }
+        List<RateLimitLevel> rateLimitLevels = new ArrayList<>(levels.size());
+        for (int i = 0; i < levels.size(); i++) {
+            LimiterLevel level = levels.get(i);
+            rateLimitLevels.add(new RateLimitLevel(resolution.getPaths()[i] + ":" + resolution.getBaseVals()[i],
+                    TimeUnit.valueOf(level.getTimeUnit()), resolution.permitsOf(level.getPermits())));
+        }
+        return new Resolution(record.getTimestamp() * 1000, resolution.getCost(), rateLimitLevels);
+    }
+
+    /**
+     * The permits one request takes, at the time it was logged.
+     */
+    public static final class Resolution {
+        private final long timeMicros;
+        private final int cost;
+        private final List<RateLimitLevel> levels;
+
+        Resolution(long timeMicros, int cost, List<RateLimitLevel> levels) {
+            this.timeMicros = timeMicros;
+            this.cost = cost;
+            this.levels = levels;
+        }
+
+        public long getTimeMicros() {
+            return timeMicros;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        public List<RateLimitLevel> getLevels() {
+            return levels;
+        }
+    }
+}
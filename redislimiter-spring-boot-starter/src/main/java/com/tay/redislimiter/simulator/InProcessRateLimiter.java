@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.simulator;
+
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.core.RedisRateLimiter;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory counterpart of the limiter scripts, driven by the timestamps it is given instead of the Redis clock.
+ * Like {@link RedisRateLimiter}, SECONDS limits count permits in fixed one second windows, while MINUTES, HOURS
+ * and DAYS limits count the permits taken in the period ending at the current time. Not thread safe.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public class InProcessRateLimiter {
+
+    private final Map<String, Window> windowMap = new HashMap<>();
+
+    public boolean acquire(String key, TimeUnit timeUnit, int permits, long nowMicros, int cost) {
+        return acquireAll(Collections.singletonList(new RateLimitLevel(key, timeUnit, permits)), nowMicros, cost) == 0;
+    }
+
+    /**
+     * Takes {@code cost} permits from every level, or from none of them.
+     *
+     * @return 0 if the permits were taken, otherwise the 1-based index of the first level that has too few
+     */
+    public int acquireAll(List<RateLimitLevel> levels, long nowMicros, int cost) {
+        Window[] windows = new Window[levels.size()];
+        for (int i = 0; i < windows.length; i++) {
+            RateLimitLevel level = levels.get(i);
+            windows[i] = windowMap.computeIfAbsent(level.getRateLimiterKey(), k -> newWindow(level.getTimeUnit()));
+            if (windows[i].used(nowMicros) + cost > level.getPermits()) {
+                return i + 1;
+            }
+        }
+        for (Window window : windows) {
+            window.take(nowMicros, cost);
+        }
+        return 0;
+    }
+
+    /**
+     * Drops the windows of keys that took no permits within their period, bounding memory on long replays.
+     */
+    public void expire(long nowMicros) {
+        windowMap.values().removeIf(window -> window.used(nowMicros) == 0);
+    }
+
+    public int size() {
+        return windowMap.size();
+    }
+
+    private static Window newWindow(TimeUnit timeUnit) {
+        if (timeUnit == TimeUnit.SECONDS) {
+            return new SecondWindow();
+        } else if (timeUnit == TimeUnit.MINUTES || timeUnit == TimeUnit.HOURS || timeUnit == TimeUnit.DAYS) {
+            return new SlidingWindow(timeUnit.toMicros(1));
+        }
+        throw new IllegalArgumentException("Don't support this TimeUnit: " + timeUnit);
+    }
+
+    private interface Window {
+        long used(long nowMicros);
+
+        void take(long nowMicros, int cost);
+    }
+
+    private static final class SecondWindow implements Window {
+        private long second = -1;
+        private long count;
+
+        @Override
+        public long used(long nowMicros) {
+            return nowMicros / 1000000 == second ? count : 0;
+        }
+
+        @Override
+        public void take(long nowMicros, int cost) {
+            long current = nowMicros / 1000000;
+            if (current != second) {
+                second = current;
+                count = 0;
+            }
+            count += cost;
+        }
+    }
+
+    private static final class SlidingWindow implements Window {
+        private final long periodMicros;
+        // {time(MICROSECONDS), permits} of the takes still in the period, oldest first
+        private final ArrayDeque<long[]> takes = new ArrayDeque<>();
+        private long count;
+
+        private SlidingWindow(long periodMicros) {
+            this.periodMicros = periodMicros;
+        }
+
+        @Override
+        public long used(long nowMicros) {
+            long[] oldest;
+            while ((oldest = takes.peekFirst()) != null && oldest[0] < nowMicros - periodMicros) {
+                takes.pollFirst();
+                count -= oldest[1];
+            }
+            return count;
+        }
+
+        @Override
+        public void take(long nowMicros, int cost) {
+            long[] latest = takes.peekLast();
+            if (latest != null && latest[0] == nowMicros) {
+                latest[1] += cost;
+            } else {
+                takes.addLast(new long[] {nowMicros, cost});
+            }
+            count += cost;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.simulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of replaying an access log: for every candidate, how many requests it applied to and denied,
+ * in total and for the keys with the most denials. A request denied by a multi level limiter counts
+ * against the key of the level that denied it.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+public final class SimulationReport {
+
+    private final long lines;
+
+    private final long skipped;
+
+    private final List<CandidateResult> candidateResults;
+
+    SimulationReport(long lines, long skipped, List<CandidateResult> candidateResults) {
+        this.lines = lines;
+        this.skipped = skipped;
+        this.candidateResults = candidateResults;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return lines that could not be parsed, or whose expressions could not be evaluated
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public List<CandidateResult> getCandidateResults() {
+        return candidateResults;
+    }
+
+    /**
+     * Prints every candidate with the {@code topKeys} keys that had the most requests denied.
+     */
+    public void print(PrintStream out, int topKeys) {
+        out.printf("%d lines replayed, %d skipped%n", lines, skipped);
+        for (CandidateResult candidateResult : candidateResults) {
+            out.printf("%n%s: %d requests, %d denied (%.2f%%)%n", candidateResult.getName(), candidateResult.getRequests(),
+                    candidateResult.getDenied(), candidateResult.getRequests() == 0 ? 0.0 : 100.0 * candidateResult.getDenied() / candidateResult.getRequests());
+            List<Map.Entry<String, long[]>> keys = candidateResult.sortedKeys();
+            for (Map.Entry<String, long[]> entry : keys.subList(0, Math.min(topKeys, keys.size()))) {
+                out.printf("  %-60s %12d requests %12d denied%n", entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+            if (keys.size() > topKeys) {
+                out.printf("  ... %d more keys with denials%n", keys.size() - topKeys);
+            }
+            if (candidateResult.getDroppedKeys() > 0) {
+                out.printf("  ... %d keys with fewer denials dropped, counts of the keys above may be low%n", candidateResult.getDroppedKeys());
+            }
+        }
+    }
+
+    /**
+     * Per key counts are kept for at most {@code maxKeys} keys, the ones with the most denials: a key is tracked
+     * from its first denial on, and once twice as many keys are tracked, the ones with the fewest denials are dropped.
+     * The requests of a key are therefore counted from its first denial, and a dropped key that is denied again
+     * starts over.
+     */
+    public static final class CandidateResult {
+        private final String name;
+        private final int maxKeys;
+        private long requests;
+        private long denied;
+        private long droppedKeys;
+        // key -> {requests, denied}
+        private final HashMap<String, long[]> keyMap = new HashMap<>();
+
+        CandidateResult(String name, int maxKeys) {
+            this.name = name;
+            this.maxKeys = maxKeys;
+        }
+
+        void record(CandidateLimiter.Resolution resolution, int deniedLevel) {
+            requests++;
+            if (deniedLevel > 0) {
+                denied++;
+            }
+            for (int i = 0; i < resolution.getLevels().size(); i++) {
+                String key = resolution.getLevels().get(i).getRateLimiterKey();
+                long[] counts = deniedLevel == i + 1 ? keyMap.computeIfAbsent(key, k -> new long[2]) : keyMap.get(key);
+                if (counts != null) {
+                    counts[0]++;
+                    if (deniedLevel == i + 1) {
+                        counts[1]++;
+                    }
+                }
+            }
+            if (keyMap.size() >= 2 * maxKeys) {
+                trim();
+            }
+        }
+
+        void merge(CandidateResult other) {
+            requests += other.requests;
+            denied += other.denied;
+            droppedKeys += other.droppedKeys;
+            other.keyMap.forEach((key, counts) -> {
+                long[] merged = keyMap.computeIfAbsent(key, k -> new long[2]);
+                merged[0] += counts[0];
+                merged[1] += counts[1];
+            });
+            if (keyMap.size() > maxKeys) {
+                trim();
+            }
+        }
+
+        private void trim() {
+            List<Map.Entry<String, long[]>> keys = sortedKeys();
+            for (Map.Entry<String, long[]> entry : keys.subList(maxKeys, keys.size())) {
+                keyMap.remove(entry.getKey());
+                droppedKeys++;
+            }
+        }
+
+        private List<Map.Entry<String, long[]>> sortedKeys() {
+            List<Map.Entry<String, long[]>> keys = new ArrayList<>(keyMap.entrySet());
+            keys.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+            return keys;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getDenied() {
+            return denied;
+        }
+
+        /**
+         * @return requests denied by the given key
+         */
+        public long getDenied(String key) {
+            long[] counts = keyMap.get(key);
+            return counts == null ? 0 : counts[1];
+        }
+
+        /**
+         * @return keys with denials that are tracked, at most the configured maximum
+         */
+        public int getKeyCount() {
+            return keyMap.size();
+        }
+
+        /**
+         * @return times a key was dropped from the tracked keys for having too few denials
+         */
+        public long getDroppedKeys() {
+            return droppedKeys;
+        }
+    }
+}
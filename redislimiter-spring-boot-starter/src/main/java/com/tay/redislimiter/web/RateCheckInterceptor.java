@@ -18,37 +18,79 @@
  */
 package com.tay.redislimiter.web;
 
+import com.tay.redislimiter.ConcurrencyLimiter;
+import com.tay.redislimiter.Quota;
+import com.tay.redislimiter.allowlist.AllowlistRegistry;
+import com.tay.redislimiter.allowlist.CompiledAllowlist;
+import com.tay.redislimiter.core.BanList;
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.ConcurrencyLease;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.PermitWaitQueue;
+import com.tay.redislimiter.core.QuotaUsage;
 import com.tay.redislimiter.core.RateCheckTaskRunner;
 import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.RateLimiters;
 import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.dynamic.AdaptiveLimitController;
 import com.tay.redislimiter.dynamic.DynamicRateLimiter;
+import com.tay.redislimiter.dynamic.DynamicRateLimiters;
+import com.tay.redislimiter.dynamic.LimitOverride;
+import com.tay.redislimiter.dynamic.LimitOverrideRegistry;
 import com.tay.redislimiter.dynamic.LimiterConfig;
+import com.tay.redislimiter.dynamic.LimiterKeyResolver;
+import com.tay.redislimiter.dynamic.LimiterLevel;
+import com.tay.redislimiter.dynamic.PatternRule;
+import com.tay.redislimiter.dynamic.PriorityClass;
 import com.tay.redislimiter.dynamic.RedisLimiterConfigProcessor;
 import com.tay.redislimiter.event.RateExceedingEvent;
+import com.tay.redislimiter.index.LimiterIndexEntry;
+import com.tay.redislimiter.index.LimiterIndexes;
 import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.method.HandlerMethod;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.ModelAndView;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 @RequiredArgsConstructor
-public final class RateCheckInterceptor implements HandlerInterceptor, ApplicationContextAware, InitializingBean {
+public final class RateCheckInterceptor implements AsyncHandlerInterceptor, ApplicationContextAware, InitializingBean {
+    private static Logger logger = LoggerFactory.getLogger(RateCheckInterceptor.class);
+
+    private static final String RESUME_AFTER_ATTRIBUTE = RateCheckInterceptor.class.getName() + ".RESUME_AFTER";
+
+    private static final String RESUMED_ATTRIBUTE = RateCheckInterceptor.class.getName() + ".RESUMED";
+
+    private static final long WAIT_TIMEOUT_SLACK = 1000;
+
+    private static final String CONCURRENCY_LEASE_ATTRIBUTE = RateCheckInterceptor.class.getName() + ".CONCURRENCY_LEASE";
+
+    private static final String ADAPTIVE_KEY_ATTRIBUTE = RateCheckInterceptor.class.getName() + ".ADAPTIVE_KEY";
+
+    private static final String ADAPTIVE_START_ATTRIBUTE = RateCheckInterceptor.class.getName() + ".ADAPTIVE_START";
 
     private final RedisLimiterProperties redisLimiterProperties;
 
@@ -56,10 +98,30 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
 
     private final RedisLimiterConfigProcessor redisLimiterConfigProcessor;
 
+    private final AdaptiveLimitController adaptiveLimitController;
+
+    private final PermitWaitQueue permitWaitQueue;
+
+    private final KeyEncoder keyEncoder;
+
+    private final CardinalityGuard cardinalityGuard;
+
+    private final LimiterIndexes limiterIndexes;
+
+    private final AllowlistRegistry allowlistRegistry;
+
+    private final BanList banList;
+
+    private final LimitOverrideRegistry limitOverrideRegistry;
+
     private ApplicationContext applicationContext;
 
     private String applicationName;
 
+    private final ConcurrentHashMap<Method, LimiterConfig> staticConfigMap = new ConcurrentHashMap<>();
+
+    private final LimiterKeyResolver limiterKeyResolver = new LimiterKeyResolver();
+
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) {
         this.applicationContext = applicationContext;
@@ -75,75 +137,363 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
             throws Exception {
-        if (!(handler instanceof HandlerMethod)) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC && !isResuming(request) && request.getAttribute(RESUMED_ATTRIBUTE) == null) {
+            // limits were applied when the request was dispatched for the first time
             return true;
         }
+        if (isAllowlisted(request)) {
+            return true;
+        }
+        Method method = handler instanceof HandlerMethod ? ((HandlerMethod) handler).getMethod() : null;
+        Object checkedMethod = request.getAttribute(RateLimitFilter.CHECKED_METHOD_ATTRIBUTE);
         boolean isSuccess = true;
-        HandlerMethod handlerMethod = (HandlerMethod) handler;
-        Method method = handlerMethod.getMethod();
-        if (method.isAnnotationPresent(RateLimiter.class)) {
-            isSuccess = handleStatic(method, request, response);
+        if (checkedMethod == null) {
+            isSuccess = checkRate(method, defaultPath(request), request, response);
+        } else if (method != null && !checkedMethod.equals(method)) {
+            // the filter resolved another handler than the handler mapping did, pattern rules were applied already
+            isSuccess = handleAnnotations(method, defaultPath(request), request, response);
         }
-        else if(method.isAnnotationPresent(DynamicRateLimiter.class)) {
-            isSuccess = handleDynamic(method, request, response);
+        request.removeAttribute(RESUMED_ATTRIBUTE);
+        if (isSuccess && method != null && method.isAnnotationPresent(ConcurrencyLimiter.class)) {
+            isSuccess = handleConcurrency(method, request, response);
+        }
+        if (isSuccess && method != null && method.isAnnotationPresent(Quota.class)) {
+            // afterCompletion is not called when preHandle denies the request, so the slot is released here
+            try {
+                isSuccess = handleQuota(method, request, response);
+            } catch (Exception e) {
+                releaseConcurrency(request);
+                throw e;
+            }
+            if (!isSuccess) {
+                releaseConcurrency(request);
+            }
         }
         return isSuccess;
     }
 
-    private boolean handleStatic(Method method, HttpServletRequest request, HttpServletResponse response) throws Exception{
-        RateLimiter rateLimiterAnnotation = method.getAnnotation(RateLimiter.class);
-        int permits = rateLimiterAnnotation.permits();
-        TimeUnit timeUnit = rateLimiterAnnotation.timeUnit();
-        String path = rateLimiterAnnotation.path();
+    /**
+     * Applies the pattern rules matching the request and the rate limiter annotations of the handler method.
+     *
+     * @param method      the handler method, or null if it is unknown
+     * @param defaultPath path used by limiters that do not set one
+     */
+    public boolean checkRate(Method method, String defaultPath, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        if (redisLimiterConfigProcessor != null && !handleRule(method, request, response)) {
+            return false;
+        }
+        return method == null || handleAnnotations(method, defaultPath, request, response);
+    }
+
+    /**
+     * @return whether the client address or a header of the request is in the global allowlist
+     */
+    public boolean isAllowlisted(HttpServletRequest request) {
+        return allowlistRegistry.getGlobal().matchesRequest(request);
+    }
+
+    /**
+     * @return whether the request was dispatched again after waiting for a permit and still has limits to check
+     */
+    public static boolean isResuming(HttpServletRequest request) {
+        return request.getAttribute(RESUME_AFTER_ATTRIBUTE) != null;
+    }
+
+    private boolean handleAnnotations(Method method, String defaultPath, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        boolean isSuccess = true;
+        if (method.isAnnotationPresent(RateLimiter.class) || method.isAnnotationPresent(RateLimiters.class)) {
+            isSuccess = handleStatic(method, defaultPath, request, response);
+        }
+        else if(method.isAnnotationPresent(DynamicRateLimiter.class) || method.isAnnotationPresent(DynamicRateLimiters.class)) {
+            isSuccess = handleDynamic(method, defaultPath, request, response);
+        }
+        return isSuccess;
+    }
+
+    private boolean handleConcurrency(Method method, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        ConcurrencyLimiter concurrencyLimiter = method.getAnnotation(ConcurrencyLimiter.class);
+        String path = concurrencyLimiter.path();
         if ("".equals(path)) {
-            path = request.getRequestURI();
+            path = defaultPath(request);
+        }
+        String baseExp = concurrencyLimiter.base();
+        String baseVal = "";
+        if (!"".equals(baseExp)) {
+            baseVal = limiterKeyResolver.baseValue(baseExp, new LimiterKeyResolver.Scope(() -> buildContext(request)));
+            if (allowlistRegistry.getGlobal().containsBaseValue(baseVal)) {
+                return true;
+            }
+            baseVal = cardinalityGuard.guard(method.getDeclaringClass().getSimpleName() + ":" + method.getName() + ":concurrency", baseVal);
+        }
+        String concurrencyKey = keyEncoder.encode(applicationName, path, baseVal) + ":concurrency";
+        ConcurrencyLease lease = rateCheckTaskRunner.acquireConcurrency(concurrencyKey, concurrencyLimiter.maxConcurrency(), concurrencyLimiter.leaseSeconds());
+        if (lease == null) {
+            rateExceeded(method, null, "concurrency", response, baseExp, baseVal, path, concurrencyLimiter.maxConcurrency(), null);
+            return false;
         }
+        request.setAttribute(CONCURRENCY_LEASE_ATTRIBUTE, lease);
+        return true;
+    }
 
-        String baseExp = rateLimiterAnnotation.base();
+    private boolean handleQuota(Method method, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        Quota quota = method.getAnnotation(Quota.class);
+        String path = quota.path();
+        if ("".equals(path)) {
+            path = defaultPath(request);
+        }
+        LimiterKeyResolver.Scope scope = new LimiterKeyResolver.Scope(() -> buildContext(request));
+        int cost = limiterKeyResolver.cost(quota.cost(), scope);
+        if (cost <= 0) {
+            return true;
+        }
+        String baseExp = quota.base();
         String baseVal = "";
-        if(!"".equals(baseExp)) {
-            baseVal = eval(baseExp, request);
+        if (!"".equals(baseExp)) {
+            baseVal = limiterKeyResolver.baseValue(baseExp, scope);
+            if (allowlistRegistry.getGlobal().containsBaseValue(baseVal)) {
+                return true;
+            }
+            baseVal = cardinalityGuard.guard(method.getDeclaringClass().getSimpleName() + ":" + method.getName() + ":quota", baseVal);
+        }
+        String rateLimiterKey = keyEncoder.encode(applicationName, path, baseVal);
+        QuotaUsage usage = rateCheckTaskRunner.checkQuota(rateLimiterKey, quota.period(), quota.permits(), cost);
+        if (usage.getLimit() >= 0) {
+            response.setHeader("X-Quota-Limit", String.valueOf(usage.getLimit()));
+            response.setHeader("X-Quota-Remaining", String.valueOf(usage.getRemaining()));
+            response.setHeader("X-Quota-Reset", String.valueOf(usage.getResetAt()));
         }
-        String rateLimiterKey = redisLimiterProperties.getRedisKeyPrefix() + ":" + applicationName + ":" + path + ":" + baseVal;
-        boolean isSuccess = rateCheckTaskRunner.checkRun(rateLimiterKey, timeUnit, permits);
+        if (!usage.isAllowed()) {
+            rateExceeded(method, null, "quota", response, baseExp, baseVal, path, (int) Math.min(quota.permits(), Integer.MAX_VALUE), quota.period().name());
+            return false;
+        }
+        return true;
+    }
 
-        if(!isSuccess) {
-            rateExceeded(method, response, baseExp, baseVal, path, permits, timeUnit.name());
+    private void releaseConcurrency(HttpServletRequest request) {
+        ConcurrencyLease lease = (ConcurrencyLease) request.getAttribute(CONCURRENCY_LEASE_ATTRIBUTE);
+        if (lease != null) {
+            request.removeAttribute(CONCURRENCY_LEASE_ATTRIBUTE);
+            lease.release();
         }
-        return isSuccess;
     }
 
-    private boolean handleDynamic(Method method, HttpServletRequest request, HttpServletResponse response) throws Exception {
+    private boolean handleStatic(Method method, String defaultPath, HttpServletRequest request, HttpServletResponse response) throws Exception{
+        LimiterConfig limiterConfig = staticConfigMap.computeIfAbsent(method, this::buildStaticConfig);
+        return handle(method, null, limiterConfig, defaultPath, request, response);
+    }
+
+    private LimiterConfig buildStaticConfig(Method method) {
+        LimiterIndexEntry indexEntry = limiterIndexes.getStatic(method);
+        if (indexEntry != null) {
+            LimiterConfig limiterConfig = indexEntry.getConfig();
+            limiterConfig.setApplicationName(applicationName);
+            return limiterConfig;
+        }
+        RateLimiter[] rateLimiterAnnotations = method.getAnnotationsByType(RateLimiter.class);
+        List<LimiterLevel> levels = new ArrayList<>();
+        for (RateLimiter rateLimiterAnnotation : rateLimiterAnnotations) {
+            LimiterLevel level = new LimiterLevel();
+            level.setName(rateLimiterAnnotation.name());
+            level.setBaseExp(rateLimiterAnnotation.base());
+            level.setPath(rateLimiterAnnotation.path());
+            level.setTimeUnit(rateLimiterAnnotation.timeUnit().name());
+            level.setPermits(rateLimiterAnnotation.permits());
+            levels.add(level);
+        }
+        LimiterLevel first = levels.get(0);
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setApplicationName(applicationName);
+        limiterConfig.setControllerName(method.getDeclaringClass().getSimpleName());
+        limiterConfig.setMethodName(method.getName());
+        limiterConfig.setBaseExp(first.getBaseExp());
+        limiterConfig.setPath(first.getPath());
+        limiterConfig.setTimeUnit(first.getTimeUnit());
+        limiterConfig.setPermits(first.getPermits());
+        limiterConfig.setCost(rateLimiterAnnotations[0].cost());
+        limiterConfig.setMaxWait(rateLimiterAnnotations[0].maxWait());
+        limiterConfig.setStripes(rateLimiterAnnotations[0].stripes());
+        if (!"".equals(rateLimiterAnnotations[0].priority())) {
+            limiterConfig.setPriorityExp(rateLimiterAnnotations[0].priority());
+            limiterConfig.setPriorities(PriorityClass.parse(rateLimiterAnnotations[0].priorities()));
+        }
+        if (levels.size() > 1) {
+            limiterConfig.setLevels(levels);
+        }
+        return limiterConfig;
+    }
+
+    private String defaultPath(HttpServletRequest request) {
+        if(redisLimiterProperties.isPathFromPattern()) {
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if(pattern != null) {
+                return pattern.toString();
+            }
+        }
+        return request.getRequestURI();
+    }
+
+    private boolean handleDynamic(Method method, String defaultPath, HttpServletRequest request, HttpServletResponse response) throws Exception {
         boolean isSuccess = true;
         String limiterConfigKey = method.getDeclaringClass().getSimpleName() + ":" + method.getName();
         LimiterConfig limiterConfig = redisLimiterConfigProcessor.get(limiterConfigKey);
         if(limiterConfig != null) {
-            String baseExp = limiterConfig.getBaseExp();
-            String baseVal = "";
-            if(!"".equals(baseExp)) {
-                baseVal = eval(baseExp, request);
+            isSuccess = handle(method, null, limiterConfig, defaultPath, request, response);
+            if(isSuccess && limiterConfig.isAdaptive() && adaptiveLimitController != null) {
+                request.setAttribute(ADAPTIVE_KEY_ATTRIBUTE, limiterConfigKey);
+                request.setAttribute(ADAPTIVE_START_ATTRIBUTE, System.nanoTime());
             }
-            String path = limiterConfig.getPath();
-            if("".equals(path)) {
-                path = request.getRequestURI();
+        }
+        return isSuccess;
+    }
+
+    private boolean handleRule(Method method, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        boolean isSuccess = true;
+        String lookupPath = request.getRequestURI().substring(request.getContextPath().length());
+        PatternRule patternRule = redisLimiterConfigProcessor.match(request.getMethod(), lookupPath);
+        if(patternRule != null) {
+            patternRule.hit();
+            LimiterConfig limiterConfig = patternRule.getConfig();
+            isSuccess = handle(method, limiterConfig.getPattern(), limiterConfig, limiterConfig.getPattern(), request, response);
+        }
+        return isSuccess;
+    }
+
+    private boolean handle(Method method, String pattern, LimiterConfig limiterConfig, String defaultPath, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        Object resumeAfter = request.getAttribute(RESUME_AFTER_ATTRIBUTE);
+        if(resumeAfter != null) {
+            // dispatched again after waiting for a permit, limits up to the one waited for have been consumed
+            if(resumeAfter == limiterConfig) {
+                request.removeAttribute(RESUME_AFTER_ATTRIBUTE);
+                request.setAttribute(RESUMED_ATTRIBUTE, Boolean.TRUE);
             }
-            int permits = limiterConfig.getPermits();
-            String timeUnit = limiterConfig.getTimeUnit();
-            String rateLimiterKey = redisLimiterProperties.getRedisKeyPrefix() + ":" + applicationName + ":" + path + ":" + baseVal;
-            isSuccess = rateCheckTaskRunner.checkRun(rateLimiterKey, TimeUnit.valueOf(timeUnit), permits);
-            if(!isSuccess) {
-                rateExceeded(method, response, baseExp, baseVal, path, permits, timeUnit);
+            return true;
+        }
+        String limiterName = pattern != null ? PatternRule.ruleKey(limiterConfig.getHttpMethod(), pattern)
+                : limiterConfig.getControllerName() + ":" + limiterConfig.getMethodName();
+        CompiledAllowlist limiterAllowlist = null;
+        if(allowlistRegistry.hasLimiterAllowlists()) {
+            limiterAllowlist = allowlistRegistry.get(limiterName);
+            if(limiterAllowlist != null && limiterAllowlist.matchesRequest(request)) {
+                return true;
             }
         }
-        return isSuccess;
+        CompiledAllowlist globalAllowlist = allowlistRegistry.getGlobal();
+        LimiterKeyResolver.Resolution resolution = limiterKeyResolver.resolve(limiterConfig, defaultPath, () -> buildContext(request));
+        int cost = resolution.getCost();
+        if(cost <= 0) {
+            return true;
+        }
+        List<LimiterLevel> levels = resolution.getLevels();
+        String[] baseVals = resolution.getBaseVals();
+        String[] paths = resolution.getPaths();
+        List<RateLimitLevel> rateLimitLevels = new ArrayList<>(levels.size());
+        for (int i = 0; i < levels.size(); i++) {
+            LimiterLevel level = levels.get(i);
+            String baseExp = level.getBaseExp();
+            int permits = level.getPermits();
+            TimeUnit timeUnit = TimeUnit.valueOf(level.getTimeUnit());
+            if(baseExp != null && !"".equals(baseExp)) {
+                if(globalAllowlist.containsBaseValue(baseVals[i]) || (limiterAllowlist != null && limiterAllowlist.containsBaseValue(baseVals[i]))) {
+                    return true;
+                }
+                LimitOverride override = limitOverrideRegistry == null ? null : limitOverrideRegistry.get(limiterName, level.getName(), baseVals[i]);
+                if(override != null) {
+                    permits = override.getPermits();
+                    timeUnit = TimeUnit.valueOf(override.getTimeUnit());
+                }
+            }
+            if(baseExp != null && !"".equals(baseExp)) {
+                baseVals[i] = cardinalityGuard.guard(levels.size() == 1 ? limiterName : limiterName + "#" + i, baseVals[i]);
+            }
+            String rateLimiterKey = keyEncoder.encode(applicationName, paths[i], baseVals[i]);
+            if(banList.isBanned(rateLimiterKey)) {
+                buildDenyResponse(response);
+                return false;
+            }
+            rateLimitLevels.add(new RateLimitLevel(rateLimiterKey, timeUnit, resolution.permitsOf(permits)));
+        }
+        int denied;
+        if(rateLimitLevels.size() == 1) {
+            RateLimitLevel rateLimitLevel = rateLimitLevels.get(0);
+            if(limiterConfig.getMaxWait() > 0 && request.isAsyncSupported()) {
+                long delay = rateCheckTaskRunner.checkReserve(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), cost);
+                if(delay > 0 && delay <= limiterConfig.getMaxWait() * 1000) {
+                    waitForPermit(method, pattern, limiterConfig, levels.get(0), rateLimitLevel, cost, baseVals[0], paths[0], delay, request, response);
+                    return false;
+                }
+                denied = delay == 0 ? 0 : 1;
+            } else if(limiterConfig.getStripes() > 1 && "".equals(baseVals[0])) {
+                denied = rateCheckTaskRunner.checkRunStriped(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), limiterConfig.getStripes(), cost) ? 0 : 1;
+            } else {
+                denied = rateCheckTaskRunner.checkRun(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), cost) ? 0 : 1;
+            }
+        } else {
+            denied = rateCheckTaskRunner.checkRunAll(rateLimitLevels, cost);
+        }
+        if(denied > 0) {
+            LimiterLevel level = levels.get(denied - 1);
+            RateLimitLevel rateLimitLevel = rateLimitLevels.get(denied - 1);
+            rateExceeded(method, pattern, level.getName(), response, level.getBaseExp(), baseVals[denied - 1], paths[denied - 1],
+                    rateLimitLevel.getPermits(), rateLimitLevel.getTimeUnit().name());
+        }
+        return denied == 0;
     }
 
-    private void rateExceeded(Method method, HttpServletResponse response, String baseExp, String baseVal, String path, int permits, String timeUnit) throws Exception {
+    private void waitForPermit(Method method, String pattern, LimiterConfig limiterConfig, LimiterLevel level, RateLimitLevel rateLimitLevel, int cost,
+                               String baseVal, String path, long delay, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(limiterConfig.getMaxWait() + WAIT_TIMEOUT_SLACK);
+        Runnable onRejected = () -> {
+            try {
+                rateExceeded(method, pattern, level.getName(), (HttpServletResponse) asyncContext.getResponse(), level.getBaseExp(), baseVal, path, rateLimitLevel.getPermits(), rateLimitLevel.getTimeUnit().name());
+            } catch (Exception e) {
+                logger.warn("reject waiting request failed.", e);
+            } finally {
+                asyncContext.complete();
+            }
+        };
+        PermitWaitQueue.Waiter waiter = permitWaitQueue.offer(rateLimitLevel.getRateLimiterKey(), delay, System.nanoTime() + limiterConfig.getMaxWait() * 1000000,
+                () -> rateCheckTaskRunner.checkReserve(rateLimitLevel.getRateLimiterKey(), rateLimitLevel.getTimeUnit(), rateLimitLevel.getPermits(), cost),
+                () -> {
+                    request.setAttribute(RESUME_AFTER_ATTRIBUTE, limiterConfig);
+                    asyncContext.dispatch();
+                },
+                onRejected);
+        if(waiter == null) {
+            onRejected.run();
+            return;
+        }
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                waiter.cancel();
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                waiter.cancel();
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private void rateExceeded(Method method, String pattern, String level, HttpServletResponse response, String baseExp, String baseVal, String path, int permits, String timeUnit) throws Exception {
         buildDenyResponse(response);
         RateExceedingEvent rateExceedingEvent = new RateExceedingEvent();
         rateExceedingEvent.setApplicationName(applicationName);
-        rateExceedingEvent.setControllerName(method.getDeclaringClass().getSimpleName());
-        rateExceedingEvent.setMethodName(method.getName());
+        if(method != null) {
+            rateExceedingEvent.setControllerName(method.getDeclaringClass().getSimpleName());
+            rateExceedingEvent.setMethodName(method.getName());
+        }
+        rateExceedingEvent.setPattern(pattern);
+        rateExceedingEvent.setLevel(level);
         rateExceedingEvent.setBaseExp(baseExp);
         rateExceedingEvent.setBaseValue(baseVal);
         rateExceedingEvent.setPath(path);
@@ -152,21 +502,12 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
         applicationContext.publishEvent(rateExceedingEvent);
     }
 
-    private String eval(String baseExp, HttpServletRequest request) {
-        StandardEvaluationContext context = new StandardEvaluationContext();
-        ExpressionParser expressionParser = new SpelExpressionParser();
-        mountCookies(request, context);
-        mountHeaders(request, context);
-        mountAttributes(request, context);
-        Expression expression = expressionParser.parseExpression(baseExp);
-        String baseVal = expression.getValue(context, String.class);
-        if(baseVal == null) {
-            baseVal = "";
-        }
-        return baseVal;
+    private StandardEvaluationContext buildContext(HttpServletRequest request) {
+        return LimiterKeyResolver.buildContext(mountCookies(request), mountHeaders(request), mountAttributes(request),
+                new RequestParameterMap(request), request.getContentLengthLong());
     }
 
-    private void mountCookies(HttpServletRequest request, StandardEvaluationContext context) {
+    private HashMap<String, String> mountCookies(HttpServletRequest request) {
         HashMap<String, String> cookieMap = new HashMap<>();
         Cookie[] cookies = request.getCookies();
         if (cookies != null) {
@@ -174,10 +515,10 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
                 cookieMap.put(cookie.getName(), cookie.getValue());
             }
         }
-        context.setVariable("Cookies", cookieMap);
+        return cookieMap;
     }
 
-    private void mountHeaders(HttpServletRequest request, StandardEvaluationContext context) {
+    private HashMap<String, String> mountHeaders(HttpServletRequest request) {
         HashMap<String, String> headerMap = new HashMap();
         Enumeration<String> headerNames = request.getHeaderNames();
         if (headerNames != null) {
@@ -186,10 +527,10 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
                 headerMap.put(headerName, request.getHeader(headerName));
             }
         }
-        context.setVariable("Headers", headerMap);
+        return headerMap;
     }
     
-    private void mountAttributes(HttpServletRequest request, StandardEvaluationContext context) {
+    private HashMap<String, String> mountAttributes(HttpServletRequest request) {
     	HashMap<String, String> map = new HashMap();
         Enumeration<String> attrNames = request.getAttributeNames();
         if (attrNames != null) {
@@ -198,7 +539,7 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
                 map.put(headerName, String.valueOf(request.getAttribute(headerName)));
             }
         }
-        context.setVariable("Attributes", map);
+        return map;
 	}
 
     private void buildDenyResponse(HttpServletResponse response) throws Exception{
@@ -213,6 +554,41 @@ public final class RateCheckInterceptor implements HandlerInterceptor, Applicati
 
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        releaseConcurrency(request);
+        String adaptiveKey = (String) request.getAttribute(ADAPTIVE_KEY_ATTRIBUTE);
+        if (adaptiveKey != null) {
+            request.removeAttribute(ADAPTIVE_KEY_ATTRIBUTE);
+            long latencyMillis = (System.nanoTime() - (Long) request.getAttribute(ADAPTIVE_START_ATTRIBUTE)) / 1000000;
+            adaptiveLimitController.record(adaptiveKey, latencyMillis, ex != null || response.getStatus() >= 500);
+        }
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ConcurrencyLease lease = (ConcurrencyLease) request.getAttribute(CONCURRENCY_LEASE_ATTRIBUTE);
+        if (lease != null) {
+            // the async dispatch normally releases the slot in afterCompletion, this covers timeouts and errors without one
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    lease.release();
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    lease.release();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    lease.release();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        }
     }
 
 }
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.web;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import com.tay.redislimiter.dynamic.PatternRule;
+import com.tay.redislimiter.dynamic.PatternRuleTrie;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies the rate limits in front of every other filter and the DispatcherServlet, so exceeding requests are
+ * rejected before security, body reading or logging filters run. Handlers are resolved through a route trie
+ * compiled from all request mappings once the context is refreshed. Requests whose best route maps to several
+ * handlers (e.g. told apart by params or headers), or whose route could also be matched by another handler's
+ * pattern so that Spring MVC's precedence rules might pick that one instead, are left unchecked for
+ * {@link RateCheckInterceptor}, which also keeps applying concurrency limits.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+@RequiredArgsConstructor
+public final class RateLimitFilter implements Filter, ApplicationListener<ContextRefreshedEvent> {
+
+    /**
+     * Set to the handler method whose limits were applied, or to {@link #NO_METHOD} if only pattern rules were applied.
+     */
+    public static final String CHECKED_METHOD_ATTRIBUTE = RateLimitFilter.class.getName() + ".CHECKED_METHOD";
+
+    static final Object NO_METHOD = new Object();
+
+    private final RedisLimiterProperties redisLimiterProperties;
+
+    private final RateCheckInterceptor rateCheckInterceptor;
+
+    private volatile PatternRuleTrie routes = PatternRuleTrie.EMPTY;
+
+    private volatile Map<String, Method> routeMethods = Collections.emptyMap();
+
+    private volatile Set<String> contestedRoutes = Collections.emptySet();
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        List<PatternRule> rules = new ArrayList<>();
+        Map<String, Method> methods = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        for (RequestMappingHandlerMapping handlerMapping : event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values()) {
+            for (Map.Entry<RequestMappingInfo, HandlerMethod> entry : handlerMapping.getHandlerMethods().entrySet()) {
+                Method method = entry.getValue().getMethod();
+                RequestMappingInfo mappingInfo = entry.getKey();
+                Set<RequestMethod> requestMethods = mappingInfo.getMethodsCondition().getMethods();
+                for (String pattern : mappingInfo.getPatternsCondition().getPatterns()) {
+                    if (requestMethods.isEmpty()) {
+                        addRoute(null, pattern, method, rules, methods, ambiguous);
+                    }
+                    for (RequestMethod requestMethod : requestMethods) {
+                        addRoute(requestMethod.name(), pattern, method, rules, methods, ambiguous);
+                    }
+                }
+            }
+        }
+        Set<String> contested = new HashSet<>(ambiguous);
+        PatternRule.forEachOverlap(rules, (rule, other) -> {
+            String ruleKey = ruleKey(rule);
+            String otherKey = ruleKey(other);
+            boolean samePattern = rule.getConfig().getPattern().equals(other.getConfig().getPattern());
+            boolean sameLimits = methods.get(ruleKey).equals(methods.get(otherKey))
+                    && (samePattern || !redisLimiterProperties.isPathFromPattern());
+            if (!sameLimits) {
+                contested.add(ruleKey);
+                contested.add(otherKey);
+            }
+        });
+        // contested routes stay in the trie, so that their requests do not fall back to a less specific route
+        routes = PatternRuleTrie.compile(rules);
+        routeMethods = methods;
+        contestedRoutes = contested;
+    }
+
+    private static String ruleKey(PatternRule rule) {
+        return PatternRule.ruleKey(rule.getConfig().getHttpMethod(), rule.getConfig().getPattern());
+    }
+
+    private static void addRoute(String httpMethod, String pattern, Method method, List<PatternRule> rules,
+                                 Map<String, Method> methods, Set<String> ambiguous) {
+        String ruleKey = PatternRule.ruleKey(httpMethod, pattern);
+        Method existing = methods.putIfAbsent(ruleKey, method);
+        if (existing == null) {
+            LimiterConfig route = new LimiterConfig();
+            route.setControllerName(method.getDeclaringClass().getSimpleName());
+            route.setMethodName(method.getName());
+            route.setPattern(pattern);
+            route.setHttpMethod(httpMethod);
+            rules.add(PatternRule.of(route));
+        } else if (!existing.equals(method)) {
+            ambiguous.add(ruleKey);
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        if (request.getDispatcherType() == DispatcherType.ASYNC && !RateCheckInterceptor.isResuming(request)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        if (rateCheckInterceptor.isAllowlisted(request)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        String lookupPath = request.getRequestURI().substring(request.getContextPath().length());
+        PatternRule route = routes.match(request.getMethod(), lookupPath);
+        Method method = null;
+        String defaultPath = request.getRequestURI();
+        if (route != null) {
+            String ruleKey = ruleKey(route);
+            if (contestedRoutes.contains(ruleKey)) {
+                // the handler mapping may resolve another handler, the interceptor checks the request once it has
+                chain.doFilter(servletRequest, servletResponse);
+                return;
+            }
+            method = routeMethods.get(ruleKey);
+            defaultPath = redisLimiterProperties.isPathFromPattern() ? route.getConfig().getPattern() : request.getRequestURI();
+        }
+        request.setAttribute(CHECKED_METHOD_ATTRIBUTE, method == null ? NO_METHOD : method);
+        boolean isSuccess;
+        try {
+            isSuccess = rateCheckInterceptor.checkRate(method, defaultPath, request, (HttpServletResponse) servletResponse);
+        } catch (IOException | ServletException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+        if (isSuccess) {
+            chain.doFilter(servletRequest, servletResponse);
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @author  Aiyun Tang
+ * @mail aiyun.tang@gmail.com
+ */
+package com.tay.redislimiter.web;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.AbstractMap;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The #Params variable of limiter expressions. Parameters are read from the request only when an expression
+ * uses them, as reading the parameters of a form POST consumes its body.
+ *
+ * @author Aiyun Tang <aiyun.tang@gmail.com>
+ */
+final class RequestParameterMap extends AbstractMap<String, String> {
+
+    private final HttpServletRequest request;
+
+    private Map<String, String> paramMap;
+
+    RequestParameterMap(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    @Override
+    public String get(Object key) {
+        return key instanceof String ? request.getParameter((String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (paramMap == null) {
+            paramMap = new HashMap<>();
+            Enumeration<String> paramNames = request.getParameterNames();
+            if (paramNames != null) {
+                while (paramNames.hasMoreElements()) {
+                    String paramName = paramNames.nextElement();
+                    paramMap.put(paramName, request.getParameter(paramName));
+                }
+            }
+        }
+        return paramMap.entrySet();
+    }
+}
@@ -0,0 +1,96 @@
+package com.tay.redislimiter;
+
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.LimitStatus;
+import com.tay.redislimiter.core.QuotaLimiter;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RateLimitLevel;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.SampledRateLimiter;
+import com.tay.redislimiter.core.ScriptCall;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterServiceTest {
+
+    private final List<Integer> peekedLevels = new ArrayList<>();
+
+    /**
+     * allows every sampled check and answers every peeked limit with 7
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList("1700000000", "5"));
+            if (call.getKeys().size() == 1) {
+                return Arrays.asList(1L, 1L);
+            }
+            peekedLevels.add(call.getKeys().size() / 2);
+            return Collections.nCopies(call.getKeys().size() / 2, 7L);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final SampledRateLimiter sampledRateLimiter = new SampledRateLimiter(new RedisRateLimiterFactory(executor), 0.1, 100, 3600000);
+
+    private final RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor),
+            new RedisLimiterProperties(), null, sampledRateLimiter, null, new QuotaLimiter(executor, ZoneOffset.UTC, 1, 1000));
+
+    private final RateLimiterService rateLimiterService = new RateLimiterService(rateCheckTaskRunner, null, new KeyEncoder("limiter", false), 60000);
+
+    @Before
+    public void setUp() {
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        rateLimiterService.setApplicationContext(applicationContext);
+        rateLimiterService.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        rateCheckTaskRunner.shutdown();
+    }
+
+    @Test
+    public void peekIncludesLocallyAdmittedPermits() {
+        for (int i = 0; i < 6; i++) {
+            assertTrue(rateLimiterService.tryAcquire("k", TimeUnit.SECONDS, 1000));
+        }
+        LimitStatus status = rateLimiterService.peek("k", TimeUnit.SECONDS, 1000);
+        assertEquals(12, status.getUsed());
+        assertEquals(988, status.getRemaining());
+    }
+
+    @Test
+    public void peekAllReadsOnlyUncachedLimits() {
+        rateLimiterService.peek("a", TimeUnit.MINUTES, 10);
+        List<LimitStatus> statuses = rateLimiterService.peekAll(Arrays.asList(
+                new RateLimitLevel("a", TimeUnit.MINUTES, 10), new RateLimitLevel("b", TimeUnit.MINUTES, 10)));
+        assertEquals(Arrays.asList(1, 1), peekedLevels);
+        assertEquals("a", statuses.get(0).getKey());
+        assertEquals("b", statuses.get(1).getKey());
+        assertEquals(3, statuses.get(1).getRemaining());
+    }
+}
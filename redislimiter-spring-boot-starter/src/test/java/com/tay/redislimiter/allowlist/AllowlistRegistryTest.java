@@ -0,0 +1,74 @@
+package com.tay.redislimiter.allowlist;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AllowlistRegistryTest {
+
+    private static Allowlist allowlist(String limiter, String... baseValues) {
+        Allowlist allowlist = new Allowlist();
+        allowlist.setLimiter(limiter);
+        allowlist.setBaseValues(Arrays.asList(baseValues));
+        return allowlist;
+    }
+
+    @Test
+    public void configuredAllowlistsAreCompiled() {
+        AllowlistRegistry registry = new AllowlistRegistry(Arrays.asList(
+                allowlist(null, "monitor"), allowlist("OrderController:placeOrder", "batch-importer")));
+        assertTrue(registry.getGlobal().containsBaseValue("monitor"));
+        assertTrue(registry.hasLimiterAllowlists());
+        assertTrue(registry.get("OrderController:placeOrder").containsBaseValue("batch-importer"));
+        assertFalse(registry.get("OrderController:placeOrder").containsBaseValue("monitor"));
+        assertNull(registry.get("GET /orders/**"));
+    }
+
+    @Test
+    public void updatesReplaceAndDeleteAllowlists() {
+        AllowlistRegistry registry = new AllowlistRegistry(Collections.emptyList());
+        assertSame(CompiledAllowlist.EMPTY, registry.getGlobal());
+        assertFalse(registry.hasLimiterAllowlists());
+
+        registry.update(allowlist("GET /orders/**", "batch-importer"));
+        registry.update(allowlist("", "monitor"));
+        assertTrue(registry.get("GET /orders/**").containsBaseValue("batch-importer"));
+        assertTrue(registry.getGlobal().containsBaseValue("monitor"));
+
+        registry.update(allowlist("GET /orders/**", "reporting"));
+        assertFalse(registry.get("GET /orders/**").containsBaseValue("batch-importer"));
+        assertTrue(registry.get("GET /orders/**").containsBaseValue("reporting"));
+
+        Allowlist deleted = allowlist("GET /orders/**");
+        deleted.setDeleted(true);
+        registry.update(deleted);
+        assertNull(registry.get("GET /orders/**"));
+        assertFalse(registry.hasLimiterAllowlists());
+
+        deleted = allowlist(null);
+        deleted.setDeleted(true);
+        registry.update(deleted);
+        assertSame(CompiledAllowlist.EMPTY, registry.getGlobal());
+    }
+
+    @Test
+    public void invalidUpdateKeepsTheCurrentAllowlist() {
+        AllowlistRegistry registry = new AllowlistRegistry(Collections.singletonList(allowlist(null, "monitor")));
+        Allowlist invalid = allowlist(null, "anyone");
+        invalid.getHeaders().put("X-Health-Check", "*");
+        registry.update(invalid);
+        assertTrue(registry.getGlobal().containsBaseValue("monitor"));
+        assertFalse(registry.getGlobal().containsBaseValue("anyone"));
+
+        invalid = allowlist("OrderController:placeOrder");
+        invalid.setCidrs(Collections.singletonList("not-an-address"));
+        registry.update(invalid);
+        assertNull(registry.get("OrderController:placeOrder"));
+    }
+}
@@ -0,0 +1,47 @@
+package com.tay.redislimiter.allowlist;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CidrTrieTest {
+
+    @Test
+    public void matchesIpv4Ranges() {
+        CidrTrie trie = CidrTrie.compile(Arrays.asList("10.0.0.0/8", "192.168.1.7", "172.16.0.0/12"));
+        assertTrue(trie.contains("10.1.2.3"));
+        assertTrue(trie.contains("192.168.1.7"));
+        assertFalse(trie.contains("192.168.1.8"));
+        assertTrue(trie.contains("172.31.255.255"));
+        assertFalse(trie.contains("172.32.0.1"));
+        assertFalse(trie.contains("11.0.0.1"));
+    }
+
+    @Test
+    public void matchesIpv6Ranges() {
+        CidrTrie trie = CidrTrie.compile(Arrays.asList("2001:db8::/32", "10.0.0.0/8"));
+        assertTrue(trie.contains("2001:db8:0:0:0:0:0:1"));
+        assertFalse(trie.contains("2001:db9::1"));
+        assertTrue(trie.contains("::ffff:10.0.0.1"));
+        assertTrue(trie.contains("[2001:db8::2]"));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        CidrTrie trie = CidrTrie.compile(Collections.singletonList("0.0.0.0/0"));
+        assertTrue(trie.contains("8.8.8.8"));
+        assertFalse(trie.contains("unknown"));
+        assertFalse(trie.contains("1.2.3"));
+        assertFalse(trie.contains("1.2.3.256"));
+        assertFalse(CidrTrie.EMPTY.contains("8.8.8.8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPrefix() {
+        CidrTrie.compile(Collections.singletonList("10.0.0.0/33"));
+    }
+}
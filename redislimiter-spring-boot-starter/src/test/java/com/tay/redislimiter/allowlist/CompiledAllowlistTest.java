@@ -0,0 +1,92 @@
+package com.tay.redislimiter.allowlist;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledAllowlistTest {
+
+    private static MockHttpServletRequest request(String remoteAddr) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        return request;
+    }
+
+    @Test
+    public void headerMarkersNeedTheirSecretValue() {
+        Allowlist allowlist = new Allowlist();
+        allowlist.getHeaders().put("X-Health-Check", "probe-token");
+        allowlist.getHeaders().put("X-Partner", "p-42");
+        CompiledAllowlist compiled = CompiledAllowlist.compile(allowlist);
+
+        MockHttpServletRequest request = request("203.0.113.9");
+        assertFalse(compiled.matchesRequest(request));
+        request.addHeader("X-Health-Check", "guess");
+        assertFalse(compiled.matchesRequest(request));
+
+        request = request("203.0.113.9");
+        request.addHeader("x-health-check", "probe-token");
+        assertTrue(compiled.matchesRequest(request));
+
+        request = request("203.0.113.9");
+        request.addHeader("X-Partner", "p-42");
+        assertTrue(compiled.matchesRequest(request));
+    }
+
+    @Test
+    public void headerMarkersWithoutConcreteValueAreRejected() {
+        for (String value : Arrays.asList(null, "", "  ", "*")) {
+            Allowlist allowlist = new Allowlist();
+            allowlist.getHeaders().put("X-Health-Check", value);
+            try {
+                CompiledAllowlist.compile(allowlist);
+                throw new AssertionError("header value " + value + " must be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("X-Health-Check"));
+            }
+        }
+    }
+
+    @Test
+    public void matchesClientAddresses() {
+        Allowlist allowlist = new Allowlist();
+        allowlist.setCidrs(Arrays.asList("10.0.0.0/8", "192.168.1.7"));
+        CompiledAllowlist compiled = CompiledAllowlist.compile(allowlist);
+        assertTrue(compiled.matchesRequest(request("10.20.30.40")));
+        assertTrue(compiled.matchesRequest(request("192.168.1.7")));
+        assertFalse(compiled.matchesRequest(request("192.168.1.8")));
+    }
+
+    @Test
+    public void containsOnlyListedBaseValues() {
+        Allowlist allowlist = new Allowlist();
+        allowlist.setBaseValues(Arrays.asList("batch-importer", "reporting"));
+        CompiledAllowlist compiled = CompiledAllowlist.compile(allowlist);
+        assertTrue(compiled.containsBaseValue("batch-importer"));
+        assertTrue(compiled.containsBaseValue("reporting"));
+        assertFalse(compiled.containsBaseValue("Batch-Importer"));
+        assertFalse(compiled.containsBaseValue(null));
+        assertFalse(compiled.matchesRequest(request("10.0.0.1")));
+        assertFalse(CompiledAllowlist.compile(new Allowlist()).containsBaseValue("batch-importer"));
+        assertFalse(CompiledAllowlist.EMPTY.containsBaseValue("batch-importer"));
+    }
+
+    @Test
+    public void emptyAllowlistMatchesNothing() {
+        assertFalse(CompiledAllowlist.EMPTY.matchesRequest(request("10.0.0.1")));
+        assertFalse(CompiledAllowlist.compile(new Allowlist()).matchesRequest(request("10.0.0.1")));
+        Allowlist allowlist = new Allowlist();
+        allowlist.setCidrs(Collections.singletonList("10.0.0.0/33"));
+        try {
+            CompiledAllowlist.compile(allowlist);
+            throw new AssertionError("malformed range must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
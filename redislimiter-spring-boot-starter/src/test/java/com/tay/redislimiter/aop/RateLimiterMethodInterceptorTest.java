@@ -0,0 +1,110 @@
+package com.tay.redislimiter.aop;
+
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.QuotaLimiter;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.ScriptCall;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterMethodInterceptorTest {
+
+    private final List<ScriptCall> calls = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * records every call and allows it
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            calls.add(callAt.apply(Arrays.asList("1700000000", "5")));
+            return 0L;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private LimitedService service;
+
+    @Before
+    public void setUp() {
+        RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+        RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor), redisLimiterProperties,
+                null, null, null, new QuotaLimiter(executor, ZoneOffset.UTC, 1, 1000));
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.getBeanFactory().registerSingleton("keyEncoder", keyEncoder);
+        applicationContext.getBeanFactory().registerSingleton("cardinalityGuard", new CardinalityGuard(null, redisLimiterProperties, keyEncoder));
+        applicationContext.getBeanFactory().registerSingleton("rateCheckTaskRunner", rateCheckTaskRunner);
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        ProxyFactory proxyFactory = new ProxyFactory(new LimitedService());
+        proxyFactory.addAdvice(new RateLimiterMethodInterceptor(applicationContext));
+        service = (LimitedService) proxyFactory.getProxy();
+    }
+
+    @Test
+    public void lowerPriorityClassesGetTheirShare() {
+        service.export("free");
+        service.export("internal");
+        assertEquals("600", calls.get(0).getArgs().get(1));
+        assertEquals("1000", calls.get(1).getArgs().get(1));
+    }
+
+    @Test
+    public void argumentCostsTakeAtLeastOnePermit() {
+        service.page(0);
+        service.page(-5);
+        service.free();
+        assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void stripedLimitsUseStripeKeys() {
+        service.search();
+        assertEquals(1, calls.size());
+        assertTrue(calls.get(0).getKeys().get(0).matches("limiter:app:LimitedService#search::s[0-3]:1700000000"));
+        assertEquals("250", calls.get(0).getArgs().get(1));
+    }
+
+    public static class LimitedService {
+        @RateLimiter(permits = 1000, priority = "#plan", priorities = {"internal", "free:0.4"})
+        public void export(String plan) {
+        }
+
+        @RateLimiter(permits = 10, cost = "#size")
+        public void page(int size) {
+        }
+
+        @RateLimiter(permits = 10, cost = "0")
+        public void free() {
+        }
+
+        @RateLimiter(permits = 1000, stripes = 4)
+        public void search() {
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.tay.redislimiter.client;
+
+import com.tay.redislimiter.RateLimiterService;
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.core.ConcurrencyLease;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.PermitWaitQueue;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisConcurrencyLimiter;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.ScriptCall;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundRateLimiterTest {
+
+    private static final URI URI_ORDERS = URI.create("http://api.example.com/orders/7");
+
+    /**
+     * Redis calls in the order they were made, "slot" or "permit"
+     */
+    private final List<String> redisCalls = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * slot key -> lease ids
+     */
+    private final Map<String, List<String>> slots = new ConcurrentHashMap<>();
+
+    private volatile long rateDelay;
+
+    /**
+     * rate checks wait for it, to hold a call between taking its slot and getting its permit
+     */
+    private volatile CountDownLatch rateCheckGate = new CountDownLatch(0);
+
+    /**
+     * answers every rate check with {@link #rateDelay}, 0 allows it
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            callAt.apply(Arrays.asList("1700000000", "5"));
+            redisCalls.add("permit");
+            try {
+                rateCheckGate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return rateDelay;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    /**
+     * grants the slots of {@link #slots} and gives them back on zrem
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public List<String> time() {
+                    return Arrays.asList("1700000000", "0");
+                }
+
+                @Override
+                public Object eval(String script, List<String> keys, List<String> args) {
+                    redisCalls.add("slot");
+                    List<String> leases = slots.computeIfAbsent(keys.get(0), k -> Collections.synchronizedList(new ArrayList<>()));
+                    if (leases.size() >= Integer.parseInt(args.get(2))) {
+                        return 0L;
+                    }
+                    leases.add(args.get(4) + ":1");
+                    return 1L;
+                }
+
+                @Override
+                public Long zrem(String key, String... members) {
+                    slots.get(key).removeAll(Arrays.asList(members));
+                    return (long) members.length;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    private final RedisConcurrencyLimiter redisConcurrencyLimiter = new RedisConcurrencyLimiter(jedisPool, 1, 3600000);
+
+    private final RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor),
+            new RedisLimiterProperties(), redisConcurrencyLimiter, null, null, null);
+
+    private final RateLimiterService rateLimiterService = new RateLimiterService(rateCheckTaskRunner, new PermitWaitQueue(100),
+            new KeyEncoder("limiter", false), 60000);
+
+    private OutboundRateLimiter outboundRateLimiter;
+
+    @Before
+    public void setUp() {
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        rateLimiterService.setApplicationContext(applicationContext);
+        rateLimiterService.afterPropertiesSet();
+        OutboundLimit limit = new OutboundLimit();
+        limit.setHost("api.example.com");
+        limit.setPath("/orders/**");
+        limit.setPermits(10);
+        limit.setMaxConcurrency(1);
+        outboundRateLimiter = new OutboundRateLimiter(rateLimiterService, Collections.singletonList(limit));
+    }
+
+    @After
+    public void tearDown() {
+        rateCheckTaskRunner.shutdown();
+        redisConcurrencyLimiter.shutdown();
+    }
+
+    private int held() {
+        List<String> leases = slots.get("limiter:app:outbound:api.example.com:/orders/**:concurrency");
+        return leases == null ? 0 : leases.size();
+    }
+
+    /**
+     * slots are given back by a background thread
+     */
+    private void awaitReleased() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (held() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, held());
+    }
+
+    @Test
+    public void restTemplateCallTakesTheSlotBeforeThePermit() throws Exception {
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter);
+        MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        ClientHttpResponse result = interceptor.intercept(new MockClientHttpRequest(HttpMethod.GET, URI_ORDERS), new byte[0], (request, body) -> {
+            assertEquals(1, held());
+            return response;
+        });
+        assertSame(response, result);
+        assertEquals(Arrays.asList("slot", "permit"), redisCalls);
+        awaitReleased();
+    }
+
+    @Test
+    public void restTemplateCallRefusedForConcurrencyCostsNoPermit() throws Exception {
+        ConcurrencyLease lease = rateLimiterService.acquireConcurrency("outbound:api.example.com:/orders/**:concurrency", 1, 60);
+        redisCalls.clear();
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter);
+        try {
+            interceptor.intercept(new MockClientHttpRequest(HttpMethod.GET, URI_ORDERS), new byte[0], (request, body) -> {
+                throw new AssertionError("the call must not be made");
+            });
+            fail();
+        } catch (OutboundRateLimitException e) {
+            assertTrue(e.getMessage().contains("concurrency"));
+        }
+        assertEquals(Collections.singletonList("slot"), redisCalls);
+        lease.release();
+        awaitReleased();
+    }
+
+    @Test
+    public void restTemplateCallDeniedForRateReleasesItsSlot() throws Exception {
+        rateDelay = 1000;
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter);
+        try {
+            interceptor.intercept(new MockClientHttpRequest(HttpMethod.GET, URI_ORDERS), new byte[0], (request, body) -> {
+                throw new AssertionError("the call must not be made");
+            });
+            fail();
+        } catch (OutboundRateLimitException e) {
+            assertEquals(URI_ORDERS, e.getUri());
+            assertTrue(e.getMessage().contains("rate"));
+        }
+        awaitReleased();
+    }
+
+    @Test
+    public void restTemplateCallFailingReleasesItsSlot() throws Exception {
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter);
+        try {
+            interceptor.intercept(new MockClientHttpRequest(HttpMethod.GET, URI_ORDERS), new byte[0], (request, body) -> {
+                throw new IOException("connection reset");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("connection reset", e.getMessage());
+        }
+        awaitReleased();
+    }
+
+    @Test
+    public void unmatchedCallIsNotLimited() throws Exception {
+        rateDelay = 1000;
+        RateLimitingClientHttpRequestInterceptor interceptor = new RateLimitingClientHttpRequestInterceptor(outboundRateLimiter);
+        MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.OK);
+        assertSame(response, interceptor.intercept(new MockClientHttpRequest(HttpMethod.GET, URI.create("http://api.example.com/users")),
+                new byte[0], (request, body) -> response));
+        assertTrue(redisCalls.isEmpty());
+    }
+
+    @Test
+    public void webClientCallTakesTheSlotBeforeThePermit() throws Exception {
+        RateLimitingExchangeFilterFunction filter = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+        ClientResponse response = ClientResponse.create(HttpStatus.OK).build();
+        ClientResponse result = filter.filter(ClientRequest.create(HttpMethod.GET, URI_ORDERS).build(), request -> {
+            assertEquals(1, held());
+            return Mono.just(response);
+        }).block();
+        assertSame(response, result);
+        assertEquals(Arrays.asList("slot", "permit"), redisCalls);
+        awaitReleased();
+    }
+
+    @Test
+    public void webClientCallDeniedFailsWithoutExchange() throws Exception {
+        rateDelay = 1000;
+        RateLimitingExchangeFilterFunction filter = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+        try {
+            filter.filter(ClientRequest.create(HttpMethod.GET, URI_ORDERS).build(), request -> {
+                throw new AssertionError("the call must not be made");
+            }).block();
+            fail();
+        } catch (OutboundRateLimitException e) {
+            assertTrue(e.getMessage().contains("rate"));
+        }
+        awaitReleased();
+    }
+
+    @Test
+    public void webClientCallFailingReleasesItsSlot() throws Exception {
+        RateLimitingExchangeFilterFunction filter = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+        try {
+            filter.filter(ClientRequest.create(HttpMethod.GET, URI_ORDERS).build(),
+                    request -> Mono.error(new IllegalStateException("connection reset"))).block();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("connection reset", e.getMessage());
+        }
+        awaitReleased();
+    }
+
+    @Test
+    public void cancelledWebClientCallReleasesItsSlot() throws Exception {
+        RateLimitingExchangeFilterFunction filter = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+        CountDownLatch exchanged = new CountDownLatch(1);
+        Disposable call = filter.filter(ClientRequest.create(HttpMethod.GET, URI_ORDERS).build(), request -> {
+            exchanged.countDown();
+            return Mono.never();
+        }).subscribe();
+        assertTrue(exchanged.await(5, TimeUnit.SECONDS));
+        call.dispose();
+        awaitReleased();
+    }
+
+    @Test
+    public void webClientCallCancelledWhileWaitingForItsPermitReleasesItsSlot() throws Exception {
+        rateCheckGate = new CountDownLatch(1);
+        RateLimitingExchangeFilterFunction filter = new RateLimitingExchangeFilterFunction(outboundRateLimiter);
+        Disposable call = filter.filter(ClientRequest.create(HttpMethod.GET, URI_ORDERS).build(), request -> {
+            throw new AssertionError("the call must not be made");
+        }).subscribe();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!redisCalls.contains("permit") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, held());
+        call.dispose();
+        rateCheckGate.countDown();
+        awaitReleased();
+    }
+}
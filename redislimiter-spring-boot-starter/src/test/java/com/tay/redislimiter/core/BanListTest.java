@@ -0,0 +1,213 @@
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.event.RateExceedingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BanListTest {
+
+    private final KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+
+    private final String aliceKey = keyEncoder.encode("app", "/orders", "alice");
+
+    /**
+     * seconds of the Redis clock, far enough in the past that bans it hands out have expired locally
+     */
+    private final long redisNow = System.currentTimeMillis() / 1000 - 100000;
+
+    private final Map<String, Long> counters = new ConcurrentHashMap<>();
+
+    /**
+     * expiry(SECONDS) of bans published by the violation script, in order
+     */
+    private final List<Long> published = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<String> recordedKeys = Collections.synchronizedList(new ArrayList<>());
+
+    private final Set<Tuple> banSet = Collections.synchronizedSet(new HashSet<>());
+
+    private BanList banList;
+
+    /**
+     * runs the violation script against {@link #counters}, publishing bans to the ban list itself
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList(String.valueOf(redisNow), "0"));
+            List<String> keys = call.getKeys();
+            List<String> args = call.getArgs();
+            recordedKeys.add(args.get(6));
+            long violations = counters.merge(keys.get(0), 1L, Long::sum);
+            if (violations < Long.parseLong(args.get(0))) {
+                return 0L;
+            }
+            counters.remove(keys.get(0));
+            long bans = counters.merge(keys.get(1), 1L, Long::sum);
+            long duration = Math.min(Long.parseLong(args.get(2)) << (bans - 1), Long.parseLong(args.get(3)));
+            long expireAt = Long.parseLong(args.get(4)) + duration;
+            published.add(expireAt);
+            banList.onMessage(args.get(5), expireAt + " " + args.get(6));
+            return expireAt;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public Set<Tuple> zrangeByScoreWithScores(String key, double min, double max) {
+                    Set<Tuple> tuples = new HashSet<>();
+                    for (Tuple tuple : banSet) {
+                        if (tuple.getScore() >= min && tuple.getScore() <= max) {
+                            tuples.add(tuple);
+                        }
+                    }
+                    return tuples;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    @Before
+    public void setUp() {
+        RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+        redisLimiterProperties.setBanThreshold(3);
+        redisLimiterProperties.setBanDuration(600);
+        redisLimiterProperties.setMaxBanDuration(1500);
+        banList = new BanList(jedisPool, executor, redisLimiterProperties, keyEncoder);
+    }
+
+    @After
+    public void tearDown() {
+        banList.shutdown();
+    }
+
+    private static RateExceedingEvent event(String baseValue) {
+        RateExceedingEvent event = new RateExceedingEvent();
+        event.setApplicationName("app");
+        event.setControllerName("OrderController");
+        event.setMethodName("list");
+        event.setPath("/orders");
+        event.setBaseValue(baseValue);
+        event.setTimeUnit("SECONDS");
+        event.setPermits(10);
+        return event;
+    }
+
+    private void awaitRecorded(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recordedKeys.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, recordedKeys.size());
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    @Test
+    public void repeatedBansDoubleUpToTheMaximum() throws Exception {
+        for (int i = 0; i < 9; i++) {
+            banList.onApplicationEvent(event("alice"));
+        }
+        awaitRecorded(9);
+        assertEquals(Arrays.asList(redisNow + 600, redisNow + 1200, redisNow + 1500), published);
+        assertEquals(Collections.singletonList(aliceKey), new ArrayList<>(new HashSet<>(recordedKeys)));
+    }
+
+    @Test
+    public void onlyKeysOfOneClientCount() throws Exception {
+        RateExceedingEvent service = event("alice");
+        service.setControllerName(null);
+        service.setMethodName(null);
+        banList.onApplicationEvent(service);
+        banList.onApplicationEvent(event(null));
+        banList.onApplicationEvent(event(""));
+        banList.onApplicationEvent(event(CardinalityGuard.COLLAPSED_BASE_VALUE));
+        RateExceedingEvent quota = event("alice");
+        quota.setTimeUnit("DAY");
+        banList.onApplicationEvent(quota);
+        RateExceedingEvent concurrency = event("alice");
+        concurrency.setTimeUnit("concurrency");
+        banList.onApplicationEvent(concurrency);
+
+        RateExceedingEvent patternRule = event("bob");
+        patternRule.setControllerName(null);
+        patternRule.setMethodName(null);
+        patternRule.setPattern("GET /orders/**");
+        banList.onApplicationEvent(patternRule);
+        banList.onApplicationEvent(event("alice"));
+        // violations are recorded in order by one thread, so nothing else was recorded before these two
+        awaitRecorded(2);
+        assertEquals(Arrays.asList(keyEncoder.encode("app", "/orders", "bob"), aliceKey), recordedKeys);
+    }
+
+    @Test
+    public void bannedKeysAreNotRecordedAgain() throws Exception {
+        banList.onMessage("#RLBanChannel", (now() + 600) + " " + aliceKey);
+        assertTrue(banList.isBanned(aliceKey));
+        banList.onApplicationEvent(event("alice"));
+        banList.onApplicationEvent(event("bob"));
+        awaitRecorded(1);
+        assertEquals(Collections.singletonList(keyEncoder.encode("app", "/orders", "bob")), recordedKeys);
+    }
+
+    @Test
+    public void publishedBansExpire() {
+        String bobKey = keyEncoder.encode("app", "/orders", "bob");
+        banList.onMessage("#RLBanChannel", (now() + 600) + " " + aliceKey);
+        banList.onMessage("#RLBanChannel", (now() - 1) + " " + bobKey);
+        // an older message does not shorten a ban
+        banList.onMessage("#RLBanChannel", (now() - 10) + " " + aliceKey);
+        banList.onMessage("#RLBanChannel", "malformed");
+        assertTrue(banList.isBanned(aliceKey));
+        assertFalse(banList.isBanned(bobKey));
+        assertEquals(new HashSet<>(Arrays.asList(aliceKey, bobKey)), new HashSet<>(banList.getBannedKeys()));
+        banList.evictExpired();
+        assertEquals(Collections.singletonList(aliceKey), banList.getBannedKeys());
+    }
+
+    @Test
+    public void subscribingLoadsTheBansPublishedMeanwhile() throws Exception {
+        String bobKey = keyEncoder.encode("app", "/orders", "bob");
+        banSet.add(new Tuple(aliceKey, (double) (now() + 600)));
+        banSet.add(new Tuple(bobKey, (double) (now() - 600)));
+        banList.onSubscribe("#RLBanChannel", 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!banList.isBanned(aliceKey) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(banList.isBanned(aliceKey));
+        assertEquals(Collections.singletonList(aliceKey), banList.getBannedKeys());
+    }
+}
@@ -0,0 +1,147 @@
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CardinalityGuardTest {
+
+    /**
+     * counter key -> values, counted exactly
+     */
+    private final Map<String, Set<String>> counters = new ConcurrentHashMap<>();
+
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public Pipeline pipelined() {
+                    List<Runnable> commands = new ArrayList<>();
+                    return new Pipeline() {
+                        @Override
+                        public Response<Long> pfadd(String key, String... elements) {
+                            commands.add(() -> counters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).addAll(Arrays.asList(elements)));
+                            return null;
+                        }
+
+                        @Override
+                        public Response<Long> pexpire(String key, long milliseconds) {
+                            return null;
+                        }
+
+                        @Override
+                        public Response<Long> pfcount(String key) {
+                            Response<Long> response = new Response<>(new Builder<Long>() {
+                                @Override
+                                public Long build(Object data) {
+                                    return (Long) data;
+                                }
+                            });
+                            commands.add(() -> response.set((long) counters.getOrDefault(key, Collections.emptySet()).size()));
+                            return response;
+                        }
+
+                        @Override
+                        public void sync() {
+                            commands.forEach(Runnable::run);
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    private final RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+
+    private final CardinalityGuard guard = new CardinalityGuard(jedisPool, redisLimiterProperties, new KeyEncoder("limiter", false));
+
+    @Before
+    public void setUp() {
+        redisLimiterProperties.setMaxKeyCardinality(3);
+        redisLimiterProperties.setCardinalityCheckInterval(3600000);
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        guard.setApplicationContext(applicationContext);
+        guard.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        guard.destroy();
+    }
+
+    private void see(String limiter, int values) {
+        for (int i = 0; i < values; i++) {
+            assertEquals("user" + i, guard.guard(limiter, "user" + i));
+        }
+    }
+
+    @Test
+    public void limitersWithinTheThresholdPassUnnoticed() {
+        see("OrderController:list", 3);
+        see("OrderController:list", 3);
+        guard.check();
+        assertTrue(guard.getExceeded().isEmpty());
+        assertEquals("user0", guard.guard("OrderController:list", "user0"));
+    }
+
+    @Test
+    public void exceedingLimitersAreReportedButKeepTheirKeys() {
+        see("OrderController:list", 4);
+        see("OrderController:get", 2);
+        guard.check();
+        assertEquals(Collections.singleton("OrderController:list"), guard.getExceeded());
+        assertEquals("user9", guard.guard("OrderController:list", "user9"));
+    }
+
+    @Test
+    public void collapsedLimitersShareOneKeyUntilTheyFallBackBelow() {
+        redisLimiterProperties.setCollapseExceedingKeys(true);
+        see("OrderController:list", 4);
+        see("OrderController:get", 2);
+        guard.check();
+        assertEquals(CardinalityGuard.COLLAPSED_BASE_VALUE, guard.guard("OrderController:list", "user0"));
+        assertEquals(CardinalityGuard.COLLAPSED_BASE_VALUE, guard.guard("OrderController:list", "anyone"));
+        assertEquals("user0", guard.guard("OrderController:get", "user0"));
+        // a new day starts with empty counters
+        counters.clear();
+        guard.check();
+        assertFalse(guard.getExceeded().contains("OrderController:list"));
+        assertEquals("user0", guard.guard("OrderController:list", "user0"));
+    }
+
+    @Test
+    public void disabledGuardCountsNothing() {
+        redisLimiterProperties.setMaxKeyCardinality(0);
+        see("OrderController:list", 10);
+        guard.check();
+        assertTrue(counters.isEmpty());
+    }
+}
@@ -0,0 +1,68 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KeyEncoderTest {
+
+    @Test
+    public void plainKeysKeepPathAndBaseValue() {
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+        assertEquals("limiter:app:/orders:alice", keyEncoder.encode("app", "/orders", "alice"));
+        assertEquals("limiter:app:/orders:", keyEncoder.encode("app", "/orders", ""));
+    }
+
+    @Test
+    public void digestedKeysHaveFixedSize() {
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", true);
+        String key = keyEncoder.encode("app", "/orders", "alice");
+        assertTrue(key.startsWith("limiter:app:"));
+        assertEquals("limiter:app:".length() + 22, key.length());
+        StringBuilder longBaseVal = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longBaseVal.append('x');
+        }
+        assertEquals(key.length(), keyEncoder.encode("app", "/orders", longBaseVal.toString()).length());
+    }
+
+    @Test
+    public void digestedKeysAreStableAndDistinct() {
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", true);
+        assertEquals(keyEncoder.encode("app", "/orders", "alice"), new KeyEncoder("limiter", true).encode("app", "/orders", "alice"));
+        assertEquals(keyEncoder.encode("app", "/orders", "alice"), keyEncoder.encode("app", "/orders:alice"));
+        assertNotEquals(keyEncoder.encode("app", "/orders", "alice"), keyEncoder.encode("app", "/orders", "bob"));
+        assertNotEquals(keyEncoder.encode("app", "/orders", "alice"), keyEncoder.encode("other", "/orders", "alice"));
+    }
+
+    @Test
+    public void patternsOfPlainKeys() {
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+        String prefix = keyEncoder.encode("app", "");
+        assertEquals(prefix + "*", keyEncoder.pattern("app", null, null));
+        assertEquals(prefix + "/orders:*:*", keyEncoder.pattern("app", "/orders", null));
+        assertEquals(prefix + "*:alice:*", keyEncoder.pattern("app", null, "alice"));
+        assertEquals(prefix + "/orders/*:a*:*", keyEncoder.pattern("app", "/orders/*", "a*"));
+    }
+
+    @Test
+    public void patternsOfDigestedKeys() {
+        KeyEncoder keyEncoder = new KeyEncoder("limiter", true);
+        assertEquals(keyEncoder.pattern("app", null, null), new KeyEncoder("limiter", false).pattern("app", null, null));
+        String pattern = keyEncoder.pattern("app", "/orders", "alice");
+        assertEquals(keyEncoder.encode("app", "/orders", "alice") + ":*", pattern);
+        assertTrue(pattern.startsWith(keyEncoder.pattern("app", null, null).replace("*", "")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void digestedKeysNeedPathAndBaseValue() {
+        new KeyEncoder("limiter", true).pattern("app", "/orders", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void digestedKeysNeedPathWithBaseValue() {
+        new KeyEncoder("limiter", true).pattern("app", null, "alice");
+    }
+}
@@ -0,0 +1,120 @@
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class LimiterKeyScannerTest {
+
+    private final List<String> keyspace = new ArrayList<>();
+
+    private final Set<String> unlinked = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger scans = new AtomicInteger();
+
+    /**
+     * scans {@link #keyspace} in batches of 10, ignoring the match pattern, and unlinks into {@link #unlinked}
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public ScanResult<String> scan(String cursor, ScanParams params) {
+                    scans.incrementAndGet();
+                    int from = Integer.parseInt(cursor);
+                    int to = Math.min(keyspace.size(), from + 10);
+                    List<String> keys = new ArrayList<>();
+                    for (String key : keyspace.subList(from, to)) {
+                        if (!unlinked.contains(key)) {
+                            keys.add(key);
+                        }
+                    }
+                    return new ScanResult<>(to == keyspace.size() ? "0" : String.valueOf(to), keys);
+                }
+
+                @Override
+                public Pipeline pipelined() {
+                    List<Runnable> commands = new ArrayList<>();
+                    return new Pipeline() {
+                        @Override
+                        public Response<Object> eval(byte[] script, List<byte[]> keys, List<byte[]> args) {
+                            Response<Object> response = new Response<>(new Builder<Object>() {
+                                @Override
+                                public Object build(Object data) {
+                                    return data;
+                                }
+                            });
+                            commands.add(() -> {
+                                long deleted = 0;
+                                for (byte[] key : keys) {
+                                    deleted += unlinked.add(SafeEncoder.encode(key)) ? 1 : 0;
+                                }
+                                response.set(deleted);
+                            });
+                            return response;
+                        }
+
+                        @Override
+                        public void sync() {
+                            commands.forEach(Runnable::run);
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    private LimiterKeyScanner scanner;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 25; i++) {
+            keyspace.add("limiter:app:/orders:" + i + ":1700000000");
+        }
+        RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+        redisLimiterProperties.setKeyScanBatch(10);
+        redisLimiterProperties.setKeyScanRate(1000000);
+        scanner = new LimiterKeyScanner(jedisPool, redisLimiterProperties);
+    }
+
+    @Test
+    public void listStopsAtTheLimit() {
+        List<String> keys = scanner.list("limiter:app:*", 12);
+        assertEquals(keyspace.subList(0, 12), keys);
+        assertEquals(2, scans.get());
+    }
+
+    @Test
+    public void countWalksAllKeys() {
+        assertEquals(25, scanner.count("limiter:app:*"));
+        assertEquals(3, scans.get());
+    }
+
+    @Test
+    public void resetDeletesInTheBackground() throws Exception {
+        assertEquals(Long.valueOf(25), scanner.resetAsync("limiter:app:*").get());
+        assertEquals(25, unlinked.size());
+        assertEquals(0, scanner.count("limiter:app:*"));
+    }
+}
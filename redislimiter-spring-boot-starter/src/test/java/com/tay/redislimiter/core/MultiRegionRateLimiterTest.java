@@ -0,0 +1,50 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiRegionRateLimiterTest {
+
+    private final List<Integer> peekedKeys = new ArrayList<>();
+
+    /**
+     * answers each counter with the number its limiter key starts with
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            List<String> keys = callAt.apply(Arrays.asList("1700000000", "5")).getKeys();
+            peekedKeys.add(keys.size() - 1);
+            List<Long> used = new ArrayList<>();
+            for (String key : keys.subList(0, keys.size() - 1)) {
+                used.add(Long.parseLong(key.substring(0, key.indexOf(':'))));
+            }
+            return used;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    @Test
+    public void peeksInBatches() {
+        MultiRegionRateLimiter limiter = new MultiRegionRateLimiter(executor, "eu", "dirty");
+        List<RateLimitLevel> limits = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            limits.add(new RateLimitLevel(String.valueOf(i), TimeUnit.MINUTES, 10));
+        }
+        long[] used = limiter.peek(limits);
+        assertEquals(Arrays.asList(1000, 1000, 500), peekedKeys);
+        for (int i = 0; i < used.length; i++) {
+            assertEquals(i, used[i]);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.tay.redislimiter.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PermitWaitQueueTest {
+
+    private final PermitWaitQueue permitWaitQueue = new PermitWaitQueue(2);
+
+    private final List<String> outcomes = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch done = new CountDownLatch(2);
+
+    private PermitWaitQueue.Waiter offer(String name, long delayMicros, long waitMillis, LongSupplier retry) {
+        return permitWaitQueue.offer("k", delayMicros, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis), retry,
+                () -> {
+                    outcomes.add(name + " granted");
+                    done.countDown();
+                },
+                () -> {
+                    outcomes.add(name + " rejected");
+                    done.countDown();
+                });
+    }
+
+    @After
+    public void tearDown() {
+        permitWaitQueue.shutdown();
+    }
+
+    @Test
+    public void servesWaitersOfAKeyInOrder() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        // the first waiter needs a second attempt, the second must not overtake it
+        offer("first", 1000, 5000, () -> attempts.incrementAndGet() == 1 ? 20000 : 0);
+        offer("second", 0, 5000, () -> 0);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals("first granted", outcomes.get(0));
+        assertEquals("second granted", outcomes.get(1));
+        assertEquals(0, permitWaitQueue.getWaiters());
+    }
+
+    @Test
+    public void rejectsWaitersThatWouldMissTheirDeadline() throws Exception {
+        offer("late", 1000, 50, () -> TimeUnit.SECONDS.toMicros(10));
+        offer("never", 1000, 5000, () -> -1);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("late rejected", outcomes.get(0));
+        assertEquals("never rejected", outcomes.get(1));
+    }
+
+    @Test
+    public void refusesWaitersBeyondTheMaximum() {
+        assertNotNull(offer("first", TimeUnit.SECONDS.toMicros(10), 20000, () -> 0));
+        PermitWaitQueue.Waiter second = offer("second", TimeUnit.SECONDS.toMicros(10), 20000, () -> 0);
+        assertNotNull(second);
+        assertNull(offer("third", 0, 20000, () -> 0));
+        second.cancel();
+        assertEquals("second rejected", outcomes.get(0));
+        assertEquals(1, permitWaitQueue.getWaiters());
+    }
+
+    @Test
+    public void rejectsWaitersWhoseRetryFails() throws Exception {
+        offer("failing", 1000, 5000, () -> {
+            throw new IllegalStateException("redis down");
+        });
+        offer("next", 0, 5000, () -> 0);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("failing rejected", outcomes.get(0));
+        assertEquals("next granted", outcomes.get(1));
+    }
+}
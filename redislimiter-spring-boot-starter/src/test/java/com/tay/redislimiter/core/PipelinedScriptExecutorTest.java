@@ -0,0 +1,225 @@
+package com.tay.redislimiter.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedScriptExecutorTest {
+
+    private FakeRedis redis;
+
+    private PipelinedScriptExecutor executor;
+
+    @Before
+    public void setUp() throws IOException {
+        redis = new FakeRedis();
+        executor = new PipelinedScriptExecutor("127.0.0.1", redis.getPort(), 2000, null, 1, 60000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        redis.close();
+    }
+
+    private Object eval(RedisScript script, String key) {
+        return executor.eval(script, time -> new ScriptCall(Collections.singletonList(key), time));
+    }
+
+    @Test
+    public void loadsScriptsOnNoScript() {
+        RedisScript script = new RedisScript("return KEYS[1]");
+        assertEquals(1L, eval(script, "1"));
+        assertEquals(2L, eval(script, "2"));
+        assertEquals(1, redis.evals.get());
+        assertEquals(2, redis.evalshas.get());
+    }
+
+    @Test
+    public void completesConcurrentCallersInReplyOrder() throws Exception {
+        RedisScript script = new RedisScript("return KEYS[1]");
+        eval(script, "0");
+        int callers = 64;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            String key = String.valueOf(i);
+            results.add(pool.submit(() -> {
+                start.await();
+                return eval(script, key);
+            }));
+        }
+        start.countDown();
+        for (int i = 0; i < callers; i++) {
+            assertEquals((long) i, results.get(i).get());
+        }
+        pool.shutdown();
+        assertEquals(1, redis.connections.get());
+        assertTrue("clock read once, not per call", redis.times.get() <= 2);
+    }
+
+    @Test
+    public void handsOutIncreasingTimes() {
+        RedisScript script = new RedisScript("return KEYS[1]");
+        long last = 0;
+        for (int i = 0; i < 100; i++) {
+            eval(script, "0");
+            List<String> time = redis.lastArgs;
+            long micros = Long.parseLong(time.get(0)) * 1000000 + Long.parseLong(time.get(1));
+            assertTrue(micros > last);
+            last = micros;
+        }
+    }
+
+    /**
+     * Speaks just enough RESP to answer TIME, PING, EVAL and EVALSHA. Scripts reply with their first key, which must be a number.
+     */
+    private static final class FakeRedis implements Runnable {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger times = new AtomicInteger();
+        private final AtomicInteger evals = new AtomicInteger();
+        private final AtomicInteger evalshas = new AtomicInteger();
+        private volatile List<String> lastArgs;
+
+        private FakeRedis() throws IOException {
+            Thread thread = new Thread(this, "fake-redis");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(() -> serve(socket), "fake-redis-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+                List<String> command;
+                while ((command = readCommand(in)) != null) {
+                    out.write(reply(command).getBytes(StandardCharsets.UTF_8));
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // client went away
+            }
+        }
+
+        private String reply(List<String> command) {
+            String name = command.get(0).toUpperCase();
+            if ("PING".equals(name)) {
+                return "+PONG\r\n";
+            }
+            if ("TIME".equals(name)) {
+                times.incrementAndGet();
+                long micros = System.currentTimeMillis() * 1000;
+                return "*2\r\n" + bulk(String.valueOf(micros / 1000000)) + bulk(String.valueOf(micros % 1000000));
+            }
+            if ("EVALSHA".equals(name) || "EVAL".equals(name)) {
+                String sha1 = command.get(1);
+                if ("EVAL".equals(name)) {
+                    evals.incrementAndGet();
+                    sha1 = new RedisScript(command.get(1)).getSha1();
+                    loaded.add(sha1);
+                } else {
+                    evalshas.incrementAndGet();
+                    if (!loaded.contains(sha1)) {
+                        return "-NOSCRIPT No matching script. Please use EVAL.\r\n";
+                    }
+                }
+                int numKeys = Integer.parseInt(command.get(2));
+                lastArgs = new ArrayList<>(command.subList(3 + numKeys, command.size()));
+                return ":" + command.get(3) + "\r\n";
+            }
+            return "+OK\r\n";
+        }
+
+        private static String bulk(String value) {
+            return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+        }
+
+        private static List<String> readCommand(InputStream in) throws IOException {
+            String header = readLine(in);
+            if (header == null) {
+                return null;
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine(in).substring(1));
+                byte[] value = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    int n = in.read(value, read, length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+                readLine(in);
+                command.add(new String(value, StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuotaLimiterTest {
+
+    private final ZoneId zone = ZoneOffset.UTC;
+
+    private long redisSeconds = System.currentTimeMillis() / 1000;
+
+    private final Map<String, Long> counters = new HashMap<>();
+
+    /**
+     * applies the quota script to {@link #counters}
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList(String.valueOf(redisSeconds), "0"));
+            String key = call.getKeys().get(0);
+            long added = Long.parseLong(call.getArgs().get(0));
+            long cost = Long.parseLong(call.getArgs().get(1));
+            long used = counters.getOrDefault(key, 0L);
+            boolean allowed = used + added + cost <= Long.parseLong(call.getArgs().get(2));
+            used += allowed ? added + cost : added;
+            counters.put(key, used);
+            return Arrays.asList(allowed ? 1L : 0L, used);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    @Test
+    public void pendingPermitsCountInTheWindowTheyWereAdmittedIn() {
+        QuotaLimiter limiter = new QuotaLimiter(executor, zone, 10, 3600000);
+        String today = "k:quota:" + Instant.ofEpochSecond(redisSeconds).atZone(zone).toLocalDate();
+        assertTrue(limiter.acquire("k", QuotaPeriod.DAY, 1000, 1).isAllowed());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.acquire("k", QuotaPeriod.DAY, 1000, 1).isAllowed());
+        }
+        assertEquals(Long.valueOf(1), counters.get(today));
+        redisSeconds += 86400;
+        limiter.flush();
+        assertEquals(Long.valueOf(4), counters.get(today));
+        assertEquals(1, counters.size());
+        limiter.shutdown();
+    }
+}
@@ -0,0 +1,35 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuotaPeriodTest {
+
+    private final ZoneId zone = ZoneId.of("Europe/Berlin");
+
+    private ZonedDateTime time(String localDateTime) {
+        return ZonedDateTime.of(LocalDateTime.parse(localDateTime), zone);
+    }
+
+    @Test
+    public void windowsStartAtMidnight() {
+        ZonedDateTime now = time("2024-02-29T13:45:00");
+        assertEquals(time("2024-02-29T00:00:00"), QuotaPeriod.DAY.start(now));
+        assertEquals(time("2024-02-26T00:00:00"), QuotaPeriod.WEEK.start(now));
+        assertEquals(time("2024-02-01T00:00:00"), QuotaPeriod.MONTH.start(now));
+    }
+
+    @Test
+    public void nextWindowFollowsTheCalendar() {
+        assertEquals(time("2024-03-01T00:00:00"), QuotaPeriod.MONTH.next(time("2024-02-01T00:00:00")));
+        assertEquals(time("2024-03-04T00:00:00"), QuotaPeriod.WEEK.next(time("2024-02-26T00:00:00")));
+        // the day the clocks go forward has 23 hours
+        ZonedDateTime start = time("2024-03-31T00:00:00");
+        assertEquals(23 * 3600, QuotaPeriod.DAY.next(start).toEpochSecond() - start.toEpochSecond());
+    }
+}
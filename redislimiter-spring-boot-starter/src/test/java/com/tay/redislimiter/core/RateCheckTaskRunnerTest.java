@@ -0,0 +1,105 @@
+package com.tay.redislimiter.core;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateCheckTaskRunnerTest {
+
+    private final List<String> keys = Collections.synchronizedList(new ArrayList<>());
+
+    private Function<ScriptCall, Object> reply;
+
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList("1700000000", "5"));
+            keys.add(call.getKeys().get(0));
+            return reply.apply(call);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private RateCheckTaskRunner rateCheckTaskRunner;
+
+    private RateCheckTaskRunner runner(SampledRateLimiter sampledRateLimiter) {
+        rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor), new RedisLimiterProperties(),
+                null, sampledRateLimiter, null, new QuotaLimiter(executor, ZoneOffset.UTC, 1, 1000));
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        return rateCheckTaskRunner;
+    }
+
+    @After
+    public void tearDown() {
+        rateCheckTaskRunner.shutdown();
+    }
+
+    private static int stripeOf(String key) {
+        return Integer.parseInt(key.substring(key.indexOf(":s") + 2, key.lastIndexOf(':')));
+    }
+
+    @Test
+    public void everyStripeHasPermits() {
+        rateCheckTaskRunner = runner(null);
+        for (int permits : new int[]{1, 2, 7, 10, 1000}) {
+            for (int stripes : new int[]{1, 3, 4, 8}) {
+                int stripeCount = RateCheckTaskRunner.stripeCount(permits, stripes);
+                assertEquals(Math.min(permits, stripes), stripeCount);
+                int total = 0;
+                for (int stripe = 0; stripe < stripeCount; stripe++) {
+                    int stripePermits = RateCheckTaskRunner.stripePermits(permits, stripeCount, stripe);
+                    assertTrue(stripePermits >= permits / stripeCount && stripePermits >= 1);
+                    total += stripePermits;
+                }
+                assertEquals(permits, total);
+            }
+        }
+    }
+
+    @Test
+    public void deniedStripeBorrowsFromTheNext() {
+        // the first stripe tried denies, the second allows
+        reply = call -> keys.size() == 1 ? 1000L : 0L;
+        assertTrue(runner(null).checkRunStriped("k", TimeUnit.SECONDS, 1000, 4, 1));
+        assertEquals(2, keys.size());
+        assertEquals((stripeOf(keys.get(0)) + 1) % 4, stripeOf(keys.get(1)));
+    }
+
+    @Test
+    public void stripesAreSampled() {
+        reply = call -> Arrays.asList(1L, 1L);
+        RedisRateLimiterFactory redisRateLimiterFactory = new RedisRateLimiterFactory(executor);
+        RateCheckTaskRunner runner = runner(new SampledRateLimiter(redisRateLimiterFactory, 0.1, 100, 3600000));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(runner.checkRunStriped("k", TimeUnit.SECONDS, 1000, 4, 1));
+        }
+        assertEquals(1, keys.size());
+        assertTrue(keys.get(0).startsWith("k:s"));
+    }
+
+    @Test
+    public void peekSumsTheStripes() {
+        reply = call -> Collections.nCopies(call.getKeys().size() / 2, 3L);
+        long[] used = runner(null).peekStriped(Arrays.asList(new RateLimitLevel("a", TimeUnit.MINUTES, 1000),
+                new RateLimitLevel("b", TimeUnit.MINUTES, 2)), 4);
+        assertArrayEquals(new long[]{12, 6}, used);
+    }
+}
@@ -0,0 +1,163 @@
+package com.tay.redislimiter.core;
+
+import org.junit.After;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RedisConcurrencyLimiterTest {
+
+    private final AtomicLong clockMillis = new AtomicLong(1700000000000L);
+
+    /**
+     * slot key -> lease id -> expiry(MILLISECONDS)
+     */
+    private final Map<String, Map<String, Long>> slots = new ConcurrentHashMap<>();
+
+    private final AtomicInteger acquireCalls = new AtomicInteger();
+
+    /**
+     * runs the acquire and renew scripts against the slot map
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public List<String> time() {
+                    long micros = clockMillis.get() * 1000;
+                    return Arrays.asList(String.valueOf(micros / 1000000), String.valueOf(micros % 1000000));
+                }
+
+                @Override
+                public Object eval(String script, List<String> keys, List<String> args) {
+                    Map<String, Long> leases = slots.computeIfAbsent(keys.get(0), k -> new ConcurrentHashMap<>());
+                    long now = Long.parseLong(args.get(0));
+                    leases.values().removeIf(expireAt -> expireAt <= now);
+                    if (script.contains("granted")) {
+                        acquireCalls.incrementAndGet();
+                        long granted = Math.max(0, Math.min(Long.parseLong(args.get(2)) - leases.size(), Long.parseLong(args.get(3))));
+                        for (int i = 1; i <= granted; i++) {
+                            leases.put(args.get(4) + ":" + i, Long.parseLong(args.get(1)));
+                        }
+                        return granted;
+                    }
+                    List<String> missing = new ArrayList<>();
+                    for (String leaseId : args.subList(3, args.size())) {
+                        if (leases.replace(leaseId, Long.parseLong(args.get(1))) == null) {
+                            missing.add(leaseId);
+                        }
+                    }
+                    return missing;
+                }
+
+                @Override
+                public Long zrem(String key, String... members) {
+                    Map<String, Long> leases = slots.get(key);
+                    long removed = 0;
+                    for (String member : members) {
+                        if (leases != null && leases.remove(member) != null) {
+                            removed++;
+                        }
+                    }
+                    return removed;
+                }
+            };
+        }
+    };
+
+    private final List<RedisConcurrencyLimiter> limiters = new ArrayList<>();
+
+    private RedisConcurrencyLimiter limiter(int reserveBatch) {
+        RedisConcurrencyLimiter limiter = new RedisConcurrencyLimiter(jedisPool, reserveBatch, 3600000);
+        limiters.add(limiter);
+        return limiter;
+    }
+
+    private int held(String key) {
+        Map<String, Long> leases = slots.get(key);
+        return leases == null ? 0 : leases.size();
+    }
+
+    private void awaitHeld(String key, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (held(key) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, held(key));
+    }
+
+    @After
+    public void tearDown() {
+        for (RedisConcurrencyLimiter limiter : limiters) {
+            limiter.shutdown();
+        }
+    }
+
+    @Test
+    public void releasedSlotsCanBeAcquiredAgain() throws Exception {
+        RedisConcurrencyLimiter limiter = limiter(1);
+        ConcurrencyLease first = limiter.acquire("k", 2, 60);
+        ConcurrencyLease second = limiter.acquire("k", 2, 60);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(limiter.acquire("k", 2, 60));
+        first.release();
+        // without a reserve batch the slot goes back to Redis
+        awaitHeld("k", 1);
+        assertNotNull(limiter.acquire("k", 2, 60));
+        assertEquals(2, held("k"));
+    }
+
+    @Test
+    public void expiredLeasesAreReclaimed() {
+        RedisConcurrencyLimiter crashed = limiter(1);
+        assertNotNull(crashed.acquire("k", 1, 10));
+        RedisConcurrencyLimiter other = limiter(1);
+        assertNull(other.acquire("k", 1, 10));
+        clockMillis.addAndGet(10001);
+        assertNotNull(other.acquire("k", 1, 10));
+        assertEquals(1, held("k"));
+    }
+
+    @Test
+    public void reservesSlotsInBatchesAndHandsThemOutLocally() throws Exception {
+        RedisConcurrencyLimiter limiter = limiter(4);
+        List<ConcurrencyLease> leases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            leases.add(limiter.acquire("k", 10, 60));
+        }
+        assertEquals(1, acquireCalls.get());
+        assertEquals(4, held("k"));
+        for (ConcurrencyLease lease : leases) {
+            lease.release();
+        }
+        // up to a batch less one stays idle on the node, the rest goes back
+        awaitHeld("k", 3);
+        assertNotNull(limiter.acquire("k", 10, 60));
+        assertEquals(1, acquireCalls.get());
+    }
+
+    @Test
+    public void shutdownGivesBackHeldAndIdleSlots() {
+        RedisConcurrencyLimiter limiter = limiter(5);
+        assertNotNull(limiter.acquire("k", 10, 60));
+        assertNotNull(limiter.acquire("other", 10, 60));
+        assertEquals(5, held("k"));
+        limiter.shutdown();
+        assertEquals(0, held("k"));
+        assertEquals(0, held("other"));
+    }
+}
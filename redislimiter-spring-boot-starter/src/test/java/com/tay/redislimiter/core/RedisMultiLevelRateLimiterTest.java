@@ -0,0 +1,54 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedisMultiLevelRateLimiterTest {
+
+    private ScriptCall lastCall;
+
+    private Object reply;
+
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            lastCall = callAt.apply(Arrays.asList("1700000000", "5"));
+            return reply;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final RedisMultiLevelRateLimiter limiter = new RedisRateLimiterFactory(executor).getMultiLevel();
+
+    @Test
+    public void levelsOnTheSameKeyAreCheckedOnce() {
+        reply = 2L;
+        int denied = limiter.acquire(Arrays.asList(
+                new RateLimitLevel("app:/orders:alice", TimeUnit.SECONDS, 10),
+                new RateLimitLevel("app:/orders:", TimeUnit.SECONDS, 100),
+                new RateLimitLevel("app:/orders:alice", TimeUnit.SECONDS, 5)), 1);
+        assertEquals("2", lastCall.getArgs().get(0));
+        assertEquals("5", lastCall.getArgs().get(4));
+        assertEquals(4, lastCall.getKeys().size());
+        assertEquals(2, denied);
+    }
+
+    @Test
+    public void deniedLevelMapsBackToTheStrictestDuplicate() {
+        reply = 1L;
+        int denied = limiter.acquire(Arrays.asList(
+                new RateLimitLevel("app:/orders:alice", TimeUnit.MINUTES, 10),
+                new RateLimitLevel("app:/orders:alice", TimeUnit.MINUTES, 5)), 1);
+        assertEquals(2, denied);
+        assertEquals("1", lastCall.getArgs().get(0));
+    }
+}
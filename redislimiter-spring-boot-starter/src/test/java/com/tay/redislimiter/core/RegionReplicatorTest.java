@@ -0,0 +1,125 @@
+package com.tay.redislimiter.core;
+
+import org.junit.After;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RegionReplicatorTest {
+
+    private List<Object> drained = Collections.emptyList();
+
+    private final Set<String> down = new HashSet<>();
+
+    /**
+     * per region, the fields of region eu merged into it
+     */
+    private final Map<String, Map<String, Long>> remoteCounts = new HashMap<>();
+
+    private final List<Integer> mergeSizes = new ArrayList<>();
+
+    private final RedisScriptExecutor localExecutor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            callAt.apply(Arrays.asList("1700000000", "5"));
+            return drained;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final RegionReplicator replicator = new RegionReplicator(localExecutor,
+            new MultiRegionRateLimiter(localExecutor, "eu", "app:#changed:eu"), remotePools("us", "ap"), 3600000);
+
+    @After
+    public void tearDown() {
+        replicator.shutdown();
+    }
+
+    private Map<String, JedisPool> remotePools(String... regions) {
+        Map<String, JedisPool> pools = new LinkedHashMap<>();
+        for (String region : regions) {
+            remoteCounts.put(region, new HashMap<>());
+            pools.put(region, new JedisPool() {
+                @Override
+                public Jedis getResource() {
+                    if (down.contains(region)) {
+                        throw new JedisConnectionException("region " + region + " is down");
+                    }
+                    return new Jedis() {
+                        @Override
+                        public Object evalsha(String sha1, List<String> keys, List<String> args) {
+                            assertEquals("eu", args.get(0));
+                            assertEquals(keys.size() * 2 + 1, args.size());
+                            mergeSizes.add(keys.size());
+                            for (int i = 0; i < keys.size(); i++) {
+                                remoteCounts.get(region).merge(keys.get(i), Long.parseLong(args.get(2 * i + 1)), Math::max);
+                            }
+                            return 0L;
+                        }
+                    };
+                }
+            });
+        }
+        return pools;
+    }
+
+    @Test
+    public void unreachableRegionGetsTheLatestCountsLater() {
+        down.add("us");
+        drained = Arrays.asList("k:g:1", "5", "60000");
+        replicator.replicate();
+        assertEquals(Long.valueOf(5), remoteCounts.get("ap").get("k:g:1"));
+        assertTrue(remoteCounts.get("us").isEmpty());
+
+        drained = Arrays.asList("k:g:1", "8", "60000", "k:g:2", "2", "60000");
+        replicator.replicate();
+        down.clear();
+        drained = Collections.emptyList();
+        replicator.replicate();
+        assertEquals(Long.valueOf(8), remoteCounts.get("us").get("k:g:1"));
+        assertEquals(Long.valueOf(2), remoteCounts.get("us").get("k:g:2"));
+        assertEquals(Long.valueOf(8), remoteCounts.get("ap").get("k:g:1"));
+    }
+
+    @Test
+    public void expiredCountsAreNotSent() throws InterruptedException {
+        down.add("us");
+        drained = Arrays.asList("k:g:1", "5", "1");
+        replicator.replicate();
+        Thread.sleep(10);
+        down.clear();
+        drained = Collections.emptyList();
+        replicator.replicate();
+        assertTrue(remoteCounts.get("us").isEmpty());
+    }
+
+    @Test
+    public void countsAreMergedInBatches() {
+        List<Object> changed = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            changed.addAll(Arrays.asList("k:g:" + i, "1", "60000"));
+        }
+        drained = changed;
+        replicator.replicate();
+        assertEquals(Arrays.asList(500, 500, 200, 500, 500, 200), mergeSizes);
+        assertEquals(1200, remoteCounts.get("us").size());
+    }
+}
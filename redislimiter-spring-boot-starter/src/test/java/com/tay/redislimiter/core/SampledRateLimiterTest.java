@@ -0,0 +1,83 @@
+package com.tay.redislimiter.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampledRateLimiterTest {
+
+    private long counter;
+
+    /**
+     * applies the sampled second script to {@link #counter}
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            List<String> args = callAt.apply(Arrays.asList("1700000000", "5")).getArgs();
+            counter += Long.parseLong(args.get(2));
+            if (counter > Long.parseLong(args.get(1))) {
+                counter -= Long.parseLong(args.get(3));
+                return Arrays.asList(0L, counter);
+            }
+            return Arrays.asList(1L, counter);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private SampledRateLimiter limiter(double samplingFraction) {
+        return new SampledRateLimiter(new RedisRateLimiterFactory(executor), samplingFraction, 100, 0);
+    }
+
+    @Test
+    public void locallyAdmittedPermitsAreFlushed() {
+        SampledRateLimiter limiter = limiter(0.1);
+        assertFalse(limiter.admitLocally("k", 1));
+        assertTrue(limiter.check("k", 1000, 1));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.admitLocally("k", 1));
+        }
+        assertEquals(10, limiter.pending("k"));
+        limiter.flush();
+        assertEquals(11, counter);
+        assertEquals(0, limiter.pending("k"));
+    }
+
+    @Test
+    public void flushAdaptsTheSampleSize() {
+        SampledRateLimiter limiter = limiter(0.5);
+        limiter.admitLocally("k", 1);
+        limiter.check("k", 100, 1);
+        for (int i = 0; i < 40; i++) {
+            assertTrue(limiter.admitLocally("k", 1));
+        }
+        limiter.flush();
+        assertEquals(41, counter);
+        // (100 - 41) * 0.5 permits until the next sampled check
+        for (int i = 0; i < 28; i++) {
+            assertTrue(limiter.admitLocally("k", 1));
+        }
+        assertFalse(limiter.admitLocally("k", 1));
+    }
+
+    @Test
+    public void exceededFlushFallsBackToExactChecking() {
+        SampledRateLimiter limiter = limiter(1);
+        limiter.admitLocally("k", 1);
+        limiter.check("k", 10, 1);
+        assertTrue(limiter.admitLocally("k", 1));
+        counter += 20;
+        limiter.flush();
+        assertEquals(22, counter);
+        assertFalse(limiter.admitLocally("k", 1));
+    }
+}
@@ -0,0 +1,156 @@
+package com.tay.redislimiter.dynamic;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLimitControllerTest {
+
+    private final Set<String> locks = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, String> totals = new HashMap<>();
+
+    private final List<String> published = new ArrayList<>();
+
+    /**
+     * SET NX over a key set, one stats hash, and recorded publishes
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public String set(String key, String value, String nxxx, String expx, long time) {
+                    return locks.add(key) ? "OK" : null;
+                }
+
+                @Override
+                public Map<String, String> hgetAll(String key) {
+                    return totals;
+                }
+
+                @Override
+                public Long publish(String channel, String message) {
+                    published.add(message);
+                    return 1L;
+                }
+            };
+        }
+    };
+
+    private final RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+
+    private final AdaptiveLimitController controller = new AdaptiveLimitController(jedisPool, redisLimiterProperties, null);
+
+    @Before
+    public void setUp() {
+        redisLimiterProperties.setAdaptiveInterval(3600000);
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        controller.setApplicationContext(applicationContext);
+        controller.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    private static LimiterConfig adaptive(int permits) {
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setControllerName("OrderController");
+        limiterConfig.setMethodName("list");
+        limiterConfig.setTimeUnit("SECONDS");
+        limiterConfig.setPermits(permits);
+        limiterConfig.setAdaptive(true);
+        limiterConfig.setMinPermits(10);
+        limiterConfig.setMaxPermits(210);
+        limiterConfig.setTargetLatency(100);
+        limiterConfig.setMaxErrorRate(0.1);
+        return limiterConfig;
+    }
+
+    private static LimiterLevel level(int permits) {
+        LimiterLevel level = new LimiterLevel();
+        level.setTimeUnit("SECONDS");
+        level.setPermits(permits);
+        return level;
+    }
+
+    @Test
+    public void increasesAdditivelyWhenHealthy() {
+        assertEquals(110, controller.nextPermits(adaptive(100), 100, 0, 100 * 50));
+    }
+
+    @Test
+    public void decreasesMultiplicativelyWhenSlowOrFailing() {
+        assertEquals(75, controller.nextPermits(adaptive(100), 100, 0, 100 * 150));
+        assertEquals(75, controller.nextPermits(adaptive(100), 100, 20, 100 * 50));
+    }
+
+    @Test
+    public void staysWithinFloorAndCeiling() {
+        assertEquals(10, controller.nextPermits(adaptive(12), 100, 50, 0));
+        assertEquals(210, controller.nextPermits(adaptive(205), 100, 0, 0));
+        // too few samples to judge
+        assertEquals(100, controller.nextPermits(adaptive(100), 5, 5, 0));
+    }
+
+    @Test
+    public void scalesLevelsFromTheConfiguredPermits() {
+        LimiterConfig limiterConfig = adaptive(100);
+        limiterConfig.setLevels(Arrays.asList(level(100), level(33), level(7)));
+        ObjectMapper objectMapper = new ObjectMapper();
+        int[] steps = {75, 56, 42, 31, 23, 33, 43, 53};
+        for (int permits : steps) {
+            limiterConfig = AdaptiveLimitController.scale(objectMapper.convertValue(limiterConfig, LimiterConfig.class), permits);
+        }
+        limiterConfig = AdaptiveLimitController.scale(limiterConfig, 100);
+        assertEquals(100, limiterConfig.getLevels().get(0).getPermits());
+        assertEquals(33, limiterConfig.getLevels().get(1).getPermits());
+        assertEquals(7, limiterConfig.getLevels().get(2).getPermits());
+        limiterConfig = AdaptiveLimitController.scale(limiterConfig, 50);
+        assertEquals(17, limiterConfig.getLevels().get(1).getPermits());
+        assertEquals(4, limiterConfig.getLevels().get(2).getPermits());
+    }
+
+    @Test
+    public void onlyTheLeaderOfAWindowPublishes() throws Exception {
+        totals.put("count", "100");
+        totals.put("errors", "0");
+        totals.put("latency", "5000");
+        controller.adjust("OrderController:list", adaptive(100), 7);
+        controller.adjust("OrderController:list", adaptive(100), 7);
+        assertEquals(1, published.size());
+        assertEquals(110, new ObjectMapper().readValue(published.get(0), LimiterConfig.class).getPermits());
+        controller.adjust("OrderController:list", adaptive(100), 8);
+        assertEquals(2, published.size());
+        assertTrue(locks.iterator().next().contains(":adaptive:OrderController:list:"));
+    }
+
+    @Test
+    public void ticksCloseTheWindowAtTheNearestBoundary() {
+        assertEquals(9, AdaptiveLimitController.window(100000 - 300, 10000));
+        assertEquals(9, AdaptiveLimitController.window(100000 + 300, 10000));
+    }
+}
@@ -0,0 +1,154 @@
+package com.tay.redislimiter.dynamic;
+
+import com.tay.redislimiter.RedisLimiterProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LimitOverrideRegistryTest {
+
+    private final Map<String, String> hash = new ConcurrentHashMap<>();
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private volatile boolean failing;
+
+    /**
+     * keeps the override hash in {@link #hash}, reads fail while {@link #failing} is set
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public String hget(String key, String field) {
+                    reads.incrementAndGet();
+                    if (failing) {
+                        throw new JedisConnectionException("connection refused");
+                    }
+                    return hash.get(field);
+                }
+
+                @Override
+                public Long hset(String key, String field, String value) {
+                    hash.put(field, value);
+                    return 1L;
+                }
+
+                @Override
+                public Long hdel(String key, String... fields) {
+                    return hash.remove(fields[0]) == null ? 0L : 1L;
+                }
+
+                @Override
+                public ScanResult<Map.Entry<String, String>> hscan(String key, String cursor, ScanParams params) {
+                    return new ScanResult<>(ScanParams.SCAN_POINTER_START, Collections.emptyList());
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    private LimitOverrideRegistry registry;
+
+    @Before
+    public void setUp() {
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        registry = new LimitOverrideRegistry(jedisPool, new RedisLimiterProperties());
+        registry.setApplicationContext(applicationContext);
+        registry.afterPropertiesSet();
+    }
+
+    private static LimitOverride override(String level, String baseValue, String timeUnit, int permits) {
+        LimitOverride override = new LimitOverride();
+        override.setApplicationName("app");
+        override.setLimiter("OrderController:search");
+        override.setLevel(level);
+        override.setBaseValue(baseValue);
+        override.setTimeUnit(timeUnit);
+        override.setPermits(permits);
+        return override;
+    }
+
+    @Test
+    public void overridesAreStoredPerLevel() {
+        registry.save(override("minute", "acme|eu", "MINUTES", 5000));
+        assertEquals(Collections.singletonMap("OrderController:search|minute|acme|eu", "5000/MINUTES"), hash);
+        LimitOverride override = registry.read("OrderController:search", "minute", "acme|eu");
+        assertEquals("OrderController:search", override.getLimiter());
+        assertEquals("minute", override.getLevel());
+        assertEquals("acme|eu", override.getBaseValue());
+        assertEquals("MINUTES", override.getTimeUnit());
+        assertEquals(5000, override.getPermits());
+        assertNull(registry.read("OrderController:search", "", "acme|eu"));
+    }
+
+    @Test
+    public void invalidValuesAreIgnored() {
+        assertNull(registry.parse("OrderController:search||acme", "5000"));
+        assertNull(registry.parse("OrderController:search||acme", "5000/FORTNIGHTS"));
+        assertEquals(5, registry.parse("OrderController:search||acme", "5/SECONDS").getPermits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overridesNeedATimeUnit() {
+        registry.save(override("", "acme", null, 5000));
+    }
+
+    @Test
+    public void failedReadsAreRetried() throws Exception {
+        hash.put("OrderController:search||acme", "5000/MINUTES");
+        failing = true;
+        assertNull(registry.get("OrderController:search", null, "acme"));
+        while (reads.get() == 0) {
+            Thread.sleep(10);
+        }
+        failing = false;
+        LimitOverride override = null;
+        for (int i = 0; i < 200 && override == null; i++) {
+            Thread.sleep(10);
+            override = registry.get("OrderController:search", null, "acme");
+        }
+        assertNotNull(override);
+        assertEquals(5000, override.getPermits());
+    }
+
+    @Test
+    public void absentOverridesAreRememberedSeparately() throws Exception {
+        registry.update(override("", "acme", "MINUTES", 5000));
+        assertNull(registry.get("OrderController:search", "", "other"));
+        while (reads.get() == 0) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertNull(registry.get("OrderController:search", "", "other"));
+        assertEquals(1, reads.get());
+        assertEquals(5000, registry.get("OrderController:search", "", "acme").getPermits());
+        LimitOverride deleted = override("", "acme", null, 0);
+        deleted.setDeleted(true);
+        registry.update(deleted);
+        assertNull(registry.get("OrderController:search", "", "acme"));
+        assertEquals(1, reads.get());
+    }
+}
@@ -0,0 +1,112 @@
+package com.tay.redislimiter.dynamic;
+
+import com.tay.redislimiter.RateLimiterService;
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.allowlist.Allowlist;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.LimitStatus;
+import com.tay.redislimiter.core.QuotaLimiter;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.ScriptCall;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LimiterConfigResourceTest {
+
+    /**
+     * answers every quota with 3 used and every rate limit with 7 used
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList("1700000000", "5"));
+            if (call.getArgs().isEmpty()) {
+                return 3L;
+            }
+            return Collections.nCopies(call.getKeys().size() / 2, 7L);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor),
+            new RedisLimiterProperties(), null, null, null, new QuotaLimiter(executor, ZoneOffset.UTC, 1, 1000));
+
+    private final RateLimiterService rateLimiterService = new RateLimiterService(rateCheckTaskRunner, null, new KeyEncoder("limiter", false), 60000);
+
+    private final LimiterConfigResource resource = new LimiterConfigResource(null, new RedisLimiterProperties(), null,
+            rateLimiterService, null, new KeyEncoder("limiter", false), null);
+
+    @Before
+    public void setUp() {
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        rateLimiterService.setApplicationContext(applicationContext);
+        rateLimiterService.afterPropertiesSet();
+        resource.setApplicationContext(applicationContext);
+        resource.afterPropertiesSet();
+    }
+
+    private static StatusQuery query(String timeUnit, long permits, String... keys) {
+        StatusQuery statusQuery = new StatusQuery();
+        statusQuery.setTimeUnit(timeUnit);
+        statusQuery.setPermits(permits);
+        statusQuery.setKeys(Arrays.asList(keys));
+        return statusQuery;
+    }
+
+    @Test
+    public void reportsRateLimits() throws Exception {
+        List<LimitStatus> statuses = resource.status(query("MINUTES", 10, "a", "b"), new MockHttpServletResponse());
+        assertEquals(2, statuses.size());
+        assertEquals("b", statuses.get(1).getKey());
+        assertEquals(7, statuses.get(1).getUsed());
+        assertEquals(3, statuses.get(1).getRemaining());
+    }
+
+    @Test
+    public void reportsQuotas() throws Exception {
+        List<LimitStatus> statuses = resource.status(query("DAY", 10, "a"), new MockHttpServletResponse());
+        assertEquals(3, statuses.get(0).getUsed());
+        assertEquals(7, statuses.get(0).getRemaining());
+    }
+
+    @Test
+    public void rejectsBadQueries() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(resource.status(query("FORTNIGHT", 10, "a"), response));
+        assertEquals(400, response.getStatus());
+        response = new MockHttpServletResponse();
+        assertNull(resource.status(query("SECONDS", 0, "a"), response));
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void rejectsHeaderMarkersWithoutValue() throws Exception {
+        Allowlist allowlist = new Allowlist();
+        allowlist.setApplicationName("app");
+        allowlist.getHeaders().put("X-Health-Check", "*");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        resource.updateAllowlist(allowlist, response);
+        assertEquals(400, response.getStatus());
+    }
+}
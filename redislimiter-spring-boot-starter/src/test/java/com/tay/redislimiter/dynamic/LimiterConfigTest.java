@@ -0,0 +1,44 @@
+package com.tay.redislimiter.dynamic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class LimiterConfigTest {
+
+    private static LimiterConfig rule(String timeUnit, int permits) {
+        LimiterConfig config = new LimiterConfig();
+        config.setPattern("/orders/**");
+        config.setTimeUnit(timeUnit);
+        config.setPermits(permits);
+        return config;
+    }
+
+    @Test
+    public void acceptsSupportedLimits() {
+        rule("MINUTES", 10).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingTimeUnit() {
+        rule(null, 10).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedTimeUnit() {
+        rule("MILLISECONDS", 10).validate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checksEveryLevel() {
+        LimiterLevel user = new LimiterLevel();
+        user.setTimeUnit("SECONDS");
+        user.setPermits(5);
+        LimiterLevel tenant = new LimiterLevel();
+        tenant.setTimeUnit("WEEKS");
+        tenant.setPermits(100);
+        LimiterConfig config = rule(null, 0);
+        config.setLevels(Arrays.asList(user, tenant));
+        config.validate();
+    }
+}
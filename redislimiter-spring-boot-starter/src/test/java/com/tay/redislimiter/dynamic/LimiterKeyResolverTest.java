@@ -0,0 +1,68 @@
+package com.tay.redislimiter.dynamic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LimiterKeyResolverTest {
+
+    private final LimiterKeyResolver resolver = new LimiterKeyResolver();
+
+    private final AtomicInteger contexts = new AtomicInteger();
+
+    private LimiterKeyResolver.Resolution resolve(LimiterConfig limiterConfig) {
+        return resolver.resolve(limiterConfig, "/orders/*", () -> {
+            contexts.incrementAndGet();
+            return LimiterKeyResolver.buildContext(Collections.emptyMap(), Collections.singletonMap("X-Plan", "free"),
+                    Collections.singletonMap("tenant", "acme"), Collections.emptyMap(), 0);
+        });
+    }
+
+    @Test
+    public void constantCostSkipsTheContext() {
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setCost("5");
+        LimiterKeyResolver.Resolution resolution = resolve(limiterConfig);
+        assertEquals(5, resolution.getCost());
+        assertEquals("", resolution.getBaseVals()[0]);
+        assertEquals("/orders/*", resolution.getPaths()[0]);
+        assertNull(resolution.getPriority());
+        assertEquals(0, contexts.get());
+    }
+
+    @Test
+    public void resolvesAttributesAndPriority() {
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setBaseExp("#Attributes['tenant']");
+        limiterConfig.setPriorityExp("#Headers['X-Plan']");
+        limiterConfig.setPriorities(PriorityClass.parse(new String[]{"internal", "free:0.5"}));
+        LimiterKeyResolver.Resolution resolution = resolve(limiterConfig);
+        assertEquals(1, resolution.getCost());
+        assertEquals("acme", resolution.getBaseVals()[0]);
+        assertEquals(50, resolution.permitsOf(100));
+        assertEquals(1, contexts.get());
+    }
+
+    @Test
+    public void evaluatedCostsTakeAtLeastOnePermit() {
+        LimiterKeyResolver.Scope scope = new LimiterKeyResolver.Scope(() -> LimiterKeyResolver.buildContext(Collections.emptyMap(),
+                Collections.emptyMap(), Collections.emptyMap(), Collections.singletonMap("size", "-5"), 0));
+        assertEquals(1, resolver.cost("#Params['size']", scope));
+        assertEquals(1, resolver.cost("0 * 3", scope));
+        assertEquals(0, resolver.cost("0", scope));
+        assertEquals(7, resolver.cost("7", scope));
+    }
+
+    @Test
+    public void freeRequestsHaveNoLevels() {
+        LimiterConfig limiterConfig = new LimiterConfig();
+        limiterConfig.setCost("0");
+        limiterConfig.setLevels(Arrays.asList(new LimiterLevel(), new LimiterLevel()));
+        assertEquals(0, resolve(limiterConfig).getLevels().size());
+    }
+}
@@ -0,0 +1,123 @@
+package com.tay.redislimiter.dynamic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PatternRuleTrieTest {
+
+    private final List<PatternRule> rules = new ArrayList<>();
+
+    private void rule(String httpMethod, String pattern) {
+        LimiterConfig config = new LimiterConfig();
+        config.setHttpMethod(httpMethod);
+        config.setPattern(pattern);
+        rules.add(new PatternRule(config, new LongAdder()));
+    }
+
+    private String match(String httpMethod, String path) {
+        PatternRule rule = PatternRuleTrie.compile(rules).match(httpMethod, path);
+        return rule == null ? null : PatternRule.ruleKey(rule.getConfig().getHttpMethod(), rule.getConfig().getPattern());
+    }
+
+    @Test
+    public void literalBeatsWildcards() {
+        rule(null, "/orders/**");
+        rule(null, "/orders/*");
+        rule(null, "/orders/export");
+        assertEquals("* /orders/export", match("GET", "/orders/export"));
+        assertEquals("* /orders/*", match("GET", "/orders/42"));
+        assertEquals("* /orders/**", match("GET", "/orders/42/items"));
+        assertEquals("* /orders/**", match("GET", "/orders"));
+        assertNull(match("GET", "/users/1"));
+    }
+
+    @Test
+    public void explicitMethodBeatsAnyMethod() {
+        rule(null, "/orders/{id}");
+        rule("post", "/orders/{id}");
+        assertEquals("POST /orders/{id}", match("POST", "/orders/7"));
+        assertEquals("* /orders/{id}", match("GET", "/orders/7"));
+    }
+
+    @Test
+    public void segmentPatterns() {
+        rule(null, "/files/*.json");
+        rule(null, "/files/report-?");
+        rule(null, "/files/{name:[a-z]+}.csv");
+        assertEquals("* /files/*.json", match("GET", "/files/a.json"));
+        assertEquals("* /files/report-?", match("GET", "/files/report-1"));
+        assertNull(match("GET", "/files/report-10"));
+        assertEquals("* /files/{name:[a-z]+}.csv", match("GET", "/files/abc.csv"));
+        assertNull(match("GET", "/files/ABC.csv"));
+    }
+
+    @Test
+    public void overlappingRules() {
+        rule(null, "/orders/{id}");
+        rule("GET", "/orders/export");
+        rule("HEAD", "/orders/export.csv");
+        rule("POST", "/orders/export");
+        rule(null, "/orders/{id}/items");
+        rule(null, "/files/**");
+        assertTrue(rules.get(0).mayOverlap(rules.get(1)));
+        assertTrue(rules.get(1).mayOverlap(rules.get(2)));
+        assertFalse(rules.get(2).mayOverlap(rules.get(3)));
+        assertFalse(rules.get(0).mayOverlap(rules.get(4)));
+        assertTrue(rules.get(5).mayOverlap(rules.get(4)));
+    }
+
+    @Test
+    public void groupedOverlapsMatchPairwiseOverlaps() {
+        String[] patterns = {"/orders/{id}", "/orders/export", "/orders/export.csv", "/orders/{id}/items", "/files/**",
+                "/**", "/v1.2/orders", "/v1.2.json/orders", "/v1/orders", "/", "/orders", "/orders.json", "/users/*/orders"};
+        for (String pattern : patterns) {
+            rule(null, pattern);
+            rule("GET", pattern);
+            rule("POST", pattern);
+        }
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < rules.size(); i++) {
+            for (int j = i + 1; j < rules.size(); j++) {
+                if (rules.get(i).mayOverlap(rules.get(j))) {
+                    expected.add(i + "-" + j);
+                }
+            }
+        }
+        List<String> actual = new ArrayList<>();
+        PatternRule.forEachOverlap(rules, (rule, other) -> {
+            int i = rules.indexOf(rule);
+            int j = rules.indexOf(other);
+            actual.add(Math.min(i, j) + "-" + Math.max(i, j));
+        });
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    @Test
+    public void emptyTrieMatchesNothing() {
+        assertNull(PatternRuleTrie.EMPTY.match("GET", "/"));
+    }
+
+    @Test(timeout = 5000)
+    public void manyDoubleWildcardsStayLinear() {
+        rule(null, "/**/a/**/b/**/c/**/d/**/e/**/f/**/z");
+        rule(null, "/**/a/**/x");
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            path.append("/a/b/c/d/e/f");
+        }
+        assertNull(match("GET", path.toString()));
+        assertEquals("* /**/a/**/x", match("GET", path + "/a/x"));
+        assertEquals("* /**/a/**/b/**/c/**/d/**/e/**/f/**/z", match("GET", path + "/z"));
+    }
+}
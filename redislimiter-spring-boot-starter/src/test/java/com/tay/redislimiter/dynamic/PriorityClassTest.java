@@ -0,0 +1,25 @@
+package com.tay.redislimiter.dynamic;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PriorityClassTest {
+
+    @Test
+    public void lowerClassesGetTheUnreservedPermits() {
+        List<PriorityClass> priorities = PriorityClass.parse(new String[] {"internal", "premium:0.1", "free:0.4"});
+        assertEquals(3, priorities.size());
+        assertEquals("internal", priorities.get(0).getName());
+        assertEquals(100, priorities.get(0).permitsOf(100));
+        assertEquals(90, priorities.get(1).permitsOf(100));
+        assertEquals(60, priorities.get(2).permitsOf(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reservingAllPermitsIsRejected() {
+        PriorityClass.parse(new String[] {"free:1"});
+    }
+}
@@ -0,0 +1,137 @@
+package com.tay.redislimiter.index;
+
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LimiterIndexProcessorTest {
+
+    private static final String ORDER_CONTROLLER = "package demo.web;\n"
+            + "import com.tay.redislimiter.RateLimiter;\n"
+            + "import com.tay.redislimiter.dynamic.DynamicRateLimiter;\n"
+            + "import java.util.List;\n"
+            + "import java.util.concurrent.TimeUnit;\n"
+            + "public class OrderController {\n"
+            + "    @RateLimiter(base = \"#Headers['userid']\", path = \"/orders\\n\\u00e9\", timeUnit = TimeUnit.MINUTES, permits = 5, cost = \"2\")\n"
+            + "    public String get(String id) { return id; }\n"
+            + "    @RateLimiter(name = \"burst\", permits = 10)\n"
+            + "    @RateLimiter(name = \"daily\", timeUnit = TimeUnit.DAYS, permits = 1000)\n"
+            + "    public void create(List<String> items) { }\n"
+            + "    @DynamicRateLimiter(permits = 20, adaptive = true, maxErrorRate = Double.NaN)\n"
+            + "    public void list() { }\n"
+            + "    @DynamicRateLimiter(permits = 30, maxErrorRate = Double.POSITIVE_INFINITY)\n"
+            + "    public void export(int[] ids) { }\n"
+            + "    @DynamicRateLimiter(permits = 40, maxErrorRate = 1e-4)\n"
+            + "    public void search() { }\n"
+            + "    @DynamicRateLimiter(permits = 50)\n"
+            + "    void hidden() { }\n"
+            + "}\n";
+
+    private static final String PLAIN = "package demo;\n"
+            + "public class Plain { public static class Inner { } }\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private boolean compile(File output, boolean enabled, String... sources) throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<SimpleJavaFileObject> units = new ArrayList<>();
+        for (String source : sources) {
+            String name = source.substring(source.indexOf("public class ") + 13, source.indexOf(' ', source.indexOf("public class ") + 13));
+            units.add(new SimpleJavaFileObject(URI.create("string:///" + name + ".java"), SimpleJavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            });
+        }
+        String classPath = new File(RateLimiter.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        List<String> options = new ArrayList<>(Arrays.asList("-d", output.getPath(), "-classpath", classPath));
+        if (enabled) {
+            options.add("-A" + LimiterIndexProcessor.ENABLED_OPTION + "=true");
+        }
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, null, options, null, units);
+        task.setProcessors(Collections.singletonList(new LimiterIndexProcessor()));
+        return task.call();
+    }
+
+    @Test
+    public void generatesTheIndexOfTheCompilation() throws Exception {
+        File output = folder.newFolder();
+        assertTrue(compile(output, true, ORDER_CONTROLLER, PLAIN));
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {output.toURI().toURL()}, getClass().getClassLoader())) {
+            LimiterIndexes limiterIndexes = LimiterIndexes.load(classLoader);
+            Class<?> controller = classLoader.loadClass("demo.web.OrderController");
+            assertTrue(limiterIndexes.isIndexed(controller));
+            assertTrue(limiterIndexes.isIndexed(classLoader.loadClass("demo.Plain")));
+            assertTrue(limiterIndexes.isIndexed(classLoader.loadClass("demo.Plain$Inner")));
+
+            LimiterConfig get = limiterIndexes.getStatic(controller.getMethod("get", String.class)).getConfig();
+            assertEquals("OrderController", get.getControllerName());
+            assertEquals("#Headers['userid']", get.getBaseExp());
+            assertEquals("/orders\né", get.getPath());
+            assertEquals("MINUTES", get.getTimeUnit());
+            assertEquals(5, get.getPermits());
+            assertEquals("2", get.getCost());
+            assertNull(get.getLevels());
+
+            LimiterConfig create = limiterIndexes.getStatic(controller.getMethod("create", List.class)).getConfig();
+            assertEquals(2, create.getLevels().size());
+            assertEquals("daily", create.getLevels().get(1).getName());
+            assertEquals("DAYS", create.getLevels().get(1).getTimeUnit());
+            assertEquals(1000, create.getLevels().get(1).getPermits());
+
+            List<LimiterIndexEntry> dynamicEntries = limiterIndexes.getDynamic(controller);
+            assertEquals(3, dynamicEntries.size());
+            for (LimiterIndexEntry entry : dynamicEntries) {
+                LimiterConfig config = entry.getConfig();
+                if ("list".equals(config.getMethodName())) {
+                    assertTrue(config.isAdaptive());
+                    assertEquals(20, config.getMaxPermits());
+                    assertTrue(Double.isNaN(config.getMaxErrorRate()));
+                } else if ("export".equals(config.getMethodName())) {
+                    assertEquals(Double.POSITIVE_INFINITY, config.getMaxErrorRate(), 0);
+                } else {
+                    assertEquals("search", config.getMethodName());
+                    assertEquals(1e-4, config.getMaxErrorRate(), 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void doesNothingUnlessEnabled() throws Exception {
+        File output = folder.newFolder();
+        assertTrue(compile(output, false, ORDER_CONTROLLER, PLAIN));
+        assertFalse(new File(output, "META-INF/services/" + LimiterIndex.class.getName()).exists());
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {output.toURI().toURL()}, getClass().getClassLoader())) {
+            assertFalse(LimiterIndexes.load(classLoader).isIndexed(classLoader.loadClass("demo.web.OrderController")));
+        }
+    }
+
+    @Test
+    public void skipsCompilationsWithoutLimiters() throws Exception {
+        File output = folder.newFolder();
+        assertTrue(compile(output, true, PLAIN));
+        assertFalse(new File(output, "META-INF/services/" + LimiterIndex.class.getName()).exists());
+    }
+}
@@ -0,0 +1,64 @@
+package com.tay.redislimiter.simulator;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tay.redislimiter.dynamic.LimiterConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line launcher of the {@link AccessLogSimulator}, kept out of the starter jar.
+ * Usage: {@code AccessLogSimulatorMain <candidates.json> [<access-log.jsonl>|-] [--threads <n>] [--top <n>] [--max-keys <n>]}.
+ * Candidates are a JSON array of limiter configurations with patterns, as posted to the dynamic configuration endpoint.
+ * The log is read from standard input when omitted or "-", and gunzipped when its name ends with ".gz".
+ */
+public class AccessLogSimulatorMain {
+
+    public static void main(String[] args) throws Exception {
+        String logFile = "-";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 20;
+        int maxKeys = AccessLogSimulator.DEFAULT_MAX_KEYS;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--top".equals(args[i]) && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            } else if ("--max-keys".equals(args[i]) && i + 1 < args.length) {
+                maxKeys = Integer.parseInt(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.isEmpty() || positional.size() > 2) {
+            System.err.println("Usage: AccessLogSimulatorMain <candidates.json> [<access-log.jsonl>|-] [--threads <n>] [--top <n>] [--max-keys <n>]");
+            System.exit(2);
+        }
+        String candidatesFile = positional.get(0);
+        if (positional.size() == 2) {
+            logFile = positional.get(1);
+        }
+        List<LimiterConfig> limiterConfigs = new ObjectMapper().readValue(new File(candidatesFile), new TypeReference<List<LimiterConfig>>() {});
+        AccessLogSimulator simulator = new AccessLogSimulator(limiterConfigs, threads, Math.max(maxKeys, top));
+        InputStream in = "-".equals(logFile) ? System.in : new FileInputStream(logFile);
+        if (logFile.endsWith(".gz")) {
+            in = new GZIPInputStream(in, 1 << 16);
+        }
+        long start = System.currentTimeMillis();
+        SimulationReport report;
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            report = simulator.run(reader);
+        }
+        report.print(System.out, top);
+        System.out.printf("%nreplayed in %d ms%n", System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,71 @@
+package com.tay.redislimiter.simulator;
+
+import com.tay.redislimiter.dynamic.LimiterConfig;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccessLogSimulatorTest {
+
+    private static LimiterConfig candidate(String pattern, String baseExp, int permits) {
+        LimiterConfig config = new LimiterConfig();
+        config.setPattern(pattern);
+        config.setBaseExp(baseExp);
+        config.setTimeUnit("SECONDS");
+        config.setPermits(permits);
+        return config;
+    }
+
+    @Test
+    public void reportsDenialsPerCandidateAndKey() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            log.append("{\"timestamp\":1000,\"method\":\"GET\",\"path\":\"/orders/1?page=").append(i)
+                    .append("\",\"headers\":{\"X-User\":\"alice\"}}\n");
+            log.append("{\"timestamp\":1000,\"method\":\"GET\",\"path\":\"/orders/2\",\"headers\":{\"X-User\":\"bob\"}}\n");
+        }
+        log.append("{\"timestamp\":2000,\"method\":\"GET\",\"path\":\"/users/1\",\"headers\":{}}\n");
+        log.append("not json\n");
+        AccessLogSimulator simulator = new AccessLogSimulator(Arrays.asList(
+                candidate("/orders/*", "#Headers['X-User']", 3),
+                candidate("/orders/**", "", 8)), 3);
+
+        SimulationReport report = simulator.run(new StringReader(log.toString()));
+
+        assertEquals(12, report.getLines());
+        assertEquals(1, report.getSkipped());
+        SimulationReport.CandidateResult perUser = report.getCandidateResults().get(0);
+        assertEquals(10, perUser.getRequests());
+        assertEquals(4, perUser.getDenied());
+        assertEquals(2, perUser.getDenied("/orders/*:alice"));
+        assertEquals(2, perUser.getKeyCount());
+        SimulationReport.CandidateResult endpoint = report.getCandidateResults().get(1);
+        assertEquals(2, endpoint.getDenied());
+        assertEquals(2, endpoint.getDenied("/orders/**:"));
+    }
+
+    @Test
+    public void keepsTheKeysWithMostDenials() throws Exception {
+        StringBuilder log = new StringBuilder();
+        for (int user = 0; user < 20; user++) {
+            for (int i = 0; i < (user == 7 ? 5 : 2); i++) {
+                log.append("{\"timestamp\":1000,\"method\":\"GET\",\"path\":\"/orders/1\",\"headers\":{\"X-User\":\"u")
+                        .append(user).append("\"}}\n");
+            }
+        }
+        AccessLogSimulator simulator = new AccessLogSimulator(Collections.singletonList(
+                candidate("/orders/*", "#Headers['X-User']", 1)), 2, 3);
+
+        SimulationReport.CandidateResult result = simulator.run(new StringReader(log.toString())).getCandidateResults().get(0);
+
+        assertEquals(23, result.getDenied());
+        assertEquals(4, result.getDenied("/orders/*:u7"));
+        assertTrue(result.getKeyCount() <= 3);
+        assertTrue(result.getDroppedKeys() > 0);
+    }
+}
@@ -0,0 +1,45 @@
+package com.tay.redislimiter.simulator;
+
+import com.tay.redislimiter.core.RateLimitLevel;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InProcessRateLimiterTest {
+
+    private final InProcessRateLimiter limiter = new InProcessRateLimiter();
+
+    @Test
+    public void secondsUseFixedWindows() {
+        assertTrue(limiter.acquire("k", TimeUnit.SECONDS, 2, 1_900_000, 1));
+        assertTrue(limiter.acquire("k", TimeUnit.SECONDS, 2, 1_950_000, 1));
+        assertFalse(limiter.acquire("k", TimeUnit.SECONDS, 2, 1_999_999, 1));
+        assertTrue(limiter.acquire("k", TimeUnit.SECONDS, 2, 2_000_000, 2));
+    }
+
+    @Test
+    public void minutesSlideOverThePeriod() {
+        long minute = TimeUnit.MINUTES.toMicros(1);
+        assertTrue(limiter.acquire("k", TimeUnit.MINUTES, 2, 0, 1));
+        assertTrue(limiter.acquire("k", TimeUnit.MINUTES, 2, minute / 2, 1));
+        assertFalse(limiter.acquire("k", TimeUnit.MINUTES, 2, minute, 1));
+        assertTrue(limiter.acquire("k", TimeUnit.MINUTES, 2, minute + 1, 1));
+        assertFalse(limiter.acquire("k", TimeUnit.MINUTES, 2, minute + 2, 1));
+    }
+
+    @Test
+    public void levelsAreTakenTogether() {
+        RateLimitLevel user = new RateLimitLevel("user", TimeUnit.SECONDS, 5);
+        RateLimitLevel tenant = new RateLimitLevel("tenant", TimeUnit.SECONDS, 1);
+        assertEquals(0, limiter.acquireAll(Arrays.asList(user, tenant), 0, 1));
+        assertEquals(2, limiter.acquireAll(Arrays.asList(user, tenant), 0, 1));
+        assertEquals(0, limiter.acquireAll(Arrays.asList(user), 0, 4));
+        limiter.expire(TimeUnit.SECONDS.toMicros(1));
+        assertEquals(0, limiter.size());
+    }
+}
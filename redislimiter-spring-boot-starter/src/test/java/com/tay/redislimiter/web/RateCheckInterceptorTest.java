@@ -0,0 +1,153 @@
+package com.tay.redislimiter.web;
+
+import com.tay.redislimiter.ConcurrencyLimiter;
+import com.tay.redislimiter.Quota;
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.allowlist.AllowlistRegistry;
+import com.tay.redislimiter.core.BanList;
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.QuotaLimiter;
+import com.tay.redislimiter.core.QuotaPeriod;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisConcurrencyLimiter;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.ScriptCall;
+import com.tay.redislimiter.index.LimiterIndexes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RateCheckInterceptorTest {
+
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    private final List<ScriptCall> rateCalls = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * grants one concurrency slot, then none
+     */
+    private final JedisPool jedisPool = new JedisPool() {
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public List<String> time() {
+                    long micros = System.currentTimeMillis() * 1000;
+                    return Arrays.asList(String.valueOf(micros / 1000000), String.valueOf(micros % 1000000));
+                }
+
+                @Override
+                public Object eval(String script, List<String> keys, List<String> args) {
+                    return reserved.getAndIncrement() == 0 ? 1L : 0L;
+                }
+            };
+        }
+    };
+
+    /**
+     * denies every quota and every rate limit
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList(String.valueOf(System.currentTimeMillis() / 1000), "0"));
+            if (call.getKeys().get(0).contains("/search")) {
+                rateCalls.add(call);
+                return 1000L;
+            }
+            return Arrays.asList(0L, 10L);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+
+    private final RedisConcurrencyLimiter concurrencyLimiter = new RedisConcurrencyLimiter(jedisPool, 2, 3600000);
+
+    private final QuotaLimiter quotaLimiter = new QuotaLimiter(executor, ZoneOffset.UTC, 1, 1000);
+
+    private final RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor),
+            redisLimiterProperties, concurrencyLimiter, null, null, quotaLimiter);
+
+    private final KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+
+    private final RateCheckInterceptor interceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner,
+            null, null, null, keyEncoder, new CardinalityGuard(null, redisLimiterProperties, keyEncoder),
+            LimiterIndexes.load(getClass().getClassLoader()), new AllowlistRegistry(Collections.emptyList()),
+            new BanList(null, executor, redisLimiterProperties, keyEncoder), null);
+
+    @Before
+    public void setUp() {
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        interceptor.setApplicationContext(applicationContext);
+        interceptor.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() {
+        quotaLimiter.shutdown();
+    }
+
+    @Test
+    public void exceededQuotaReleasesTheConcurrencySlot() throws Exception {
+        HandlerMethod handler = new HandlerMethod(new LimitedController(), "export");
+        for (int i = 0; i < 3; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertFalse(interceptor.preHandle(new MockHttpServletRequest("GET", "/export"), response, handler));
+            assertEquals("X-Quota-Remaining", "0", response.getHeader("X-Quota-Remaining"));
+        }
+        // the slot reserved by the first request was reused by the others
+        assertEquals(1, reserved.get());
+    }
+
+    @Test
+    public void requestControlledCostsCannotSkipTheLimit() throws Exception {
+        HandlerMethod handler = new HandlerMethod(new LimitedController(), "search");
+        for (String size : new String[]{"0", "-5"}) {
+            MockHttpServletRequest request = new MockHttpServletRequest("GET", "/search");
+            request.setParameter("size", size);
+            assertFalse(size, interceptor.preHandle(request, new MockHttpServletResponse(), handler));
+        }
+        assertEquals(2, rateCalls.size());
+    }
+
+    static class LimitedController {
+        @RateLimiter(permits = 10, cost = "#Params['size']")
+        public void search() {
+        }
+
+        @ConcurrencyLimiter(maxConcurrency = 1)
+        @Quota(period = QuotaPeriod.DAY, permits = 10)
+        public void export() {
+        }
+    }
+}
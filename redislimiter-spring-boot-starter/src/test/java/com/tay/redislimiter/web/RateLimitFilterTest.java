@@ -0,0 +1,175 @@
+package com.tay.redislimiter.web;
+
+import com.tay.redislimiter.RateLimiter;
+import com.tay.redislimiter.RedisLimiterProperties;
+import com.tay.redislimiter.allowlist.AllowlistRegistry;
+import com.tay.redislimiter.core.BanList;
+import com.tay.redislimiter.core.CardinalityGuard;
+import com.tay.redislimiter.core.KeyEncoder;
+import com.tay.redislimiter.core.RateCheckTaskRunner;
+import com.tay.redislimiter.core.RedisRateLimiterFactory;
+import com.tay.redislimiter.core.RedisScript;
+import com.tay.redislimiter.core.RedisScriptExecutor;
+import com.tay.redislimiter.core.ScriptCall;
+import com.tay.redislimiter.index.LimiterIndexes;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitFilterTest {
+
+    private final List<String> rateKeys = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * records the key of every rate check, denying the keys of /denied
+     */
+    private final RedisScriptExecutor executor = new RedisScriptExecutor() {
+        @Override
+        public Object eval(RedisScript script, Function<List<String>, ScriptCall> callAt) {
+            ScriptCall call = callAt.apply(Arrays.asList(String.valueOf(System.currentTimeMillis() / 1000), "0"));
+            rateKeys.add(call.getKeys().get(0));
+            return call.getKeys().get(0).contains("/denied") ? 1000L : 0L;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    };
+
+    private final RedisLimiterProperties redisLimiterProperties = new RedisLimiterProperties();
+
+    private final KeyEncoder keyEncoder = new KeyEncoder("limiter", false);
+
+    private final RateCheckTaskRunner rateCheckTaskRunner = new RateCheckTaskRunner(new RedisRateLimiterFactory(executor),
+            redisLimiterProperties, null, null, null, null);
+
+    private final RateCheckInterceptor interceptor = new RateCheckInterceptor(redisLimiterProperties, rateCheckTaskRunner,
+            null, null, null, keyEncoder, new CardinalityGuard(null, redisLimiterProperties, keyEncoder),
+            LimiterIndexes.load(getClass().getClassLoader()), new AllowlistRegistry(Collections.emptyList()),
+            new BanList(null, executor, redisLimiterProperties, keyEncoder), null);
+
+    private final RateLimitFilter filter = new RateLimitFilter(redisLimiterProperties, interceptor);
+
+    private final OrderController controller = new OrderController();
+
+    private Method get;
+
+    private Method export;
+
+    private Method list;
+
+    @Before
+    public void setUp() throws Exception {
+        get = OrderController.class.getMethod("get");
+        export = OrderController.class.getMethod("export");
+        list = OrderController.class.getMethod("list");
+        RequestMappingHandlerMapping handlerMapping = new RequestMappingHandlerMapping();
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/orders/{id}").methods(RequestMethod.GET).build(), controller, get);
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/orders/export").methods(RequestMethod.GET).build(), controller, export);
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/orders").methods(RequestMethod.GET).build(), controller, list);
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/denied").build(), controller, list);
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/items").params("page").build(), controller, get);
+        handlerMapping.registerMapping(RequestMappingInfo.paths("/items").params("!page").build(), controller, list);
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Collections.singletonMap("spring.application.name", "app")));
+        applicationContext.getBeanFactory().registerSingleton("handlerMapping", handlerMapping);
+        applicationContext.refresh();
+        rateCheckTaskRunner.setApplicationContext(applicationContext);
+        interceptor.setApplicationContext(applicationContext);
+        interceptor.afterPropertiesSet();
+        filter.onApplicationEvent(new ContextRefreshedEvent(applicationContext));
+    }
+
+    private MockHttpServletRequest filter(String uri, MockFilterChain chain) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+        return request;
+    }
+
+    @Test
+    public void checksUncontestedRoutesOnceInTheFilter() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletRequest request = filter("/orders", chain);
+        assertNotNull(chain.getRequest());
+        assertEquals(list, request.getAttribute(RateLimitFilter.CHECKED_METHOD_ATTRIBUTE));
+        assertEquals(1, rateKeys.size());
+        // the interceptor sees the handler the filter checked and does not charge the request again
+        assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), new HandlerMethod(controller, list)));
+        assertEquals(1, rateKeys.size());
+    }
+
+    @Test
+    public void leavesContestedRoutesToTheInterceptor() throws Exception {
+        // /orders/export could also be served by /orders/{id}, depending on Spring MVC's precedence rules
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletRequest request = filter("/orders/export", chain);
+        assertNotNull(chain.getRequest());
+        assertNull(request.getAttribute(RateLimitFilter.CHECKED_METHOD_ATTRIBUTE));
+        assertEquals(0, rateKeys.size());
+        assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), new HandlerMethod(controller, export)));
+        assertEquals(1, rateKeys.size());
+        assertTrue(rateKeys.get(0).contains("/orders/export"));
+    }
+
+    @Test
+    public void leavesAmbiguousRoutesToTheInterceptor() throws Exception {
+        // two handlers told apart by a request parameter
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletRequest request = filter("/items", chain);
+        assertNull(request.getAttribute(RateLimitFilter.CHECKED_METHOD_ATTRIBUTE));
+        assertEquals(0, rateKeys.size());
+    }
+
+    @Test
+    public void deniedRequestsDoNotReachTheChain() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        filter("/denied", chain);
+        assertNull(chain.getRequest());
+        assertEquals(1, rateKeys.size());
+    }
+
+    @Test
+    public void unmappedRequestsOnlyGetPatternRules() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletRequest request = filter("/unknown", chain);
+        assertNotNull(chain.getRequest());
+        assertEquals(RateLimitFilter.NO_METHOD, request.getAttribute(RateLimitFilter.CHECKED_METHOD_ATTRIBUTE));
+        assertEquals(0, rateKeys.size());
+    }
+
+    public static class OrderController {
+        @RateLimiter(permits = 10)
+        public void get() {
+        }
+
+        @RateLimiter(permits = 10)
+        public void export() {
+        }
+
+        @RateLimiter(permits = 10)
+        public void list() {
+        }
+    }
+}